@@ -10,6 +10,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -56,18 +57,27 @@ import ome.tools.hibernate.QueryBuilder;
 import ome.tools.hibernate.SessionFactory;
 import ome.util.SqlAction;
 
-import org.apache.commons.collections.CollectionUtils;
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * Implements {@link ShareStore} and provides functionality to work with binary
  * Ice data from the share. Also provides methods for verification if metadata
  * graph elements are safe to load (part of the security system's ACL vote).
+ * Parsed shares are held as {@link ShareIndex} instances in a bounded cache
+ * which is cleared on {@link #doSet(Share, ShareData, List)}. The first
+ * lookup in each transaction still queries the share version, so that
+ * changes made by other processes take effect at once, but need neither
+ * load nor parse the share data.
  * 
  * @author Josh Moore, josh at glencoesoftware.com
  * @since 3.0-Beta4
@@ -87,9 +97,22 @@ public class BlobShareStore extends ShareStore implements
 
     protected SqlAction sqlAction;
 
-    protected Map<Long, Long> pixToImageCache = new HashMap<Long, Long>();
+    protected Map<Long, Long> pixToImageCache =
+            Collections.synchronizedMap(new HashMap<Long, Long>());
+
+    protected Map<Long, List<Long>> obToImageCache =
+            Collections.synchronizedMap(new HashMap<Long, List<Long>>());
+
+    private final static String IMAGE = Image.class.getName();
 
-    protected Map<Long, List<Long>> obToImageCache = new HashMap<Long, List<Long>>();
+    private Cache<Long, ShareIndex> indexCache = newCache(1000);
+
+    /** Binds the shares looked up in the current transaction. */
+    private final Object transactionKey = new Object();
+
+    private static Cache<Long, ShareIndex> newCache(int size) {
+        return CacheBuilder.newBuilder().maximumSize(Math.max(0, size)).build();
+    }
 
     /**
      * Because there is a cyclic dependency (SF -&gt; ACLVoter -&gt; BlobStore -&gt; SF), we
@@ -104,6 +127,13 @@ public class BlobShareStore extends ShareStore implements
         this.sqlAction = sqlAction;
     }
 
+    /**
+     * Sets how many parsed shares are held in memory.
+     */
+    public void setIndexCacheSize(int size) {
+        this.indexCache = newCache(size);
+    }
+
     // Initialization/Destruction
 
     @Override
@@ -149,6 +179,11 @@ public class BlobShareStore extends ShareStore implements
         share.setVersion((int) newOptLock);
         session.merge(share);
         synchronizeMembers(session, data);
+        indexCache.invalidate(data.id);
+        final Map<Long, ShareIndex> validated = validatedInTransaction();
+        if (validated != null) {
+            validated.remove(data.id);
+        }
     }
 
     @Override
@@ -162,6 +197,82 @@ public class BlobShareStore extends ShareStore implements
         return parse(id, data);
     }
 
+    /**
+     * Returns the cached share if its version is unchanged, otherwise loads
+     * and caches it anew. Within a transaction the version is checked only
+     * on the first lookup of the share, so that checking every object of a
+     * result set queries the database once.
+     */
+    @Override
+    public ShareIndex getIndex(final long id) {
+        final Map<Long, ShareIndex> validated = validatedInTransaction();
+        if (validated != null && validated.containsKey(id)) {
+            return validated.get(id);
+        }
+        final ShareIndex index = validateIndex(id);
+        if (validated != null) {
+            validated.put(id, index);
+        }
+        return index;
+    }
+
+    /**
+     * @return the shares already looked up in the current transaction, or
+     *         null if there is no transaction
+     */
+    @SuppressWarnings("unchecked")
+    private Map<Long, ShareIndex> validatedInTransaction() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        Map<Long, ShareIndex> validated = (Map<Long, ShareIndex>)
+                TransactionSynchronizationManager.getResource(transactionKey);
+        if (validated == null) {
+            validated = new HashMap<Long, ShareIndex>();
+            TransactionSynchronizationManager.bindResource(transactionKey,
+                    validated);
+            TransactionSynchronizationManager.registerSynchronization(
+                    new TransactionSynchronizationAdapter() {
+                        @Override
+                        public void afterCompletion(int status) {
+                            TransactionSynchronizationManager
+                                    .unbindResourceIfPossible(transactionKey);
+                        }
+                    });
+        }
+        return validated;
+    }
+
+    private ShareIndex validateIndex(final long id) {
+        Session session = session();
+        final ShareIndex cached = indexCache.getIfPresent(id);
+        if (cached != null) {
+            final Integer version = (Integer) session
+                    .createQuery("select version from Share where id = :id")
+                    .setParameter("id", id).uniqueResult();
+            if (version == null) {
+                indexCache.invalidate(id);
+                return null;
+            }
+            if (version == cached.version) {
+                return cached;
+            }
+            indexCache.invalidate(id);
+        }
+        Share s = (Share) session.get(Share.class, id);
+        if (s == null) {
+            return null;
+        }
+        ShareData data = parse(id, s.getData());
+        if (data == null) {
+            return null;
+        }
+        final ShareIndex index = new ShareIndex(
+                s.getVersion() == null ? -1 : s.getVersion(), data);
+        indexCache.put(id, index);
+        return index;
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     public List<ShareData> getShares(long userId, boolean own,
@@ -203,13 +314,13 @@ public class BlobShareStore extends ShareStore implements
         }
     }
 
-    boolean imagesContainsPixels(Session s, List<Long> images, Pixels pix,
+    boolean imagesContainsPixels(Session s, ShareIndex images, Pixels pix,
             Map<Long, Long> cache) {
         Long pixID = pix.getId();
         return imagesContainsPixels(s, images, pixID, cache);
     }
 
-    boolean imagesContainsPixels(Session s, List<Long> images, long pixID,
+    boolean imagesContainsPixels(Session s, ShareIndex images, long pixID,
             Map<Long, Long> cache) {
         Long imgID;
         if (cache.containsKey(pixID)) {
@@ -220,11 +331,20 @@ public class BlobShareStore extends ShareStore implements
                     .setParameter(0, pixID).uniqueResult();
             cache.put(pixID, imgID);
         }
-        return images.contains(imgID);
+        return imgID != null && images.contains(IMAGE, imgID);
+    }
+
+    private static boolean containsAny(ShareIndex images, List<Long> imgIDs) {
+        for (Long imgID : imgIDs) {
+            if (imgID != null && images.contains(IMAGE, imgID)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @SuppressWarnings("unchecked")
-    boolean imagesContainsInstrument(Session s, List<Long> images,
+    boolean imagesContainsInstrument(Session s, ShareIndex images,
             Instrument instr, Map<Long, List<Long>> cache) {
         if (instr == null) {
             return false;
@@ -239,17 +359,17 @@ public class BlobShareStore extends ShareStore implements
                     .setParameter(0, instrID).list();
             cache.put(instrID, imgIDs);
         }
-        return CollectionUtils.containsAny(images, imgIDs);
+        return containsAny(images, imgIDs);
     }
 
-    boolean imagesContainsObjectiveSettings(Session s, List<Long> images,
+    boolean imagesContainsObjectiveSettings(Session s, ShareIndex images,
             ObjectiveSettings os, Map<Long, List<Long>> cache) {
         Long osID = os.getId();
         return imagesContainsObjectiveSettings(s, images, osID, cache);
     }
 
     @SuppressWarnings("unchecked")
-    boolean imagesContainsObjectiveSettings(Session s, List<Long> images,
+    boolean imagesContainsObjectiveSettings(Session s, ShareIndex images,
             long osID, Map<Long, List<Long>> cache) {
         List<Long> imgIDs;
         if (cache.containsKey(osID)) {
@@ -261,24 +381,23 @@ public class BlobShareStore extends ShareStore implements
                     .setParameter(0, osID).list();
             cache.put(osID, imgIDs);
         }
-        return CollectionUtils.containsAny(images, imgIDs);
+        return containsAny(images, imgIDs);
     }
 
     @Override
     public <T extends IObject> boolean doContains(long sessionId, Class<T> kls,
             long objId) {
-        ShareData data = get(sessionId);
-        if (data == null) {
+        ShareIndex index = getIndex(sessionId);
+        if (index == null) {
             return false;
         }
-        return doContains(data, kls, objId);
+        return doContains(index, kls, objId);
     }
 
     @SuppressWarnings("unchecked")
-    protected <T extends IObject> boolean doContains(ShareData data,
+    protected <T extends IObject> boolean doContains(ShareIndex index,
             Class<T> kls, long objId) {
-        List<Long> ids = data.objectMap.get(kls.getName());
-        if (ids != null && ids.contains(objId)) {
+        if (index.contains(kls.getName(), objId)) {
             return true;
         }
 
@@ -300,7 +419,7 @@ public class BlobShareStore extends ShareStore implements
          * "left outer join fetch r.quantization "
          */
 
-        List<Long> images = data.objectMap.get(Image.class.getName());
+        final ShareIndex images = index;
         Session s = session();
         if (Pixels.class.isAssignableFrom(kls)) {
             return imagesContainsPixels(s, images, objId, pixToImageCache);
@@ -331,7 +450,7 @@ public class BlobShareStore extends ShareStore implements
             Iterator<Channel> it = obj.iterateChannels();
             while (it.hasNext()) {
                 Channel ch = it.next();
-                if (images.contains(ch.getPixels().getImage().getId())) {
+                if (images.contains(IMAGE, ch.getPixels().getImage().getId())) {
                     return true;
                 }
             }
@@ -400,7 +519,7 @@ public class BlobShareStore extends ShareStore implements
                                         + "where l.detectorSettings.id = "
                                         + obj.getId()).list();
                 for (LogicalChannel lc : lcs) {
-                    if (doContains(data, LogicalChannel.class, lc.getId())) {
+                    if (doContains(index, LogicalChannel.class, lc.getId())) {
                         return true;
                     }
                 }
@@ -437,7 +556,7 @@ public class BlobShareStore extends ShareStore implements
         return sqlAction.getShareData(ids);
     }
 
-    private Session session() {
+    protected Session session() {
         return initialize().getSession();
     }
 
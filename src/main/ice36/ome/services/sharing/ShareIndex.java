@@ -0,0 +1,71 @@
+/*
+ *   Copyright 2026 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.sharing;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ome.services.sharing.data.ShareData;
+import ome.tools.LongIndex;
+
+/**
+ * Parsed contents of a share as held by {@link BlobShareStore}. The object
+ * ids of each class are kept in a {@link LongIndex} so that checking if an
+ * object is shared takes constant time. Instances are immutable.
+ *
+ * @since 5.7.3
+ */
+public class ShareIndex {
+
+    /** The {@link ome.model.meta.Share} version from which this was parsed. */
+    final int version;
+
+    /** The parsed share data, not to be modified. */
+    final ShareData data;
+
+    private final Map<String, LongIndex> ids;
+
+    public ShareIndex(int version, ShareData data) {
+        this.version = version;
+        this.data = data;
+        final Map<String, List<Long>> objectMap = data.objectMap == null
+                ? Collections.<String, List<Long>> emptyMap() : data.objectMap;
+        this.ids = new HashMap<String, LongIndex>(objectMap.size() * 2);
+        for (Map.Entry<String, List<Long>> entry : objectMap.entrySet()) {
+            final List<Long> list = entry.getValue();
+            final LongIndex set = new LongIndex(list == null ? 0 : list.size());
+            if (list != null) {
+                for (Long id : list) {
+                    if (id != null) {
+                        set.add(id);
+                    }
+                }
+            }
+            ids.put(entry.getKey(), set);
+        }
+    }
+
+    /**
+     * @return the parsed share data which must not be modified.
+     */
+    public ShareData getData() {
+        return data;
+    }
+
+    /**
+     * @param type the class name of the object.
+     * @param id the id of the object.
+     * @return if the object is explicitly listed in the share.
+     */
+    public boolean contains(String type, long id) {
+        final LongIndex set = ids.get(type);
+        return set != null && set.contains(id);
+    }
+}
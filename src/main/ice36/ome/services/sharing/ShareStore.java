@@ -169,6 +169,17 @@ public abstract class ShareStore {
         return doContains(sessionId, kls, objId);
     }
 
+    /**
+     * Loads the share for read-only use such as checks by the security
+     * system. Implementations may return a cached instance.
+     *
+     * @return the share contents or null if the share cannot be loaded.
+     */
+    public ShareIndex getIndex(long id) {
+        final ShareData data = get(id);
+        return data == null ? null : new ShareIndex(-1, data);
+    }
+
     // Abstract Methods
     // =========================================================================
 
@@ -5,6 +5,7 @@
 
 package ome.api.local;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -97,6 +98,17 @@ public interface LocalAdmin extends ome.api.IAdmin {
      */
     Map<String, Long> getLockingIds(Class<IObject> klass, long id, Long groupId);
 
+    /**
+     * Like {@link #getLockingIds(Class, long, Long)} for many instances at
+     * once, with one query per class that may point to them.
+     *
+     * @param klass the name of a model class
+     * @param ids the IDs of instances of {@code klass}
+     * @param groupId the ID of a group to omit from the results, may be {@code null}
+     * @return for each given ID, the classes and counts of the objects that point to it
+     */
+    Map<Long, Map<String, Long>> getLockingIds(Class<IObject> klass, Collection<Long> ids, Long groupId);
+
     /**
      * Like {@link #getEventContext()} but will not reload the context.
      * This also has the result that values from the current call context
@@ -34,6 +34,17 @@ public interface LocalCompress {
 	void compressToStream(BufferedImage image, OutputStream outputStream)
 		throws IOException;
 
+    /**
+     * Compresses a buffered image to a byte array.
+     * 
+     * @param image
+     *            the thumbnail's buffered image.
+     * @return the compressed image.
+     * @throws IOException
+     *             if there is a problem when compressing.
+     */
+	byte[] compressToBytes(BufferedImage image) throws IOException;
+
 	/**
 	 * Sets the current compression level for the service. (The default is 85%)
 	 * 
@@ -1043,11 +1043,16 @@ public class AdminImpl extends AbstractLevel2Service implements LocalAdmin,
         // Detect group mismatch
         // What would need to be changed?
         @SuppressWarnings("unchecked")
-        Map<String, Long> locks = getLockingIds(
-                (Class<IObject>) copy.getClass(), copy.getId(), group.getId());
-
-        Long total = locks.get("*");
-        if (total != null && total > 0) {
+        final Class<IObject> copyClass = (Class<IObject>) copy.getClass();
+        final String[][] checks = lockChecks(copyClass);
+        final String clause = lockGroupClause(group.getId());
+        final int firstLock = this.metadata.findLock(osf.getSession(),
+                copy.getId(), checks, clause);
+        if (firstLock >= 0) {
+            // the earlier checks found no locks so need not be counted
+            Map<String, Long> locks = this.metadata.countLocks(osf.getSession(),
+                    copy.getId(), Arrays.copyOfRange(checks, firstLock, checks.length),
+                    clause);
             throw new SecurityViolation("Locks: " + locks);
         }
         
@@ -1139,21 +1144,32 @@ public class AdminImpl extends AbstractLevel2Service implements LocalAdmin,
     
     public Map<String, Long> getLockingIds(final Class<IObject> type,
             final long id, final Long groupId) {
+        return this.metadata.countLocks(osf.getSession(), id,
+                lockChecks(type), lockGroupClause(groupId));
+    }
 
-        String groupClause = "";
-        if (groupId != null) {
-            groupClause = "and details.group.id <> " + groupId;
-        }
-        
+    public Map<Long, Map<String, Long>> getLockingIds(final Class<IObject> type,
+            final Collection<Long> ids, final Long groupId) {
+        return this.metadata.countLocksByIds(osf.getSession(), ids,
+                lockChecks(type), lockGroupClause(groupId));
+    }
+
+    private String[][] lockChecks(final Class<IObject> type) {
         // since it's a managed entity it's class.getName() might
         // contain
         // some byte-code generation string
         final Class<? extends IObject> klass = Utils.trueClass(type);
 
         // the values that could possibly link to this instance.
-        final String[][] checks = metadata.getLockChecks(klass);
-        return this.metadata.countLocks(osf.getSession(), id, checks, groupClause);
+        return metadata.getLockChecks(klass);
+    }
 
+    private String lockGroupClause(final Long groupId) {
+        String groupClause = "";
+        if (groupId != null) {
+            groupClause = "and details.group.id <> " + groupId;
+        }
+        return groupClause;
     }
 
     // ~ Passwords
@@ -8,6 +8,7 @@
 package ome.logic;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -23,6 +24,18 @@ public class CompressImpl implements LocalCompress {
 
 	/** The default compression quality in fractional percent. */
     private float quality = 0.85F;
+
+    /** Shared pool of JPEG writers, if configured. */
+    private JpegWriterPool writerPool;
+
+    /**
+     * JPEG writer pool injector. If not set, a new writer is looked up for
+     * each image.
+     */
+    public void setWriterPool(JpegWriterPool writerPool)
+    {
+        this.writerPool = writerPool;
+    }
 	
     /* (non-Javadoc)
      * @see ome.api.ICompress#compressToStream(java.awt.image.BufferedImage, java.io.OutputStream)
@@ -30,6 +43,12 @@ public class CompressImpl implements LocalCompress {
     public void compressToStream(BufferedImage image, OutputStream outputStream)
     	throws IOException
     {
+        if (writerPool != null)
+        {
+            writerPool.encode(image, quality, outputStream);
+            return;
+        }
+
         // Get a JPEG image writer
         ImageWriter jpegWriter =
         	ImageIO.getImageWritersByFormatName("jpeg").next();
@@ -51,6 +70,20 @@ public class CompressImpl implements LocalCompress {
         }
     }
 
+    /* (non-Javadoc)
+     * @see ome.api.local.LocalCompress#compressToBytes(java.awt.image.BufferedImage)
+     */
+    public byte[] compressToBytes(BufferedImage image) throws IOException
+    {
+        if (writerPool != null)
+        {
+            return writerPool.encode(image, quality);
+        }
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        compressToStream(image, byteStream);
+        return byteStream.toByteArray();
+    }
+
 	/* (non-Javadoc)
 	 * @see ome.api.ICompress#setCompressionLevel(float)
 	 */
@@ -0,0 +1,218 @@
+/*
+ *   Copyright 2026 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.logic;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+import ome.system.metrics.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded pool of JPEG {@link ImageWriter}s shared by all
+ * {@link CompressImpl} instances. Looking up a writer via
+ * {@link ImageIO#getImageWritersByFormatName(String)} and setting up its
+ * native codec is costly compared to encoding a thumbnail, so writers are
+ * leased for a single encode and then returned along with the output
+ * buffer they wrote into. If every pooled writer is in use a new one is
+ * created; at most <code>size</code> writers are kept once returned, the
+ * rest are disposed. Encode times are recorded per image size bucket.
+ *
+ * @since 5.7.3
+ */
+public class JpegWriterPool {
+
+    private final static Logger log = LoggerFactory.getLogger(JpegWriterPool.class);
+
+    /** Buffers which grew beyond this are not kept for reuse. */
+    private final static int MAX_RETAINED_BUFFER = 4 * 1024 * 1024;
+
+    /** Upper bounds in pixels of the encode time buckets. */
+    private final static long[] BUCKETS = {
+        128 * 128, 512 * 512, 1024 * 1024, 2048 * 2048, Long.MAX_VALUE };
+
+    private final static String[] BUCKET_NAMES = {
+        "128", "512", "1024", "2048", "larger" };
+
+    private final BlockingQueue<Encoder> idle;
+
+    private final Timer[] timers;
+
+    private volatile boolean destroyed = false;
+
+    public JpegWriterPool(int size) {
+        this(size, new NullMetrics());
+    }
+
+    /**
+     * @param size maximum number of idle writers kept for reuse.
+     * @param metrics used to time encoding per image size.
+     */
+    public JpegWriterPool(int size, Metrics metrics) {
+        this.idle = new ArrayBlockingQueue<Encoder>(Math.max(1, size));
+        this.timers = new Timer[BUCKETS.length];
+        for (int i = 0; i < BUCKETS.length; i++) {
+            timers[i] = metrics.timer(this, "encode." + BUCKET_NAMES[i]);
+        }
+    }
+
+    /**
+     * Spring destroy-method. Disposes of every idle writer; writers which
+     * are still leased are disposed of when returned.
+     */
+    public void destroy() {
+        destroyed = true;
+        Encoder encoder;
+        while ((encoder = idle.poll()) != null) {
+            encoder.dispose();
+        }
+    }
+
+    /**
+     * Compresses the image and returns the JPEG bytes.
+     *
+     * @param image the image to compress.
+     * @param quality the compression quality, from 0 to 1.
+     */
+    public byte[] encode(BufferedImage image, float quality)
+            throws IOException {
+        final Encoder encoder = lease();
+        try {
+            encoder.encode(image, quality, timer(image));
+            return encoder.buffer.toByteArray();
+        } finally {
+            release(encoder);
+        }
+    }
+
+    /**
+     * Compresses the image and writes the JPEG bytes to the stream.
+     *
+     * @param image the image to compress.
+     * @param quality the compression quality, from 0 to 1.
+     * @param outputStream the stream to write to, which is not closed.
+     */
+    public void encode(BufferedImage image, float quality,
+            OutputStream outputStream) throws IOException {
+        final Encoder encoder = lease();
+        try {
+            encoder.encode(image, quality, timer(image));
+            encoder.buffer.writeTo(outputStream);
+        } finally {
+            release(encoder);
+        }
+    }
+
+    private Timer timer(BufferedImage image) {
+        final long pixels = (long) image.getWidth() * image.getHeight();
+        int i = 0;
+        while (pixels > BUCKETS[i]) {
+            i++;
+        }
+        return timers[i];
+    }
+
+    private Encoder lease() {
+        final Encoder encoder = idle.poll();
+        return encoder != null ? encoder : new Encoder();
+    }
+
+    private void release(Encoder encoder) {
+        if (destroyed || encoder.failed || !idle.offer(encoder)) {
+            encoder.dispose();
+        }
+    }
+
+    /**
+     * A JPEG writer with its write parameters and output buffer.
+     */
+    private static final class Encoder {
+
+        final ImageWriter writer =
+                ImageIO.getImageWritersByFormatName("jpeg").next();
+
+        final ImageWriteParam param = writer.getDefaultWriteParam();
+
+        GrowableBuffer buffer = new GrowableBuffer();
+
+        /** Set if encoding threw, leaving the writer in an unknown state. */
+        boolean failed = false;
+
+        Encoder() {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        }
+
+        void encode(BufferedImage image, float quality, Timer timer)
+                throws IOException {
+            if (buffer.capacity() > MAX_RETAINED_BUFFER) {
+                buffer = new GrowableBuffer();
+            }
+            buffer.reset();
+            param.setCompressionQuality(quality);
+            final Timer.Context ctx = timer.time();
+            final ImageOutputStream ios = new MemoryCacheImageOutputStream(buffer);
+            try {
+                writer.setOutput(ios);
+                writer.write(null, new IIOImage(image, null, null), param);
+                ios.flush();
+            } catch (IOException | RuntimeException e) {
+                failed = true;
+                throw e;
+            } finally {
+                writer.reset();
+                ios.close();
+                ctx.stop();
+            }
+        }
+
+        void dispose() {
+            try {
+                writer.dispose();
+            } catch (RuntimeException e) {
+                log.warn("Failed to dispose of JPEG writer", e);
+            }
+        }
+    }
+
+    /**
+     * {@link ByteArrayOutputStream} whose backing array is kept across
+     * {@link #reset()} calls.
+     */
+    private static final class GrowableBuffer extends ByteArrayOutputStream {
+
+        GrowableBuffer() {
+            super(64 * 1024);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+
+        @Override
+        public synchronized byte[] toByteArray() {
+            return Arrays.copyOf(buf, count);
+        }
+    }
+
+}
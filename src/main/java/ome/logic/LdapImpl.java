@@ -11,6 +11,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
@@ -62,6 +63,7 @@ import org.springframework.ldap.core.LdapOperations;
 import org.springframework.ldap.filter.AndFilter;
 import org.springframework.ldap.filter.EqualsFilter;
 import org.springframework.ldap.filter.Filter;
+import org.springframework.ldap.filter.OrFilter;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.google.common.collect.Lists;
@@ -98,6 +100,12 @@ public class LdapImpl extends AbstractLevel2Service implements ILdap,
 
     private OmeroContext appContext;
 
+    /**
+     * How many names are looked up with a single search by
+     * {@link #discover()} and {@link #discoverGroups()}.
+     */
+    private static final int DISCOVER_BATCH = 100;
+
     public LdapImpl(ContextSource ctx, LdapOperations ldap, Roles roles,
             LdapConfig config, RoleProvider roleProvider, SqlAction sql) {
         this.ctx = ctx;
@@ -318,17 +326,21 @@ public class LdapImpl extends AbstractLevel2Service implements ILdap,
         List<Long> ownedGroups = loader.getOwnedGroups();
         List<Object[]> currentGroups = iQuery
                 .projection(
-                        "select g.id, g.ldap from ExperimenterGroup g "
+                        "select g.id, g.ldap, m.owner from ExperimenterGroup g "
                                 + "join g.groupExperimenterMap m join m.child e where e.id = :id",
                         new Parameters().addId(omeExp.getId()));
 
         final Set<Long> currentLdapGroups = new HashSet<Long>();
+        final Set<Long> currentOwnedGroups = new HashSet<Long>();
         for (Object[] objs : currentGroups) {
             Long id = (Long) objs[0];
             Boolean isLdap = (Boolean) objs[1];
             if (isLdap) {
                 currentLdapGroups.add(id);
             }
+            if (Boolean.TRUE.equals(objs[2])) {
+                currentOwnedGroups.add(id);
+            }
         }
 
         // All the currentLdapGroups not in ldapGroups should be removed.
@@ -336,11 +348,24 @@ public class LdapImpl extends AbstractLevel2Service implements ILdap,
         // All the ldapGroups not in currentLdapGroups should be added.
         modifyGroups(omeExp, ldapGroups, currentLdapGroups, true);
         // Then for all remaining groups, set the ownership flag based
-        // on ownedGroups
-        for (Long ldapGroupId : ldapGroups) {
-            provider.setGroupOwner(omeExp,
-                    new ExperimenterGroup(ldapGroupId, false),
-                    ownedGroups.contains(ldapGroupId));
+        // on ownedGroups where it differs, together for each value. Groups
+        // which were just added are not owned.
+        final List<ExperimenterGroup> toOwn = new ArrayList<ExperimenterGroup>();
+        final List<ExperimenterGroup> toDisown = new ArrayList<ExperimenterGroup>();
+        for (Long ldapGroupId : new HashSet<Long>(ldapGroups)) {
+            final boolean owned = ownedGroups.contains(ldapGroupId);
+            if (owned != currentOwnedGroups.contains(ldapGroupId)) {
+                (owned ? toOwn : toDisown).add(
+                        new ExperimenterGroup(ldapGroupId, false));
+            }
+        }
+        if (!toOwn.isEmpty()) {
+            provider.setGroupOwner(omeExp, true,
+                    toOwn.toArray(new ExperimenterGroup[toOwn.size()]));
+        }
+        if (!toDisown.isEmpty()) {
+            provider.setGroupOwner(omeExp, false,
+                    toDisown.toArray(new ExperimenterGroup[toDisown.size()]));
         }
 
         List<String> fields = Arrays.asList(Experimenter.FIRSTNAME,
@@ -523,10 +548,14 @@ public class LdapImpl extends AbstractLevel2Service implements ILdap,
             grpOther[count] = new ExperimenterGroup(roles.getUserGroupId(),
                     false);
             long uid = provider.createExperimenter(exp, grp1, grpOther);
-            for (Long toBeOwned : ownerOfGroups) {
-                provider.setGroupOwner(
-                        new Experimenter(uid, false),
-                        new ExperimenterGroup(toBeOwned, false), true);
+            if (!ownerOfGroups.isEmpty()) {
+                final ExperimenterGroup[] owned =
+                        new ExperimenterGroup[ownerOfGroups.size()];
+                count = 0;
+                for (Long toBeOwned : ownerOfGroups) {
+                    owned[count++] = new ExperimenterGroup(toBeOwned, false);
+                }
+                provider.setGroupOwner(new Experimenter(uid, false), true, owned);
             }
             return iQuery.get(Experimenter.class, uid);
         } else {
@@ -720,14 +749,38 @@ public class LdapImpl extends AbstractLevel2Service implements ILdap,
                         .addIds(Lists.newArrayList(r.getRootId(), r.getGuestId()))
                         .addBoolean("ldap", false));
 
-        for (Experimenter e : localExperimenters) {
+        final boolean ignoreCase = provider.isIgnoreCaseLookup();
+        for (List<Experimenter> batch : Lists.partition(localExperimenters, DISCOVER_BATCH)) {
+            final List<String> names = new ArrayList<String>(batch.size());
+            for (Experimenter e : batch) {
+                names.add(e.getOmeName());
+            }
+            final Map<String, List<String>> found;
             try {
-                findExperimenter(e.getOmeName());
-            } catch (ApiUsageException aue) {
-                // This user doesn't have an LDAP account
+                found = findExperimenterNames(names);
+            } catch (RuntimeException re) {
+                getBeanHelper().getLogger().warn(
+                        "Batched LDAP user search failed; searching singly", re);
+                for (Experimenter e : batch) {
+                    try {
+                        findExperimenter(e.getOmeName());
+                    } catch (ApiUsageException aue) {
+                        // This user doesn't have an LDAP account
+                        continue;
+                    }
+                    discoveredExperimenters.add(e);
+                }
                 continue;
             }
-            discoveredExperimenters.add(e);
+            for (Experimenter e : batch) {
+                // As for mapUserName: a unique match with the right case
+                final List<String> matches = found.get(e.getOmeName().toLowerCase());
+                if (matches != null && matches.size() == 1 && (ignoreCase
+                        ? matches.get(0).equalsIgnoreCase(e.getOmeName())
+                        : matches.get(0).equals(e.getOmeName()))) {
+                    discoveredExperimenters.add(e);
+                }
+            }
         }
         return discoveredExperimenters;
     }
@@ -745,14 +798,36 @@ public class LdapImpl extends AbstractLevel2Service implements ILdap,
                                 r.getSystemGroupId(), r.getUserGroupId()))
                         .addBoolean("ldap", false));
 
-        for (ExperimenterGroup g : localGroups) {
+        for (List<ExperimenterGroup> batch : Lists.partition(localGroups, DISCOVER_BATCH)) {
+            final List<String> names = new ArrayList<String>(batch.size());
+            for (ExperimenterGroup g : batch) {
+                names.add(g.getName());
+            }
+            final Map<String, List<String>> found;
             try {
-                findGroup(g.getName());
-            } catch (ApiUsageException aue) {
-                // This group doesn't exist in the LDAP server
+                found = findGroupNames(names);
+            } catch (RuntimeException re) {
+                getBeanHelper().getLogger().warn(
+                        "Batched LDAP group search failed; searching singly", re);
+                for (ExperimenterGroup g : batch) {
+                    try {
+                        findGroup(g.getName());
+                    } catch (ApiUsageException aue) {
+                        // This group doesn't exist in the LDAP server
+                        continue;
+                    }
+                    discoveredGroups.add(g);
+                }
                 continue;
             }
-            discoveredGroups.add(g);
+            for (ExperimenterGroup g : batch) {
+                // As for mapGroupName: a unique match with the same name
+                final List<String> matches = found.get(g.getName().toLowerCase());
+                if (matches != null && matches.size() == 1
+                        && matches.get(0).equals(g.getName())) {
+                    discoveredGroups.add(g);
+                }
+            }
         }
         return discoveredGroups;
     }
@@ -760,6 +835,70 @@ public class LdapImpl extends AbstractLevel2Service implements ILdap,
     // Helpers
     // =========================================================================
 
+    /**
+     * Looks up many user names with a single search, matching any of them.
+     *
+     * @param usernames the names to look up.
+     * @return the names of the found users keyed by their lower case.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, List<String>> findExperimenterNames(List<String> usernames) {
+        final PersonContextMapper mapper = getPersonContextMapper();
+        final OrFilter names = new OrFilter();
+        for (String username : usernames) {
+            names.or(new EqualsFilter(config.getUserAttribute("omeName"), username));
+        }
+        final AndFilter filter = new AndFilter();
+        filter.and(config.getUserFilter());
+        filter.and(names);
+        final List<Experimenter> found = ldap.search("", filter.encode(),
+                mapper.getControls(), mapper);
+        final Map<String, List<String>> byName = new HashMap<String, List<String>>();
+        for (Experimenter e : found) {
+            if (e != null && e.getOmeName() != null) {
+                addName(byName, e.getOmeName());
+            }
+        }
+        return byName;
+    }
+
+    /**
+     * Looks up many group names with a single search, matching any of them.
+     *
+     * @param groupnames the names to look up.
+     * @return the names of the found groups keyed by their lower case.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, List<String>> findGroupNames(List<String> groupnames) {
+        final GroupContextMapper mapper = getGroupContextMapper();
+        final OrFilter names = new OrFilter();
+        for (String groupname : groupnames) {
+            names.or(new EqualsFilter(config.getGroupAttribute("name"), groupname));
+        }
+        final AndFilter filter = new AndFilter();
+        filter.and(config.getGroupFilter());
+        filter.and(names);
+        final List<ExperimenterGroup> found = ldap.search("", filter.encode(),
+                mapper.getControls(), mapper);
+        final Map<String, List<String>> byName = new HashMap<String, List<String>>();
+        for (ExperimenterGroup g : found) {
+            if (g != null && g.getName() != null) {
+                addName(byName, g.getName());
+            }
+        }
+        return byName;
+    }
+
+    private static void addName(Map<String, List<String>> byName, String name) {
+        final String key = name.toLowerCase();
+        List<String> names = byName.get(key);
+        if (names == null) {
+            names = new ArrayList<String>(1);
+            byName.put(key, names);
+        }
+        names.add(name);
+    }
+
     private PersonContextMapper getPersonContextMapper() {
         return new PersonContextMapper(config, getBase());
     }
@@ -58,6 +58,7 @@ import ome.model.screen.Plate;
 import ome.model.stats.StatsInfo;
 import ome.model.units.Length;
 import ome.parameters.Parameters;
+import ome.services.pixeldata.PixelsStatsService;
 import omeis.providers.re.ColorsFactory;
 import omeis.providers.re.Renderer;
 import omeis.providers.re.data.PlaneDef;
@@ -98,6 +99,9 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
  
     /** Reference to the raw pixels store. */
     private RawPixelsStore rawPixelsStore;
+
+    /** Reference to the cached channel minimum/maximum service. */
+    private transient PixelsStatsService pixelsStatsService;
     
     /**
      * Returns the min/max depending on the pixels type if the values
@@ -925,14 +929,20 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
             for (int i = 0; i < channels.length; i++)
                 channels[i] = i;
             
-            rawPixelsStore.setPixelsId(pixels.getId(), true);
-            try {
-                realMinMax = rawPixelsStore.findMinMax(channels);
-            } catch (ApiUsageException e) {
-                log.warn(String.format(
-                        "Exception while running findMinMax for " +
-                                "%s", pixels), e);
-                realMinMax = null;
+            if (pixelsStatsService != null) {
+                // Cached, and saved as StatsInfo when exact, so that
+                // the pixel data is only read once per pixels set.
+                realMinMax = pixelsStatsService.getMinMax(pixels, buf, iUpdate);
+            } else {
+                rawPixelsStore.setPixelsId(pixels.getId(), true);
+                try {
+                    realMinMax = rawPixelsStore.findMinMax(channels);
+                } catch (ApiUsageException e) {
+                    log.warn(String.format(
+                            "Exception while running findMinMax for " +
+                                    "%s", pixels), e);
+                    realMinMax = null;
+                }
             }
 
         }
@@ -1209,6 +1219,18 @@ public class RenderingSettingsImpl extends AbstractLevel2Service implements
         this.rawPixelsStore = rawPixelsStore;
     }
 
+    /**
+     * Sets injector. For use during configuration. Can only be called once.
+     * 
+     * @param pixelsStatsService
+     *            The value to set.
+     */
+    public void setPixelsStatsService(PixelsStatsService pixelsStatsService) {
+        getBeanHelper().throwIfAlreadySet(this.pixelsStatsService,
+                pixelsStatsService);
+        this.pixelsStatsService = pixelsStatsService;
+    }
+
     /**
      * Returns the interface this implementation is for.
      * @see AbstractLevel2Service#getServiceInterface()
@@ -42,6 +42,17 @@ public interface RoleProvider {
     void setGroupOwner(final Experimenter user, final ExperimenterGroup group,
             final boolean value);
 
+    /**
+     * Sets the ownership flag of the user in each of the given groups, of
+     * all of which the user must be a member, merging the changes together.
+     * @param user the member of the groups
+     * @param value if the user should own the groups
+     * @param groups the groups to change
+     * @since 5.7.3
+     */
+    void setGroupOwner(final Experimenter user, final boolean value,
+            final ExperimenterGroup... groups);
+
     void addGroups(final Experimenter user, final ExperimenterGroup... groups);
 
     void removeGroups(final Experimenter user,
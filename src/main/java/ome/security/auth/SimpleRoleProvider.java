@@ -6,6 +6,7 @@
 package ome.security.auth;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -177,6 +178,54 @@ public class SimpleRoleProvider implements RoleProvider {
         }
     }
 
+    public void setGroupOwner(final Experimenter user, final boolean value,
+            final ExperimenterGroup... groups) {
+
+        final Session session = sf.getSession();
+
+        Experimenter foundUser = userById(user.getId(), session);
+
+        final Set<Long> missing = new HashSet<Long>();
+        for (ExperimenterGroup g : groups) {
+            if (g.getId() != null) {
+                missing.add(g.getId());
+            }
+        }
+        final Set<Long> toChange = new HashSet<Long>(missing);
+        final List<GroupExperimenterMap> changed = new ArrayList<GroupExperimenterMap>();
+        for (GroupExperimenterMap map : foundUser
+                .<GroupExperimenterMap> collectGroupExperimenterMap(null)) {
+            Long pId = map.parent().getId();
+            if (!toChange.contains(pId)) {
+                continue;
+            } else if (!missing.remove(pId)) {
+                log.warn("Multiple copies of group " + pId + " found for "
+                        + foundUser);
+            } else if (!Boolean.valueOf(value).equals(map.getOwner())) {
+                map.setOwner(value);
+                changed.add(map);
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new ApiUsageException("Groups " + missing + " were not "
+                    + "found for user " + user.getId());
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        log.info(String.format("Setting ownership flag on user %s to %s for %s",
+                foundUser.getId(), value, toChange));
+        sec.doAction(new SecureAction(){
+            public <T extends IObject> T updateObject(T... objs) {
+                for (T t : objs) {
+                    session.merge(t);
+                }
+                session.flush();
+                return null;
+            }}, changed.toArray(new GroupExperimenterMap[changed.size()]));
+    }
+
     public void addGroups(final Experimenter user,
             final ExperimenterGroup... groups) {
 
@@ -127,6 +127,9 @@ public class BasicSecuritySystem implements SecuritySystem,
 
     protected final ACLVoter aclVoter;
 
+    /** Reuses events for write calls, may be {@code null}. */
+    protected EventCoalescer eventCoalescer;
+
     /**
      * Simplified factory method which generates all the security primitives
      * internally. Primarily useful for generated testing instances.
@@ -191,6 +194,21 @@ public class BasicSecuritySystem implements SecuritySystem,
         this.aclVoter = aclVoter;
     }
 
+    /**
+     * @param eventCoalescer lets consecutive write calls share an event,
+     *            may be {@code null}
+     */
+    public void setEventCoalescer(EventCoalescer eventCoalescer) {
+        this.eventCoalescer = eventCoalescer;
+    }
+
+    /**
+     * @return the event coalescer, may be {@code null}
+     */
+    public EventCoalescer getEventCoalescer() {
+        return eventCoalescer;
+    }
+
     public void setApplicationContext(ApplicationContext arg0)
             throws BeansException {
         this.ctx = (OmeroContext) arg0;
@@ -561,7 +579,15 @@ public class BasicSecuritySystem implements SecuritySystem,
             if (event.getExperimenterGroup().getId() < 0) {
                 event.setExperimenterGroup(eventGroup);
             }
-            cd.updateEvent(eventProvider.updateEvent(event)); // TODO use merge
+            if (eventCoalescer != null && eventCoalescer.reuse(event, sudoerId, shareId)) {
+                cd.updateEvent(event);
+            } else {
+                final Event savedEvent = eventProvider.updateEvent(event); // TODO use merge
+                if (eventCoalescer != null) {
+                    eventCoalescer.saved(event, savedEvent, sudoerId, shareId);
+                }
+                cd.updateEvent(savedEvent);
+            }
         }
     }
 
@@ -0,0 +1,282 @@
+/*
+ *   Copyright 2026 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.security.basic;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.sql.DataSource;
+
+import ome.model.meta.Event;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.ConnectionHolder;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.MapMaker;
+
+/**
+ * Lets consecutive write calls of a session share one {@link Event} row
+ * rather than each inserting its own. Only sessions whose event type is
+ * listed in <code>omero.sessions.event_coalescing.types</code> are affected.
+ * A saved event is reused by the following write calls of the same session
+ * for which the user, sudoer, group, share and event type are unchanged,
+ * until <code>omero.sessions.event_coalescing.window</code> milliseconds
+ * after the event was created.
+ *
+ * Audit semantics: all objects created or updated by the coalesced calls,
+ * and their {@link ome.model.meta.EventLog}s, refer to the one event, whose
+ * time is that of the first call. The sequence of the calls can no longer be
+ * recovered from the events; only that they happened within the window.
+ *
+ * The database session variables set by
+ * {@link ome.util.SqlAction#prepareSession(long, long, long)} are also
+ * remembered per pooled connection, so that they are not set again for a
+ * coalesced event. Events are reused and variables remembered only once
+ * the transaction that saved or set them has committed.
+ *
+ * @since 5.7.3
+ */
+public class EventCoalescer {
+
+    private final static Logger log = LoggerFactory.getLogger(EventCoalescer.class);
+
+    /** How many sessions are tracked before stale ones are purged. */
+    private final static int PURGE_THRESHOLD = 1024;
+
+    private final Set<String> eventTypes;
+
+    private final long windowMillis;
+
+    private final DataSource dataSource;
+
+    private final ConcurrentMap<Long, Recent> recent = new ConcurrentHashMap<Long, Recent>();
+
+    /* weak keys compared by identity */
+    private final ConcurrentMap<Object, long[]> prepared = new MapMaker().weakKeys().makeMap();
+
+    /**
+     * @param eventTypes comma-separated event types whose sessions coalesce
+     *            events, none if empty
+     * @param windowMillis how long a saved event may be reused for
+     * @param dataSource the data source of the transactions in which events
+     *            are saved
+     */
+    public EventCoalescer(String eventTypes, long windowMillis, DataSource dataSource) {
+        final Set<String> types = new HashSet<String>();
+        if (eventTypes != null) {
+            for (final String type : Splitter.on(',').trimResults().omitEmptyStrings().split(eventTypes)) {
+                types.add(type);
+            }
+        }
+        this.eventTypes = Collections.unmodifiableSet(types);
+        this.windowMillis = windowMillis;
+        this.dataSource = dataSource;
+        if (!types.isEmpty()) {
+            log.info("Coalescing events of types {} within {} ms", types, windowMillis);
+        }
+    }
+
+    /**
+     * @param eventType an event type
+     * @return if sessions of the event type coalesce their events
+     */
+    public boolean isEnabled(String eventType) {
+        return eventType != null && windowMillis > 0 && eventTypes.contains(eventType);
+    }
+
+    private static String key(Event event, Long sudoerId, Long shareId) {
+        return event.getExperimenter().getId() + "/" + sudoerId + "/"
+                + event.getExperimenterGroup().getId() + "/" + shareId + "/"
+                + event.getType().getValue();
+    }
+
+    /**
+     * If a recently saved event of the session can stand for the given new
+     * event, gives the new event its identity so that it need not be saved.
+     * @param event a new, unsaved event
+     * @param sudoerId the ID of the sudoer, may be {@code null}
+     * @param shareId the ID of the share, may be {@code null}
+     * @return if the event was given the identity of a saved event
+     */
+    public boolean reuse(Event event, Long sudoerId, Long shareId) {
+        if (event.getSession() == null || !isEnabled(event.getType().getValue())) {
+            return false;
+        }
+        final Recent previous = recent.get(event.getSession().getId());
+        final long now = System.currentTimeMillis();
+        if (previous == null || now - previous.created > windowMillis
+                || !previous.key.equals(key(event, sudoerId, shareId))) {
+            return false;
+        }
+        event.setId(previous.id);
+        event.setVersion(previous.version);
+        event.setTime(previous.time);
+        return true;
+    }
+
+    /**
+     * Notes a newly saved event so that following calls may reuse it.
+     * @param event the event as it was before saving
+     * @param savedEvent the event as returned from saving
+     * @param sudoerId the ID of the sudoer, may be {@code null}
+     * @param shareId the ID of the share, may be {@code null}
+     */
+    public void saved(Event event, Event savedEvent, Long sudoerId, Long shareId) {
+        if (event.getSession() == null || !isEnabled(event.getType().getValue())) {
+            return;
+        }
+        if (recent.size() >= PURGE_THRESHOLD) {
+            purge();
+        }
+        final Long sessionId = event.getSession().getId();
+        final Recent saved = new Recent(savedEvent.getId(), savedEvent.getVersion(),
+                event.getTime(), key(event, sudoerId, shareId));
+        /* the event row exists for others to reuse only once committed */
+        if (!afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                recent.put(sessionId, saved);
+            }
+        })) {
+            recent.remove(sessionId);
+        }
+    }
+
+    private void purge() {
+        final long now = System.currentTimeMillis();
+        final Iterator<Map.Entry<Long, Recent>> entries = recent.entrySet().iterator();
+        while (entries.hasNext()) {
+            if (now - entries.next().getValue().created > windowMillis) {
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the physical connection of the current transaction, or
+     *         {@code null} if there is none
+     */
+    private Object currentConnection() {
+        final Object holder = dataSource == null ? null : TransactionSynchronizationManager.getResource(dataSource);
+        if (!(holder instanceof ConnectionHolder)) {
+            return null;
+        }
+        final Connection connection = ((ConnectionHolder) holder).getConnection();
+        try {
+            /* pooled connection handles may differ between checkouts of the same connection */
+            final Class<?> driverConnection = Class.forName("org.postgresql.PGConnection");
+            if (connection.isWrapperFor(driverConnection)) {
+                return connection.unwrap(driverConnection);
+            }
+        } catch (ClassNotFoundException | SQLException | AbstractMethodError e) {
+            /* use the handle */
+        }
+        return connection;
+    }
+
+    /**
+     * @param eventType the event type of the session
+     * @param eventId the current event ID
+     * @param userId the current user ID
+     * @param groupId the current group ID
+     * @return if the database session of the current transaction was already
+     *         prepared with the given values
+     */
+    public boolean isPrepared(String eventType, long eventId, long userId, long groupId) {
+        if (!isEnabled(eventType)) {
+            return false;
+        }
+        final Object connection = currentConnection();
+        return connection != null
+                && Arrays.equals(prepared.get(connection), new long[] {eventId, userId, groupId});
+    }
+
+    /**
+     * Notes that the database session of the current transaction was
+     * prepared with the given values. Noted for sessions of every event type
+     * because any may reprepare a connection later used by a coalescing one.
+     * The values are remembered only once the transaction commits, as
+     * otherwise the database reverts them.
+     * @param eventId the current event ID
+     * @param userId the current user ID
+     * @param groupId the current group ID
+     */
+    public void prepared(long eventId, long userId, long groupId) {
+        if (eventTypes.isEmpty() || windowMillis <= 0) {
+            return;
+        }
+        final Object connection = currentConnection();
+        if (connection == null) {
+            return;
+        }
+        final long[] values = new long[] {eventId, userId, groupId};
+        if (!afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                prepared.put(connection, values);
+            }
+        })) {
+            prepared.remove(connection);
+        }
+    }
+
+    /**
+     * Runs the action if the current transaction commits.
+     * @param action an action
+     * @return if the action was registered
+     */
+    private static boolean afterCommit(final Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return false;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * The event most recently saved for a session.
+     */
+    private static final class Recent {
+
+        final long id;
+
+        final Integer version;
+
+        final Timestamp time;
+
+        final String key;
+
+        final long created;
+
+        Recent(long id, Integer version, Timestamp time, String key) {
+            this.id = id;
+            this.version = version;
+            this.time = time;
+            this.key = key;
+            this.created = System.currentTimeMillis();
+        }
+    }
+}
@@ -225,10 +225,25 @@ public class EventHandler implements MethodInterceptor, ApplicationListener<Cont
         // now the user can be considered to be logged in.
         EventContext ec = secSys.getEventContext();
         if (!readOnly) {
-            sql.prepareSession(
+            final EventCoalescer coalescer = secSys.getEventCoalescer();
+            if (coalescer == null) {
+                sql.prepareSession(
+                        ec.getCurrentEventId(),
+                        ec.getCurrentUserId(),
+                        ec.getCurrentGroupId());
+            } else if (!coalescer.isPrepared(ec.getCurrentEventType(),
                     ec.getCurrentEventId(),
                     ec.getCurrentUserId(),
-                    ec.getCurrentGroupId());
+                    ec.getCurrentGroupId())) {
+                sql.prepareSession(
+                        ec.getCurrentEventId(),
+                        ec.getCurrentUserId(),
+                        ec.getCurrentGroupId());
+                coalescer.prepared(
+                        ec.getCurrentEventId(),
+                        ec.getCurrentUserId(),
+                        ec.getCurrentGroupId());
+            }
         }
         if (log.isInfoEnabled()) {
             StringBuilder sb = new StringBuilder();
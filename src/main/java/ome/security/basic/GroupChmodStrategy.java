@@ -19,6 +19,7 @@
 package ome.security.basic;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -140,7 +141,15 @@ public class GroupChmodStrategy implements ChmodStrategy,
                 sb.append(" and x.details.owner.id <> y.details.owner.id");
             }
 
-            return em.countLocks(session, null, lockChecks, sb.toString());
+            final String clause = sb.toString();
+            final int firstLock = em.findLock(session, null, lockChecks, clause);
+            if (firstLock < 0) {
+                return Collections.singletonMap("*", 0L); // no need to count
+            }
+            // the earlier checks found no locks so need not be counted
+            return em.countLocks(session, null,
+                    Arrays.copyOfRange(lockChecks, firstLock, lockChecks.length),
+                    clause);
         }
     }
 
@@ -25,6 +25,7 @@ import java.util.Map;
 import ome.system.EventContext;
 import ome.model.core.Image;
 import ome.model.internal.Details;
+import ome.services.sharing.ShareIndex;
 import ome.services.sharing.ShareStore;
 import ome.services.sharing.data.ShareData;
 import ome.system.Roles;
@@ -78,8 +79,8 @@ public class SharingSecurityFilter extends AbstractSecurityFilter {
         if (shareId == null) {
             return true;
         }
-        final ShareData share = shares.get(shareId);
-        return ec.isCurrentUserAdmin() || share != null && share.enabled;
+        final ShareIndex share = shares.getIndex(shareId);
+        return ec.isCurrentUserAdmin() || share != null && share.getData().enabled;
     }
 
     @Override
@@ -87,7 +88,8 @@ public class SharingSecurityFilter extends AbstractSecurityFilter {
         List<Long> imageIds = null;
         final Long shareId = ec.getCurrentShareId();
         if (shareId != null) {
-            final ShareData shareData = shares.get(shareId);
+            final ShareIndex share = shares.getIndex(shareId);
+            final ShareData shareData = share == null ? null : share.getData();
             if (shareData != null && shareData.enabled) {
                 imageIds = shareData.objectMap.get(Image.class.getName());
             }
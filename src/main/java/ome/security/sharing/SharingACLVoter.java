@@ -17,8 +17,8 @@ import ome.security.ACLVoter;
 import ome.security.SystemTypes;
 import ome.security.basic.CurrentDetails;
 import ome.security.basic.TokenHolder;
+import ome.services.sharing.ShareIndex;
 import ome.services.sharing.ShareStore;
-import ome.services.sharing.data.ShareData;
 
 import org.hibernate.Session;
 import org.slf4j.Logger;
@@ -73,8 +73,8 @@ public class SharingACLVoter implements ACLVoter {
             return true;
         }
         long sessionID = cd.getCurrentEventContext().getCurrentShareId();
-        ShareData data = store.get(sessionID);
-        if (data.enabled) {
+        ShareIndex index = store.getIndex(sessionID);
+        if (index != null && index.getData().enabled) {
             return store.contains(sessionID, klass, id);
         }
         return false;
@@ -0,0 +1,524 @@
+/*
+ *   Copyright 2026 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import ome.io.nio.DimensionsOutOfBoundsException;
+import ome.io.nio.PixelBuffer;
+import ome.util.PixelData;
+
+/**
+ * {@link PixelBuffer} which can present a decimated view of the XY planes of
+ * another, so that thumbnails of large images without a resolution pyramid
+ * may be rendered without rendering the full plane. While a stride greater
+ * than one is set with {@link #setStride(int)} the X and Y sizes are divided
+ * by the stride and {@link #getPlane(Integer, Integer, Integer)} and
+ * {@link #getTile(Integer, Integer, Integer, Integer, Integer, Integer, Integer)}
+ * return the pixel from the middle of each stride-by-stride block. The
+ * wrapped buffer is read one tile at a time, and only across the sampled
+ * pixels of each tile, so that each tile is decoded at most once and tiles
+ * without sampled pixels are skipped.
+ * All other calls, and all calls while the stride is one, are passed through
+ * unchanged.
+ *
+ * @since 5.7.3
+ */
+public class DecimatingPixelBuffer implements PixelBuffer {
+
+    /**
+     * How many times larger than the thumbnail the decimated plane is kept,
+     * so that the final scaling still smooths the strided samples.
+     */
+    public static final int OVERSAMPLING = 2;
+
+    /**
+     * The smallest width and height of plane which is decimated. Smaller
+     * planes are cheap enough to render whole before scaling.
+     */
+    public static final int LARGE_PLANE_SIZE = 1024;
+
+    private final PixelBuffer delegate;
+
+    private int stride = 1;
+
+    public DecimatingPixelBuffer(PixelBuffer delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Wraps a buffer so that its planes may be decimated if it has no
+     * resolution pyramid and its planes are at least
+     * {@link #LARGE_PLANE_SIZE} wide and high.
+     *
+     * @param buffer a pixel buffer.
+     * @return the buffer, wrapped if its planes may need decimating.
+     */
+    public static PixelBuffer wrapIfLarge(PixelBuffer buffer) {
+        if (buffer.getResolutionLevels() > 1
+                || buffer.getSizeX() < LARGE_PLANE_SIZE
+                || buffer.getSizeY() < LARGE_PLANE_SIZE) {
+            return buffer;
+        }
+        return new DecimatingPixelBuffer(buffer);
+    }
+
+    /**
+     * Chooses the largest stride which keeps the decimated plane at least
+     * {@link #OVERSAMPLING} times the size of the thumbnail.
+     *
+     * @param sizeX the width of the plane.
+     * @param sizeY the height of the plane.
+     * @param thumbnailSizeX the width of the thumbnail.
+     * @param thumbnailSizeY the height of the thumbnail.
+     * @return the stride, one if the plane should not be decimated.
+     */
+    public static int chooseStride(int sizeX, int sizeY, int thumbnailSizeX,
+            int thumbnailSizeY) {
+        final int strideX = sizeX / Math.max(1, OVERSAMPLING * thumbnailSizeX);
+        final int strideY = sizeY / Math.max(1, OVERSAMPLING * thumbnailSizeY);
+        return Math.max(1, Math.min(strideX, strideY));
+    }
+
+    /**
+     * @return the wrapped buffer.
+     */
+    public PixelBuffer getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return the current stride, one if the planes are not decimated.
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * @param stride the stride by which to decimate planes, one to stop
+     *            decimating.
+     */
+    public void setStride(int stride) {
+        if (stride < 1) {
+            throw new IllegalArgumentException("stride must be positive");
+        }
+        this.stride = stride;
+    }
+
+    /**
+     * @param index a row or column of the decimated plane.
+     * @return the row or column of the wrapped buffer that it samples.
+     */
+    private int source(int index) {
+        return index * stride + stride / 2;
+    }
+
+    /**
+     * Counts how many consecutive decimated rows or columns sample the same
+     * row or column of tiles of the wrapped buffer.
+     *
+     * @param first the first decimated row or column.
+     * @param remaining the most that may be counted.
+     * @param tileLength the height or width of the wrapped buffer's tiles.
+     * @return how many from the first sample the same row or column of tiles.
+     */
+    private int samplesInTile(int first, int remaining, int tileLength) {
+        final int tile = source(first) / tileLength;
+        int count = 1;
+        while (count < remaining && source(first + count) / tileLength == tile) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Reads the decimated region, sampling the middle pixel of each
+     * stride-by-stride block of the wrapped buffer. The wrapped buffer is
+     * read one tile at a time, each read spanning only the sampled pixels of
+     * the tile, so that no tile is read twice and no more than a tile is
+     * held at once. A buffer without tiles is read one sampled row at a time.
+     */
+    private PixelData decimate(Integer z, Integer c, Integer t, int x, int y,
+            int w, int h) throws IOException {
+        if (w < 1 || h < 1 || x < 0 || y < 0
+                || x + w > getSizeX() || y + h > getSizeY()) {
+            throw new DimensionsOutOfBoundsException(String.format(
+                    "region %d,%d %dx%d outside decimated plane %dx%d",
+                    x, y, w, h, getSizeX(), getSizeY()));
+        }
+        final Dimension tileSize = delegate.getTileSize();
+        final int tileWidth = tileSize == null ? delegate.getSizeX()
+                : Math.max(1, tileSize.width);
+        final int tileHeight = tileSize == null ? 1
+                : Math.max(1, tileSize.height);
+
+        String pixelsType = null;
+        ByteOrder order = null;
+        int bytesPerPixel = 0;
+        byte[] bytes = null;
+        int row = 0;
+        while (row < h) {
+            final int rows = samplesInTile(y + row, h - row, tileHeight);
+            final int sourceY = source(y + row);
+            final int sourceHeight = (rows - 1) * stride + 1;
+            int col = 0;
+            while (col < w) {
+                final int cols = samplesInTile(x + col, w - col, tileWidth);
+                final int sourceX = source(x + col);
+                final int sourceWidth = (cols - 1) * stride + 1;
+                final PixelData tile = delegate.getTile(z, c, t, sourceX,
+                        sourceY, sourceWidth, sourceHeight);
+                try {
+                    final ByteBuffer data = tile.getData();
+                    if (bytes == null) {
+                        pixelsType = tile.getPixelsType();
+                        bytesPerPixel = tile.bytesPerPixel();
+                        order = data.order();
+                        bytes = new byte[w * h * bytesPerPixel];
+                    }
+                    final int sourceRowBytes = sourceWidth * bytesPerPixel;
+                    final int sourceStepBytes = stride * bytesPerPixel;
+                    for (int j = 0; j < rows; j++) {
+                        int from = j * stride * sourceRowBytes;
+                        int to = ((row + j) * w + col) * bytesPerPixel;
+                        for (int i = 0; i < cols; i++) {
+                            for (int b = 0; b < bytesPerPixel; b++) {
+                                bytes[to++] = data.get(from + b);
+                            }
+                            from += sourceStepBytes;
+                        }
+                    }
+                } finally {
+                    tile.dispose();
+                }
+                col += cols;
+            }
+            row += rows;
+        }
+        return new PixelData(pixelsType, ByteBuffer.wrap(bytes).order(order));
+    }
+
+    /**
+     * Copies decimated pixel data into the given buffer, or a new one if it
+     * is too small.
+     */
+    private static byte[] copy(PixelData pixelData, byte[] buffer) {
+        final byte[] bytes = pixelData.getData().array();
+        if (buffer == null || buffer.length < bytes.length) {
+            return bytes;
+        }
+        System.arraycopy(bytes, 0, buffer, 0, bytes.length);
+        return buffer;
+    }
+
+    //
+    // Decimated when the stride is greater than one
+    //
+
+    public int getSizeX() {
+        return stride == 1 ? delegate.getSizeX() : delegate.getSizeX() / stride;
+    }
+
+    public int getSizeY() {
+        return stride == 1 ? delegate.getSizeY() : delegate.getSizeY() / stride;
+    }
+
+    public PixelData getPlane(Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException {
+        if (stride == 1) {
+            return delegate.getPlane(z, c, t);
+        }
+        return decimate(z, c, t, 0, 0, getSizeX(), getSizeY());
+    }
+
+    public byte[] getPlaneDirect(Integer z, Integer c, Integer t,
+            byte[] buffer) throws IOException, DimensionsOutOfBoundsException {
+        if (stride == 1) {
+            return delegate.getPlaneDirect(z, c, t, buffer);
+        }
+        return copy(decimate(z, c, t, 0, 0, getSizeX(), getSizeY()), buffer);
+    }
+
+    public PixelData getTile(Integer z, Integer c, Integer t, Integer x,
+            Integer y, Integer w, Integer h) throws IOException {
+        if (stride == 1) {
+            return delegate.getTile(z, c, t, x, y, w, h);
+        }
+        return decimate(z, c, t, x, y, w, h);
+    }
+
+    public byte[] getTileDirect(Integer z, Integer c, Integer t, Integer x,
+            Integer y, Integer w, Integer h, byte[] buffer) throws IOException {
+        if (stride == 1) {
+            return delegate.getTileDirect(z, c, t, x, y, w, h, buffer);
+        }
+        return copy(decimate(z, c, t, x, y, w, h), buffer);
+    }
+
+    public int getResolutionLevel() {
+        return stride == 1 ? delegate.getResolutionLevel() : 0;
+    }
+
+    public int getResolutionLevels() {
+        return stride == 1 ? delegate.getResolutionLevels() : 1;
+    }
+
+    public List<List<Integer>> getResolutionDescriptions() {
+        if (stride == 1) {
+            return delegate.getResolutionDescriptions();
+        }
+        return Collections.singletonList(Arrays.asList(getSizeX(), getSizeY()));
+    }
+
+    public Dimension getTileSize() {
+        final Dimension tileSize = delegate.getTileSize();
+        if (stride == 1 || tileSize == null) {
+            return tileSize;
+        }
+        return new Dimension(Math.min(tileSize.width, getSizeX()),
+                Math.min(tileSize.height, getSizeY()));
+    }
+
+    //
+    // Passed through
+    //
+
+    public void setResolutionLevel(int resolutionLevel) {
+        delegate.setResolutionLevel(resolutionLevel);
+    }
+
+    public byte[] calculateMessageDigest() throws IOException {
+        return delegate.calculateMessageDigest();
+    }
+
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    public int getByteWidth() {
+        return delegate.getByteWidth();
+    }
+
+    public PixelData getCol(Integer x, Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException {
+        return delegate.getCol(x, z, c, t);
+    }
+
+    public byte[] getColDirect(Integer x, Integer z, Integer c, Integer t,
+            byte[] buffer) throws IOException, DimensionsOutOfBoundsException {
+        return delegate.getColDirect(x, z, c, t, buffer);
+    }
+
+    public Integer getColSize() {
+        return delegate.getColSize();
+    }
+
+    public long getId() {
+        return delegate.getId();
+    }
+
+    public String getPath() {
+        return delegate.getPath();
+    }
+
+    public Long getPlaneOffset(Integer z, Integer c, Integer t)
+            throws DimensionsOutOfBoundsException {
+        return delegate.getPlaneOffset(z, c, t);
+    }
+
+    public PixelData getPlaneRegion(Integer x, Integer y, Integer width,
+            Integer height, Integer z, Integer c, Integer t, Integer stride)
+            throws IOException, DimensionsOutOfBoundsException {
+        return delegate.getPlaneRegion(x, y, width, height, z, c, t, stride);
+    }
+
+    public byte[] getPlaneRegionDirect(Integer z, Integer c, Integer t,
+            Integer count, Integer offset, byte[] buffer)
+            throws IOException, DimensionsOutOfBoundsException {
+        return delegate.getPlaneRegionDirect(z, c, t, count, offset, buffer);
+    }
+
+    public Long getPlaneSize() {
+        return delegate.getPlaneSize();
+    }
+
+    public PixelData getRegion(Integer size, Long offset) throws IOException {
+        return delegate.getRegion(size, offset);
+    }
+
+    public byte[] getRegionDirect(Integer size, Long offset, byte[] buffer)
+            throws IOException {
+        return delegate.getRegionDirect(size, offset, buffer);
+    }
+
+    public PixelData getRow(Integer y, Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException {
+        return delegate.getRow(y, z, c, t);
+    }
+
+    public byte[] getRowDirect(Integer y, Integer z, Integer c, Integer t,
+            byte[] buffer) throws IOException, DimensionsOutOfBoundsException {
+        return delegate.getRowDirect(y, z, c, t, buffer);
+    }
+
+    public Long getRowOffset(Integer y, Integer z, Integer c, Integer t)
+            throws DimensionsOutOfBoundsException {
+        return delegate.getRowOffset(y, z, c, t);
+    }
+
+    public Integer getRowSize() {
+        return delegate.getRowSize();
+    }
+
+    public int getSizeC() {
+        return delegate.getSizeC();
+    }
+
+    public int getSizeT() {
+        return delegate.getSizeT();
+    }
+
+    public int getSizeZ() {
+        return delegate.getSizeZ();
+    }
+
+    public PixelData getStack(Integer c, Integer t) throws IOException,
+            DimensionsOutOfBoundsException {
+        return delegate.getStack(c, t);
+    }
+
+    public byte[] getStackDirect(Integer c, Integer t, byte[] buffer)
+            throws IOException, DimensionsOutOfBoundsException {
+        return delegate.getStackDirect(c, t, buffer);
+    }
+
+    public Long getStackOffset(Integer c, Integer t)
+            throws DimensionsOutOfBoundsException {
+        return delegate.getStackOffset(c, t);
+    }
+
+    public Long getStackSize() {
+        return delegate.getStackSize();
+    }
+
+    public PixelData getTimepoint(Integer t) throws IOException,
+            DimensionsOutOfBoundsException {
+        return delegate.getTimepoint(t);
+    }
+
+    public byte[] getTimepointDirect(Integer t, byte[] buffer)
+            throws IOException, DimensionsOutOfBoundsException {
+        return delegate.getTimepointDirect(t, buffer);
+    }
+
+    public Long getTimepointOffset(Integer t)
+            throws DimensionsOutOfBoundsException {
+        return delegate.getTimepointOffset(t);
+    }
+
+    public Long getTimepointSize() {
+        return delegate.getTimepointSize();
+    }
+
+    public Long getTotalSize() {
+        return delegate.getTotalSize();
+    }
+
+    public boolean isFloat() {
+        return delegate.isFloat();
+    }
+
+    public boolean isSigned() {
+        return delegate.isSigned();
+    }
+
+    public void setPlane(ByteBuffer buffer, Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        delegate.setPlane(buffer, z, c, t);
+    }
+
+    public void setPlane(byte[] buffer, Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        delegate.setPlane(buffer, z, c, t);
+    }
+
+    public void setRegion(Integer size, Long offset, byte[] buffer)
+            throws IOException, BufferOverflowException {
+        delegate.setRegion(size, offset, buffer);
+    }
+
+    public void setRegion(Integer size, Long offset, ByteBuffer buffer)
+            throws IOException, BufferOverflowException {
+        delegate.setRegion(size, offset, buffer);
+    }
+
+    public void setRow(ByteBuffer buffer, Integer y, Integer z, Integer c,
+            Integer t) throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        delegate.setRow(buffer, y, z, c, t);
+    }
+
+    public void setStack(ByteBuffer buffer, Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        delegate.setStack(buffer, z, c, t);
+    }
+
+    public void setStack(byte[] buffer, Integer z, Integer c, Integer t)
+            throws IOException, DimensionsOutOfBoundsException,
+            BufferOverflowException {
+        delegate.setStack(buffer, z, c, t);
+    }
+
+    public void setTimepoint(ByteBuffer buffer, Integer t) throws IOException,
+            DimensionsOutOfBoundsException, BufferOverflowException {
+        delegate.setTimepoint(buffer, t);
+    }
+
+    public void setTimepoint(byte[] buffer, Integer t) throws IOException,
+            DimensionsOutOfBoundsException, BufferOverflowException {
+        delegate.setTimepoint(buffer, t);
+    }
+
+    public void checkBounds(Integer x, Integer y, Integer z, Integer c,
+            Integer t) throws DimensionsOutOfBoundsException {
+        delegate.checkBounds(x, y, z, c, t);
+    }
+
+    public Long getHypercubeSize(List<Integer> offset, List<Integer> size,
+            List<Integer> step) throws DimensionsOutOfBoundsException {
+        return delegate.getHypercubeSize(offset, size, step);
+    }
+
+    public PixelData getHypercube(List<Integer> offset, List<Integer> size,
+            List<Integer> step) throws IOException,
+            DimensionsOutOfBoundsException {
+        return delegate.getHypercube(offset, size, step);
+    }
+
+    public byte[] getHypercubeDirect(List<Integer> offset, List<Integer> size,
+            List<Integer> step, byte[] buffer) throws IOException,
+            DimensionsOutOfBoundsException {
+        return delegate.getHypercubeDirect(offset, size, step, buffer);
+    }
+
+    public void setTile(byte[] buffer, Integer z, Integer c, Integer t,
+            Integer x, Integer y, Integer w, Integer h) throws IOException,
+            BufferOverflowException {
+        delegate.setTile(buffer, z, c, t, x, y, w, h);
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ *   Copyright 2026 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import ome.model.meta.EventLog;
+import ome.model.roi.Mask;
+import ome.model.roi.Roi;
+import ome.services.messages.EventLogsMessage;
+import ome.system.EventContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * Holds the full-plane {@link Mask} overlays of recently rendered images so
+ * that {@link RenderingBean} does not query the database and copy every mask
+ * on each render call. All masks of a pixels set are loaded at once and
+ * grouped by plane; each render then only looks up the plane's masks.
+ *
+ * Entries are keyed by the session, group and share in addition to the
+ * pixels id, since the masks which are visible depend on the security
+ * context they were loaded in. The total size of the mask bytes held is
+ * bounded; pixels sets whose masks alone exceed the bound are not indexed.
+ * Entries are invalidated by {@link EventLogsMessage}s for {@link Mask}
+ * and {@link Roi} and in any case expire after a fixed time, which bounds
+ * staleness from changes made elsewhere, e.g. in another server process.
+ *
+ * @since 5.7.3
+ */
+public class MaskIndex implements ApplicationListener<EventLogsMessage> {
+
+    private final static Logger log = LoggerFactory.getLogger(MaskIndex.class);
+
+    private final static String[] ACTIONS = { "INSERT", "UPDATE", "DELETE" };
+
+    private final long maxBytes;
+
+    private final Cache<Key, PlaneMasks> cache;
+
+    /**
+     * @param maxBytes maximum total size of the mask bytes held.
+     * @param expirySeconds time after loading at which an entry is dropped.
+     */
+    public MaskIndex(long maxBytes, long expirySeconds) {
+        this.maxBytes = maxBytes;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(new Weigher<Key, PlaneMasks>() {
+                    @Override
+                    public int weigh(Key key, PlaneMasks value) {
+                        return (int) Math.min(Integer.MAX_VALUE, value.bytes);
+                    }
+                })
+                .expireAfterWrite(expirySeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Returns the masks of the pixels set, loading them if necessary.
+     *
+     * @param ec the context in which <code>loader</code> will run.
+     * @param pixelsId the pixels set.
+     * @param loader loads every full-plane mask of the pixels set.
+     * @return the masks grouped by plane or <code>null</code> if they are
+     *         too large to be indexed, in which case the caller should
+     *         query per plane.
+     */
+    public PlaneMasks get(EventContext ec, long pixelsId,
+            Callable<List<Mask>> loader) throws Exception {
+        final Key key = new Key(pixelsId, ec.getCurrentSessionUuid(),
+                ec.getCurrentGroupId(), ec.getCurrentShareId());
+        PlaneMasks masks = cache.getIfPresent(key);
+        if (masks != null) {
+            return masks;
+        }
+        masks = new PlaneMasks(loader.call());
+        if (masks.bytes > maxBytes) {
+            log.debug("Not indexing {} bytes of masks for Pixels:{}",
+                    masks.bytes, pixelsId);
+            return null;
+        }
+        cache.put(key, masks);
+        return masks;
+    }
+
+    @Override
+    public void onApplicationEvent(EventLogsMessage elm) {
+        final Set<Long> maskIds = ids(elm, Mask.class.getName());
+        final Set<Long> roiIds = ids(elm, Roi.class.getName());
+        if (maskIds.isEmpty() && roiIds.isEmpty()) {
+            return;
+        }
+        if (!elm.matches(Mask.class.getName(), "INSERT").isEmpty()
+                || !elm.matches(Roi.class.getName(), "INSERT").isEmpty()) {
+            // A new mask cannot be mapped to its pixels set without a query.
+            cache.invalidateAll();
+            return;
+        }
+        for (Map.Entry<Key, PlaneMasks> entry : cache.asMap().entrySet()) {
+            final PlaneMasks masks = entry.getValue();
+            if (!Collections.disjoint(masks.maskIds, maskIds)
+                    || !Collections.disjoint(masks.roiIds, roiIds)) {
+                cache.invalidate(entry.getKey());
+            }
+        }
+    }
+
+    private static Set<Long> ids(EventLogsMessage elm, String klass) {
+        final Set<Long> ids = new HashSet<Long>();
+        for (String action : ACTIONS) {
+            for (EventLog el : elm.matches(klass, action)) {
+                ids.add(el.getEntityId());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Immutable view of the full-plane masks of one pixels set.
+     */
+    public static class PlaneMasks {
+
+        private final Map<Long, List<Mask>> byPlane =
+                new HashMap<Long, List<Mask>>();
+
+        private final Set<Long> maskIds = new HashSet<Long>();
+
+        private final Set<Long> roiIds = new HashSet<Long>();
+
+        private final long bytes;
+
+        PlaneMasks(List<Mask> masks) {
+            long size = 0;
+            for (Mask mask : masks) {
+                maskIds.add(mask.getId());
+                if (mask.getRoi() != null) {
+                    roiIds.add(mask.getRoi().getId());
+                }
+                if (mask.getTheZ() == null || mask.getTheT() == null
+                        || mask.getTheC() == null || mask.getBytes() == null) {
+                    continue;
+                }
+                final Long plane = plane(mask.getTheZ(), mask.getTheT());
+                List<Mask> list = byPlane.get(plane);
+                if (list == null) {
+                    list = new ArrayList<Mask>();
+                    byPlane.put(plane, list);
+                }
+                list.add(mask);
+                size += mask.getBytes().length;
+            }
+            this.bytes = size;
+        }
+
+        private static Long plane(int z, int t) {
+            return (((long) z) << 32) | (t & 0xFFFFFFFFL);
+        }
+
+        /**
+         * Returns the mask bytes and fill colors of the plane in the same
+         * form as used by {@link omeis.providers.re.Renderer#setOverlays}.
+         *
+         * @param z the optical section.
+         * @param t the timepoint.
+         * @param channels the active channels.
+         * @param shapeIds if not empty, only these masks are returned.
+         */
+        public Map<byte[], Integer> lookup(int z, int t,
+                Collection<Integer> channels, Collection<Long> shapeIds) {
+            final Map<byte[], Integer> rv = new LinkedHashMap<byte[], Integer>();
+            final List<Mask> masks = byPlane.get(plane(z, t));
+            if (masks == null) {
+                return rv;
+            }
+            final Set<Long> only = shapeIds == null || shapeIds.isEmpty() ?
+                    null : new HashSet<Long>(shapeIds);
+            for (Mask mask : masks) {
+                if (!channels.contains(mask.getTheC())) {
+                    continue;
+                }
+                if (only != null && !only.contains(mask.getId())) {
+                    continue;
+                }
+                rv.put(mask.getBytes(), mask.getFillColor());
+            }
+            return rv;
+        }
+    }
+
+    private static final class Key {
+
+        final long pixelsId;
+
+        final String session;
+
+        final Long groupId;
+
+        final Long shareId;
+
+        Key(long pixelsId, String session, Long groupId, Long shareId) {
+            this.pixelsId = pixelsId;
+            this.session = session;
+            this.groupId = groupId;
+            this.shareId = shareId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return pixelsId == other.pixelsId
+                    && eq(session, other.session)
+                    && eq(groupId, other.groupId)
+                    && eq(shareId, other.shareId);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = (int) (pixelsId ^ (pixelsId >>> 32));
+            h = 31 * h + (session == null ? 0 : session.hashCode());
+            h = 31 * h + (groupId == null ? 0 : groupId.hashCode());
+            h = 31 * h + (shareId == null ? 0 : shareId.hashCode());
+            return h;
+        }
+
+        private static boolean eq(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+}
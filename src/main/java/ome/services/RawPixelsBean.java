@@ -13,7 +13,9 @@ import java.io.IOException;
 import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -35,6 +37,7 @@ import ome.io.nio.TileSizes;
 import ome.model.core.Channel;
 import ome.model.core.Pixels;
 import ome.parameters.Parameters;
+import ome.services.pixeldata.HistogramEngine;
 import ome.util.PixelData;
 import ome.util.ShallowCopy;
 import ome.util.SqlAction;
@@ -99,6 +102,9 @@ public class RawPixelsBean extends AbstractStatefulBean implements
     /** TileSizes */
     private TileSizes tileSizes;
 
+    /** Tile-streaming histogram and min/max calculation. */
+    private transient HistogramEngine histogramEngine;
+
     /**
      * default constructor
      */
@@ -119,6 +125,10 @@ public class RawPixelsBean extends AbstractStatefulBean implements
         this.tileSizes = tileSizes;
     }
 
+    public synchronized void setHistogramEngine(HistogramEngine histogramEngine) {
+        this.histogramEngine = histogramEngine;
+    }
+
     public synchronized Class<? extends ServiceInterface> getServiceInterface() {
         return RawPixelsStore.class;
     }
@@ -734,38 +744,24 @@ public class RawPixelsBean extends AbstractStatefulBean implements
         Map<Integer, int[]> result = new HashMap<Integer, int[]>();
 
         try {
+            Map<Integer, double[]> ranges = new LinkedHashMap<Integer, double[]>();
+            List<Integer> scan = new ArrayList<Integer>();
             for (int ch : channels) {
                 Channel channel = pixelsInstance.getChannel(ch);
                 if (channel == null)
                     continue;
-                PixelData px = buffer.getPlane(z, ch, t);
-                int[] data = new int[binCount];
-
-                double[] minmax = determineHistogramMinMax(px, channel,
-                        globalRange);
-                double min = minmax[0];
-                double max = minmax[1];
-
-                double range = max - min;
-                double binRange = range / binCount;
-                for (int i = 0; i < px.size(); i++) {
-                    int pxx = i % imgWidth;
-                    int pxy = i / imgWidth;
-                    if (pxx >= x && pxx < (x + w) && pxy >= y && pxy < (y + h)) {
-                        if (px.getPixelValue(i) < min || px.getPixelValue(i) > max) {
-                            continue;
-                        } else {
-                            int bin = (int) ((px.getPixelValue(i) - min) / binRange);
-                            // Handle values exactly at the last edge
-                            if (bin == binCount) {
-                                bin--;
-                            }
-                            data[bin]++;
-                        }
-                    }
+                double[] minmax = globalRange ? globalMinMax(channel) : null;
+                if (minmax == null) {
+                    scan.add(ch);
                 }
-                result.put(ch, data);
+                ranges.put(ch, minmax);
+            }
+            if (!scan.isEmpty()) {
+                ranges.putAll(getHistogramEngine().minMax(buffer, scan, z, t,
+                        initialMinMax()));
             }
+            result.putAll(getHistogramEngine().histograms(buffer, ranges,
+                    z, t, x, y, w, h, binCount));
         } catch (Exception e) {
             handleException(e);
         }
@@ -781,17 +777,18 @@ public class RawPixelsBean extends AbstractStatefulBean implements
             return result;
 
         try {
+            List<Integer> scan = new ArrayList<Integer>();
             for (int ch : channels) {
                 Channel channel = pixelsInstance.getChannel(ch);
                 if (channel == null)
                     continue;
-                int z = buffer.getSizeZ() > 1 ? (buffer.getSizeZ() - 1) / 2 : 0;
-                int t = buffer.getSizeT() > 1 ? (buffer.getSizeT() - 1) / 2 : 0;
-                PixelData px = buffer.getPlane(z, ch, t);
-                double[] minmax = determineHistogramMinMax(px, channel, false);
-                result.put(ch, minmax);
+                scan.add(ch);
             }
-        } catch (IOException e) {
+            int z = buffer.getSizeZ() > 1 ? (buffer.getSizeZ() - 1) / 2 : 0;
+            int t = buffer.getSizeT() > 1 ? (buffer.getSizeT() - 1) / 2 : 0;
+            result.putAll(getHistogramEngine().minMax(buffer, scan, z, t,
+                    initialMinMax()));
+        } catch (Exception e) {
             handleException(e);
         }
         return result;
@@ -801,46 +798,43 @@ public class RawPixelsBean extends AbstractStatefulBean implements
     // =========================================================================
     
     /**
-     * Get the minimum and maximum value to use for the histogram. If useGlobal
-     * is <code>true</code> and the channel has stats calculated the global
-     * minimum and maximum will be used, otherwise the minimum and maximum value
-     * of the plane will be used.
+     * Get the global minimum and maximum of the channel if stats have been
+     * calculated.
      * 
-     * @param px
-     *            The {@link PixelData}
      * @param channel
      *            The {@link Channel}
-     * @param useGlobal
-     *            Try to use the global minimum/maximum
-     * @return See above
+     * @return See above or <code>null</code> if the plane minimum and maximum
+     *         should be used instead.
      */
-    private double[] determineHistogramMinMax(PixelData px, Channel channel,
-            boolean useGlobal) {
-        double min, max;
-
-        if (useGlobal && channel != null && channel.getStatsInfo() != null) {
-            min = channel.getStatsInfo().getGlobalMin();
-            max = channel.getStatsInfo().getGlobalMax();
+    private double[] globalMinMax(Channel channel) {
+        if (channel.getStatsInfo() != null) {
+            double min = channel.getStatsInfo().getGlobalMin();
+            double max = channel.getStatsInfo().getGlobalMax();
             // if max == 1.0 the global min/max probably has not been
             // calculated; fall back to plane min/max
             if (max != 1.0)
                 return new double[] { min, max };
         }
+        return null;
+    }
 
+    /**
+     * Returns the start values for a scan of the plane minimum and maximum,
+     * i.e. the maximum and minimum of the pixels type.
+     */
+    private double[] initialMinMax() {
         StatsFactory sf = new StatsFactory();
-        double[] pixelMinMax = sf.initPixelsRange(channel.getPixels());
-
-        min = pixelMinMax[1];
-        max = pixelMinMax[0];
+        double[] pixelMinMax = sf.initPixelsRange(pixelsInstance);
+        return new double[] { pixelMinMax[1], pixelMinMax[0] };
+    }
 
-        for (int i = 0; i < px.size(); i++) {
-            min = Math.min(min, px.getPixelValue(i));
-            max = Math.max(max, px.getPixelValue(i));
+    private synchronized HistogramEngine getHistogramEngine() {
+        if (histogramEngine == null) {
+            histogramEngine = new HistogramEngine();
         }
-
-        return new double[] { min, max };
+        return histogramEngine;
     }
-    
+
     private synchronized byte[] bufferAsByteArrayWithExceptionIfNull(ByteBuffer buffer) {
         byte[] b = new byte[buffer.capacity()];
         buffer.get(b, 0, buffer.capacity());
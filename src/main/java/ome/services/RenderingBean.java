@@ -6,15 +6,17 @@ package ome.services;
 
 import java.awt.Dimension;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import ome.annotations.RolesAllowed;
@@ -161,6 +163,45 @@ public class RenderingBean implements RenderingEngine, Serializable {
     /** The resolution level to be used by the pixel buffer. */
     private Integer resolutionLevel;
 
+    /** Shared index of the masks of recently rendered images. */
+    private transient MaskIndex maskIndex;
+
+    /**
+     * Overlays set via the deprecated {@link #setOverlays(Map)}, applied to
+     * every render without masks of its own.
+     */
+    private transient Map<byte[], Integer> overlays;
+
+    /** Used to create the renderers of {@link #idleSlots}. */
+    private transient QuantumFactory quantumFactory;
+
+    /** Used to create the renderers of {@link #idleSlots}. */
+    private transient List<RenderingModel> renderingModels;
+
+    /**
+     * Incremented, under the write lock, whenever the rendering settings
+     * change. Renderers created for an older generation are rebuilt before
+     * they are used again.
+     */
+    private transient long settingsGeneration;
+
+    /**
+     * Renderers which are not currently in use by a render call. Each holds
+     * its own pixel buffer so that renders can run concurrently under the
+     * read lock. Empty whenever the bean is passivated or serialized.
+     */
+    private final ArrayDeque<RenderSlot> idleSlots = new ArrayDeque<RenderSlot>();
+
+    /** Maximum number of renderers, leased or idle, which are open. */
+    private int rendererPoolSize = 4;
+
+    /**
+     * One permit per renderer which may be open, so that render calls
+     * beyond {@link #rendererPoolSize} wait rather than each opening
+     * another pixel buffer.
+     */
+    private Semaphore rendererPermits = new Semaphore(rendererPoolSize);
+
     /**
      * True when an explicit rendering def ID was passed into the
      * server. In this case, a call to {@link #saveCurrentSettings()}
@@ -192,6 +233,29 @@ public class RenderingBean implements RenderingEngine, Serializable {
         this.lutProvider = lutProvider;
     }
 
+    /**
+     * Mask index injector. Without an index, masks are queried on every
+     * render call.
+     *
+     * @param maskIndex
+     *          The shared mask index.
+     */
+    public void setMaskIndex(MaskIndex maskIndex) {
+        this.maskIndex = maskIndex;
+    }
+
+    /**
+     * Sets the maximum number of renderers, each with an open pixel buffer,
+     * which concurrent render calls may use at once.
+     *
+     * @param rendererPoolSize
+     *          The maximum number of renderers, at least one.
+     */
+    public void setRendererPoolSize(int rendererPoolSize) {
+        this.rendererPoolSize = Math.max(1, rendererPoolSize);
+        this.rendererPermits = new Semaphore(this.rendererPoolSize);
+    }
+
     @RolesAllowed("user")
     public long getRenderingDefId() {
         if (rendDefObj == null || rendDefObj.getId() == null) {
@@ -412,7 +476,8 @@ public class RenderingBean implements RenderingEngine, Serializable {
             closeRenderer();
             List<Family> families = getAllEnumerations(Family.class);
             List<RenderingModel> renderingModels = getAllEnumerations(RenderingModel.class);
-            QuantumFactory quantumFactory = new QuantumFactory(families);
+            quantumFactory = new QuantumFactory(families);
+            this.renderingModels = renderingModels;
             // Loading last to try to ensure that the buffer will get closed.
             PixelBuffer buffer = getPixelBuffer();
             renderer = new Renderer(quantumFactory, renderingModels, pixelsObj,
@@ -432,7 +497,15 @@ public class RenderingBean implements RenderingEngine, Serializable {
     @RolesAllowed("user")
     public void setOverlays(Map<byte[], Integer> overlays)
     {
-    	renderer.setOverlays(overlays);
+        rwl.writeLock().lock();
+        try {
+            this.overlays = overlays;
+            if (renderer != null) {
+                renderer.setOverlays(overlays);
+            }
+        } finally {
+            rwl.writeLock().unlock();
+        }
     }
 
     /**
@@ -462,6 +535,16 @@ public class RenderingBean implements RenderingEngine, Serializable {
      * annotations (also @TxSynchronized)
      */
 
+    /*
+     * RENDERING ============================================================
+     *
+     * Render calls only take the read lock so that, for instance, the tiles
+     * of one image can be rendered concurrently. Each call leases a renderer
+     * of its own (see leaseRenderer) on which the per-call state, i.e. the
+     * overlays and the resolution level, is set. The shared renderer is
+     * only used for reading and changing the settings.
+     */
+
     /**
      * Implemented as specified by the {@link RenderingEngine} interface.
      * 
@@ -469,15 +552,13 @@ public class RenderingBean implements RenderingEngine, Serializable {
      */
     @RolesAllowed("user")
     public RGBBuffer render(PlaneDef pd) {
-        rwl.readLock().lock();
+        readLockForRender();
 
+        RenderSlot slot = null;
         try {
-            final Map<byte[], Integer> overlays = getMasks(pd);
-            if (overlays.size() > 0) {
-                renderer.setOverlays(overlays);
-            }
             errorIfInvalidState();
-            return renderer.render(pd);
+            slot = leaseRenderer(getMasks(pd));
+            return slot.renderer.render(pd);
         } catch (IOException e) {
             log.error("IO error while rendering.", e);
             throw new ResourceError(e.getMessage());
@@ -485,6 +566,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
             log.error("Quantization exception while rendering.", e);
             throw new InternalException(e.getMessage());
         } finally {
+            releaseRenderer(slot);
             rwl.readLock().unlock();
         }
     }
@@ -496,20 +578,25 @@ public class RenderingBean implements RenderingEngine, Serializable {
      */
     @RolesAllowed("user")
     public int[] renderAsPackedInt(PlaneDef pd) {
-        rwl.writeLock().lock();
+        readLockForRender();
 
         try {
-            final Map<byte[], Integer> overlays = getMasks(pd);
-            if (overlays.size() > 0) {
-                renderer.setOverlays(overlays);
-            }
+            return renderPackedInt(pd);
+        } finally {
+            rwl.readLock().unlock();
+        }
+    }
+
+    /**
+     * Renders the plane on a leased renderer. The read lock must be held.
+     */
+    private int[] renderPackedInt(PlaneDef pd) {
+        RenderSlot slot = null;
+        try {
             errorIfInvalidState();
-            checkPlaneDef(pd);
-            if (resolutionLevel != null)
-            {
-                renderer.setResolutionLevel(resolutionLevel);
-            }
-            return renderer.renderAsPackedInt(pd, null);
+            slot = leaseRenderer(getMasks(pd));
+            checkPlaneDef(slot.renderer, pd);
+            return slot.renderer.renderAsPackedInt(pd, null);
         } catch (IOException e) {
             log.error("IO error while rendering.", e);
             throw new ResourceError(e.getMessage());
@@ -517,7 +604,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
             log.error("Quantization exception while rendering.", e);
             throw new InternalException(e.getMessage());
         } finally {
-            rwl.writeLock().unlock();
+            releaseRenderer(slot);
         }
     }
 
@@ -528,18 +615,12 @@ public class RenderingBean implements RenderingEngine, Serializable {
      */
     @RolesAllowed("user")
     public byte[] renderCompressed(PlaneDef pd) {
-        rwl.writeLock().lock();
-
-        ByteArrayOutputStream byteStream = null;
+        readLockForRender();
         try {
-            final Map<byte[], Integer> overlays = getMasks(pd);
-            if (overlays.size() > 0) {
-                renderer.setOverlays(overlays);
-            }
             int stride = pd.getStride();
             if (stride < 0) stride = 0;
             stride++;
-            int[] buf = renderAsPackedInt(pd);
+            int[] buf = renderPackedInt(pd);
             int sizeX = pixelsObj.getSizeX();
             int sizeY = pixelsObj.getSizeY();
             RegionDef region = pd.getRegion();
@@ -551,22 +632,12 @@ public class RenderingBean implements RenderingEngine, Serializable {
             sizeY = sizeY/stride;
             BufferedImage image = ImageUtil.createBufferedImage(buf, sizeX,
                     sizeY);
-            byteStream = new ByteArrayOutputStream();
-            compressionSrv.compressToStream(image, byteStream);
-            return byteStream.toByteArray();
+            return compressionSrv.compressToBytes(image);
         } catch (IOException e) {
             log.error("Could not compress rendered image.", e);
             throw new ResourceError(e.getMessage());
         } finally {
-            rwl.writeLock().unlock();
-            try {
-                if (byteStream != null) {
-                    byteStream.close();
-                }
-            } catch (IOException e) {
-                log.error("Could not close byte stream.", e);
-                throw new ResourceError(e.getMessage());
-            }
+            rwl.readLock().unlock();
         }
     }
 
@@ -578,15 +649,27 @@ public class RenderingBean implements RenderingEngine, Serializable {
     @RolesAllowed("user")
     public int[] renderProjectedAsPackedInt(int algorithm, int timepoint,
             int stepping, int start, int end) {
-        rwl.writeLock().lock();
+        readLockForRender();
+
+        try {
+            return renderProjectedPackedInt(algorithm, timepoint, stepping,
+                    start, end);
+        } finally {
+            rwl.readLock().unlock();
+        }
+    }
 
+    /**
+     * Projects and renders the stack on a leased renderer. The read lock
+     * must be held.
+     */
+    private int[] renderProjectedPackedInt(int algorithm, int timepoint,
+            int stepping, int start, int end) {
+        RenderSlot slot = null;
         try {
             errorIfInvalidState();
-            if (resolutionLevel != null)
-            {
-                renderer.setResolutionLevel(resolutionLevel);
-            }
-            ChannelBinding[] channelBindings = renderer.getChannelBindings();
+            slot = leaseRenderer(null);
+            ChannelBinding[] channelBindings = slot.renderer.getChannelBindings();
             byte[][][][] planes = new byte[1][pixelsObj.getSizeC()][1][];
             long pixelsId = pixelsObj.getId();
             int projectedSizeC = 0;
@@ -611,7 +694,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
                     projectedPixels, planes);
             PlaneDef pd = new PlaneDef(PlaneDef.XY, 0);
             pd.setZ(0);
-            return renderer.renderAsPackedInt(pd, projectedPlanes);
+            return slot.renderer.renderAsPackedInt(pd, projectedPlanes);
         } catch (IOException e) {
             log.error("IO error while rendering.", e);
             throw new ResourceError(e.getMessage());
@@ -619,7 +702,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
             log.error("Quantization exception while rendering.", e);
             throw new InternalException(e.getMessage());
         } finally {
-            rwl.writeLock().unlock();
+            releaseRenderer(slot);
         }
     }
 
@@ -631,36 +714,20 @@ public class RenderingBean implements RenderingEngine, Serializable {
     @RolesAllowed("user")
     public byte[] renderProjectedCompressed(int algorithm, int timepoint,
             int stepping, int start, int end) {
-        rwl.writeLock().lock();
-
-        ByteArrayOutputStream byteStream = null;
+        readLockForRender();
         try {
-            if (resolutionLevel != null)
-            {
-                renderer.setResolutionLevel(resolutionLevel);
-            }
-            int[] buf = renderProjectedAsPackedInt(algorithm, timepoint,
+            int[] buf = renderProjectedPackedInt(algorithm, timepoint,
                     stepping, start, end);
             int sizeX = pixelsObj.getSizeX();
             int sizeY = pixelsObj.getSizeY();
             BufferedImage image = ImageUtil.createBufferedImage(buf, sizeX,
                     sizeY);
-            byteStream = new ByteArrayOutputStream();
-            compressionSrv.compressToStream(image, byteStream);
-            return byteStream.toByteArray();
+            return compressionSrv.compressToBytes(image);
         } catch (IOException e) {
             log.error("Could not compress rendered image.", e);
             throw new ResourceError(e.getMessage());
         } finally {
-            rwl.writeLock().unlock();
-            try {
-                if (byteStream != null) {
-                    byteStream.close();
-                }
-            } catch (IOException e) {
-                log.error("Could not close byte stream.", e);
-                throw new ResourceError(e.getMessage());
-            }
+            rwl.readLock().unlock();
         }
     }
 
@@ -1208,13 +1275,14 @@ public class RenderingBean implements RenderingEngine, Serializable {
     public void setChannelLookupTable(int w, String lookup) {
         StopWatch t0 = new Slf4JStopWatch(
                 "omero.rendering_bean.setChannelLookupTable");
-        rwl.readLock().lock();
+        rwl.writeLock().lock();
 
         try {
             errorIfNullRenderingDef();
             renderer.setChannelLookupTable(w, lookup);
+            settingsChanged();
         } finally {
-            rwl.readLock().unlock();
+            rwl.writeLock().unlock();
             t0.stop();
         }
     }
@@ -1370,6 +1438,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
                   cb[i].addCodomainMapContext(convert(mapCtx));
               }
             }
+            settingsChanged();
         } finally {
             rwl.writeLock().unlock();
         }
@@ -1387,6 +1456,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
                 ChannelBinding[] cb = renderer.getChannelBindings();
                 cb[w].addCodomainMapContext(convert(mapCtx));
             }
+            settingsChanged();
         } finally {
             rwl.writeLock().unlock();
         }
@@ -1441,6 +1511,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
                     }
                 }
             }
+            settingsChanged();
         } finally {
             rwl.writeLock().unlock();
         }
@@ -1464,6 +1535,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
                     cb[w].addCodomainMapContext(convert(i.next()));
                 }
             }
+            settingsChanged();
         } finally {
             rwl.writeLock().unlock();
         }
@@ -1480,6 +1552,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
             for (int i = 0; i < pixelsObj.getSizeC(); i++) {
                 renderer.getCodomainChain(i).update(mapCtx.copy());
             }
+            settingsChanged();
         } finally {
             rwl.writeLock().unlock();
         }
@@ -1497,6 +1570,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
             rwl.writeLock().lock();
             errorIfInvalidState();
             renderer.setActive(w, active);
+            settingsChanged();
         } finally {
             rwl.writeLock().unlock();
             t0.stop();
@@ -1517,6 +1591,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
         try {
             errorIfInvalidState();
             renderer.setChannelWindow(w, start, end);
+            settingsChanged();
         } finally {
             rwl.writeLock().unlock();
             t0.stop();
@@ -1536,6 +1611,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
         try {
             errorIfInvalidState();
             renderer.setCodomainInterval(start, end);
+            settingsChanged();
         } finally {
             rwl.writeLock().unlock();
             t0.stop();
@@ -1555,6 +1631,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
         try {
             errorIfInvalidState();
             renderer.setDefaultT(t);
+            settingsChanged();
         } finally {
             rwl.writeLock().unlock();
             t0.stop();
@@ -1574,6 +1651,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
         try {
             errorIfInvalidState();
             renderer.setDefaultZ(z);
+            settingsChanged();
         } finally {
             rwl.writeLock().unlock();
             t0.stop();
@@ -1594,6 +1672,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
             errorIfInvalidState();
             RenderingModel m = lookup(model);
             renderer.setModel(m);
+            settingsChanged();
         } finally {
             rwl.writeLock().unlock();
             t0.stop();
@@ -1616,6 +1695,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
             errorIfInvalidState();
             Family f = lookup(family);
             renderer.setQuantizationMap(w, f, coefficient, noiseReduction);
+            settingsChanged();
         } finally {
             rwl.writeLock().unlock();
             t0.stop();
@@ -1636,6 +1716,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
         try {
             errorIfInvalidState();
             renderer.setQuantumStrategy(bitResolution);
+            settingsChanged();
         } finally {
             rwl.writeLock().unlock();
             t0.stop();
@@ -1655,6 +1736,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
         try {
             errorIfInvalidState();
             renderer.setRGBA(w, red, green, blue, alpha);
+            settingsChanged();
         } finally {
             rwl.writeLock().unlock();
             t0.stop();
@@ -1824,9 +1906,10 @@ public class RenderingBean implements RenderingEngine, Serializable {
     
     /**
      * Validates the plane definition.
+     * @param renderer The renderer whose pixel buffer is used.
      * @param pd Plane definition to validate.
      */
-    private void checkPlaneDef(PlaneDef pd) {
+    private void checkPlaneDef(Renderer renderer, PlaneDef pd) {
         RegionDef rd = pd.getRegion();
         if (rd == null)
         {
@@ -1887,6 +1970,160 @@ public class RenderingBean implements RenderingEngine, Serializable {
         if (renderer != null) {
             renderer.close();
         }
+        settingsGeneration++;
+        synchronized (idleSlots) {
+            for (RenderSlot slot : idleSlots) {
+                slot.close();
+            }
+            idleSlots.clear();
+        }
+    }
+
+    /**
+     * Marks the renderers of {@link #idleSlots} as stale. Must be called
+     * with the write lock held after any change to the rendering settings.
+     */
+    private void settingsChanged() {
+        settingsGeneration++;
+    }
+
+    /**
+     * Takes the read lock, first reloading the rendering engine if it was
+     * passivated. {@link #load()} takes the write lock, which cannot be
+     * acquired while holding the read lock.
+     */
+    private void readLockForRender() {
+        while (true) {
+            rwl.readLock().lock();
+            if (renderer != null || !wasPassivated) {
+                return;
+            }
+            rwl.readLock().unlock();
+            rwl.writeLock().lock();
+            try {
+                errorIfNullRenderer();
+            } finally {
+                rwl.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns an idle renderer for the current settings, creating one with
+     * its own pixel buffer if none is available, and sets the per-call
+     * state on it. Waits while {@link #rendererPoolSize} renderers are
+     * leased. The read lock must be held and the renderer must be passed to
+     * {@link #releaseRenderer(RenderSlot)} once done.
+     *
+     * @param masks The masks of the plane to render, may be
+     *          <code>null</code>.
+     */
+    private RenderSlot leaseRenderer(Map<byte[], Integer> masks) {
+        final Semaphore permits = rendererPermits;
+        permits.acquireUninterruptibly();
+        RenderSlot slot;
+        synchronized (idleSlots) {
+            slot = idleSlots.poll();
+        }
+        try {
+            if (slot == null) {
+                slot = new RenderSlot(getPixelBuffer());
+            }
+            if (slot.renderer == null || slot.generation != settingsGeneration) {
+                // The previous renderer, if any, is dropped without closing
+                // it since that would close the pixel buffer it shares.
+                slot.renderer = new Renderer(quantumFactory, renderingModels,
+                        pixelsObj, rendDefObj, slot.buffer, lutProvider);
+                copyCodomainChains(slot.renderer);
+                slot.generation = settingsGeneration;
+            }
+            slot.permits = permits;
+            if (resolutionLevel != null) {
+                slot.renderer.setResolutionLevel(resolutionLevel);
+            }
+            slot.renderer.setOverlays(masks != null && masks.size() > 0 ?
+                    masks : overlays);
+            return slot;
+        } catch (RuntimeException e) {
+            if (slot != null) {
+                slot.close();
+            }
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Copies the codomain maps of the shared renderer to a new one. Not all
+     * of them are held by the rendering settings: the deprecated
+     * {@link #updateCodomainMap(CodomainMapContext)} only changes the
+     * codomain chains of the shared renderer.
+     *
+     * @param copy The renderer to copy the codomain maps to.
+     */
+    private void copyCodomainChains(Renderer copy) {
+        for (int i = 0; i < pixelsObj.getSizeC(); i++) {
+            CodomainChain chain = copy.getCodomainChain(i);
+            for (CodomainMapContext ctx :
+                    renderer.getCodomainChain(i).getContexts()) {
+                if (!chain.add(ctx.copy())) {
+                    chain.update(ctx.copy());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the renderer to {@link #idleSlots} or closes it if it is stale
+     * or the pool is full.
+     *
+     * @param slot The leased renderer, may be <code>null</code>.
+     */
+    private void releaseRenderer(RenderSlot slot) {
+        if (slot == null) {
+            return;
+        }
+        final Semaphore permits = slot.permits;
+        try {
+            synchronized (idleSlots) {
+                if (slot.generation == settingsGeneration
+                        && permits == rendererPermits) {
+                    idleSlots.push(slot);
+                    return;
+                }
+            }
+            slot.close();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * A pixel buffer and the renderer, if any, created for it for a given
+     * generation of the rendering settings.
+     */
+    private static final class RenderSlot {
+
+        final PixelBuffer buffer;
+
+        Renderer renderer;
+
+        long generation;
+
+        /** The permits from which the slot's lease was taken. */
+        Semaphore permits;
+
+        RenderSlot(PixelBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        void close() {
+            try {
+                buffer.close();
+            } catch (Exception e) {
+                log.warn("Failed to close pixel buffer", e);
+            }
+        }
     }
 
     // ~ Error checking methods
@@ -2260,7 +2497,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
         }
 
         final Parameters params = new Parameters();
-        params.addLong("pid", pid);
+        params.addLong("pixelsId", pid);
         params.addLong("width", width);
         params.addLong("height", height);
         params.addLong("theZ", z);
@@ -2309,7 +2546,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
         }
 
         final Parameters params = new Parameters();
-        params.addLong("pid", pid);
+        params.addLong("pixelsId", pid);
         params.addLong("width", width);
         params.addLong("height", height);
         params.addLong("theZ", z);
@@ -2338,6 +2575,36 @@ public class RenderingBean implements RenderingEngine, Serializable {
         });
     }
 
+    /**
+     * Get all the full-plane Masks of the image, for all planes and
+     * channels, to populate the {@link MaskIndex}.
+     */
+    private List<Mask> loadAllMasks() {
+        final Parameters params = new Parameters();
+        params.addLong("pixelsId", pixelsObj.getId());
+        params.addLong("width", (long) pixelsObj.getSizeX());
+        params.addLong("height", (long) pixelsObj.getSizeY());
+        final String query =
+                "select m from Mask as m " +
+                "join fetch m.roi as r join r.image as i where " +
+                "i.pixels.id = :pixelsId " +
+                " and m.width = :width " +
+                " and m.height = :height " +
+                " and m.x = 0 " +
+                " and m.y = 0 " +
+                "order by m.id";
+        return (List<Mask>) ex.execute(/*ex*/null/*principal*/,
+                new Executor.SimpleWork(this,"loadAllMasks")
+        {
+            @Transactional(readOnly = true)
+            public List<IObject> doWork(Session session, ServiceFactory sf) {
+                return sf.getQueryService().findAllByQuery(
+                        query, params
+                );
+            }
+        });
+    }
+
     /**
      * Get Mask attached to the image for rendering.
      */
@@ -2348,6 +2615,31 @@ public class RenderingBean implements RenderingEngine, Serializable {
         if (!pd.getRenderShapes()) {
             return maskMap;
         }
+        if (maskIndex != null) {
+            MaskIndex.PlaneMasks index;
+            try {
+                index = maskIndex.get(secSys.getEventContext(),
+                        pixelsObj.getId(), new Callable<List<Mask>>() {
+                            public List<Mask> call() {
+                                return loadAllMasks();
+                            }
+                        });
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new InternalException(e.getMessage());
+            }
+            if (index != null) {
+                List<Integer> channels = new ArrayList<Integer>();
+                for (int c = 0; c < pixelsObj.getSizeC(); c++) {
+                    if (rendDefObj.getChannelBinding(c).getActive()) {
+                        channels.add(c);
+                    }
+                }
+                return index.lookup(pd.getZ(), pd.getT(), channels,
+                        pd.getShapeIds());
+            }
+        }
         if (pd.getShapeIds().isEmpty()) {
             masks = getAllMasks(pd);
         } else {
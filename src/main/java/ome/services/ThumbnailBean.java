@@ -17,9 +17,16 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import ome.annotations.RolesAllowed;
@@ -121,6 +128,18 @@ public class ThumbnailBean extends AbstractLevel2Service
     /** The rendering settings service. */
     private transient IRenderingSettings settingsService;
 
+    /**
+     * Renders the missing thumbnails of a thumbnail set concurrently. If
+     * <code>null</code> they are rendered one after another.
+     */
+    private transient ExecutorService renderPool;
+
+    /**
+     * In-memory cache of thumbnail bytes. If <code>null</code> thumbnails
+     * are always read from the {@link ThumbnailService}.
+     */
+    private transient ThumbnailByteCache thumbnailCache;
+
     /** The list of all families supported by the {@link Renderer}. */
     private transient List<Family> families;
 
@@ -154,6 +173,13 @@ public class ThumbnailBean extends AbstractLevel2Service
     /** The thumbnail metadata context. */
     private ThumbnailCtx ctx;
 
+    /**
+     * Thumbnail metadata whose version was already incremented while
+     * retrieving the current thumbnail set, <code>null</code> outside of
+     * {@link #retrieveThumbnailSet(Set)}. Compared by identity.
+     */
+    private transient Set<Thumbnail> versionedMetadata;
+
     /** The in-progress image resource we'll use for in progress images. */
     private Resource inProgressImageResource;
 
@@ -351,7 +377,8 @@ public class ThumbnailBean extends AbstractLevel2Service
         List<RenderingModel> renderingModels = getRenderingModels();
         QuantumFactory quantumFactory = new QuantumFactory(families);
         // Loading last to try to ensure that the buffer will get closed.
-        PixelBuffer buffer = pixelDataService.getPixelBuffer(pixels, false);
+        PixelBuffer buffer = DecimatingPixelBuffer.wrapIfLarge(
+                pixelDataService.getPixelBuffer(pixels, false));
         renderer = new Renderer(quantumFactory, renderingModels, pixels,
                 settings, buffer, lutProvider);
         dirty = false;
@@ -471,6 +498,58 @@ public class ThumbnailBean extends AbstractLevel2Service
         this.settingsService = settingsService;
     }
 
+    /**
+     * Thumbnail set rendering pool Bean injector.
+     *
+     * @param renderPool
+     *            a bounded <code>ExecutorService</code>.
+     */
+    public void setRenderPool(ExecutorService renderPool) {
+        getBeanHelper().throwIfAlreadySet(this.renderPool, renderPool);
+        this.renderPool = renderPool;
+    }
+
+    /**
+     * Thumbnail byte cache Bean injector.
+     *
+     * @param thumbnailCache
+     *            a <code>ThumbnailByteCache</code>.
+     */
+    public void setThumbnailCache(ThumbnailByteCache thumbnailCache) {
+        getBeanHelper().throwIfAlreadySet(this.thumbnailCache, thumbnailCache);
+        this.thumbnailCache = thumbnailCache;
+    }
+
+    /**
+     * Looks up the current thumbnail in the {@link #thumbnailCache}.
+     * @param pixelsId The Pixels ID of the thumbnail.
+     * @return The thumbnail bytes or <code>null</code> on a miss.
+     */
+    private byte[] getCachedThumbnail(long pixelsId)
+    {
+        if (thumbnailCache == null) {
+            return null;
+        }
+        return thumbnailCache.get(pixelsId, ctx.getSettings(pixelsId),
+                thumbnailMetadata.getSizeX(), thumbnailMetadata.getSizeY());
+    }
+
+    /**
+     * Adds a thumbnail rendered with the settings loaded into the context
+     * to the {@link #thumbnailCache}.
+     * @param pixelsId The Pixels ID of the thumbnail.
+     * @param metadata The thumbnail metadata.
+     * @param thumbnail The thumbnail bytes.
+     */
+    private void cacheThumbnail(long pixelsId, Thumbnail metadata,
+            byte[] thumbnail)
+    {
+        if (thumbnailCache != null) {
+            thumbnailCache.put(pixelsId, ctx.getSettings(pixelsId), metadata,
+                    thumbnail);
+        }
+    }
+
     /**
      * Compresses a buffered image thumbnail to disk.
      *
@@ -505,13 +584,12 @@ public class ThumbnailBean extends AbstractLevel2Service
      */
     private byte[] convertThumbnailToBytes(BufferedImage image, boolean inProgress)
             throws IOException {
+        if (!inProgress) {
+            return compressionService.compressToBytes(image);
+        }
         try (ByteArrayOutputStream byteStream = new ByteArrayOutputStream()) {
-            if (inProgress) {
-                compressInProgressImageToStream(image.getWidth(), image.getHeight(),
-                        byteStream, inProgressImageResource);
-            } else {
-                compressionService.compressToStream(image, byteStream);
-            }
+            compressInProgressImageToStream(image.getWidth(), image.getHeight(),
+                    byteStream, inProgressImageResource);
             return byteStream.toByteArray();
         }
     }
@@ -611,6 +689,25 @@ public class ThumbnailBean extends AbstractLevel2Service
             theT = settings.getDefaultT();
         PlaneDef pd = new PlaneDef(PlaneDef.XY, theT);
         pd.setZ(theZ);
+        return renderScaledImage(renderer, pixels, pd,
+                thumbnailMetadata.getSizeX(), thumbnailMetadata.getSizeY());
+    }
+
+    /**
+     * Renders a plane with the given renderer and scales it to the
+     * thumbnail size. Only uses the arguments and stateless services so that
+     * it may be called concurrently for different renderers.
+     *
+     * @param renderer the renderer to use, whose resolution level is changed.
+     * @param pixels the pixels set of the renderer.
+     * @param pd the plane to render.
+     * @param thumbnailSizeX the X-width of the thumbnail.
+     * @param thumbnailSizeY the Y-width of the thumbnail.
+     * @return a scaled buffered image.
+     */
+    private BufferedImage renderScaledImage(Renderer renderer, Pixels pixels,
+            PlaneDef pd, int thumbnailSizeX, int thumbnailSizeY)
+    {
         // Use a resolution level that matches our requested size if we can
         PixelBuffer pixelBuffer = renderer.getPixels();
         int originalSizeX = pixels.getSizeX();
@@ -626,8 +723,8 @@ public class ThumbnailBean extends AbstractLevel2Service
                 renderer.setResolutionLevel(resolutionLevel);
                 pixelBufferSizeX = pixelBuffer.getSizeX();
                 pixelBufferSizeY = pixelBuffer.getSizeY();
-                if (pixelBufferSizeX <= thumbnailMetadata.getSizeX()
-                    || pixelBufferSizeY <= thumbnailMetadata.getSizeY())
+                if (pixelBufferSizeX <= thumbnailSizeX
+                    || pixelBufferSizeY <= thumbnailSizeY)
                 {
                     break;
                 }
@@ -636,6 +733,24 @@ public class ThumbnailBean extends AbstractLevel2Service
                     resolutionLevel, pixelBufferSizeX, pixelBufferSizeY));
             renderer.setResolutionLevel(resolutionLevel);
         }
+        else if (pixelBuffer instanceof DecimatingPixelBuffer)
+        {
+            // No pyramid so sample only the rows and columns that we need
+            // rather than rendering the whole plane only to scale it down
+            DecimatingPixelBuffer decimating =
+                    (DecimatingPixelBuffer) pixelBuffer;
+            int stride = DecimatingPixelBuffer.chooseStride(
+                    pixelBufferSizeX, pixelBufferSizeY,
+                    thumbnailSizeX, thumbnailSizeY);
+            if (stride > 1)
+            {
+                decimating.setStride(stride);
+                pixelBufferSizeX = decimating.getSizeX();
+                pixelBufferSizeY = decimating.getSizeY();
+                log.debug(String.format("Using stride %d -- %dx%d",
+                        stride, pixelBufferSizeX, pixelBufferSizeY));
+            }
+        }
 
         // Render the planes and translate to a buffered image
         Pixels rendererPixels = renderer.getMetadata();
@@ -650,10 +765,8 @@ public class ThumbnailBean extends AbstractLevel2Service
                     buf, pixelBufferSizeX, pixelBufferSizeY);
 
             // Finally, scale our image using scaling factors (percentage).
-            float xScale = (float)
-                    thumbnailMetadata.getSizeX() / pixelBufferSizeX;
-            float yScale = (float)
-                    thumbnailMetadata.getSizeY() / pixelBufferSizeY;
+            float xScale = (float) thumbnailSizeX / pixelBufferSizeX;
+            float yScale = (float) thumbnailSizeY / pixelBufferSizeY;
             log.debug(String.format("Using scaling factors x:%f y:%f",
                     xScale, yScale));
             return iScale.scaleBufferedImage(image, xScale, yScale);
@@ -680,6 +793,10 @@ public class ThumbnailBean extends AbstractLevel2Service
                     originalSizeX, originalSizeY));
             rendererPixels.setSizeX(originalSizeX);
             rendererPixels.setSizeY(originalSizeY);
+            if (pixelBuffer instanceof DecimatingPixelBuffer)
+            {
+                ((DecimatingPixelBuffer) pixelBuffer).setStride(1);
+            }
         }
 
     }
@@ -889,7 +1006,9 @@ public class ThumbnailBean extends AbstractLevel2Service
                     if (rndOwnerId.equals(ownerId)) {
                         final Pixels unloadedPixels = new Pixels(pixels.getId(), false);
                         thumbMetaData.setPixels(unloadedPixels);
-                        _setMetadataVersion(thumbMetaData, inProgress);
+                        if (versionedMetadata == null || versionedMetadata.add(thumbMetaData)) {
+                            _setMetadataVersion(thumbMetaData, inProgress);
+                        }
                         dirtyMetadata = true;
                     } else {
                         //new one for owner of the settings.
@@ -898,6 +1017,9 @@ public class ThumbnailBean extends AbstractLevel2Service
                         thumbMetaData = ctx.createThumbnailMetadata(pixels, d);
                         _setMetadataVersion(thumbMetaData, inProgress);
                         thumbMetaData = iUpdate.saveAndReturnObject(thumbMetaData);
+                        if (versionedMetadata != null) {
+                            versionedMetadata.add(thumbMetaData);
+                        }
                         dirtyMetadata = false;
                     }
                 } finally {
@@ -1008,7 +1130,12 @@ public class ThumbnailBean extends AbstractLevel2Service
     }
 
     /**
-     * Performs the logic of retrieving a set of thumbnails.
+     * Performs the logic of retrieving a set of thumbnails. Cached thumbnails
+     * are read from disk directly. If a {@link #renderPool} is configured,
+     * the others are rendered concurrently, each with a renderer of its own,
+     * while their metadata is prepared on the calling thread and saved in a
+     * single batch. In-progress images and images whose pixel buffer turns
+     * out to be unavailable are handled one at a time afterwards.
      * @param pixelsIds The Pixels IDs to retrieve thumbnails for.
      * @return Map of Pixels ID vs. thumbnail bytes.
      */
@@ -1020,46 +1147,16 @@ public class ThumbnailBean extends AbstractLevel2Service
         new PerGroupActor(applicationContext, iQuery, null) {
             @Override
             protected void actOnOneGroup(Set<Long> pixelsIds) {
-                final List<Thumbnail> toSave = new ArrayList<Thumbnail>();
-                for (final Long pixelsId : pixelsIds) {
-                    // Ensure that the renderer has been made dirty otherwise the
-                    // same renderer will be used to return all thumbnails with dirty
-                    // metadata. (See #2075).
-                    resetMetadata();
-                    try {
-                        if (!ctx.hasSettings(pixelsId)) {
-                            try {
-                                pixelDataService.getPixelBuffer(ctx.getPixels(pixelsId), false);
-                                continue;  // No exception, not an in-progress image
-                            } catch (ConcurrencyException e) {
-                                log.debug("ConcurrencyException on retrieveThumbnailSet.ctx.hasSettings: pyramid in progress");
-                                inProgress = true;
-                            }
-                        }
-                        pixels = ctx.getPixels(pixelsId);
-                        settings = ctx.getSettings(pixelsId);
-                        thumbnailMetadata = ctx.getMetadata(pixelsId);
-                        if (inProgress && !PROGRESS_VERSION.equals(thumbnailMetadata.getVersion())) {
-                            thumbnailMetadata.setVersion(PROGRESS_VERSION);
-                            dirtyMetadata = true;
-                        }
-                        try {
-                            // At this point, we're sure that we have a thumbnail obj
-                            // that we want to use, but retrieveThumbnail likes to
-                            // re-generate. For the moment, we're saving and restoring
-                            // that value to prevent creating a new one.
-                            final byte[] thumbnail = retrieveThumbnailAndUpdateMetadata(false);
-                            toReturn.put(pixelsId, thumbnail);
-                            if (dirtyMetadata) {
-                                toSave.add(thumbnailMetadata);
-                            }
-                        } finally {
-                            dirtyMetadata = false;
-                        }
-                    } catch (Throwable t) {
-                        log.warn("Retrieving thumbnail in set for " + "Pixels ID " + pixelsId + " failed.", t);
-                        toReturn.put(pixelsId, null);
-                    }
+                // Metadata is saved once, however many times it is prepared.
+                final Set<Thumbnail> toSave =
+                        Collections.newSetFromMap(new IdentityHashMap<Thumbnail, Boolean>());
+                final Map<Long, Thumbnail> prepared = new HashMap<Long, Thumbnail>();
+                versionedMetadata =
+                        Collections.newSetFromMap(new IdentityHashMap<Thumbnail, Boolean>());
+                try {
+                    retrieveGroupThumbnails(pixelsIds, toSave, prepared);
+                } finally {
+                    versionedMetadata = null;
                 }
                 // We're doing the update or creation and save as a two-step
                 // process due to the possible unloaded Pixels. If we do not,
@@ -1071,10 +1168,221 @@ public class ThumbnailBean extends AbstractLevel2Service
                 iQuery.clear();
                 iUpdate.flush();
             }
+
+            /**
+             * Retrieves the thumbnails of one group.
+             * @param pixelsIds The Pixels IDs of the group.
+             * @param toSave Thumbnail metadata to save once the set is complete.
+             * @param prepared Pixels ID vs. the metadata prepared for its
+             * rendering on the {@link #renderPool}.
+             */
+            private void retrieveGroupThumbnails(Set<Long> pixelsIds,
+                    Set<Thumbnail> toSave, Map<Long, Thumbnail> prepared) {
+                final Map<Long, Future<byte[]>> rendering =
+                        new LinkedHashMap<Long, Future<byte[]>>();
+                final Set<Long> oneByOne = new LinkedHashSet<Long>();
+                if (renderPool == null) {
+                    oneByOne.addAll(pixelsIds);
+                } else {
+                    for (final Long pixelsId : pixelsIds) {
+                        resetMetadata();
+                        try {
+                            if (!ctx.hasSettings(pixelsId)) {
+                                // Same checks as in retrieveThumbnail below.
+                                oneByOne.add(pixelsId);
+                                continue;
+                            }
+                            final Future<byte[]> future =
+                                    submitThumbnail(pixelsId, toReturn, toSave, prepared);
+                            if (future != null) {
+                                rendering.put(pixelsId, future);
+                            }
+                        } catch (Throwable t) {
+                            log.warn("Retrieving thumbnail in set for " + "Pixels ID " + pixelsId + " failed.", t);
+                            toReturn.put(pixelsId, null);
+                        } finally {
+                            dirtyMetadata = false;
+                        }
+                    }
+                }
+                for (Map.Entry<Long, Future<byte[]>> entry : rendering.entrySet()) {
+                    final Long pixelsId = entry.getKey();
+                    try {
+                        final byte[] thumbnail = entry.getValue().get();
+                        cacheThumbnail(pixelsId, ctx.getMetadata(pixelsId),
+                                thumbnail);
+                        toReturn.put(pixelsId, thumbnail);
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof ConcurrencyException) {
+                            oneByOne.add(pixelsId);
+                        } else {
+                            log.warn("Retrieving thumbnail in set for " + "Pixels ID " + pixelsId + " failed.", e.getCause());
+                            toReturn.put(pixelsId, null);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        log.warn("Interrupted retrieving thumbnail in set for " + "Pixels ID " + pixelsId);
+                        toReturn.put(pixelsId, null);
+                    }
+                }
+                for (final Long pixelsId : oneByOne) {
+                    // Metadata prepared before the fallback is reused rather
+                    // than prepared, and its version incremented, again.
+                    retrieveThumbnail(pixelsId, prepared.get(pixelsId), toReturn, toSave);
+                }
+            }
         }.actOnByGroup(pixelsIds);
         return toReturn;
     }
 
+    /**
+     * Retrieves one thumbnail of a set using the bean's own renderer.
+     * @param pixelsId The Pixels ID to retrieve the thumbnail for.
+     * @param metadata The thumbnail metadata already prepared for the Pixels
+     * set, or <code>null</code> to use that of {@link #ctx}.
+     * @param toReturn Map of Pixels ID vs. thumbnail bytes to add to.
+     * @param toSave Thumbnail metadata to save once the set is complete.
+     */
+    private void retrieveThumbnail(Long pixelsId, Thumbnail metadata,
+            Map<Long, byte[]> toReturn, Set<Thumbnail> toSave)
+    {
+        // Ensure that the renderer has been made dirty otherwise the
+        // same renderer will be used to return all thumbnails with dirty
+        // metadata. (See #2075).
+        resetMetadata();
+        try {
+            if (!ctx.hasSettings(pixelsId)) {
+                try {
+                    pixelDataService.getPixelBuffer(ctx.getPixels(pixelsId), false);
+                    return;  // No exception, not an in-progress image
+                } catch (ConcurrencyException e) {
+                    log.debug("ConcurrencyException on retrieveThumbnailSet.ctx.hasSettings: pyramid in progress");
+                    inProgress = true;
+                }
+            }
+            pixels = ctx.getPixels(pixelsId);
+            settings = ctx.getSettings(pixelsId);
+            thumbnailMetadata = metadata != null ? metadata : ctx.getMetadata(pixelsId);
+            if (inProgress && !PROGRESS_VERSION.equals(thumbnailMetadata.getVersion())) {
+                thumbnailMetadata.setVersion(PROGRESS_VERSION);
+                dirtyMetadata = true;
+            }
+            try {
+                // At this point, we're sure that we have a thumbnail obj
+                // that we want to use, but retrieveThumbnail likes to
+                // re-generate. For the moment, we're saving and restoring
+                // that value to prevent creating a new one.
+                final byte[] thumbnail = retrieveThumbnailAndUpdateMetadata(false);
+                toReturn.put(pixelsId, thumbnail);
+                if (dirtyMetadata) {
+                    toSave.add(thumbnailMetadata);
+                }
+            } finally {
+                dirtyMetadata = false;
+            }
+        } catch (Throwable t) {
+            log.warn("Retrieving thumbnail in set for " + "Pixels ID " + pixelsId + " failed.", t);
+            toReturn.put(pixelsId, null);
+        }
+    }
+
+    /**
+     * Serves one thumbnail of a set from disk if it is cached, otherwise
+     * prepares its metadata and submits its rendering to the
+     * {@link #renderPool}. The rendering settings must exist.
+     * @param pixelsId The Pixels ID to retrieve the thumbnail for.
+     * @param toReturn Map of Pixels ID vs. thumbnail bytes to add to if the
+     * thumbnail is cached.
+     * @param toSave Thumbnail metadata to save once the set is complete.
+     * @param prepared Pixels ID vs. prepared thumbnail metadata to add to if
+     * the thumbnail is submitted.
+     * @return The pending thumbnail bytes or <code>null</code> if cached.
+     */
+    private Future<byte[]> submitThumbnail(Long pixelsId,
+            Map<Long, byte[]> toReturn, Set<Thumbnail> toSave,
+            Map<Long, Thumbnail> prepared)
+    {
+        pixels = ctx.getPixels(pixelsId);
+        settings = ctx.getSettings(pixelsId);
+        thumbnailMetadata = ctx.getMetadata(pixelsId);
+        final byte[] hit = getCachedThumbnail(pixelsId);
+        if (hit != null) {
+            toReturn.put(pixelsId, hit);
+            return null;
+        }
+        if (ctx.isThumbnailCached(pixelsId)) {
+            try {
+                final byte[] thumbnail = ioService.getThumbnail(thumbnailMetadata);
+                if (!ctx.dirtyMetadata(pixelsId)) {
+                    cacheThumbnail(pixelsId, thumbnailMetadata, thumbnail);
+                }
+                toReturn.put(pixelsId, thumbnail);
+                return null;
+            } catch (IOException e) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Cache miss, thumbnail missing from disk.");
+                }
+            }
+        }
+        final Thumbnail metadata = _createThumbnail(thumbnailMetadata);
+        prepared.put(pixelsId, metadata);
+        if (dirtyMetadata) {
+            toSave.add(metadata);
+        }
+        if (diskSpaceChecking) {
+            iRepositoryInfo.sanityCheckRepository();
+        }
+        // As in load(), each task works on its own deep copies.
+        final Pixels taskPixels = iPixels.retrievePixDescription(pixelsId);
+        final RenderingDef taskSettings =
+                iPixels.loadRndSettings(settings.getId());
+        final List<Family> families = getFamilies();
+        final List<RenderingModel> renderingModels = getRenderingModels();
+        return renderPool.submit(new Callable<byte[]>() {
+            public byte[] call() throws Exception {
+                return renderThumbnail(new QuantumFactory(families),
+                        renderingModels, taskPixels, taskSettings, metadata);
+            }
+        });
+    }
+
+    /**
+     * Renders, compresses and caches a thumbnail with a renderer of its own.
+     * Runs on the {@link #renderPool} and so must not use the bean's state.
+     * @return The thumbnail bytes.
+     */
+    private byte[] renderThumbnail(QuantumFactory quantumFactory,
+            List<RenderingModel> renderingModels, Pixels pixels,
+            RenderingDef settings, Thumbnail metadata) throws IOException
+    {
+        StopWatch s1 = new Slf4JStopWatch("omero.renderThumbnail");
+        PixelBuffer buffer = DecimatingPixelBuffer.wrapIfLarge(
+                pixelDataService.getPixelBuffer(pixels, false));
+        Renderer renderer = null;
+        try {
+            renderer = new Renderer(quantumFactory, renderingModels, pixels,
+                    settings, buffer, lutProvider);
+            PlaneDef pd = new PlaneDef(PlaneDef.XY, settings.getDefaultT());
+            pd.setZ(settings.getDefaultZ());
+            BufferedImage image = renderScaledImage(renderer, pixels, pd,
+                    metadata.getSizeX(), metadata.getSizeY());
+            byte[] thumbnail = compressionService.compressToBytes(image);
+            try (FileOutputStream stream = ioService.getThumbnailOutputStream(metadata)) {
+                stream.write(thumbnail);
+            } catch (IOException e) {
+                log.warn("Thumbnail could not be written to disk. Returning without caching", e);
+            }
+            return thumbnail;
+        } finally {
+            if (renderer != null) {
+                renderer.close();
+            } else {
+                buffer.close();
+            }
+            s1.stop();
+        }
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -1172,6 +1480,11 @@ public class ThumbnailBean extends AbstractLevel2Service
 
         try
         {
+            final byte[] hit = getCachedThumbnail(pixels.getId());
+            if (hit != null)
+            {
+                return hit;
+            }
             boolean cached = ctx.isThumbnailCached(pixels.getId());
             if (cached)
             {
@@ -1189,6 +1502,10 @@ public class ThumbnailBean extends AbstractLevel2Service
                 _createThumbnail();
             }
             byte[] thumbnail = ioService.getThumbnail(thumbnailMetadata);
+            if (!inProgress && (!cached || !ctx.dirtyMetadata(pixels.getId())))
+            {
+                cacheThumbnail(pixels.getId(), thumbnailMetadata, thumbnail);
+            }
             //Thumbnails are always saved to disk and then retrieved when the
             //call stack includes retrieveThumbnail(). This includes the "clock".
             //inProgress is not set early enough for retrieveThumbnailDirect()
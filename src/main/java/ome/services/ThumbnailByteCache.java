@@ -0,0 +1,374 @@
+/*
+ *   Copyright 2026 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ome.model.display.RenderingDef;
+import ome.model.display.Thumbnail;
+import ome.model.meta.Event;
+import ome.model.meta.EventLog;
+import ome.services.messages.EventLogsMessage;
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * Holds the JPEG bytes of recently served thumbnails in memory so that
+ * {@link ThumbnailBean} neither reads them back from the
+ * {@link ome.io.nio.ThumbnailService} nor checks the database timestamps
+ * of their metadata on every call.
+ *
+ * Entries are keyed by the pixels set, the id, version and update event of
+ * the rendering settings and the thumbnail size. Since the settings are
+ * loaded anyway, a hit is thereby validated without a further query: any
+ * saved change to the settings yields a new key. Entries are additionally
+ * dropped on {@link EventLogsMessage}s for {@link RenderingDef} and
+ * {@link Thumbnail}. The memory tier is bounded by the total number of
+ * bytes held.
+ *
+ * If a directory is configured, entries are also written there so that
+ * the hot set survives restarts. Files are read back via a memory mapping
+ * and the oldest are deleted once the directory exceeds its byte bound.
+ * Stale files are never matched since their name contains the key.
+ *
+ * @since 5.7.3
+ */
+public class ThumbnailByteCache implements ApplicationListener<EventLogsMessage> {
+
+    private final static Logger log = LoggerFactory.getLogger(ThumbnailByteCache.class);
+
+    private final static String[] ACTIONS = { "UPDATE", "DELETE" };
+
+    private final static String SUFFIX = ".jpg";
+
+    private final Cache<Key, Entry> cache;
+
+    private final File directory;
+
+    private final long maxDiskBytes;
+
+    private final AtomicLong diskBytes = new AtomicLong();
+
+    private final Counter hits, diskHits, misses;
+
+    /**
+     * @param maxBytes maximum total size of the thumbnails held in memory.
+     * @param directory directory of the disk tier or an empty string to
+     *            disable it.
+     * @param maxDiskBytes maximum total size of the disk tier.
+     * @param metrics used to count hits and misses.
+     */
+    public ThumbnailByteCache(long maxBytes, String directory,
+            long maxDiskBytes, Metrics metrics) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(new Weigher<Key, Entry>() {
+                    @Override
+                    public int weigh(Key key, Entry value) {
+                        return value.bytes.length;
+                    }
+                })
+                .build();
+        this.maxDiskBytes = maxDiskBytes;
+        this.hits = metrics.counter(this, "hits");
+        this.diskHits = metrics.counter(this, "diskHits");
+        this.misses = metrics.counter(this, "misses");
+        this.directory = initDirectory(directory);
+    }
+
+    private File initDirectory(String path) {
+        if (path == null || path.trim().isEmpty()) {
+            return null;
+        }
+        final File dir = new File(path.trim());
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            log.warn("Cannot create thumbnail cache directory {}; disk tier disabled", dir);
+            return null;
+        }
+        long total = 0;
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                total += file.length();
+            }
+        }
+        diskBytes.set(total);
+        log.info("Thumbnail disk cache at {} holds {} bytes", dir, total);
+        return dir;
+    }
+
+    /**
+     * Returns the cached thumbnail or <code>null</code>.
+     *
+     * @param pixelsId the pixels set.
+     * @param settings the rendering settings with their update event.
+     * @param sizeX the width of the thumbnail.
+     * @param sizeY the height of the thumbnail.
+     */
+    public byte[] get(long pixelsId, RenderingDef settings, Integer sizeX,
+            Integer sizeY) {
+        final Key key = Key.of(pixelsId, settings, sizeX, sizeY);
+        if (key == null) {
+            return null;
+        }
+        final Entry entry = cache.getIfPresent(key);
+        if (entry != null) {
+            hits.inc();
+            return entry.bytes;
+        }
+        final byte[] bytes = readFile(key);
+        if (bytes != null) {
+            diskHits.inc();
+            cache.put(key, new Entry(bytes, null));
+            return bytes;
+        }
+        misses.inc();
+        return null;
+    }
+
+    /**
+     * Caches a thumbnail which was rendered with the given settings.
+     *
+     * @param pixelsId the pixels set.
+     * @param settings the rendering settings with their update event.
+     * @param metadata the thumbnail metadata, giving its size.
+     * @param bytes the JPEG bytes.
+     */
+    public void put(long pixelsId, RenderingDef settings, Thumbnail metadata,
+            byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return;
+        }
+        final Key key = Key.of(pixelsId, settings, metadata.getSizeX(),
+                metadata.getSizeY());
+        if (key == null) {
+            return;
+        }
+        cache.put(key, new Entry(bytes, metadata.getId()));
+        writeFile(key, bytes);
+    }
+
+    @Override
+    public void onApplicationEvent(EventLogsMessage elm) {
+        final Set<Long> settingsIds = ids(elm, RenderingDef.class.getName());
+        final Set<Long> thumbnailIds = ids(elm, Thumbnail.class.getName());
+        if (settingsIds.isEmpty() && thumbnailIds.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<Key, Entry> entry : cache.asMap().entrySet()) {
+            final Long thumbnailId = entry.getValue().thumbnailId;
+            if (settingsIds.contains(entry.getKey().settingsId)
+                    || (thumbnailId != null && thumbnailIds.contains(thumbnailId))) {
+                cache.invalidate(entry.getKey());
+            }
+        }
+    }
+
+    private static Set<Long> ids(EventLogsMessage elm, String klass) {
+        final Set<Long> ids = new HashSet<Long>();
+        for (String action : ACTIONS) {
+            for (EventLog el : elm.matches(klass, action)) {
+                ids.add(el.getEntityId());
+            }
+        }
+        return ids;
+    }
+
+    private byte[] readFile(Key key) {
+        if (directory == null) {
+            return null;
+        }
+        final File file = new File(directory, key.fileName());
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            final MappedByteBuffer mapped = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            final byte[] bytes = new byte[mapped.remaining()];
+            mapped.get(bytes);
+            file.setLastModified(System.currentTimeMillis());
+            return bytes;
+        } catch (IOException e) {
+            log.debug("Failed to read cached thumbnail {}", file, e);
+            return null;
+        }
+    }
+
+    private void writeFile(Key key, byte[] bytes) {
+        if (directory == null) {
+            return;
+        }
+        final File file = new File(directory, key.fileName());
+        if (file.isFile()) {
+            return;
+        }
+        final File tmp = new File(directory, key.fileName() + ".tmp"
+                + Thread.currentThread().getId());
+        try {
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(bytes);
+            }
+            if (tmp.renameTo(file)) {
+                if (diskBytes.addAndGet(bytes.length) > maxDiskBytes) {
+                    evictFiles();
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Failed to write cached thumbnail {}", file, e);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the disk tier is at 90%
+     * of its bound.
+     */
+    private synchronized void evictFiles() {
+        if (diskBytes.get() <= maxDiskBytes) {
+            return;
+        }
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long[] modified = new long[files.length];
+        long total = 0;
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            total += files[i].length();
+        }
+        final Integer[] order = new Integer[files.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(modified[a], modified[b]);
+            }
+        });
+        final long target = maxDiskBytes / 10 * 9;
+        for (int i = 0; i < order.length && total > target; i++) {
+            final File file = files[order[i]];
+            final long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+        diskBytes.set(total);
+    }
+
+    private static final class Entry {
+
+        final byte[] bytes;
+
+        /** The thumbnail metadata, if known. */
+        final Long thumbnailId;
+
+        Entry(byte[] bytes, Long thumbnailId) {
+            this.bytes = bytes;
+            this.thumbnailId = thumbnailId;
+        }
+    }
+
+    private static final class Key {
+
+        final long pixelsId;
+
+        final long settingsId;
+
+        final int settingsVersion;
+
+        final long settingsEventId;
+
+        final int sizeX;
+
+        final int sizeY;
+
+        private Key(long pixelsId, long settingsId, int settingsVersion,
+                long settingsEventId, int sizeX, int sizeY) {
+            this.pixelsId = pixelsId;
+            this.settingsId = settingsId;
+            this.settingsVersion = settingsVersion;
+            this.settingsEventId = settingsEventId;
+            this.sizeX = sizeX;
+            this.sizeY = sizeY;
+        }
+
+        /**
+         * @return the key or <code>null</code> if the settings are not
+         *         saved or their update event is not known.
+         */
+        static Key of(long pixelsId, RenderingDef settings, Integer sizeX,
+                Integer sizeY) {
+            if (settings == null || settings.getId() == null
+                    || sizeX == null || sizeY == null) {
+                return null;
+            }
+            final Event event = settings.getDetails().getUpdateEvent();
+            if (event == null || event.getId() == null) {
+                return null;
+            }
+            final Integer version = settings.getVersion();
+            return new Key(pixelsId, settings.getId(),
+                    version == null ? 0 : version, event.getId(), sizeX, sizeY);
+        }
+
+        String fileName() {
+            return String.format("%d_%d_%d_%d_%dx%d%s", pixelsId, settingsId,
+                    settingsVersion, settingsEventId, sizeX, sizeY, SUFFIX);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return pixelsId == other.pixelsId
+                    && settingsId == other.settingsId
+                    && settingsVersion == other.settingsVersion
+                    && settingsEventId == other.settingsEventId
+                    && sizeX == other.sizeX && sizeY == other.sizeY;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = (int) (pixelsId ^ (pixelsId >>> 32));
+            h = 31 * h + (int) (settingsId ^ (settingsId >>> 32));
+            h = 31 * h + settingsVersion;
+            h = 31 * h + (int) (settingsEventId ^ (settingsEventId >>> 32));
+            h = 31 * h + sizeX;
+            h = 31 * h + sizeY;
+            return h;
+        }
+    }
+
+}
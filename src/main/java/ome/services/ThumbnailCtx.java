@@ -9,6 +9,7 @@ import java.awt.Dimension;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -40,6 +41,7 @@ import ome.model.internal.Permissions;
 import ome.parameters.Parameters;
 import ome.security.SecuritySystem;
 import ome.system.OmeroContext;
+import ome.tools.LongIndex;
 
 public class ThumbnailCtx
 {
@@ -91,53 +93,15 @@ public class ThumbnailCtx
     /** User ID to use in queries. */
     private long userId;
 
-    /** Pixels ID vs. Pixels object map. */
-    private Map<Long, Pixels> pixelsIdPixelsMap =
-        new HashMap<Long, Pixels>();
-
     /**
-     * Pixels ID vs. owner ID map. We don't access these RenderingDef object
-     * properties directly due to load/unload issues with Hibernate
+     * Per Pixels set context: the Pixels object and its owner, rendering
+     * settings and thumbnail metadata with their last modified times, and
+     * extended graph criticality. We don't access the owner or last modified
+     * times through the objects due to load/unload issues with Hibernate
      * (ObjectUnloadedExceptions) when multiple objects were created with or
      * updated by the same event.
      */
-    private Map<Long, Long> pixelsIdOwnerIdMap =
-        new HashMap<Long, Long>();
-
-    /** Pixels ID vs. RenderingDef object map. */
-    private Map<Long, RenderingDef> pixelsIdSettingsMap =
-        new HashMap<Long, RenderingDef>();
-
-    /** Pixels ID vs. Thumbnail object map. */
-    private Map<Long, Thumbnail> pixelsIdMetadataMap =
-        new HashMap<Long, Thumbnail>();
-
-    /**
-     * Pixels ID vs. RenderingDef object last modified time map. We don't access
-     * these RenderingDef object properties directly due to load/unload issues
-     * with Hibernate (ObjectUnloadedExceptions) when multiple objects were
-     * created with or updated by the same event.
-     */
-    private Map<Long, Timestamp> pixelsIdSettingsLastModifiedTimeMap =
-        new HashMap<Long, Timestamp>();
-
-    /**
-     * Pixels ID vs. Thumbnail object  last modified time map. We don't access
-     * these Thumbnail object properties directly due to load/unload issues
-     * with Hibernate (ObjectUnloadedExceptions) when multiple objects were
-     * created with or updated by the same event.
-     */
-    private Map<Long, Timestamp> pixelsIdMetadataLastModifiedTimeMap =
-        new HashMap<Long, Timestamp>();
-
-    /**
-     * Pixels ID vs. RenderingDef object owner. We don't access these
-     * RenderingDef object properties directly due to load/unload issues
-     * with Hibernate (ObjectUnloadedExceptions) when multiple objects were
-     * created with or updated by the same event.
-     */
-    private Map<Long, Long> pixelsIdSettingsOwnerIdMap =
-        new HashMap<Long, Long>();
+    private final PixelsRecords records = new PixelsRecords();
 
     /**
      * Default constructor.
@@ -306,6 +270,7 @@ public class ThumbnailCtx
             createDimensionPools(longestSide);
         loadMetadataByDimensionPool(dimensionPools);
         createMissingThumbnailMetadata(dimensionPools);
+        loadExtendedGraphCritical(pixelsIds);
     }
 
     /**
@@ -344,6 +309,51 @@ public class ThumbnailCtx
         {
                 createMissingThumbnailMetadata(dimensionPools);
         }
+        loadExtendedGraphCritical(pixelsIds);
+    }
+
+    /**
+     * Determines for a group of pixels sets whether we are extended graph
+     * critical in the context of each one's group. One projection is made for
+     * all the Pixels sets and the group context is switched once per group.
+     * Pixels sets whose owner is unknown are left to be checked, and fail,
+     * individually by {@link #isThumbnailCached(long)}.
+     * @param pixelsIds Pixels IDs to check.
+     */
+    private void loadExtendedGraphCritical(Set<Long> pixelsIds)
+    {
+        final Set<Long> toCheck = new HashSet<Long>();
+        for (Long pixelsId : pixelsIds)
+        {
+            if (records.getExtendedGraphCritical(pixelsId) == null
+                && records.getOwnerId(pixelsId) != null)
+            {
+                toCheck.add(pixelsId);
+            }
+        }
+        if (toCheck.isEmpty())
+        {
+            return;
+        }
+        if (securitySystem.getEventContext().getCurrentShareId() != null)
+        {
+            for (Long pixelsId : toCheck)
+            {
+                records.setExtendedGraphCritical(pixelsId, true);
+            }
+            return;
+        }
+        StopWatch s1 = new Slf4JStopWatch("omero.loadExtendedGraphCritical");
+        new PerGroupActor(applicationContext, queryService, securitySystem.getEventContext().getCurrentGroupId()) {
+            @Override
+            protected void actOnOneGroup(Set<Long> pixelsIds) {
+                for (final Long pixelsId : pixelsIds) {
+                    records.setExtendedGraphCritical(pixelsId,
+                            isExtendedGraphCritical(Collections.singleton(pixelsId)));
+                }
+            }
+        }.actOnByGroup(toCheck);
+        s1.stop();
     }
 
     /**
@@ -426,7 +436,7 @@ public class ThumbnailCtx
      */
     public boolean hasSettings(long pixelsId)
     {
-        return pixelsIdSettingsMap.containsKey(pixelsId);
+        return records.getSettings(pixelsId) != null;
     }
 
     /**
@@ -437,7 +447,7 @@ public class ThumbnailCtx
      */
     public boolean hasMetadata(long pixelsId)
     {
-        return pixelsIdMetadataMap.containsKey(pixelsId);
+        return records.getMetadata(pixelsId) != null;
     }
 
     /**
@@ -447,7 +457,7 @@ public class ThumbnailCtx
      */
     public Pixels getPixels(long pixelsId)
     {
-        Pixels pixels = pixelsIdPixelsMap.get(pixelsId);
+        Pixels pixels = records.getPixels(pixelsId);
         if (pixels == null)
         {
             throw new ResourceError(String.format(
@@ -455,7 +465,7 @@ public class ThumbnailCtx
                     "exist or the user id:%d has insufficient permissions " +
                     "to retrieve it.", pixelsId, userId));
         }
-        return pixelsIdPixelsMap.get(pixelsId);
+        return pixels;
     }
 
     /**
@@ -465,7 +475,7 @@ public class ThumbnailCtx
      */
     public RenderingDef getSettings(long pixelsId)
     {
-        return pixelsIdSettingsMap.get(pixelsId);
+        return records.getSettings(pixelsId);
     }
 
     /**
@@ -475,10 +485,10 @@ public class ThumbnailCtx
      */
     public Thumbnail getMetadata(long pixelsId) throws NoThumbnail
     {
-        Thumbnail thumbnail = pixelsIdMetadataMap.get(pixelsId);
+        Thumbnail thumbnail = records.getMetadata(pixelsId);
         if (thumbnail == null && securitySystem.isGraphCritical(null)) // maythrow
         {
-            Pixels pixels = pixelsIdPixelsMap.get(pixelsId);
+            Pixels pixels = records.getPixels(pixelsId);
             long ownerId = pixels.getDetails().getOwner().getId();
             throw new ResourceError(String.format(
                     "The user id:%s may not be the owner id:%d. The owner " +
@@ -501,9 +511,9 @@ public class ThumbnailCtx
      * @return returns null if the thumbnail metadata can't be found
      */
     public Thumbnail getMetadataSimple(long pixelsId) throws ResourceError {
-        Thumbnail thumbnail = pixelsIdMetadataMap.get(pixelsId);
+        Thumbnail thumbnail = records.getMetadata(pixelsId);
         if (thumbnail == null && securitySystem.isGraphCritical(null)) {
-            Pixels pixels = pixelsIdPixelsMap.get(pixelsId);
+            Pixels pixels = records.getPixels(pixelsId);
             long ownerId = pixels.getDetails().getOwner().getId();
             throw new ResourceError(String.format(
                     "The user id:%s may not be the owner id:%d. The owner " +
@@ -522,10 +532,8 @@ public class ThumbnailCtx
      */
     public boolean dirtyMetadata(long pixelsId)
     {
-        Timestamp metadataLastUpdated =
-            pixelsIdMetadataLastModifiedTimeMap.get(pixelsId);
-        Timestamp settingsLastUpdated =
-            pixelsIdSettingsLastModifiedTimeMap.get(pixelsId);
+        Timestamp metadataLastUpdated = records.getMetadataTime(pixelsId);
+        Timestamp settingsLastUpdated = records.getSettingsTime(pixelsId);
         
         if (log.isDebugEnabled())
         {
@@ -576,7 +584,7 @@ public class ThumbnailCtx
      */
     public boolean isThumbnailCached(long pixelsId)
     {
-        Thumbnail metadata = pixelsIdMetadataMap.get(pixelsId);
+        Thumbnail metadata = records.getMetadata(pixelsId);
         if (metadata == null) {
             return false;
         }
@@ -585,7 +593,10 @@ public class ThumbnailCtx
             boolean dirtyMetadata = dirtyMetadata(pixelsId);
             boolean thumbnailExists =
                 thumbnailService.getThumbnailExists(metadata);
-            final boolean isExtendedGraphCritical = new ExtendedGraphCriticalCheck(pixelsId).isCritical;
+            final Boolean isCritical =
+                records.getExtendedGraphCritical(pixelsId);
+            final boolean isExtendedGraphCritical = isCritical != null
+                ? isCritical : new ExtendedGraphCriticalCheck(pixelsId).isCritical;
             Long metadataOwnerId = metadata.getDetails().getOwner().getId();
             Long sessionUserId = securitySystem.getEffectiveUID();
             boolean isMyMetadata = sessionUserId.equals(metadataOwnerId);
@@ -730,18 +741,9 @@ public class ThumbnailCtx
         {
             for (Long pixelsId : pixelsIds)
             {
-                // Check if the Pixels ID vs. Owner ID map is missing, which
-                // signifies that we were completely unable to load any of the
-                // Pixels sets identified in pixelsIds.
-                if (pixelsIdOwnerIdMap == null) {
-                    throw new ResourceError(String.format(
-                            "Error retrieving Pixels id:%d. Pixels set does " +
-                            "not exist or the user id:%d has insufficient " +
-                            "permissions to retrieve it.", pixelsId, userId));
-                }
-                Long pixelsOwner = pixelsIdOwnerIdMap.get(pixelsId);
-                // Check if the Owner ID is missing from the map, which as
-                // above signifies that we unable to load this particular
+                Long pixelsOwner = records.getOwnerId(pixelsId);
+                // Check if the Owner ID is missing from the records, which
+                // signifies that we were unable to load this particular
                 // Pixels set as identified by Pixels ID. This will be a hard
                 // failure due to the crazy state that this potentially
                 // suggests.
@@ -771,7 +773,7 @@ public class ThumbnailCtx
     {
         Map<Dimension, Set<Long>> dimensionPools =
             new HashMap<Dimension, Set<Long>>();
-        for (Pixels pixels : pixelsIdPixelsMap.values())
+        for (Pixels pixels : records.getAllPixels())
         {
             // Calculate the XY widths we would use for a thumbnail of Pixels
             Dimension dimensions = calculateXYWidths(pixels, longestSide);
@@ -931,111 +933,189 @@ public class ThumbnailCtx
     }
 
     /**
-     * Bulk loads thumbnail metadata.
-     * @param dimensions X-Y dimensions to bulk load metadata for.
-     * @param pixelsIds Pixels IDs to bulk load metadata for.
+     * Bulk loads thumbnail metadata for all dimension pools at once. Both the
+     * user's metadata and that owned by the owner of each Pixels set are
+     * loaded so that the owner's can stand in, pool by pool, where the user
+     * has none.
+     * @param dimensionPools Dimension pools to bulk load metadata for.
      * @return List of thumbnail objects with <code>thumbnail.pixels</code> and
-     * <code>thumbnail.details.updateEvent</code> loaded.
+     * <code>thumbnail.details.updateEvent</code> loaded, possibly including
+     * metadata of other X-Y dimensions.
      */
-    private List<Thumbnail> bulkLoadMetadata(Dimension dimensions,
-                                             Set<Long> pixelsIds)
+    private List<Thumbnail> bulkLoadMetadata(
+            Map<Dimension, Set<Long>> dimensionPools)
     {
-        Parameters params = new Parameters();
-        params.addInteger("x", (int) dimensions.getWidth());
-        params.addInteger("y", (int) dimensions.getHeight());
+        Parameters params = dimensionPoolParameters(dimensionPools);
         params.addLong("o_id", userId);
-        params.addIds(pixelsIds);
         StopWatch s1 = new Slf4JStopWatch("omero.bulkLoadMetadata");
         List<Thumbnail> toReturn = queryService.findAllByQuery(
                 "select t from Thumbnail as t " +
                 "join t.pixels p " +
                 "join fetch t.details.updateEvent " +
-                "where t.sizeX = :x and t.sizeY = :y " +
-                "and t.details.owner.id = :o_id " +
+                "where t.sizeX in (:x) and t.sizeY in (:y) " +
+                "and (t.details.owner.id = :o_id " +
+                "or t.details.owner.id = p.details.owner.id) " +
                 "and p.id in (:ids)", params);
-        if (toReturn.isEmpty()) {
-            toReturn = queryService.findAllByQuery(
-                    "select t from Thumbnail as t " +
-                    "join t.pixels p " +
-                    "join fetch t.details.updateEvent " +
-                    "where t.sizeX = :x and t.sizeY = :y " +
-                    "and t.details.owner.id = p.details.owner.id " +
-                    "and p.id in (:ids)", params);
-
-        }
         s1.stop();
         return toReturn;
     }
 
     /**
      * Bulk loads thumbnail metadata that is owned by the owner of the Pixels
-     * set..
-     * @param dimensions X-Y dimensions to bulk load metadata for.
-     * @param pixelsIds Pixels IDs to bulk load metadata for.
+     * set for all dimension pools at once.
+     * @param dimensionPools Dimension pools to bulk load metadata for.
      * @return List of thumbnail objects with <code>thumbnail.pixels</code> and
-     * <code>thumbnail.details.updateEvent</code> loaded.
+     * <code>thumbnail.details.updateEvent</code> loaded, possibly including
+     * metadata of other X-Y dimensions.
      */
-    private List<Thumbnail> bulkLoadOwnerMetadata(Dimension dimensions,
-                                                  Set<Long> pixelsIds)
+    private List<Thumbnail> bulkLoadOwnerMetadata(
+            Map<Dimension, Set<Long>> dimensionPools)
     {
-        Parameters params = new Parameters();
-        params.addInteger("x", (int) dimensions.getWidth());
-        params.addInteger("y", (int) dimensions.getHeight());
-        params.addIds(pixelsIds);
+        Parameters params = dimensionPoolParameters(dimensionPools);
         StopWatch s1 = new Slf4JStopWatch("omero.bulkLoadOwnerMetadata");
         // Why is does this not try userId first?
         List<Thumbnail> toReturn = queryService.findAllByQuery(
                 "select t from Thumbnail as t " +
                 "join t.pixels as p " +
                 "join fetch t.details.updateEvent " +
-                "where t.sizeX = :x and t.sizeY = :y " +
+                "where t.sizeX in (:x) and t.sizeY in (:y) " +
                 "and t.details.owner.id = p.details.owner.id " +
                 "and t.pixels.id in (:ids)", params);
         s1.stop();
         return toReturn;
     }
 
+    /**
+     * Builds query parameters covering every X-Y dimension and Pixels ID of a
+     * set of dimension pools.
+     * @param dimensionPools Dimension pools to query for.
+     * @return Parameters <code>x</code>, <code>y</code> and <code>ids</code>.
+     */
+    private Parameters dimensionPoolParameters(
+            Map<Dimension, Set<Long>> dimensionPools)
+    {
+        Set<Integer> sizesX = new HashSet<Integer>();
+        Set<Integer> sizesY = new HashSet<Integer>();
+        Set<Long> pixelsIds = new HashSet<Long>();
+        for (Map.Entry<Dimension, Set<Long>> pool : dimensionPools.entrySet())
+        {
+            sizesX.add((int) pool.getKey().getWidth());
+            sizesY.add((int) pool.getKey().getHeight());
+            pixelsIds.addAll(pool.getValue());
+        }
+        Parameters params = new Parameters();
+        params.addList("x", new ArrayList<Integer>(sizesX));
+        params.addList("y", new ArrayList<Integer>(sizesY));
+        params.addIds(pixelsIds);
+        return params;
+    }
+
+    /**
+     * Sorts loaded thumbnail metadata into the dimension pools that asked for
+     * it, dropping metadata whose X-Y dimensions are not those of the pool of
+     * its Pixels set.
+     * @param thumbnailList Thumbnail metadata to sort.
+     * @param dimensionPools Dimension pools to sort by.
+     * @return Map of X-Y dimension vs. the metadata of its pool.
+     */
+    private Map<Dimension, List<Thumbnail>> sortByDimensionPool(
+            List<Thumbnail> thumbnailList,
+            Map<Dimension, Set<Long>> dimensionPools)
+    {
+        Map<Dimension, List<Thumbnail>> sorted =
+            new HashMap<Dimension, List<Thumbnail>>();
+        for (Thumbnail metadata : thumbnailList)
+        {
+            Dimension dimensions =
+                new Dimension(metadata.getSizeX(), metadata.getSizeY());
+            Set<Long> pool = dimensionPools.get(dimensions);
+            if (pool != null && pool.contains(metadata.getPixels().getId()))
+            {
+                List<Thumbnail> poolMetadata = sorted.get(dimensions);
+                if (poolMetadata == null)
+                {
+                    poolMetadata = new ArrayList<Thumbnail>();
+                    sorted.put(dimensions, poolMetadata);
+                }
+                poolMetadata.add(metadata);
+            }
+        }
+        return sorted;
+    }
+
     /**
      * Attempts to efficiently retrieve the thumbnail metadata based on a set
-     * of dimension pools. At worst, the result of maintaining the aspect ratio
-     * (calculating the new XY widths) is that we have to retrieve each
-     * thumbnail object separately.
+     * of dimension pools. However many X-Y dimensions maintaining the aspect
+     * ratio (calculating the new XY widths) yields, the metadata of all the
+     * pools is retrieved by one query and, if we are graph critical, the
+     * owners' by one more per group.
      * @param dimensionPools Dimension pools to query based upon.
-     * @param metadataMap Dictionary of Pixels ID vs. thumbnail metadata. Will
-     * be updated by this method.
-     * @param metadataTimeMap Dictionary of Pixels ID vs. thumbnail metadata
-     * last modification time. Will be updated by this method.
      */
     private void loadMetadataByDimensionPool(
-            Map<Dimension, Set<Long>> dimensionPools)
+            final Map<Dimension, Set<Long>> dimensionPools)
     {
         StopWatch s1 = new Slf4JStopWatch(
                 "omero.loadMetadataByDimensionPool");
-        for (final Dimension dimensions : dimensionPools.keySet())
+        // First populate our records with our metadata, falling back to the
+        // owner's for pools where we have none.
+        Map<Dimension, List<Thumbnail>> sorted = sortByDimensionPool(
+                bulkLoadMetadata(dimensionPools), dimensionPools);
+        Set<Long> pixelsIdsWithoutMetadata = new HashSet<Long>();
+        for (Map.Entry<Dimension, Set<Long>> pool : dimensionPools.entrySet())
         {
-            Set<Long> pool = dimensionPools.get(dimensions);
-            // First populate our hash maps asking for our metadata.
-            List<Thumbnail> thumbnailList = bulkLoadMetadata(dimensions, pool);
-            for (Thumbnail metadata : thumbnailList)
+            List<Thumbnail> thumbnailList = sorted.get(pool.getKey());
+            if (thumbnailList != null)
             {
-                prepareMetadata(metadata, metadata.getPixels().getId());
+                List<Thumbnail> userThumbnailList = new ArrayList<Thumbnail>();
+                for (Thumbnail metadata : thumbnailList)
+                {
+                    if (metadata.getDetails().getOwner().getId() == userId)
+                    {
+                        userThumbnailList.add(metadata);
+                    }
+                }
+                if (!userThumbnailList.isEmpty())
+                {
+                    thumbnailList = userThumbnailList;
+                }
+                for (Thumbnail metadata : thumbnailList)
+                {
+                    prepareMetadata(metadata, metadata.getPixels().getId());
+                }
             }
+            pixelsIdsWithoutMetadata.addAll(
+                    getPixelsIdsWithoutMetadata(pool.getValue()));
+        }
 
-            // Now check to see if we're in a state where missing metadata
-            // requires us to use the owner's metadata (we're "graph critical")
-            // and load them if possible.
-            new PerGroupActor(applicationContext, queryService, securitySystem.getEventContext().getCurrentGroupId()) {
-                @Override
-                protected void actOnOneGroup(Set<Long> pixelsIds) {
-                    if (isExtendedGraphCritical(pixelsIds)) {
-                        final List<Thumbnail> thumbnailList = bulkLoadOwnerMetadata(dimensions, pixelsIds);
-                        for (final Thumbnail metadata : thumbnailList) {
-                            prepareMetadata(metadata, metadata.getPixels().getId());
+        // Now check to see if we're in a state where missing metadata
+        // requires us to use the owner's metadata (we're "graph critical")
+        // and load them if possible.
+        new PerGroupActor(applicationContext, queryService, securitySystem.getEventContext().getCurrentGroupId()) {
+            @Override
+            protected void actOnOneGroup(Set<Long> pixelsIds) {
+                final Map<Dimension, Set<Long>> criticalPools = new HashMap<Dimension, Set<Long>>();
+                for (final Map.Entry<Dimension, Set<Long>> pool : dimensionPools.entrySet()) {
+                    final Set<Long> poolPixelsIds = new HashSet<Long>();
+                    for (final Long pixelsId : pool.getValue()) {
+                        if (pixelsIds.contains(pixelsId)) {
+                            poolPixelsIds.add(pixelsId);
                         }
                     }
+                    if (!poolPixelsIds.isEmpty() && isExtendedGraphCritical(poolPixelsIds)) {
+                        criticalPools.put(pool.getKey(), poolPixelsIds);
+                    }
                 }
-            }.actOnByGroup(getPixelsIdsWithoutMetadata(pool));
-        }
+                if (criticalPools.isEmpty()) {
+                    return;
+                }
+                final List<Thumbnail> thumbnailList = bulkLoadOwnerMetadata(criticalPools);
+                for (final List<Thumbnail> poolMetadata : sortByDimensionPool(thumbnailList, criticalPools).values()) {
+                    for (final Thumbnail metadata : poolMetadata) {
+                        prepareMetadata(metadata, metadata.getPixels().getId());
+                    }
+                }
+            }
+        }.actOnByGroup(pixelsIdsWithoutMetadata);
         s1.stop();
     }
 
@@ -1060,10 +1140,7 @@ public class ThumbnailCtx
             s1.stop();
             for (Pixels pixels : pixelsWithoutSettings)
             {
-                Long pixelsId = pixels.getId();
-                pixelsIdPixelsMap.put(pixelsId, pixels);
-                pixelsIdOwnerIdMap.put(
-                        pixelsId, pixels.getDetails().getOwner().getId());
+                records.setPixels(pixels);
             }
         }
     }
@@ -1076,14 +1153,10 @@ public class ThumbnailCtx
      */
     private void prepareRenderingSettings(RenderingDef settings, Pixels pixels)
     {
-        Long pixelsId = pixels.getId();
-        pixelsIdPixelsMap.put(pixelsId, pixels);
-        pixelsIdOwnerIdMap.put(pixelsId, pixels.getDetails().getOwner().getId());
+        records.setPixels(pixels);
         Details details = settings.getDetails();
         Timestamp timestemp = details.getUpdateEvent().getTime();
-        pixelsIdSettingsMap.put(pixelsId, settings);
-        pixelsIdSettingsLastModifiedTimeMap.put(pixelsId, timestemp);
-        pixelsIdSettingsOwnerIdMap.put(pixelsId, details.getOwner().getId());
+        records.setSettings(pixels.getId(), settings, timestemp);
     }
 
     /**
@@ -1095,8 +1168,7 @@ public class ThumbnailCtx
     private void prepareMetadata(Thumbnail metadata, long pixelsId)
     {
         Timestamp t = metadata.getDetails().getUpdateEvent().getTime();
-        pixelsIdMetadataMap.put(pixelsId, metadata);
-        pixelsIdMetadataLastModifiedTimeMap.put(pixelsId, t);
+        records.setMetadata(pixelsId, metadata, t);
     }
 
     /**
@@ -1117,14 +1189,14 @@ public class ThumbnailCtx
         StopWatch s1 = new Slf4JStopWatch(
                 "omero.createMissingThumbnailMetadata");
         Set<Long> pixelsIdsWithoutMetadata =
-            getPixelsIdsWithoutMetadata(pixelsIdPixelsMap.keySet());
+            getPixelsIdsWithoutMetadata(records.getAllPixelsIds());
         new PerGroupActor(applicationContext, queryService, securitySystem.getEventContext().getCurrentGroupId()) {
             @Override
             protected void actOnOneGroup(Set<Long> pixelsIds) {
                 final List<Thumbnail> toSave = new ArrayList<Thumbnail>();
                 final Map<Dimension, Set<Long>> temporaryDimensionPools = new HashMap<Dimension, Set<Long>>();
                 for (final Long pixelsId : pixelsIds) {
-                    final Pixels pixels = pixelsIdPixelsMap.get(pixelsId);
+                    final Pixels pixels = records.getPixels(pixelsId);
                     for (final Dimension dimension : dimensionPools.keySet()) {
                         final Set<Long> pool = dimensionPools.get(dimension);
                         if (pool.contains(pixelsId)) {
@@ -1170,4 +1242,172 @@ public class ThumbnailCtx
         thumb.setSizeY((int) dimensions.getHeight());
         return thumb;
     }
+
+    /**
+     * Table of per Pixels set context with one row for each Pixels ID, in
+     * the order that they were first prepared. Rows are numbered by a
+     * {@link LongIndex} of primitive Pixels IDs and their fields are held in
+     * parallel arrays, so no boxed keys or map entries are created.
+     */
+    private static final class PixelsRecords
+    {
+        /** Marks an owner ID that is not known. */
+        private static final long NO_OWNER = Long.MIN_VALUE;
+
+        /** Values of {@link #critical}. */
+        private static final byte UNKNOWN = 0, NOT_CRITICAL = 1, CRITICAL = 2;
+
+        /** Numbers the Pixels IDs with the rows of the arrays below. */
+        private final LongIndex index = new LongIndex();
+
+        private Pixels[] pixels = new Pixels[16];
+
+        private long[] ownerIds = new long[16];
+
+        private RenderingDef[] settings = new RenderingDef[16];
+
+        private Timestamp[] settingsTimes = new Timestamp[16];
+
+        private Thumbnail[] metadata = new Thumbnail[16];
+
+        private Timestamp[] metadataTimes = new Timestamp[16];
+
+        private byte[] critical = new byte[16];
+
+        /**
+         * @param pixelsId a Pixels ID
+         * @return the row of the Pixels ID, or <code>-1</code> if it has none
+         */
+        private int find(long pixelsId)
+        {
+            return index.find(pixelsId);
+        }
+
+        /**
+         * @param pixelsId a Pixels ID
+         * @return the row of the Pixels ID, added if it had none
+         */
+        private int row(long pixelsId)
+        {
+            int size = index.size();
+            int row = index.add(pixelsId);
+            if (row < size)
+            {
+                return row;
+            }
+            if (row == pixels.length)
+            {
+                int length = row * 2;
+                pixels = Arrays.copyOf(pixels, length);
+                ownerIds = Arrays.copyOf(ownerIds, length);
+                settings = Arrays.copyOf(settings, length);
+                settingsTimes = Arrays.copyOf(settingsTimes, length);
+                metadata = Arrays.copyOf(metadata, length);
+                metadataTimes = Arrays.copyOf(metadataTimes, length);
+                critical = Arrays.copyOf(critical, length);
+            }
+            ownerIds[row] = NO_OWNER;
+            return row;
+        }
+
+        Pixels getPixels(long pixelsId)
+        {
+            int row = find(pixelsId);
+            return row < 0 ? null : pixels[row];
+        }
+
+        Long getOwnerId(long pixelsId)
+        {
+            int row = find(pixelsId);
+            return row < 0 || ownerIds[row] == NO_OWNER ? null : ownerIds[row];
+        }
+
+        void setPixels(Pixels pixels)
+        {
+            int row = row(pixels.getId());
+            this.pixels[row] = pixels;
+            ownerIds[row] = pixels.getDetails().getOwner().getId();
+        }
+
+        RenderingDef getSettings(long pixelsId)
+        {
+            int row = find(pixelsId);
+            return row < 0 ? null : settings[row];
+        }
+
+        Timestamp getSettingsTime(long pixelsId)
+        {
+            int row = find(pixelsId);
+            return row < 0 ? null : settingsTimes[row];
+        }
+
+        void setSettings(long pixelsId, RenderingDef settings, Timestamp time)
+        {
+            int row = row(pixelsId);
+            this.settings[row] = settings;
+            settingsTimes[row] = time;
+        }
+
+        Thumbnail getMetadata(long pixelsId)
+        {
+            int row = find(pixelsId);
+            return row < 0 ? null : metadata[row];
+        }
+
+        Timestamp getMetadataTime(long pixelsId)
+        {
+            int row = find(pixelsId);
+            return row < 0 ? null : metadataTimes[row];
+        }
+
+        void setMetadata(long pixelsId, Thumbnail metadata, Timestamp time)
+        {
+            int row = row(pixelsId);
+            this.metadata[row] = metadata;
+            metadataTimes[row] = time;
+        }
+
+        Boolean getExtendedGraphCritical(long pixelsId)
+        {
+            int row = find(pixelsId);
+            return row < 0 || critical[row] == UNKNOWN ? null : critical[row] == CRITICAL;
+        }
+
+        void setExtendedGraphCritical(long pixelsId, boolean isCritical)
+        {
+            critical[row(pixelsId)] = isCritical ? CRITICAL : NOT_CRITICAL;
+        }
+
+        /**
+         * @return the loaded Pixels objects
+         */
+        List<Pixels> getAllPixels()
+        {
+            List<Pixels> allPixels = new ArrayList<Pixels>(index.size());
+            for (int row = 0; row < index.size(); row++)
+            {
+                if (pixels[row] != null)
+                {
+                    allPixels.add(pixels[row]);
+                }
+            }
+            return allPixels;
+        }
+
+        /**
+         * @return the IDs of the loaded Pixels objects
+         */
+        Set<Long> getAllPixelsIds()
+        {
+            Set<Long> allPixelsIds = new HashSet<Long>();
+            for (int row = 0; row < index.size(); row++)
+            {
+                if (pixels[row] != null)
+                {
+                    allPixelsIds.add(index.key(row));
+                }
+            }
+            return allPixelsIds;
+        }
+    }
 }
@@ -114,6 +114,7 @@ public class Deletion {
         try {
             final FileDeleter files = new FileDeleter(ctx, afs, deleteTargets);
             files.run();
+            /* deletions deferred to the end of the transaction warn of failures once done */
             if (files.getFailedFilesCount() > 0) {
                 log.warn(files.getWarning());
             }
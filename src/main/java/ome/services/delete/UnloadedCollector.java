@@ -6,9 +6,12 @@
 package ome.services.delete;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import ome.api.local.LocalAdmin;
 import ome.api.local.LocalQuery;
@@ -16,11 +19,9 @@ import ome.model.IObject;
 import ome.util.CBlock;
 import ome.util.Utils;
 
-import org.hibernate.Session;
-
 /**
  * {@link CBlock} implementation which counts the number of locking instances
- * there are for a single {@link IObject} while walking a graph.
+ * there are for each {@link IObject} collected while walking a graph.
  *
  * @author Josh Moore, josh at glencoesoftware.com
  * @since 3.0-Beta3
@@ -33,6 +34,7 @@ class UnloadedCollector implements CBlock {
     final protected LocalAdmin admin;
     final List<IObject> list = new ArrayList<IObject>();
     final Map<String, Map<Long, Map<String, Long>>> map = new HashMap<String, Map<Long, Map<String, Long>>>();
+    final Map<Class<IObject>, Set<Long>> uncounted = new HashMap<Class<IObject>, Set<Long>>();
 
     public UnloadedCollector(LocalQuery query, LocalAdmin admin, boolean count) {
         this.query = query;
@@ -57,32 +59,55 @@ class UnloadedCollector implements CBlock {
         copy.unload();
         list.add(copy);
         if (count) {
-            count(object); /* PERFORMANCE HIT */
+            count(object); /* counted in batches by counts() */
         }
         return null;
     }
 
     /**
-     * Counts via {@link LocalAdmin#getLockingIds(Session, IObject)} all the
-     * items which entities which link to the given object.
+     * Notes the given object for {@link #counts()} to count the items of
+     * entities which link to it.
      *
      * @param object
      */
     @SuppressWarnings("unchecked")
     void count(final IObject object) {
 
-        Map<Long, Map<String, Long>> id_class_id = map.get(object.getClass()
-                .getName());
-
-        if (id_class_id == null) {
-            id_class_id = new HashMap<Long, Map<String, Long>>();
-            map.put(object.getClass().getName(), id_class_id);
+        final Map<Long, Map<String, Long>> id_class_id = map.get(object
+                .getClass().getName());
+
+        if (id_class_id == null || !id_class_id.containsKey(object.getId())) {
+            final Class<IObject> klass = (Class<IObject>) object.getClass();
+            Set<Long> ids = uncounted.get(klass);
+            if (ids == null) {
+                ids = new HashSet<Long>();
+                uncounted.put(klass, ids);
+            }
+            ids.add(object.getId());
         }
 
-        if (!id_class_id.containsKey(object.getId())) {
-            id_class_id.put(object.getId(), admin.getLockingIds(
-                    (Class<IObject>) object.getClass(), object.getId(), null));
+    }
+
+    /**
+     * Counts via {@link LocalAdmin#getLockingIds(Class, Collection, Long)}
+     * all the items of entities which link to the objects collected so far,
+     * with one query per linking class for all the objects of each class.
+     *
+     * @return the counts by class name and ID of the collected objects
+     */
+    Map<String, Map<Long, Map<String, Long>>> counts() {
+
+        for (final Map.Entry<Class<IObject>, Set<Long>> ids : uncounted.entrySet()) {
+            final String className = ids.getKey().getName();
+            Map<Long, Map<String, Long>> id_class_id = map.get(className);
+            if (id_class_id == null) {
+                id_class_id = new HashMap<Long, Map<String, Long>>();
+                map.put(className, id_class_id);
+            }
+            id_class_id.putAll(admin.getLockingIds(ids.getKey(), ids.getValue(), null));
         }
+        uncounted.clear();
+        return map;
 
     }
 }
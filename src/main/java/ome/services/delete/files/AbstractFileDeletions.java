@@ -19,6 +19,7 @@ package ome.services.delete.files;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -92,6 +93,36 @@ public abstract class AbstractFileDeletions {
         return failedFiles.size();
     }
 
+    /**
+     * As {@link #deleteLocal()} but deletes the files in parallel.
+     * @param reaper the reaper which deletes the files
+     * @param table the class of the objects to which the files belong
+     * @return the number of files which could not be deleted
+     */
+    public int deleteLocal(FileReaper reaper, String table) {
+        return fail(reaper.delete(table, localFiles));
+    }
+
+    /**
+     * Notes files which could not be deleted.
+     * @param failures the files with the ids of their objects
+     * @return the number of files which could not be deleted
+     */
+    public int fail(Map<File, Long> failures) {
+        for (Map.Entry<File, Long> entry : failures.entrySet()) {
+            final File file = entry.getKey();
+            fail(file, entry.getValue(), file.length());
+        }
+        return failedFiles.size();
+    }
+
+    /**
+     * @return the files to be handled by {@link #deleteLocal()} with the ids of their objects
+     */
+    public Map<File, Long> getLocalFiles() {
+        return Collections.unmodifiableMap(localFiles);
+    }
+
     public long getBytesFailed() {
         return bytesFailed;
     }
@@ -18,16 +18,22 @@
 
 package ome.services.delete.files;
 
+import java.io.File;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 import ome.io.nio.AbstractFileSystemService;
 import ome.system.OmeroContext;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.google.common.collect.SetMultimap;
 
@@ -35,6 +41,12 @@ import com.google.common.collect.SetMultimap;
  * Helper class which sorts through a number of
  * file-based deletions before processing them.
  *
+ * If a {@link FileReaper} is configured the files are deleted in parallel.
+ * If called within a transaction, the files are listed in the reaper's
+ * journal before it commits and only deleted in the background once it has
+ * committed. The {@link #getUndeletedFiles() undeleted files} then remain
+ * empty until the reaper finishes, when any failures are logged.
+ *
  * @author Josh Moore, josh at glencoesoftware.com
  * @since 5.1.0-m3
  */
@@ -60,11 +72,14 @@ public class FileDeleter {
 
     private PixelsFileDeletions pixelsFD;
 
-    private HashMap<String, long[]> undeletedFiles;
+    private volatile HashMap<String, long[]> undeletedFiles;
+
+    private volatile int filesFailed = 0;
 
-    private int filesFailed = 0;
+    private volatile long bytesFailed = 0;
 
-    private long bytesFailed = 0;
+    /** The name of the optional {@link FileReaper} bean. */
+    public static final String REAPER_BEAN = "fileReaper";
 
 	public FileDeleter(OmeroContext ctx, AbstractFileSystemService afs, SetMultimap<String, Long> deleteTargets) {
         this.ctx = ctx;
@@ -73,22 +88,46 @@ public class FileDeleter {
     }
 
     public void run() {
-        originalFD = new OriginalFileDeletions(afs, load(Type.OriginalFile), ctx);
-        filesFailed += originalFD.deleteLocal();
-        bytesFailed += originalFD.getBytesFailed();
+        final FileReaper reaper = ctx != null && ctx.containsBean(REAPER_BEAN)
+                ? ctx.getBean(REAPER_BEAN, FileReaper.class) : null;
+        final boolean defer = reaper != null
+                && TransactionSynchronizationManager.isSynchronizationActive();
 
+        originalFD = new OriginalFileDeletions(afs, load(Type.OriginalFile), ctx);
         thumbFD = new ThumbnailFileDeletions(afs, load(Type.Thumbnail));
-        filesFailed += thumbFD.deleteLocal();
-        bytesFailed += thumbFD.getBytesFailed();
-
         pixelsFD = new PixelsFileDeletions(afs, load(Type.Pixels));
-        filesFailed += pixelsFD.deleteLocal();
-        bytesFailed += pixelsFD.getBytesFailed();
 
-        undeletedFiles = new HashMap<String, long[]>();
-        undeletedFiles.put(Type.OriginalFile.toString(), originalFD.getUndeletedFiles());
-        undeletedFiles.put(Type.Thumbnail.toString(), thumbFD.getUndeletedFiles());
-        undeletedFiles.put(Type.Pixels.toString(), pixelsFD.getUndeletedFiles());
+        if (reaper == null) {
+            originalFD.deleteLocal();
+            thumbFD.deleteLocal();
+            pixelsFD.deleteLocal();
+        } else if (defer) {
+            TransactionSynchronizationManager.registerSynchronization(
+                    new DeferredDeletion(reaper));
+        } else {
+            originalFD.deleteLocal(reaper, Type.OriginalFile.toString());
+            thumbFD.deleteLocal(reaper, Type.Thumbnail.toString());
+            pixelsFD.deleteLocal(reaper, Type.Pixels.toString());
+        }
+        summarize();
+    }
+
+    /**
+     * Notes which files could not be deleted so far.
+     */
+    private void summarize() {
+        int filesFailed = 0;
+        long bytesFailed = 0;
+        final HashMap<String, long[]> undeletedFiles = new HashMap<String, long[]>();
+        for (final Map.Entry<Type, AbstractFileDeletions> deletions : deletions().entrySet()) {
+            final long[] ids = deletions.getValue().getUndeletedFiles();
+            undeletedFiles.put(deletions.getKey().toString(), ids);
+            filesFailed += ids.length;
+            bytesFailed += deletions.getValue().getBytesFailed();
+        }
+        this.filesFailed = filesFailed;
+        this.bytesFailed = bytesFailed;
+        this.undeletedFiles = undeletedFiles;
 
         if (log.isDebugEnabled()) {
             for (final Map.Entry<String, long[]> undeletedFilesOneClass : undeletedFiles.entrySet()) {
@@ -101,6 +140,74 @@ public class FileDeleter {
         }
     }
 
+    private Map<Type, AbstractFileDeletions> deletions() {
+        final Map<Type, AbstractFileDeletions> deletions =
+                new EnumMap<Type, AbstractFileDeletions>(Type.class);
+        deletions.put(Type.OriginalFile, originalFD);
+        deletions.put(Type.Thumbnail, thumbFD);
+        deletions.put(Type.Pixels, pixelsFD);
+        return deletions;
+    }
+
+    /**
+     * Journals the files before the transaction commits and starts deleting
+     * them once it has, noting any failures when the deletions finish. If
+     * the transaction rolls back the journals are removed and no file is
+     * deleted.
+     */
+    private class DeferredDeletion extends TransactionSynchronizationAdapter {
+
+        private final FileReaper reaper;
+
+        private final Map<Type, File> journals = new EnumMap<Type, File>(Type.class);
+
+        DeferredDeletion(FileReaper reaper) {
+            this.reaper = reaper;
+        }
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            for (final Map.Entry<Type, AbstractFileDeletions> deletions : deletions().entrySet()) {
+                final Type type = deletions.getKey();
+                journals.put(type, reaper.prepare(type.toString(),
+                        deletions.getValue().getLocalFiles()));
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (status == STATUS_COMMITTED) {
+                final Map<Type, CompletableFuture<Map<File, Long>>> running =
+                        new EnumMap<Type, CompletableFuture<Map<File, Long>>>(Type.class);
+                for (final Map.Entry<Type, AbstractFileDeletions> deletions : deletions().entrySet()) {
+                    final Type type = deletions.getKey();
+                    running.put(type, reaper.deleteAsync(type.toString(),
+                            deletions.getValue().getLocalFiles(), journals.get(type)));
+                }
+                /* the request need not wait: files left undeleted remain in the rewritten journals */
+                CompletableFuture.allOf(running.values().toArray(new CompletableFuture<?>[running.size()]))
+                        .whenComplete(new BiConsumer<Void, Throwable>() {
+                            @Override
+                            public void accept(Void done, Throwable failure) {
+                                for (final Map.Entry<Type, AbstractFileDeletions> deletions : deletions().entrySet()) {
+                                    final AbstractFileDeletions fd = deletions.getValue();
+                                    fd.fail(reaper.await(running.get(deletions.getKey()), fd.getLocalFiles()));
+                                }
+                                summarize();
+                                if (filesFailed > 0) {
+                                    log.warn(getWarning());
+                                }
+                            }
+                        });
+            } else if (status == STATUS_ROLLED_BACK) {
+                for (final File journal : journals.values()) {
+                    reaper.discard(journal);
+                }
+            }
+            /* if unknown then the journals are resolved against the database on restart */
+        }
+    }
+
     /**
      * Lookup the ids which are scheduled for deletion.
      * @param fileType non-null
@@ -110,10 +217,19 @@ public class FileDeleter {
         return deleteTargets.get(fileType.toString());
     }
 
+    /**
+     * If the deletion was deferred to the end of the transaction then the
+     * undeleted files are listed only once the reaper finishes in the
+     * background, until then none are.
+     * @return the IDs of the objects whose files could not be deleted, by type
+     */
     public HashMap<String, long[]> getUndeletedFiles() {
         return undeletedFiles;
     }
 
+    /**
+     * @return how many files could not be deleted, see {@link #getUndeletedFiles()}
+     */
     public int getFailedFilesCount() {
         return filesFailed;
     }
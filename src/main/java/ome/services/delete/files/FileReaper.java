@@ -0,0 +1,624 @@
+/*
+ * Copyright (C) 2026 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.delete.files;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+
+/**
+ * Deletes the files of graph deletes in parallel. Files are grouped by the
+ * file system on which they reside and, across all requests, at most
+ * <code>perFileSystem</code> of them are deleted concurrently on each, so
+ * that a single slow network mount does not occupy every thread. Deletions
+ * which fail are retried with an increasing delay.
+ *
+ * If a journal directory is configured, the files of each request are
+ * listed there before any is deleted, possibly by {@link #prepare(String, Map)}
+ * before the transaction deleting their objects commits. Once all were
+ * handled the journal is removed or, if some files could not be deleted,
+ * rewritten to list only those. Journals which remain after a restart are
+ * deleted again from {@link #start()}, skipping the files whose objects
+ * still exist in the database, so that files are neither leaked when the
+ * server stops part way through nor deleted for a transaction which never
+ * committed.
+ *
+ * @since 5.7.3
+ */
+public class FileReaper {
+
+    private static final Logger log = LoggerFactory.getLogger(FileReaper.class);
+
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    private static final long RETRY_MILLIS = 200;
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final Pattern TABLE = Pattern.compile("[A-Za-z]+");
+
+    private final File journalDir;
+
+    private final int perFileSystem;
+
+    private final int attempts;
+
+    private final ExecutorService workers;
+
+    private final Map<Path, String> fileSystems = new ConcurrentHashMap<Path, String>();
+
+    /* the files queued on each file system, shared by all requests */
+    private final ConcurrentMap<String, Lane> lanes = new ConcurrentHashMap<String, Lane>();
+
+    private final AtomicLong journalCount = new AtomicLong();
+
+    private final Counter deleted, failed, pending;
+
+    private JdbcTemplate jdbc;
+
+    /**
+     * The deletion of the files of one request.
+     */
+    private final class Request {
+
+        final Map<File, Long> failures = new ConcurrentHashMap<File, Long>();
+
+        final CompletableFuture<Map<File, Long>> done = new CompletableFuture<Map<File, Long>>();
+
+        final AtomicInteger remaining;
+
+        Request(int size) {
+            remaining = new AtomicInteger(size);
+            if (size == 0) {
+                done.complete(failures);
+            }
+        }
+
+        void finished(Map.Entry<File, Long> entry, boolean gone) {
+            if (!gone) {
+                failures.put(entry.getKey(), entry.getValue());
+            }
+            pending.dec();
+            if (remaining.decrementAndGet() == 0) {
+                done.complete(failures);
+            }
+        }
+    }
+
+    /**
+     * A file to delete for a request.
+     */
+    private static final class Task {
+
+        final Map.Entry<File, Long> entry;
+
+        final Request request;
+
+        Task(Map.Entry<File, Long> entry, Request request) {
+            this.entry = entry;
+            this.request = request;
+        }
+    }
+
+    /**
+     * The files queued for deletion on one file system and how many threads
+     * are deleting them.
+     */
+    private static final class Lane {
+
+        final Queue<Task> queue = new ConcurrentLinkedQueue<Task>();
+
+        final AtomicInteger drainers = new AtomicInteger();
+    }
+
+    /**
+     * @param journalDir the directory listing pending deletions, or an
+     *            empty string for none.
+     * @param threads the total number of deleting threads.
+     * @param perFileSystem the maximum number of concurrent deletions on
+     *            one file system.
+     * @param attempts how often deleting a file is tried.
+     * @param metrics used to count deleted, failed and pending files.
+     */
+    public FileReaper(String journalDir, int threads, int perFileSystem,
+            int attempts, Metrics metrics) {
+        this.journalDir = journalDir == null || journalDir.trim().isEmpty()
+                ? null : new File(journalDir.trim());
+        this.perFileSystem = Math.max(1, perFileSystem);
+        this.attempts = Math.max(1, attempts);
+        this.deleted = metrics.counter(this, "deleted");
+        this.failed = metrics.counter(this, "failed");
+        this.pending = metrics.counter(this, "pending");
+        final AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        final Thread t = new Thread(r,
+                                "file-reaper-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    /**
+     * Sets the database used by {@link #start()} to check which objects
+     * listed in journals still exist. Without it journals are not resumed.
+     */
+    public void setDataSource(DataSource dataSource) {
+        this.jdbc = new JdbcTemplate(dataSource);
+    }
+
+    /**
+     * Spring init-method. Resumes the deletions listed in the journal.
+     */
+    public void start() {
+        if (journalDir == null) {
+            return;
+        }
+        if (!journalDir.isDirectory() && !journalDir.mkdirs()) {
+            log.warn("Cannot create deletion journal {}", journalDir);
+            return;
+        }
+        final File[] journals = journalDir.listFiles();
+        if (journals == null) {
+            return;
+        }
+        for (final File journal : journals) {
+            if (journal.getName().endsWith(JOURNAL_SUFFIX)) {
+                resume(journal);
+            }
+        }
+    }
+
+    /**
+     * Deletes the files listed in a journal whose objects no longer exist.
+     */
+    private void resume(File journal) {
+        final Map<File, Long> files = new LinkedHashMap<File, Long>();
+        final String table = readJournal(journal, files);
+        if (table == null) {
+            return;
+        }
+        final Set<Long> existing = existing(table, files.values());
+        if (existing == null) {
+            log.warn("Cannot check which objects of deletion journal {} still exist, keeping it", journal);
+            return;
+        }
+        final Iterator<Long> ids = files.values().iterator();
+        while (ids.hasNext()) {
+            if (existing.contains(ids.next())) {
+                ids.remove();
+            }
+        }
+        if (files.isEmpty()) {
+            log.info("Discarding deletion journal {} whose objects all exist", journal);
+            discard(journal);
+        } else {
+            log.info("Resuming deletion of {} files from {}", files.size(), journal);
+            reap(table, files, journal);
+        }
+    }
+
+    /**
+     * Spring destroy-method. Deletions not yet finished are resumed from
+     * the journal on the next {@link #start()}.
+     */
+    public void stop() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Deletes the files and waits for the deletions to finish.
+     *
+     * @param table the class of the objects to which the files belong.
+     * @param files the files to delete with the id of the object they
+     *            belong to.
+     * @return the files which could not be deleted.
+     */
+    public Map<File, Long> delete(String table, Map<File, Long> files) {
+        return await(deleteAsync(table, files), files);
+    }
+
+    /**
+     * Waits for deletions to finish.
+     *
+     * @param deletion as returned by
+     *            {@link #deleteAsync(String, Map, File)}.
+     * @param files the files being deleted, reported as undeleted should
+     *            the wait fail.
+     * @return the files which could not be deleted.
+     */
+    public Map<File, Long> await(CompletableFuture<Map<File, Long>> deletion,
+            Map<File, Long> files) {
+        try {
+            return deletion.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return new HashMap<File, Long>(files);
+        } catch (ExecutionException ee) {
+            log.warn("Failed to delete files", ee.getCause());
+            return new HashMap<File, Long>(files);
+        }
+    }
+
+    /**
+     * Deletes the files in the background. The files are listed in the
+     * journal before this method returns.
+     *
+     * @param table the class of the objects to which the files belong.
+     * @param files the files to delete with the id of the object they
+     *            belong to.
+     * @return the files which could not be deleted, once done.
+     */
+    public CompletableFuture<Map<File, Long>> deleteAsync(String table,
+            Map<File, Long> files) {
+        return deleteAsync(table, files, prepare(table, files));
+    }
+
+    /**
+     * Deletes the files in the background.
+     *
+     * @param table the class of the objects to which the files belong.
+     * @param files the files to delete with the id of the object they
+     *            belong to.
+     * @param journal the journal from {@link #prepare(String, Map)} listing
+     *            the files, may be {@code null}.
+     * @return the files which could not be deleted, once done.
+     */
+    public CompletableFuture<Map<File, Long>> deleteAsync(String table,
+            Map<File, Long> files, File journal) {
+        return reap(table, new LinkedHashMap<File, Long>(files), journal);
+    }
+
+    private CompletableFuture<Map<File, Long>> reap(final String table,
+            final Map<File, Long> files, final File journal) {
+        final long start = System.currentTimeMillis();
+        final Request request = new Request(files.size());
+        pending.inc(files.size());
+        final Map<String, List<Task>> byFileSystem = new HashMap<String, List<Task>>();
+        for (Map.Entry<File, Long> entry : files.entrySet()) {
+            final String fileSystem = fileSystem(entry.getKey());
+            List<Task> tasks = byFileSystem.get(fileSystem);
+            if (tasks == null) {
+                tasks = new ArrayList<Task>();
+                byFileSystem.put(fileSystem, tasks);
+            }
+            tasks.add(new Task(entry, request));
+        }
+        for (Map.Entry<String, List<Task>> tasks : byFileSystem.entrySet()) {
+            Lane lane = lanes.get(tasks.getKey());
+            if (lane == null) {
+                final Lane created = new Lane();
+                lane = lanes.putIfAbsent(tasks.getKey(), created);
+                if (lane == null) {
+                    lane = created;
+                }
+            }
+            lane.queue.addAll(tasks.getValue());
+            drain(lane);
+        }
+        return request.done.thenApply(new Function<Map<File, Long>, Map<File, Long>>() {
+                    @Override
+                    public Map<File, Long> apply(Map<File, Long> failures) {
+                        if (journal != null) {
+                            if (failures.isEmpty()) {
+                                discard(journal);
+                            } else {
+                                rewriteJournal(journal, table, failures);
+                            }
+                        }
+                        log.info(String.format("Deleted %d of %d files in %s ms",
+                                files.size() - failures.size(), files.size(),
+                                System.currentTimeMillis() - start));
+                        return failures;
+                    }
+                });
+    }
+
+    /**
+     * Starts threads to delete the queued files of a file system, up to
+     * <code>perFileSystem</code> at once.
+     */
+    private void drain(final Lane lane) {
+        while (!lane.queue.isEmpty()) {
+            final int drainers = lane.drainers.get();
+            if (drainers >= perFileSystem) {
+                return;
+            }
+            if (!lane.drainers.compareAndSet(drainers, drainers + 1)) {
+                continue;
+            }
+            try {
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            Task task;
+                            while ((task = lane.queue.poll()) != null) {
+                                task.request.finished(task.entry, delete(task.entry.getKey()));
+                            }
+                        } finally {
+                            lane.drainers.decrementAndGet();
+                        }
+                        /* files may have been queued after the queue was found empty */
+                        drain(lane);
+                    }
+                });
+            } catch (RejectedExecutionException ree) {
+                lane.drainers.decrementAndGet();
+                Task task;
+                while ((task = lane.queue.poll()) != null) {
+                    failed.inc();
+                    task.request.finished(task.entry, false);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Tries to delete the file, retrying with an increasing delay.
+     *
+     * @return if the file is gone.
+     */
+    private boolean delete(File file) {
+        for (int attempt = 1; ; attempt++) {
+            if (!file.exists()) {
+                if (attempt == 1) {
+                    log.debug("File " + file.getAbsolutePath() + " does not exist.");
+                }
+                return true;
+            }
+            if (remove(file)) {
+                log.debug("DELETED: " + file.getAbsolutePath());
+                deleted.inc();
+                return true;
+            }
+            if (attempt >= attempts) {
+                log.debug("Failed to delete " + file.getAbsolutePath());
+                failed.inc();
+                return false;
+            }
+            try {
+                Thread.sleep(RETRY_MILLIS * attempt);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                failed.inc();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Makes a single attempt at deleting a file.
+     *
+     * @return if the file was deleted.
+     */
+    protected boolean remove(File file) {
+        return file.delete();
+    }
+
+    /**
+     * @return the name of the file system holding the file, determined
+     *         once per directory.
+     */
+    private String fileSystem(File file) {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent == null) {
+            return "";
+        }
+        final Path dir = parent.toPath();
+        String name = fileSystems.get(dir);
+        if (name == null) {
+            try {
+                name = Files.getFileStore(dir).name();
+            } catch (IOException e) {
+                name = dir.getRoot() == null ? "" : dir.getRoot().toString();
+            }
+            fileSystems.put(dir, name);
+        }
+        return name;
+    }
+
+    /**
+     * Finds which of the given objects exist in the database.
+     *
+     * @param table the class of the objects.
+     * @param ids the ids of the objects.
+     * @return the ids of the objects which exist, or {@code null} if that
+     *         cannot be determined.
+     */
+    protected Set<Long> existing(String table, Collection<Long> ids) {
+        if (jdbc == null || !TABLE.matcher(table).matches()) {
+            return null;
+        }
+        final Set<Long> existing = new HashSet<Long>();
+        try {
+            for (List<Long> batch : Lists.partition(new ArrayList<Long>(ids), BATCH_SIZE)) {
+                final String sql = "select id from " + table.toLowerCase(Locale.ENGLISH)
+                        + " where id in (" + Joiner.on(',').join(Collections.nCopies(batch.size(), "?")) + ")";
+                existing.addAll(jdbc.queryForList(sql, Long.class, batch.toArray()));
+            }
+        } catch (DataAccessException dae) {
+            log.warn("Failed to check for objects of {}", table, dae);
+            return null;
+        }
+        return existing;
+    }
+
+    //
+    // Journal
+    //
+
+    /**
+     * Lists the files in a new journal so that their deletion is resumed by
+     * {@link #start()} should the server stop before it is done. The
+     * journal may be written before the objects to which the files belong
+     * are deleted from the database: files are not deleted on resumption
+     * while their objects exist.
+     *
+     * @param table the class of the objects to which the files belong.
+     * @param files the files to delete with the id of the object they
+     *            belong to.
+     * @return the journal, or {@code null} if none was written.
+     */
+    public File prepare(String table, Map<File, Long> files) {
+        if (journalDir == null || files.isEmpty()) {
+            return null;
+        }
+        final File journal = new File(journalDir, String.format("%d-%d%s",
+                System.currentTimeMillis(), journalCount.incrementAndGet(),
+                JOURNAL_SUFFIX));
+        if (writeJournal(journal, table, files)) {
+            return journal;
+        }
+        return null;
+    }
+
+    /**
+     * Removes a journal, for instance of files which are not to be deleted
+     * after all because the transaction deleting their objects rolled back.
+     *
+     * @param journal as returned by {@link #prepare(String, Map)}, may be
+     *            {@code null}.
+     */
+    public void discard(File journal) {
+        if (journal != null && !journal.delete() && journal.exists()) {
+            log.warn("Failed to remove deletion journal {}", journal);
+        }
+    }
+
+    private boolean writeJournal(File journal, String table, Map<File, Long> files) {
+        try (FileOutputStream out = new FileOutputStream(journal);
+                Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            for (Map.Entry<File, Long> entry : files.entrySet()) {
+                writer.write(table + "\t" + entry.getValue() + "\t"
+                        + entry.getKey().getAbsolutePath() + "\n");
+            }
+            writer.flush();
+            out.getFD().sync();
+            return true;
+        } catch (IOException e) {
+            log.warn("Failed to write deletion journal {}", journal, e);
+            journal.delete();
+            return false;
+        }
+    }
+
+    /**
+     * Replaces the journal by one listing only the files which could not
+     * be deleted, so that they are tried again on the next {@link #start()}.
+     */
+    private void rewriteJournal(File journal, String table, Map<File, Long> failures) {
+        final File temporary = new File(journal.getPath() + ".tmp");
+        if (writeJournal(temporary, table, failures)) {
+            try {
+                Files.move(temporary.toPath(), journal.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                log.warn("Kept {} undeleted files in {} to retry on restart",
+                        failures.size(), journal);
+            } catch (IOException e) {
+                log.warn("Failed to rewrite deletion journal {}", journal, e);
+                temporary.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads the files listed in a journal.
+     *
+     * @param journal the journal to read.
+     * @param files the map to which to add the files with their object ids.
+     * @return the class of the objects, or {@code null} if the journal could
+     *         not be read.
+     */
+    private String readJournal(File journal, Map<File, Long> files) {
+        String table = null;
+        try {
+            for (String line : Files.readAllLines(journal.toPath(), StandardCharsets.UTF_8)) {
+                final String[] fields = line.split("\t", 3);
+                if (fields.length < 3) {
+                    continue;
+                }
+                if (table == null) {
+                    table = fields[0];
+                } else if (!table.equals(fields[0])) {
+                    log.warn("Ignoring {} entry in deletion journal {} of {}",
+                            fields[0], journal, table);
+                    continue;
+                }
+                files.put(new File(fields[2]), Long.valueOf(fields[1]));
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.warn("Failed to read deletion journal {}", journal, e);
+            return null;
+        }
+        if (table == null) {
+            discard(journal);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,444 @@
+/*
+ * Copyright (C) 2026 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.eventlogs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import ome.model.IObject;
+import ome.model.core.Pixels;
+import ome.model.meta.EventLog;
+import ome.parameters.Parameters;
+import ome.services.eventlogs.DurableWorkQueue.Batch;
+import ome.services.eventlogs.DurableWorkQueue.Item;
+import ome.services.eventlogs.DurableWorkQueue.Lane;
+
+import org.springframework.context.ApplicationEvent;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * {@link PersistentEventLogLoader} implementation which consumes a
+ * {@link DurableWorkQueue} shared with the other background processors
+ * instead of scanning the <tt>eventlog</tt> table itself. As with
+ * {@link EventLogQueue}, {@link #next()} may return null.
+ *
+ * A returned {@link EventLog} is only taken as processed once it is
+ * {@link #completed(EventLog) completed}. By default that happens when the
+ * transaction in which it was returned commits, which suits consumers
+ * which process the event logs within that transaction. Consumers which
+ * process them asynchronously instead call {@link #completed(EventLog)}
+ * once each is done; see {@link #setCompleteOnCommit(boolean)}. Batches are
+ * acknowledged to the queue in order once all their event logs are
+ * completed, so that a restart neither loses nor repeats acknowledged work.
+ * If the transaction rolls back then the uncompleted batches are claimed
+ * again.
+ *
+ * Failed items are moved to the {@link Lane#FAILURE} lane and retried up to
+ * {@link #MAX_ATTEMPTS} times. Backlog requests via
+ * {@link #addEventLog(Class, long)} are queued durably in the
+ * {@link Lane#PRIORITY} lane. The {@link #getKey() key} is only consulted
+ * as the starting point if the shared queue was never filled.
+ *
+ * @since 5.7.3
+ */
+public class DurableEventLogQueue extends PersistentEventLogLoader {
+
+    /**
+     * How often processing an item is attempted before it is dropped.
+     */
+    public final static int MAX_ATTEMPTS = 3;
+
+    /**
+     * A claimed batch with the progress of its items.
+     */
+    private static class Claim {
+
+        final Batch batch;
+
+        /** The items to hand out, i.e. those of the batch which were not skipped. */
+        final List<Item> items;
+
+        final List<Item> failures = new ArrayList<Item>();
+
+        int index;
+
+        /** How many handed-out items are not yet completed. */
+        int outstanding;
+
+        Claim(Batch batch, List<Item> items) {
+            this.batch = batch;
+            this.items = items;
+        }
+
+        boolean isHandedOut() {
+            return index >= items.size();
+        }
+    }
+
+    /**
+     * Wraps a claimed {@link Item} for consumers.
+     */
+    private static class WrappedEventLog extends EventLog {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Item item;
+
+        private final Claim claim;
+
+        private boolean isCompleted;
+
+        WrappedEventLog(Item item, Claim claim) {
+            this.item = item;
+            this.claim = claim;
+            setId(item.eventLogId);
+            setAction(item.action);
+            setEntityType(item.type);
+            setEntityId(item.id);
+        }
+    }
+
+    final private DurableWorkQueue queue;
+
+    final private String consumer;
+
+    final private List<String> types;
+
+    final private List<String> actions;
+
+    /**
+     * Maximum number of event log rows appended to the queue at a time.
+     */
+    final private int max;
+
+    /**
+     * The claimed batches which are not yet acknowledged, in order.
+     */
+    private final Deque<Claim> claims = new ArrayDeque<Claim>();
+
+    private int batchCount;
+
+    private boolean completeOnCommit = true;
+
+    private boolean filterRepo = false;
+
+    private String repo;
+
+    /**
+     * @param queue the shared queue.
+     * @param consumer the name under which this loader's progress is kept.
+     * @param max maximum number of event log rows appended to the queue at a time.
+     * @param types the model object types to process.
+     * @param actions the event log actions to process.
+     */
+    public DurableEventLogQueue(DurableWorkQueue queue, String consumer,
+            int max, String[] types, String[] actions) {
+        this.queue = queue;
+        this.consumer = consumer;
+        this.max = max;
+        this.types = Collections.unmodifiableList(Arrays.asList(types));
+        this.actions = Collections.unmodifiableList(Arrays.asList(actions));
+    }
+
+    /**
+     * @param completeOnCommit if returned event logs are completed when the
+     * transaction in which they were returned commits, otherwise the
+     * consumer must call {@link #completed(EventLog)} for each
+     */
+    public void setCompleteOnCommit(boolean completeOnCommit) {
+        this.completeOnCommit = completeOnCommit;
+    }
+
+    /**
+     * Restricts the {@link Pixels} to process to those in the given
+     * repository as does {@link ome.services.pixeldata.PersistentEventLogLoader}.
+     * Other items are skipped.
+     * @param repo the UUID of the repository, null for the legacy repository
+     */
+    public void setRepo(String repo) {
+        this.repo = repo;
+        this.filterRepo = true;
+    }
+
+    private final DurableWorkQueue.Filter filter = new DurableWorkQueue.Filter() {
+        @Override
+        public boolean accept(Lane lane, Item item) {
+            if (!types.contains(item.type)) {
+                return false;
+            }
+            // Backlog and retried items keep their own action.
+            return lane != Lane.REGULAR || actions.contains(item.action);
+        }
+    };
+
+    @Override
+    public void onApplicationEvent(ApplicationEvent arg0) {
+        if (arg0 instanceof EventLogFailure) {
+            final EventLogFailure failure = (EventLogFailure) arg0;
+            if (failure.wasSource(this)
+                    && failure.log instanceof WrappedEventLog) {
+                failed((WrappedEventLog) failure.log);
+            }
+        } else {
+            super.onApplicationEvent(arg0);
+        }
+    }
+
+    private synchronized void failed(WrappedEventLog eventLog) {
+        final Item item = eventLog.item;
+        if (item.attempts + 1 < MAX_ATTEMPTS) {
+            eventLog.claim.failures.add(new Item(item.eventLogId, item.type,
+                    item.id, item.action, item.attempts + 1));
+        } else {
+            log.warn("Giving up on {} after {} attempts", item,
+                    MAX_ATTEMPTS);
+        }
+    }
+
+    /**
+     * Marks a returned event log as processed. Once every event log of
+     * a batch and of the batches before it is completed the batch is
+     * acknowledged, first queuing its failed items again. Completing an
+     * event log twice, or one which this loader did not return, has no
+     * effect.
+     * @param eventLog an event log returned by {@link #next()}
+     */
+    public synchronized void completed(EventLog eventLog) {
+        if (!(eventLog instanceof WrappedEventLog)) {
+            return;
+        }
+        final WrappedEventLog wrapped = (WrappedEventLog) eventLog;
+        if (wrapped.isCompleted || !claims.contains(wrapped.claim)) {
+            return;
+        }
+        wrapped.isCompleted = true;
+        wrapped.claim.outstanding--;
+        acknowledge();
+    }
+
+    /**
+     * Acknowledges the leading batches which are completed.
+     */
+    private void acknowledge() {
+        while (!claims.isEmpty()) {
+            final Claim claim = claims.peekFirst();
+            if (!claim.isHandedOut() || claim.outstanding > 0) {
+                return;
+            }
+            if (!claim.failures.isEmpty()) {
+                queue.publish(Lane.FAILURE, claim.failures);
+            }
+            queue.ack(claim.batch);
+            claims.removeFirst();
+        }
+    }
+
+    /**
+     * Forgets the batches which are not yet acknowledged so that they are
+     * claimed again.
+     */
+    private synchronized void reclaim() {
+        if (!claims.isEmpty()) {
+            log.info("Reclaiming {} unacknowledged batches", claims.size());
+            claims.clear();
+        }
+    }
+
+    private boolean claim() {
+        final Claim previous = claims.peekLast();
+        final Batch batch = queue.claim(consumer, Math.max(1, batchSize),
+                filter, previous == null ? null : previous.batch);
+        if (batch.isEmpty() && previous != null) {
+            // Passed-over records are read again after the previous batch.
+            return false;
+        }
+        claims.addLast(new Claim(batch, inRepo(batch.getItems())));
+        acknowledge();
+        return !batch.isEmpty();
+    }
+
+    /**
+     * @return the items which are not {@link Pixels} outside of the
+     * {@link #setRepo(String) repository}
+     */
+    private List<Item> inRepo(List<Item> items) {
+        final String pixelsType = Pixels.class.getName();
+        final List<Long> pixelsIds = new ArrayList<Long>();
+        if (filterRepo) {
+            for (Item item : items) {
+                if (pixelsType.equals(item.type)) {
+                    pixelsIds.add(item.id);
+                }
+            }
+        }
+        if (pixelsIds.isEmpty()) {
+            return items;
+        }
+        final Parameters params = new Parameters().addIds(pixelsIds);
+        final String hql;
+        if (repo == null) {
+            hql = "select p.id from Pixels p where p.id in (:ids) and p.repo is null";
+        } else {
+            hql = "select p.id from Pixels p where p.id in (:ids) and p.repo = :repo";
+            params.addString("repo", repo);
+        }
+        final Set<Long> inRepo = new HashSet<Long>();
+        for (Object[] row : queryService.projection(hql, params)) {
+            inRepo.add((Long) row[0]);
+        }
+        final List<Item> accepted = new ArrayList<Item>(items.size());
+        for (Item item : items) {
+            if (!pixelsType.equals(item.type) || inRepo.contains(item.id)) {
+                accepted.add(item);
+            } else if (log.isDebugEnabled()) {
+                log.debug("Skipping {} of another repository", item);
+            }
+        }
+        return accepted;
+    }
+
+    //
+    // EventLogLoader overrides
+    //
+
+    /**
+     * Returns true if items remain in the last claimed batch. Otherwise
+     * claims the next one, first filling the queue from the event log if
+     * necessary. Returns false if "stop" is set, the batch size is met or
+     * no work is found.
+     */
+    public synchronized boolean hasNext() {
+
+        if (isStopSet()) {
+            return false;
+        }
+
+        batchCount++;
+        if (batchCount > batchSize) {
+            batchCount = 0;
+            return false;
+        }
+
+        while (true) {
+            final Claim claim = claims.peekLast();
+            if (claim != null && !claim.isHandedOut()) {
+                return true;
+            }
+            if (claim()) {
+                continue;
+            }
+            if (queue.fill(getCurrentId(), max) > 0 && claim()) {
+                continue;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Returns the next claimed item, or null if it is not to be processed.
+     */
+    public synchronized EventLog next() {
+        final Claim claim = claims.peekLast();
+        if (claim == null || claim.isHandedOut()) {
+            throw new NoSuchElementException();
+        }
+        final WrappedEventLog eventLog = new WrappedEventLog(
+                claim.items.get(claim.index++), claim);
+        claim.outstanding++;
+        if (completeOnCommit) {
+            completeOnCommit(eventLog);
+        }
+        return eventLog;
+    }
+
+    /**
+     * Completes the event log once the current transaction commits, or
+     * reclaims the unacknowledged batches if it rolls back. Without a
+     * transaction the event log is completed at once.
+     */
+    private void completeOnCommit(final WrappedEventLog eventLog) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            completed(eventLog);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(
+                new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        if (status == STATUS_COMMITTED) {
+                            completed(eventLog);
+                        } else {
+                            reclaim();
+                        }
+                    }
+                });
+    }
+
+    //
+    // PersistentEventLogLoader
+    //
+
+    @Override
+    protected EventLog query() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * As with {@link EventLogQueue}, batches are large and so further loops
+     * should likely not be attempted.
+     */
+    @Override
+    public long more() {
+        return 0;
+    }
+
+    /**
+     * Do nothing.
+     */
+    @Override
+    public void initialize() {
+        // no-op
+    }
+
+    /**
+     * Durably queues a backlog item in the {@link Lane#PRIORITY} lane.
+     */
+    @Override
+    public boolean addEventLog(Class<? extends IObject> cls, long id) {
+        final String type = cls.getName();
+        if (!types.contains(type)) {
+            if (log.isDebugEnabled()) {
+                log.debug("Type not available for backlog:" + type);
+            }
+            return false;
+        }
+        queue.publish(Lane.PRIORITY, Collections.singletonList(
+                new Item(-1, type, id, "REINDEX", 0)));
+        return true;
+    }
+}
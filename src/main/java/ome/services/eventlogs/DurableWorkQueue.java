@@ -0,0 +1,668 @@
+/*
+ * Copyright (C) 2026 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.eventlogs;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+import ome.conditions.InternalException;
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+import ome.util.SqlAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durable queue of {@link ome.model.meta.EventLog}-derived work items shared
+ * by the background processors of all server processes on a host. Rather
+ * than each processor scanning the <tt>eventlog</tt> table on its own, the
+ * first one to run out of work appends the next window of event logs to the
+ * queue via {@link #fill(long, int)} and every consumer then reads the same
+ * stream.
+ *
+ * The queue is a directory holding, per {@link Lane}, an append-only log of
+ * length-prefixed records split into segment files, along with one offset
+ * file per consumer and lane. {@link #claim(String, int, Filter)} reads a
+ * batch from the consumer's offsets, preferring higher priority lanes and
+ * merging repeated (type, id) pairs, and {@link #ack(Batch)} durably moves
+ * the offsets past the batch. Unacknowledged work is therefore claimed
+ * again after a restart while acknowledged work is not. Segments which
+ * every consumer has passed are deleted.
+ *
+ * All modifications happen under an exclusive lock on the directory which
+ * is shared between processes via a {@link FileLock}, so the directory
+ * should be on a local filesystem.
+ *
+ * @since 5.7.3
+ */
+public class DurableWorkQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(DurableWorkQueue.class);
+
+    /**
+     * The lanes of the queue in order of priority.
+     */
+    public enum Lane {
+
+        /** Explicit requests, e.g. reindexing or missing pyramids. */
+        PRIORITY,
+
+        /** New event logs in the order in which they were written. */
+        REGULAR,
+
+        /** Items whose processing failed, retried when nothing else is queued. */
+        FAILURE;
+    }
+
+    /**
+     * One unit of work.
+     */
+    public static final class Item {
+
+        /** The event log from which this item originates, negative if none. */
+        public final long eventLogId;
+
+        /** The model object type. */
+        public final String type;
+
+        /** The model object ID. */
+        public final long id;
+
+        /** The event log action. */
+        public final String action;
+
+        /** How often processing this item was already attempted. */
+        public final int attempts;
+
+        public Item(long eventLogId, String type, long id, String action,
+                int attempts) {
+            this.eventLogId = eventLogId;
+            this.type = type;
+            this.id = id;
+            this.action = action;
+            this.attempts = attempts;
+        }
+
+        private String key() {
+            return type + ':' + id;
+        }
+
+        @Override
+        public String toString() {
+            return "Item[" + eventLogId + "]<" + type + ":" + id + "="
+                    + action + ">";
+        }
+    }
+
+    /**
+     * Selects which items a consumer processes. The others are passed over.
+     */
+    public interface Filter {
+        boolean accept(Lane lane, Item item);
+    }
+
+    /**
+     * The items claimed by a consumer, to be acknowledged once processed.
+     */
+    public static final class Batch {
+
+        private final String consumer;
+
+        private final List<Item> items;
+
+        /** Per lane, the offset just past the last record read. */
+        private final long[] ends;
+
+        private Batch(String consumer, List<Item> items, long[] ends) {
+            this.consumer = consumer;
+            this.items = items;
+            this.ends = ends;
+        }
+
+        /**
+         * @return the claimed items, without repeated (type, id) pairs
+         */
+        public List<Item> getItems() {
+            return items;
+        }
+
+        /**
+         * @return if no items were claimed
+         */
+        public boolean isEmpty() {
+            return items.isEmpty();
+        }
+    }
+
+    /** Segments are rolled over once they exceed this size. */
+    private static final long SEGMENT_BYTES = 16 * 1024 * 1024;
+
+    /** Segments are read through a buffer of this size. */
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String FEED = "feed";
+
+    private static final Pattern CONSUMER_NAME = Pattern.compile("[A-Za-z0-9._-]+");
+
+    /**
+     * Lock per directory within this JVM so that {@link FileLock}s are never
+     * requested twice by the same process.
+     */
+    private static final ConcurrentMap<String, ReentrantLock> LOCKS =
+            new ConcurrentHashMap<String, ReentrantLock>();
+
+    private final File directory;
+
+    private final ReentrantLock lock;
+
+    private final RandomAccessFile lockFile;
+
+    private FileLock fileLock;
+
+    private final List<String> types;
+
+    private final List<String> actions;
+
+    private SqlAction sql;
+
+    private final Counter publishedCount, claimedCount, ackedCount;
+
+    public DurableWorkQueue(String directory, String[] types, String[] actions) {
+        this(directory, types, actions, new NullMetrics());
+    }
+
+    /**
+     * @param directory where to keep the queue, created if necessary.
+     * @param types the model object types to take from the event log.
+     * @param actions the event log actions to take from the event log.
+     * @param metrics used to count queue traffic.
+     */
+    public DurableWorkQueue(String directory, String[] types, String[] actions,
+            Metrics metrics) {
+        this.directory = new File(directory);
+        this.types = Collections.unmodifiableList(Arrays.asList(types));
+        this.actions = Collections.unmodifiableList(Arrays.asList(actions));
+        this.publishedCount = metrics.counter(this, "publishedCount");
+        this.claimedCount = metrics.counter(this, "claimedCount");
+        this.ackedCount = metrics.counter(this, "ackedCount");
+        for (Lane lane : Lane.values()) {
+            mkdirs(laneDirectory(lane));
+        }
+        mkdirs(consumerDirectory());
+        try {
+            final String path = this.directory.getCanonicalPath();
+            LOCKS.putIfAbsent(path, new ReentrantLock());
+            this.lock = LOCKS.get(path);
+            this.lockFile = new RandomAccessFile(new File(this.directory, "lock"), "rw");
+        } catch (IOException e) {
+            throw new InternalException("Cannot open work queue in "
+                    + directory + ": " + e.getMessage());
+        }
+    }
+
+    public void setSqlAction(SqlAction sql) {
+        this.sql = sql;
+    }
+
+    /**
+     * Spring destroy-method.
+     */
+    public void destroy() {
+        try {
+            lockFile.close();
+        } catch (IOException e) {
+            log.warn("Failed to close work queue lock file", e);
+        }
+    }
+
+    private static void mkdirs(File dir) {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new InternalException("Cannot create work queue directory " + dir);
+        }
+    }
+
+    private File laneDirectory(Lane lane) {
+        return new File(directory, lane.name().toLowerCase());
+    }
+
+    private File consumerDirectory() {
+        return new File(directory, "consumers");
+    }
+
+    //
+    // LOCKING
+    //
+
+    private void lock() {
+        lock.lock();
+        if (lock.getHoldCount() == 1) {
+            try {
+                fileLock = lockFile.getChannel().lock();
+            } catch (IOException e) {
+                lock.unlock();
+                throw new InternalException("Cannot lock work queue: " + e.getMessage());
+            }
+        }
+    }
+
+    private void unlock() {
+        try {
+            if (lock.getHoldCount() == 1 && fileLock != null) {
+                fileLock.release();
+                fileLock = null;
+            }
+        } catch (IOException e) {
+            log.warn("Failed to release work queue lock", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //
+    // PUBLIC API
+    //
+
+    /**
+     * Appends items to a lane. Repeated (type, id) pairs among the given
+     * items are appended only once, with the latest action.
+     * @return the number of records appended
+     */
+    public int publish(Lane lane, Collection<Item> items) {
+        final Map<String, Item> unique = new LinkedHashMap<String, Item>();
+        for (Item item : items) {
+            unique.remove(item.key());
+            unique.put(item.key(), item);
+        }
+        if (unique.isEmpty()) {
+            return 0;
+        }
+        lock();
+        try {
+            append(lane, unique.values());
+        } catch (IOException e) {
+            throw new InternalException("Cannot write to work queue: " + e.getMessage());
+        } finally {
+            unlock();
+        }
+        publishedCount.inc(unique.size());
+        return unique.size();
+    }
+
+    /**
+     * Appends the next window of event logs to the {@link Lane#REGULAR}
+     * lane, continuing from where the previous call by any process stopped.
+     * @param initialEventLogId where to start if the queue was never filled
+     * @param max the maximum number of event logs to consider
+     * @return the number of records appended
+     */
+    public int fill(long initialEventLogId, int max) {
+        lock();
+        try {
+            final long current = readOffset(FEED, initialEventLogId);
+            final List<Object[]> rows = sql.getEventLogPartitions(types,
+                    actions, current, max);
+            final List<Item> items = new ArrayList<Item>(rows.size());
+            long last = current;
+            for (Object[] row : rows) {
+                final long eventLogId = (Long) row[0];
+                items.add(new Item(eventLogId, (String) row[1],
+                        (Long) row[2], (String) row[3], 0));
+                last = Math.max(last, eventLogId);
+            }
+            append(Lane.REGULAR, items);
+            writeOffset(FEED, last);
+            publishedCount.inc(items.size());
+            log.debug("Queued {} event logs after {}", items.size(), current);
+            return items.size();
+        } catch (IOException e) {
+            throw new InternalException("Cannot write to work queue: " + e.getMessage());
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Reads up to <code>max</code> accepted items for a consumer, taking
+     * them from the lanes in order of priority. The {@link Lane#FAILURE}
+     * lane is only read if the others hold nothing. Passed-over records count
+     * as read. Apart from registering a new consumer at the start of the
+     * retained log, nothing is changed until the batch is
+     * {@link #ack(Batch) acknowledged}.
+     * @param consumer the name of the consumer
+     * @param max the maximum number of items to claim
+     * @param filter which items the consumer processes
+     */
+    public Batch claim(String consumer, int max, Filter filter) {
+        return claim(consumer, max, filter, null);
+    }
+
+    /**
+     * Reads up to <code>max</code> accepted items for a consumer as for
+     * {@link #claim(String, int, Filter)} but continuing after a batch which
+     * the consumer claimed yet has not acknowledged, so that several batches
+     * may be in progress at once. They must be acknowledged in the order in
+     * which they were claimed.
+     * @param consumer the name of the consumer
+     * @param max the maximum number of items to claim
+     * @param filter which items the consumer processes
+     * @param after the consumer's previous unacknowledged batch, or null to
+     * continue from the consumer's acknowledged offsets
+     */
+    public Batch claim(String consumer, int max, Filter filter, Batch after) {
+        checkConsumer(consumer);
+        if (after != null && !after.consumer.equals(consumer)) {
+            throw new IllegalArgumentException("Batch of consumer "
+                    + after.consumer + " cannot be continued by " + consumer);
+        }
+        final Map<String, Item> unique = new LinkedHashMap<String, Item>();
+        final long[] ends = new long[Lane.values().length];
+        lock();
+        try {
+            for (Lane lane : Lane.values()) {
+                final String name = offsetName(consumer, lane);
+                long start = after == null ? readOffset(name, -1)
+                        : after.ends[lane.ordinal()];
+                if (start < 0) {
+                    // Register the consumer so that purging waits for it.
+                    start = firstSegment(lane);
+                    writeOffset(name, start);
+                }
+                if (lane == Lane.FAILURE && !unique.isEmpty()) {
+                    ends[lane.ordinal()] = start;
+                    continue;
+                }
+                ends[lane.ordinal()] = read(lane, start, max - unique.size(),
+                        filter, unique);
+            }
+        } catch (IOException e) {
+            throw new InternalException("Cannot read work queue: " + e.getMessage());
+        } finally {
+            unlock();
+        }
+        claimedCount.inc(unique.size());
+        return new Batch(consumer, new ArrayList<Item>(unique.values()), ends);
+    }
+
+    /**
+     * Durably marks the batch as processed and deletes segments which no
+     * consumer still needs.
+     */
+    public void ack(Batch batch) {
+        lock();
+        try {
+            for (Lane lane : Lane.values()) {
+                writeOffset(offsetName(batch.consumer, lane),
+                        batch.ends[lane.ordinal()]);
+            }
+            for (Lane lane : Lane.values()) {
+                purge(lane);
+            }
+        } catch (IOException e) {
+            throw new InternalException("Cannot write to work queue: " + e.getMessage());
+        } finally {
+            unlock();
+        }
+        ackedCount.inc(batch.items.size());
+    }
+
+    private static void checkConsumer(String consumer) {
+        if (consumer == null || !CONSUMER_NAME.matcher(consumer).matches()) {
+            throw new IllegalArgumentException("Invalid consumer name: " + consumer);
+        }
+    }
+
+    private static String offsetName(String consumer, Lane lane) {
+        return consumer + "." + lane.name().toLowerCase();
+    }
+
+    //
+    // SEGMENTS
+    //
+
+    /**
+     * @return the base offsets of the lane's segments in ascending order
+     */
+    private long[] segments(Lane lane) {
+        final String[] names = laneDirectory(lane).list();
+        if (names == null) {
+            return new long[0];
+        }
+        final long[] bases = new long[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    bases[count++] = Long.parseLong(name.substring(0,
+                            name.length() - SEGMENT_SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring unexpected file {} in work queue", name);
+                }
+            }
+        }
+        final long[] rv = Arrays.copyOf(bases, count);
+        Arrays.sort(rv);
+        return rv;
+    }
+
+    private File segment(Lane lane, long base) {
+        return new File(laneDirectory(lane),
+                String.format("%020d%s", base, SEGMENT_SUFFIX));
+    }
+
+    private long firstSegment(Lane lane) {
+        final long[] bases = segments(lane);
+        return bases.length == 0 ? 0 : bases[0];
+    }
+
+    private void append(Lane lane, Collection<Item> items) throws IOException {
+        if (items.isEmpty()) {
+            return;
+        }
+        final long[] bases = segments(lane);
+        long base = bases.length == 0 ? 0 : bases[bases.length - 1];
+        File file = segment(lane, base);
+        if (file.length() >= SEGMENT_BYTES) {
+            base += file.length();
+            file = segment(lane, base);
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        for (Item item : items) {
+            final byte[] type = item.type.getBytes(StandardCharsets.UTF_8);
+            final byte[] action = item.action.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(8 + 8 + 4 + 2 + type.length + 2 + action.length);
+            out.writeLong(item.eventLogId);
+            out.writeLong(item.id);
+            out.writeInt(item.attempts);
+            out.writeShort(type.length);
+            out.write(type);
+            out.writeShort(action.length);
+            out.write(action);
+        }
+        out.flush();
+        try (FileOutputStream stream = new FileOutputStream(file, true)) {
+            final FileChannel channel = stream.getChannel();
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Reads accepted items from the lane into <code>into</code>, merging
+     * repeated (type, id) pairs, until <code>max</code> items are held.
+     * A trailing incomplete record is treated as the end of the lane.
+     * @return the offset just past the last record read
+     */
+    private long read(Lane lane, long offset, int max, Filter filter,
+            Map<String, Item> into) throws IOException {
+        final long[] bases = segments(lane);
+        if (bases.length == 0 || max <= 0) {
+            return offset;
+        }
+        if (offset < bases[0]) {
+            offset = bases[0];
+        }
+        for (int s = 0; s < bases.length && into.size() < max; s++) {
+            final long base = bases[s];
+            final long next = s + 1 < bases.length ? bases[s + 1] : Long.MAX_VALUE;
+            if (offset >= next) {
+                continue;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(segment(lane, base), "r")) {
+                final long length = raf.length();
+                long position = offset - base;
+                /* read on sequentially, buffered, from the first record */
+                final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        Channels.newInputStream(raf.getChannel().position(position)), READ_BUFFER_BYTES));
+                while (position + 4 <= length && into.size() < max) {
+                    final int size = in.readInt();
+                    if (size < 0 || position + 4 + size > length) {
+                        break;
+                    }
+                    final byte[] record = new byte[size];
+                    in.readFully(record);
+                    final Item item;
+                    try {
+                        item = readItem(new DataInputStream(new ByteArrayInputStream(record)));
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    position += 4 + size;
+                    offset = base + position;
+                    if (filter == null || filter.accept(lane, item)) {
+                        final Item previous = into.get(item.key());
+                        if (previous == null || item.eventLogId >= previous.eventLogId) {
+                            into.put(item.key(), item);
+                        }
+                    }
+                }
+                if (position >= length && next != Long.MAX_VALUE) {
+                    offset = next;
+                }
+            }
+        }
+        return offset;
+    }
+
+    private static Item readItem(DataInput in) throws IOException {
+        final long eventLogId = in.readLong();
+        final long id = in.readLong();
+        final int attempts = in.readInt();
+        final byte[] type = new byte[in.readUnsignedShort()];
+        in.readFully(type);
+        final byte[] action = new byte[in.readUnsignedShort()];
+        in.readFully(action);
+        return new Item(eventLogId, new String(type, StandardCharsets.UTF_8),
+                id, new String(action, StandardCharsets.UTF_8), attempts);
+    }
+
+    /**
+     * Deletes the lane's segments which every consumer has read past. The
+     * last segment is always kept.
+     */
+    private void purge(Lane lane) throws IOException {
+        final long[] bases = segments(lane);
+        if (bases.length < 2) {
+            return;
+        }
+        long min = Long.MAX_VALUE;
+        final String suffix = "." + lane.name().toLowerCase();
+        final String[] names = consumerDirectory().list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(suffix)) {
+                    min = Math.min(min, readOffset(name, bases[0]));
+                }
+            }
+        }
+        for (int s = 0; s + 1 < bases.length && bases[s + 1] <= min; s++) {
+            final File file = segment(lane, bases[s]);
+            if (file.delete()) {
+                log.debug("Deleted consumed work queue segment {}", file);
+            }
+        }
+    }
+
+    //
+    // OFFSETS
+    //
+
+    private long readOffset(String name, long missing) throws IOException {
+        final File file = new File(consumerDirectory(), name);
+        if (!file.isFile()) {
+            return missing;
+        }
+        final String value = new String(Files.readAllBytes(file.toPath()),
+                StandardCharsets.UTF_8).trim();
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring invalid work queue offset {} in {}", value, file);
+            return missing;
+        }
+    }
+
+    private void writeOffset(String name, long offset) throws IOException {
+        final File file = new File(consumerDirectory(), name);
+        final File tmp = new File(consumerDirectory(), name + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(Long.toString(offset).getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+}
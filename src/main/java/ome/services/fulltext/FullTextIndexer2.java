@@ -19,20 +19,34 @@
 
 package ome.services.fulltext;
 
+import java.io.Serializable;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import ome.model.IObject;
 import ome.model.meta.EventLog;
+import ome.system.metrics.Counter;
+import ome.system.metrics.Histogram;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
 import ome.util.DetailsFieldBridge;
 
 import com.google.common.base.CaseFormat;
@@ -40,9 +54,11 @@ import com.google.common.base.Converter;
 import com.google.common.base.Splitter;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import com.google.common.collect.SetMultimap;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.lucene.document.Document;
 import org.hibernate.CacheMode;
 import org.hibernate.FlushMode;
 import org.hibernate.Hibernate;
@@ -56,8 +72,13 @@ import org.hibernate.jdbc.Work;
 import org.hibernate.search.FullTextSession;
 import org.hibernate.search.Search;
 import org.hibernate.search.SearchFactory;
+import org.hibernate.search.backend.LuceneWork;
+import org.hibernate.search.backend.WorkType;
 import org.hibernate.search.bridge.BridgeException;
 import org.hibernate.search.bridge.FieldBridge;
+import org.hibernate.search.bridge.LuceneOptions;
+import org.hibernate.search.engine.DocumentBuilderIndexedEntity;
+import org.hibernate.search.engine.SearchFactoryImplementor;
 import org.quartz.DateBuilder;
 import org.quartz.JobDetail;
 import org.quartz.JobKey;
@@ -66,6 +87,7 @@ import org.quartz.Trigger;
 import org.quartz.TriggerBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectFactory;
 import org.springframework.scheduling.quartz.MethodInvokingJobDetailFactoryBean;
 
 /**
@@ -134,6 +156,13 @@ import org.springframework.scheduling.quartz.MethodInvokingJobDetailFactoryBean;
  * <li>Then trigger <tt>PREPARE</tt>.
  * </ol></dd>
  * </dl>
+ * <p>
+ * If more than one indexing thread is configured then <tt>INDEX</tt> splits its batch by object type and into ranges of
+ * object ID. Each partition is loaded by a worker thread in its own session and its documents built through that
+ * worker's own field bridge while the field bridge remains locked by the Quartz job. The whole batch is then written to
+ * the search index at once. The number of event log entries reviewed by <tt>PREPARE</tt> then adapts to how quickly
+ * batches are indexed. Either way the size of the event log backlog and the rate of indexing are reported via
+ * {@link Metrics}.
  * @author m.t.b.carroll@dundee.ac.uk
  * @since 5.5.0
  */
@@ -188,9 +217,25 @@ public class FullTextIndexer2 {
 
     /**
      * Maximum number of event log entries to process in one transaction.
+     * With partitioned indexing, the minimum number to process in one batch.
      */
     private static final int BATCH_SIZE = 256;
 
+    /**
+     * With partitioned indexing, the maximum number of event log entries to process in one batch.
+     */
+    private static final int MAX_BATCH_SIZE = 8192;
+
+    /**
+     * With partitioned indexing, how long in milliseconds indexing one batch should take.
+     */
+    private static final long TARGET_BATCH_MILLIS = 20000;
+
+    /**
+     * With partitioned indexing, the minimum number of objects to index in one partition.
+     */
+    private static final int MIN_PARTITION_SIZE = 16;
+
     /**
      * After how many purges to defragment the search index.
      */
@@ -226,6 +271,17 @@ public class FullTextIndexer2 {
 
     private long eventLogId = -1;
 
+    private int threads = 1;
+    private ObjectFactory<? extends FieldBridge> bridgeFactory;
+    private FieldBridge workerBridge;
+    private ExecutorService workers;
+    private int batchSize = BATCH_SIZE;
+    private int lastBatchEntries = 0;
+
+    private Histogram backlog;
+    private Histogram docsPerSecond;
+    private Counter indexedCount;
+
     /**
      * Construct a new indexer.
      * @param scheduler the Quartz scheduler for the indexing jobs
@@ -256,6 +312,30 @@ public class FullTextIndexer2 {
             }
         }
         this.includeTypes = includeTypes.build();
+        setMetrics(new NullMetrics());
+    }
+
+    /**
+     * @param threads how many worker threads index a batch, more than one enables partitioned indexing
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @param bridgeFactory the source of a new field bridge for each worker thread, required for partitioned indexing
+     */
+    public void setBridgeFactory(ObjectFactory<? extends FieldBridge> bridgeFactory) {
+        this.bridgeFactory = bridgeFactory;
+    }
+
+    /**
+     * @param metrics the metrics to which to report the indexer's backlog and progress
+     */
+    public void setMetrics(Metrics metrics) {
+        this.backlog = metrics.histogram(this, "backlog");
+        this.docsPerSecond = metrics.histogram(this, "docsPerSecond");
+        this.indexedCount = metrics.counter(this, "indexedCount");
     }
 
     /**
@@ -318,6 +398,21 @@ public class FullTextIndexer2 {
             return;
         }
         LOGGER.info("starting indexer");
+        if (threads > 1 && bridgeFactory == null) {
+            LOGGER.warn("no field bridge for worker threads so indexing is not partitioned");
+        } else if (threads > 1) {
+            LOGGER.info("indexing partitioned across {} threads", threads);
+            workerBridge = new PerThreadFieldBridge(bridgeFactory);
+            final AtomicInteger threadCount = new AtomicInteger();
+            workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable task) {
+                    final Thread thread = new Thread(task, "indexer-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
         final Converter<String, String> nameConverter = CaseFormat.UPPER_UNDERSCORE.converterTo(CaseFormat.LOWER_CAMEL);
         try {
             for (final Step step : Step.values()) {
@@ -361,6 +456,10 @@ public class FullTextIndexer2 {
         } catch (Throwable t) {
             LOGGER.error("failed to stop indexer promptly", t);
         }
+        if (workers != null) {
+            workers.shutdownNow();
+            workers = null;
+        }
         LOGGER.info("stopped indexer");
     }
 
@@ -465,11 +564,12 @@ public class FullTextIndexer2 {
             });
             final String hql = "FROM EventLog WHERE id > :id AND action IN (:actions) ORDER BY id";
             final Query query = session.createQuery(hql);
-            query.setMaxResults(BATCH_SIZE);
+            query.setMaxResults(batchSize);
             query.setParameter("id", eventLogId);
             query.setParameterList("actions", actions);
             @SuppressWarnings("unchecked")
             final List<EventLog> logEntries = (List<EventLog>) query.list();
+            lastBatchEntries = logEntries.size();
             isNothingNew = logEntries.isEmpty();
             if (isNothingNew) {
                 LOGGER.debug("no new event log entries");
@@ -488,6 +588,10 @@ public class FullTextIndexer2 {
                 removeObsoleteEntries(toIndex, session);
                 removeObsoleteEntries(toPurge, session);
             }
+            final Long maxEventLogId = (Long) session.createQuery("SELECT MAX(id) FROM EventLog").uniqueResult();
+            if (maxEventLogId != null) {
+                backlog.update(Math.max(0, maxEventLogId - eventLogId));
+            }
             transaction.rollback();
         } catch (UnresolvableObjectException uoe) {
             hibernateQueryError = uoe;
@@ -541,6 +645,12 @@ public class FullTextIndexer2 {
             }
             return;
         }
+        final long startTime = System.currentTimeMillis();
+        final int indexCount = toIndex.size();
+        if (workers != null) {
+            indexPartitioned(startTime, indexCount);
+            return;
+        }
         final ParserSession parserSession = new ParserSession();
         final Session session = sessionFactory.openSession();
         HibernateException hibernateQueryError = null;
@@ -570,6 +680,7 @@ public class FullTextIndexer2 {
             }
             transaction.commit();
             toIndex.clear();
+            noteIndexed(indexCount, System.currentTimeMillis() - startTime);
         } catch (UnresolvableObjectException uoe) {
             hibernateQueryError = uoe;
         } catch (BridgeException be) {
@@ -580,6 +691,230 @@ public class FullTextIndexer2 {
             session.close();
             parserSession.closeParsedFiles();
         }
+        afterIndex(hibernateQueryError, bridgeException);
+    }
+
+    /**
+     * Record the rate of indexing.
+     * @param count how many objects were indexed
+     * @param millis how long indexing them took
+     */
+    private void noteIndexed(int count, long millis) {
+        indexedCount.inc(count);
+        docsPerSecond.update(count * 1000L / Math.max(1, millis));
+    }
+
+    /**
+     * Split the batch of model objects to index by type and into ranges of ID.
+     * @return the partitions of the batch
+     */
+    private List<Map.Entry<String, List<Long>>> partitionToIndex() {
+        final List<Map.Entry<String, List<Long>>> partitions = new ArrayList<>();
+        for (final Map.Entry<String, Collection<Long>> typeAndIds : toIndex.asMap().entrySet()) {
+            final List<Long> entityIds = new ArrayList<>(typeAndIds.getValue());
+            Collections.sort(entityIds);
+            final int partitionSize = Math.max(MIN_PARTITION_SIZE, (entityIds.size() + threads - 1) / threads);
+            for (int from = 0; from < entityIds.size(); from += partitionSize) {
+                final int to = Math.min(entityIds.size(), from + partitionSize);
+                partitions.add(Maps.immutableEntry(typeAndIds.getKey(), entityIds.subList(from, to)));
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Load one partition of a batch of model objects in its own session and build their index work.
+     * Runs on a worker thread while the field bridge is locked. Nothing is written to the index here: the caller writes
+     * the work of all the partitions at once.
+     * @param entityType the type of the model objects
+     * @param entityIds the IDs of the model objects
+     * @return the index work for the model objects
+     */
+    private List<LuceneWork> indexPartition(String entityType, Collection<Long> entityIds) {
+        final List<LuceneWork> works = new ArrayList<>();
+        final Session session = sessionFactory.openSession();
+        try {
+            final FullTextSession fullTextSession = Search.getFullTextSession(session);
+            fullTextSession.setCacheMode(CacheMode.IGNORE);
+            fullTextSession.setFlushMode(FlushMode.MANUAL);
+            final SearchFactoryImplementor searchFactory = (SearchFactoryImplementor) fullTextSession.getSearchFactory();
+            final Transaction transaction = fullTextSession.beginTransaction();
+            try {
+                final String hql = "FROM " + entityType + " WHERE id IN (:ids)";
+                final Query query = fullTextSession.createQuery(hql);
+                query.setParameterList("ids", entityIds);
+                query.setReadOnly(true);
+                for (final Object entity : query.list()) {
+                    @SuppressWarnings("unchecked")
+                    final Class<? extends IObject> entityClass = Hibernate.getClass(entity);
+                    if (isIncluded(entityClass)) {
+                        LOGGER.debug("indexing {}:{}", entityType, ((IObject) entity).getId());
+                        addIndexWork(searchFactory, entityClass, entity, session.getIdentifier(entity), works);
+                    } else {
+                        LOGGER.debug("skipping {}:{}", entityType, ((IObject) entity).getId());
+                    }
+                }
+            } finally {
+                /* the session only read */
+                transaction.rollback();
+            }
+        } finally {
+            session.close();
+        }
+        return works;
+    }
+
+    /**
+     * Build the work to index a model object as {@link FullTextSession#index(Object)} would at transaction commit.
+     * @param searchFactory the search factory
+     * @param entityClass the class of the model object
+     * @param entity the model object
+     * @param id the ID of the model object
+     * @param works the list to which to add the index work
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> void addIndexWork(SearchFactoryImplementor searchFactory, Class<T> entityClass, Object entity,
+            Serializable id, List<LuceneWork> works) {
+        final DocumentBuilderIndexedEntity<T> builder = searchFactory.getDocumentBuilderIndexedEntity(entityClass);
+        if (builder != null) {
+            builder.addWorkToQueue(entityClass, (T) entity, id, WorkType.INDEX, works, searchFactory);
+        }
+    }
+
+    /**
+     * Write index work to the search index in a single pass of the backend.
+     * @param works the index work to write
+     */
+    private void writeIndex(List<LuceneWork> works) {
+        if (works.isEmpty()) {
+            return;
+        }
+        final Session session = sessionFactory.openSession();
+        try {
+            final SearchFactoryImplementor searchFactory =
+                    (SearchFactoryImplementor) Search.getFullTextSession(session).getSearchFactory();
+            searchFactory.getBackendQueueProcessorFactory().getProcessor(works).run();
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Index a batch of model objects across the worker threads then adapt the batch size to how long that took.
+     * The field bridge must already be locked and is unlocked once the batch is written.
+     * Each worker thread builds its documents through its own field bridge. The work of all the partitions is then
+     * written to the search index once, so the index is committed once per batch rather than once per partition.
+     * If interrupted then the workers are still left to finish before the batch is retried.
+     * @param startTime when indexing started
+     * @param indexCount how many model objects are in the batch
+     */
+    private void indexPartitioned(long startTime, int indexCount) {
+        DetailsFieldBridge.setFieldBridge(workerBridge);
+        final ParserSession parserSession = new ParserSession();
+        HibernateException hibernateQueryError = null;
+        Throwable bridgeException = null;
+        boolean isInterrupted = false;
+        final List<Future<List<LuceneWork>>> results = new ArrayList<>();
+        final List<LuceneWork> works = new ArrayList<>();
+        try {
+            for (final Map.Entry<String, List<Long>> partition : partitionToIndex()) {
+                results.add(workers.submit(new Callable<List<LuceneWork>>() {
+                    @Override
+                    public List<LuceneWork> call() {
+                        return indexPartition(partition.getKey(), partition.getValue());
+                    }
+                }));
+            }
+        } catch (RuntimeException re) {
+            bridgeException = re;
+            LOGGER.warn("failed to start indexing partitions, will retry indexing", re);
+        } finally {
+            for (final Future<List<LuceneWork>> result : results) {
+                while (true) {
+                    try {
+                        works.addAll(result.get());
+                        break;
+                    } catch (InterruptedException ie) {
+                        /* the workers may not be interrupted in reading from the database */
+                        isInterrupted = true;
+                    } catch (ExecutionException ee) {
+                        final Throwable cause = ee.getCause();
+                        if (cause instanceof UnresolvableObjectException) {
+                            hibernateQueryError = (UnresolvableObjectException) cause;
+                        } else if (cause instanceof BridgeException) {
+                            bridgeException = cause.getCause();
+                            LOGGER.info("bridge failed, will retry indexing", bridgeException);
+                        } else {
+                            bridgeException = cause;
+                            LOGGER.warn("indexing partition failed, will retry indexing", cause);
+                        }
+                        break;
+                    }
+                }
+            }
+            if (isInterrupted) {
+                LOGGER.info("interrupted while indexing, will retry indexing");
+                Thread.currentThread().interrupt();
+                if (bridgeException == null) {
+                    bridgeException = new InterruptedException();
+                }
+            }
+            if (hibernateQueryError == null && bridgeException == null) {
+                try {
+                    /* file contents are read from the parsed files only as the documents are written */
+                    writeIndex(works);
+                } catch (RuntimeException re) {
+                    bridgeException = re;
+                    LOGGER.warn("writing indexed batch failed, will retry indexing", re);
+                }
+            }
+            DetailsFieldBridge.unlock();
+            parserSession.closeParsedFiles();
+            if (hibernateQueryError == null && bridgeException == null) {
+                toIndex.clear();
+                final long millis = System.currentTimeMillis() - startTime;
+                noteIndexed(indexCount, millis);
+                if (millis < TARGET_BATCH_MILLIS / 2 && lastBatchEntries >= batchSize) {
+                    batchSize = Math.min(MAX_BATCH_SIZE, batchSize * 2);
+                    LOGGER.debug("increased batch size to {}", batchSize);
+                } else if (millis > TARGET_BATCH_MILLIS * 2 && batchSize > BATCH_SIZE) {
+                    batchSize = Math.max(BATCH_SIZE, batchSize / 2);
+                    LOGGER.debug("decreased batch size to {}", batchSize);
+                }
+            }
+            afterIndex(hibernateQueryError, bridgeException);
+        }
+    }
+
+    /**
+     * Passes the documents to the field bridge of the current worker thread, creating each worker's bridge from the
+     * prototype on its first use. Neither the configured custom bridges nor the file parsers are required to be
+     * thread-safe.
+     */
+    private static final class PerThreadFieldBridge implements FieldBridge {
+        private final ThreadLocal<FieldBridge> bridges;
+
+        PerThreadFieldBridge(final ObjectFactory<? extends FieldBridge> bridgeFactory) {
+            this.bridges = new ThreadLocal<FieldBridge>() {
+                @Override
+                protected FieldBridge initialValue() {
+                    return bridgeFactory.getObject();
+                }
+            };
+        }
+
+        @Override
+        public void set(String name, Object value, Document document, LuceneOptions luceneOptions) {
+            bridges.get().set(name, value, document, luceneOptions);
+        }
+    }
+
+    /**
+     * Trigger the next step after indexing a batch of model objects.
+     * @param hibernateQueryError if indexing failed to read data via Hibernate
+     * @param bridgeException if a field bridge failed
+     */
+    private void afterIndex(HibernateException hibernateQueryError, Throwable bridgeException) {
         try {
             if (hibernateQueryError != null) {
                 toIndex.clear();
@@ -20,13 +20,16 @@
 package ome.services.graphs;
 
 import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -68,6 +71,7 @@ import ome.services.graphs.GraphPolicy.Ability;
 import ome.services.graphs.GraphPolicy.Action;
 import ome.services.graphs.GraphPolicy.Details;
 import ome.services.graphs.GraphPolicy.Orphan;
+import ome.tools.LongIndex;
 
 /**
  * An alternative implementation of model object graph traversal, relying on SELECTing in advance for making decisions,
@@ -82,6 +86,19 @@ public class GraphTraversal {
     /* all bulk operations are batched; this size should be suitable for IN (:ids) for HQL */
     private static final int BATCH_SIZE = 256;
 
+    /* planning's read-only queries use larger batches, see queryBatches */
+    private static final int QUERY_BATCH_SIZE = 4096;
+
+    /* rough heap cost of planning state, for estimating memory use: a hash entry with its CI, a second CI for maps,
+     * a further collection for multimaps, and a note of details with its owner, group and permissions */
+    private static final long BYTES_PER_SET_ENTRY = 32 + 24 + 8;
+    private static final long BYTES_PER_MAP_ENTRY = BYTES_PER_SET_ENTRY + 24;
+    private static final long BYTES_PER_MULTIMAP_ENTRY = BYTES_PER_MAP_ENTRY + 32;
+    private static final long BYTES_PER_DETAILS = BYTES_PER_MAP_ENTRY + 200;
+
+    /* planning state estimated to exceed this many bytes is logged at INFO level */
+    private static final long LARGE_PLANNING_BYTES = 64 << 20;
+
     /* the full name of the model object classes for which subclasses need not be queried */
     private static final Set<String> NO_SUBCLASS_QUERY = Collections.synchronizedSet(new HashSet<String>());
 
@@ -338,6 +355,360 @@ public class GraphTraversal {
         }
     }
 
+    /**
+     * Numbers class names and link properties so that object instances and their link properties can each be held as
+     * a single {@code long} that combines the number with the instance ID.
+     * @since 5.7.3
+     */
+    private static final class Interner {
+        private static final int ID_BITS = 48;
+        private static final long MAX_ID = (1L << ID_BITS) - 1;
+        private static final int MAX_INDEX = (1 << (Long.SIZE - 1 - ID_BITS)) - 1;
+
+        private final List<Object> names = new ArrayList<Object>();
+        private final Map<Object, Integer> indexes = new HashMap<Object, Integer>();
+
+        /**
+         * Combine a class name or link property with an instance ID.
+         * @param name a class name or a {@link CP}
+         * @param id an instance ID
+         * @param isAdd if the name should be numbered if it is not already
+         * @return the combination, or {@code -1} if they cannot be combined
+         */
+        private long pack(Object name, long id, boolean isAdd) {
+            if (id < 0 || id > MAX_ID) {
+                return -1;
+            }
+            Integer index = indexes.get(name);
+            if (index == null) {
+                if (!isAdd || names.size() > MAX_INDEX) {
+                    return -1;
+                }
+                index = names.size();
+                names.add(name);
+                indexes.put(name, index);
+            }
+            return (long) index << ID_BITS | id;
+        }
+
+        /**
+         * @param key a {@link CI} or {@link CPI}
+         * @param isAdd if the key's class name or link property should be numbered if it is not already
+         * @return the key combined into a {@code long}, or {@code -1} if it cannot be combined
+         */
+        private long pack(Object key, boolean isAdd) {
+            if (key instanceof CI) {
+                final CI object = (CI) key;
+                return pack(object.className, object.id, isAdd);
+            } else {
+                final CPI property = (CPI) key;
+                return pack(property.toCP(), property.id, isAdd);
+            }
+        }
+
+        /**
+         * @param key a {@link CI} or {@link CPI}
+         * @return the key combined into a {@code long}, or {@code -1} if it cannot be combined
+         */
+        long pack(Object key) {
+            return pack(key, true);
+        }
+
+        /**
+         * As {@link #pack(Object)} but without numbering a class name or link property that is not yet numbered,
+         * so that lookups do not grow the table.
+         * @param key a {@link CI} or {@link CPI}
+         * @return the key combined into a {@code long}, or {@code -1} if it was never combined
+         */
+        long find(Object key) {
+            return pack(key, false);
+        }
+
+        /**
+         * @param packed an object instance as returned by {@link #pack(Object)}
+         * @return the object instance
+         */
+        CI toCI(long packed) {
+            return new CI((String) names.get((int) (packed >>> ID_BITS)), packed & MAX_ID);
+        }
+    }
+
+    /**
+     * A read-only set of object instances that are unpacked only as they are iterated.
+     * @since 5.7.3
+     */
+    private static final class CompactValues extends AbstractSet<CI> {
+        private final Interner interner;
+        private final long[] packedValues;
+        private final Set<CI> unpackedValues;
+
+        /**
+         * @param interner the interner that packed the values
+         * @param packedValues the packed object instances, in ascending order
+         * @param unpackedValues the object instances that could not be packed
+         */
+        CompactValues(Interner interner, long[] packedValues, Set<CI> unpackedValues) {
+            this.interner = interner;
+            this.packedValues = packedValues;
+            this.unpackedValues = unpackedValues;
+        }
+
+        @Override
+        public Iterator<CI> iterator() {
+            final Iterator<CI> unpackedIterator = unpackedValues.iterator();
+            return new Iterator<CI>() {
+                private int index = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return index < packedValues.length || unpackedIterator.hasNext();
+                }
+
+                @Override
+                public CI next() {
+                    if (index < packedValues.length) {
+                        return interner.toCI(packedValues[index++]);
+                    }
+                    return unpackedIterator.next();
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public boolean contains(Object object) {
+            if (!(object instanceof CI)) {
+                return false;
+            }
+            final long packedValue = interner.find(object);
+            return packedValue < 0 ? unpackedValues.contains(object) :
+                Arrays.binarySearch(packedValues, packedValue) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return packedValues.length + unpackedValues.size();
+        }
+    }
+
+    /**
+     * A set multimap from object instances, or their link properties, to object instances.
+     * Where possible the entries are held in a {@link LongSetMultimap} with the keys and values packed by {@link Interner}.
+     * @param <K> the type of key, {@link CI} or {@link CPI}
+     * @since 5.7.3
+     */
+    private static final class CompactLinks<K> {
+        private static final long[] NO_PACKED_VALUES = new long[0];
+
+        private final Interner interner;
+        private final LongSetMultimap packed = new LongSetMultimap();
+        private final SetMultimap<K, CI> unpacked = HashMultimap.create();
+
+        CompactLinks(Interner interner) {
+            this.interner = interner;
+        }
+
+        void put(K key, CI value) {
+            final long packedKey = interner.pack(key);
+            final long packedValue = interner.pack(value);
+            if (packedKey < 0 || packedValue < 0) {
+                unpacked.put(key, value);
+            } else {
+                packed.put(packedKey, packedValue);
+            }
+        }
+
+        /**
+         * @param key a key
+         * @return a read-only view of the values for the key that are present when this method is called
+         */
+        Set<CI> get(K key) {
+            final long packedKey = interner.find(key);
+            final long[] packedValues = packedKey < 0 ? NO_PACKED_VALUES : packed.get(packedKey);
+            final Set<CI> unpackedValues = unpacked.containsKey(key) ?
+                    ImmutableSet.copyOf(unpacked.get(key)) : Collections.<CI>emptySet();
+            if (packedValues.length == 0) {
+                return unpackedValues;
+            }
+            return new CompactValues(interner, packedValues, unpackedValues);
+        }
+
+        /**
+         * @return the number of key-value pairs
+         */
+        long size() {
+            return packed.size() + unpacked.size();
+        }
+
+        /**
+         * @return an estimate of the heap memory used, in bytes
+         */
+        long estimateBytes() {
+            return packed.estimateBytes() + unpacked.size() * BYTES_PER_MULTIMAP_ENTRY;
+        }
+    }
+
+    /**
+     * A set of object instances to which instances may be added but not removed.
+     * Where possible the instances are held in a {@link LongIndex} packed by {@link Interner}.
+     * @since 5.7.3
+     */
+    private static final class CompactSet extends AbstractSet<CI> {
+        private final Interner interner;
+        private final LongIndex packed = new LongIndex();
+        private final Set<CI> unpacked = new HashSet<CI>();
+
+        CompactSet(Interner interner) {
+            this.interner = interner;
+        }
+
+        @Override
+        public boolean add(CI object) {
+            final long packedObject = interner.pack(object);
+            if (packedObject < 0) {
+                return unpacked.add(object);
+            }
+            final int size = packed.size();
+            return packed.add(packedObject) == size;
+        }
+
+        @Override
+        public boolean contains(Object object) {
+            if (!(object instanceof CI)) {
+                return false;
+            }
+            final long packedObject = interner.find(object);
+            return packedObject < 0 ? unpacked.contains(object) : packed.contains(packedObject);
+        }
+
+        @Override
+        public Iterator<CI> iterator() {
+            final Iterator<CI> unpackedIterator = unpacked.iterator();
+            return new Iterator<CI>() {
+                private int row = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return row < packed.size() || unpackedIterator.hasNext();
+                }
+
+                @Override
+                public CI next() {
+                    if (row < packed.size()) {
+                        return interner.toCI(packed.key(row++));
+                    }
+                    return unpackedIterator.next();
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return packed.size() + unpacked.size();
+        }
+
+        /**
+         * @return an estimate of the heap memory used, in bytes
+         */
+        long estimateBytes() {
+            return packed.estimateBytes() + unpacked.size() * BYTES_PER_SET_ENTRY;
+        }
+    }
+
+    /**
+     * A map from object instances whose entries may be added or replaced but not removed.
+     * Where possible the keys are held in a {@link LongIndex} packed by {@link Interner} with the values in a list
+     * indexed by the key's row.
+     * @param <V> the type of value
+     * @since 5.7.3
+     */
+    private static final class CompactMap<V> {
+        private final Interner interner;
+        private final LongIndex packed = new LongIndex();
+        private final List<V> packedValues = new ArrayList<V>();
+        private final Map<CI, V> unpacked = new HashMap<CI, V>();
+
+        CompactMap(Interner interner) {
+            this.interner = interner;
+        }
+
+        /**
+         * @param key a key
+         * @param value the value for the key
+         * @return the previous value for the key, or {@code null} if there was none
+         */
+        V put(CI key, V value) {
+            final long packedKey = interner.pack(key);
+            if (packedKey < 0) {
+                return unpacked.put(key, value);
+            }
+            final int row = packed.add(packedKey);
+            if (row == packedValues.size()) {
+                packedValues.add(value);
+                return null;
+            }
+            return packedValues.set(row, value);
+        }
+
+        /**
+         * @param key a key
+         * @return the value for the key, or {@code null} if there is none
+         */
+        V get(CI key) {
+            final long packedKey = interner.find(key);
+            if (packedKey < 0) {
+                return unpacked.get(key);
+            }
+            final int row = packed.find(packedKey);
+            return row < 0 ? null : packedValues.get(row);
+        }
+
+        /**
+         * @param key a key
+         * @return if the map has an entry for the key
+         */
+        boolean containsKey(CI key) {
+            final long packedKey = interner.find(key);
+            return packedKey < 0 ? unpacked.containsKey(key) : packed.contains(packedKey);
+        }
+
+        /**
+         * @return the number of entries
+         */
+        int size() {
+            return packed.size() + unpacked.size();
+        }
+
+        /**
+         * @return an estimate of the heap memory used by the map itself, in bytes
+         */
+        long estimateBytes() {
+            return packed.estimateBytes() + 4L * packedValues.size() + unpacked.size() * BYTES_PER_MAP_ENTRY;
+        }
+    }
+
+    /**
+     * The phases of planning whose duration is reported.
+     * @since 5.7.3
+     */
+    private enum Phase {
+        /** querying the class and details of objects */
+        DETAILS,
+        /** querying the links among objects */
+        LINKS,
+        /** reviewing objects against the policy rules */
+        REVIEW;
+    }
+
     /**
      * Track the progress of method calls to ensure that the sequencing makes sense.
      * @author m.t.b.carroll@dundee.ac.uk
@@ -381,7 +752,8 @@ public class GraphTraversal {
     private static class Planning {
         /* process state */
         final Set<CI> toProcess = new HashSet<CI>();
-        final Set<CI> included = new HashSet<CI>();
+        final Interner interner = new Interner();
+        final CompactSet included = new CompactSet(interner);
         final Set<CI> deleted = new HashSet<CI>();
         final Set<CI> outside = new HashSet<CI>();
         final Set<CI> unchanged = new HashSet<CI>();
@@ -389,23 +761,45 @@ public class GraphTraversal {
         final Set<CI> findIfLast = new HashSet<CI>();
         final Map<CI, Boolean> foundIfLast = new HashMap<CI, Boolean>();
         /* links */
-        final Map<CI, CI> aliases = new HashMap<CI, CI>();
-        final Set<CI> cached = new HashSet<CI>();
-        final SetMultimap<CPI, CI> forwardLinksCached = HashMultimap.create();
-        final SetMultimap<CPI, CI> backwardLinksCached = HashMultimap.create();
-        final SetMultimap<CI, CI> befores = HashMultimap.create();
-        final SetMultimap<CI, CI> afters = HashMultimap.create();
+        final CompactMap<CI> aliases = new CompactMap<CI>(interner);
+        final CompactSet cached = new CompactSet(interner);
+        final CompactLinks<CPI> forwardLinksCached = new CompactLinks<CPI>(interner);
+        final CompactLinks<CPI> backwardLinksCached = new CompactLinks<CPI>(interner);
+        final CompactLinks<CI> befores = new CompactLinks<CI>(interner);
+        final CompactLinks<CI> afters = new CompactLinks<CI>(interner);
         final Map<CI, Set<CI>> blockedBy = new HashMap<CI, Set<CI>>();
         /* permissions, unused for system users */
-        final Map<CI, ome.model.internal.Details> detailsNoted = new HashMap<CI, ome.model.internal.Details>();
+        final CompactMap<ome.model.internal.Details> detailsNoted = new CompactMap<ome.model.internal.Details>(interner);
         final Map<Long, ExperimenterGroup> fakeGroups = new HashMap<>();
-        final Set<CI> mayUpdate = new HashSet<CI>();
-        final Set<CI> mayDelete = new HashSet<CI>();
-        final Set<CI> mayChmod = new HashSet<CI>();
-        final Set<CI> mayChgrp = new HashSet<CI>();
-        final Set<CI> mayChown = new HashSet<CI>();
-        final Set<CI> owns = new HashSet<CI>();
-        final Set<CI> overrides = new HashSet<CI>();
+        final CompactSet mayUpdate = new CompactSet(interner);
+        final CompactSet mayDelete = new CompactSet(interner);
+        final CompactSet mayChmod = new CompactSet(interner);
+        final CompactSet mayChgrp = new CompactSet(interner);
+        final CompactSet mayChown = new CompactSet(interner);
+        final CompactSet owns = new CompactSet(interner);
+        final CompactSet overrides = new CompactSet(interner);
+
+        /**
+         * @return a rough estimate of the heap memory used by this planning state, in bytes
+         */
+        long estimateBytes() {
+            long setEntries = toProcess.size() + deleted.size() + outside.size() + unchanged.size() + findIfLast.size();
+            long mapEntries = foundIfLast.size() + blockedBy.size();
+            for (final Set<CI> blockers : blockedBy.values()) {
+                setEntries += blockers.size();
+            }
+            long compactBytes = included.estimateBytes() + cached.estimateBytes() +
+                    aliases.estimateBytes() + detailsNoted.estimateBytes();
+            for (final CompactSet permissions : new CompactSet[] {mayUpdate, mayDelete, mayChmod, mayChgrp, mayChown,
+                    owns, overrides}) {
+                compactBytes += permissions.estimateBytes();
+            }
+            return setEntries * BYTES_PER_SET_ENTRY + mapEntries * BYTES_PER_MAP_ENTRY +
+                    /* the details instances themselves */
+                    detailsNoted.size() * (BYTES_PER_DETAILS - BYTES_PER_MAP_ENTRY) + compactBytes +
+                    forwardLinksCached.estimateBytes() + backwardLinksCached.estimateBytes() +
+                    befores.estimateBytes() + afters.estimateBytes();
+        }
     }
 
     /**
@@ -474,6 +868,8 @@ public class GraphTraversal {
     private final GraphPathBean model;
     private final SetMultimap<String, String> unnullable;
     private final Set<Milestone> progress = EnumSet.noneOf(Milestone.class);
+    private final long[] phaseNanos = new long[Phase.values().length];
+    private final int[] phaseCounts = new int[Phase.values().length];
     private final Planning planning;
     private final GraphPolicy policy;
     private final Processor processor;
@@ -529,6 +925,7 @@ public class GraphTraversal {
             }
         }
         progress.add(Milestone.PLANNED);
+        logPlanningStatistics();
         /* report which objects are to be included in the operation or deleted so that it can proceed */
         final SetMultimap<String, Long> included = HashMultimap.create();
         for (final CI includedObject : planning.included) {
@@ -579,6 +976,7 @@ public class GraphTraversal {
             }
         }
         progress.add(Milestone.PLANNED);
+        logPlanningStatistics();
         /* report which objects are to be included in the operation or deleted so that it can proceed */
         final Collection<IObject> included = new ArrayList<IObject>(planning.included.size());
         for (final CI includedObject : planning.included) {
@@ -591,6 +989,90 @@ public class GraphTraversal {
         return new AbstractMap.SimpleImmutableEntry<>(included, deleted);
     }
 
+    /**
+     * Estimate the heap memory held by the planning state of this traversal.
+     * Most of it is held until the operation is processed.
+     * @return a rough estimate of the memory used, in bytes
+     */
+    public long getPlanningMemoryEstimate() {
+        return planning.estimateBytes();
+    }
+
+    /**
+     * Report how long each phase of planning has taken so far. The phases are querying the details of objects,
+     * querying the links among objects, and reviewing objects against the policy rules.
+     * @return the milliseconds and number of queries or reviews of each phase, keyed by phase name
+     */
+    public Map<String, long[]> getPhaseTimings() {
+        final Map<String, long[]> timings = new LinkedHashMap<String, long[]>();
+        for (final Phase phase : Phase.values()) {
+            timings.put(phase.name().toLowerCase(),
+                    new long[] {phaseNanos[phase.ordinal()] / 1000000, phaseCounts[phase.ordinal()]});
+        }
+        return timings;
+    }
+
+    /**
+     * Note the completion of a step of a phase of planning.
+     * @param phase the phase
+     * @param startNanos when the step started, from {@link System#nanoTime()}
+     */
+    private void notePhase(Phase phase, long startNanos) {
+        phaseNanos[phase.ordinal()] += System.nanoTime() - startNanos;
+        phaseCounts[phase.ordinal()]++;
+    }
+
+    /**
+     * Partition IDs for the read-only queries of planning. The batches are larger than {@link #BATCH_SIZE} to reduce the
+     * number of round trips. Each is padded to a power of two by repeating its last ID so that Hibernate compiles and
+     * caches few variants of each query.
+     * @param ids the IDs to partition
+     * @return the batches of IDs
+     */
+    private static List<List<Long>> queryBatches(Collection<Long> ids) {
+        final List<List<Long>> batches = new ArrayList<List<Long>>();
+        for (final List<Long> batch : Iterables.partition(ids, QUERY_BATCH_SIZE)) {
+            final int size = batch.size();
+            final int paddedSize = Integer.highestOneBit(size) == size ? size : Integer.highestOneBit(size) << 1;
+            if (paddedSize == size) {
+                batches.add(batch);
+            } else {
+                final List<Long> paddedBatch = new ArrayList<Long>(paddedSize);
+                paddedBatch.addAll(batch);
+                while (paddedBatch.size() < paddedSize) {
+                    paddedBatch.add(batch.get(size - 1));
+                }
+                batches.add(paddedBatch);
+            }
+        }
+        return batches;
+    }
+
+    /**
+     * Log the estimate of the planning state's memory use, and the time taken by each phase of planning,
+     * at a higher level if the state is large.
+     */
+    private void logPlanningStatistics() {
+        final long bytes = planning.estimateBytes();
+        final boolean isLarge = bytes >= LARGE_PLANNING_BYTES;
+        if (isLarge || log.isDebugEnabled()) {
+            final StringBuilder timings = new StringBuilder();
+            for (final Entry<String, long[]> timing : getPhaseTimings().entrySet()) {
+                timings.append(String.format(", %s %d ms in %d steps",
+                        timing.getKey(), timing.getValue()[0], timing.getValue()[1]));
+            }
+            final String message = String.format(
+                    "planning %d objects with %d cached links uses an estimated %d MiB%s",
+                    planning.detailsNoted.size(),
+                    planning.forwardLinksCached.size() + planning.backwardLinksCached.size(), bytes >> 20, timings);
+            if (isLarge) {
+                log.info(message);
+            } else {
+                log.debug(message);
+            }
+        }
+    }
+
     /**
      * Traverse model object graph to determine steps for the proposed operation.
      * Assumes that the internal {@code planning} field is set up and mutates it accordingly.
@@ -619,8 +1101,12 @@ public class GraphTraversal {
                     continue;
                 }
                 /* if none of the above exist, then fill the cache */
-                final Set<CI> toCache = new HashSet<CI>(planning.toProcess);
-                toCache.removeAll(planning.cached);
+                final Set<CI> toCache = new HashSet<CI>();
+                for (final CI object : planning.toProcess) {
+                    if (!planning.cached.contains(object)) {
+                        toCache.add(object);
+                    }
+                }
                 if (!toCache.isEmpty()) {
                     optimisticReprocess = null;
                     cache(toCache);
@@ -808,9 +1294,12 @@ public class GraphTraversal {
                 try {
                     /* determine the class of persisted objects without loading them */
                     final String rootQuery = "SELECT r.id, TYPE(r) FROM " + className + " r WHERE r.id IN (:ids)";
-                    for (final List<Long> idsBatch : Iterables.partition(idsToQuery, BATCH_SIZE)) {
-                        for (final Object[] result :
-                            (List<Object[]>) session.createQuery(rootQuery).setParameterList("ids", idsBatch).list()) {
+                    for (final List<Long> idsBatch : queryBatches(idsToQuery)) {
+                        final long start = System.nanoTime();
+                        final List<Object[]> results =
+                                session.createQuery(rootQuery).setParameterList("ids", idsBatch).list();
+                        notePhase(Phase.DETAILS, start);
+                        for (final Object[] result : results) {
                             final Long id = (Long) result[0];
                             final Class<? extends IObject> objectClass = (Class<? extends IObject>) result[1];
                             final CI object = new CI(objectClass.getName(), id);
@@ -855,9 +1344,12 @@ public class GraphTraversal {
                     "SELECT " + Joiner.on(',').join(selectTerms) + " FROM " + className +" AS root WHERE root.id IN (:ids)";
 
             /* query and note details of objects */
-            for (final List<Long> idsBatch : Iterables.partition(idsToQuery, BATCH_SIZE)) {
+            for (final List<Long> idsBatch : queryBatches(idsToQuery)) {
+                final long start = System.nanoTime();
                 final Query hibernateQuery = session.createQuery(detailsQuery).setParameterList("ids", idsBatch);
-                for (final Object[] result : (List<Object[]>) hibernateQuery.list()) {
+                final List<Object[]> results = hibernateQuery.list();
+                notePhase(Phase.DETAILS, start);
+                for (final Object[] result : results) {
                     final ome.model.internal.Details details = ome.model.internal.Details.create();
                     final Long id = (Long) result[0];
                     details.setOwner((Experimenter) result[1]);
@@ -932,8 +1424,11 @@ public class GraphTraversal {
         final String linkedClassName = getLinkedClass(linkProperty);
         final boolean propertyIsAccessible = model.isPropertyAccessible(linkProperty.className, linkProperty.propertyName);
         final SetMultimap<Long, Long> linkerToLinked = HashMultimap.create();
-        for (final List<Long> idsBatch : Iterables.partition(ids, BATCH_SIZE)) {
-            for (final Object[] result : (List<Object[]>) session.createQuery(query).setParameterList("ids", idsBatch).list()) {
+        for (final List<Long> idsBatch : queryBatches(ids)) {
+            final long start = System.nanoTime();
+            final List<Object[]> results = session.createQuery(query).setParameterList("ids", idsBatch).list();
+            notePhase(Phase.LINKS, start);
+            for (final Object[] result : results) {
                 linkerToLinked.put((Long) result[0], (Long) result[1]);
             }
         }
@@ -1119,6 +1614,21 @@ public class GraphTraversal {
      * @throws GraphException on detecting the policy attempting an illegal change of {@link Action}
      */
     private void reviewObject(CI object, boolean isErrorRules) throws GraphException {
+        final long start = System.nanoTime();
+        try {
+            reviewObjectUntimed(object, isErrorRules);
+        } finally {
+            notePhase(Phase.REVIEW, start);
+        }
+    }
+
+    /**
+     * Process the object, adjusting the planning state accordingly. Implements {@link #reviewObject(CI, boolean)}.
+     * @param object an object
+     * @param isErrorRules if {@link GraphPolicy#review(Map, Details, Map, Set)} should apply final checks instead of normal rules
+     * @throws GraphException on detecting the policy attempting an illegal change of {@link Action}
+     */
+    private void reviewObjectUntimed(CI object, boolean isErrorRules) throws GraphException {
         /* note the object's details */
         final Map<CI, Details> detailsCache = new HashMap<CI, Details>();
         final Details objectDetails = getDetails(detailsCache, object);
@@ -1268,7 +1778,7 @@ public class GraphTraversal {
         final SetMultimap<String, Long> directoryRepos = HashMultimap.create();
         final String directoryRepoQuery =
                 "SELECT id, repo FROM OriginalFile WHERE mimetype = 'Directory' AND repo IS NOT NULL AND id IN (:ids)";
-        for (final List<Long> originalFileIdsBatch : Iterables.partition(originalFileIds, BATCH_SIZE)) {
+        for (final List<Long> originalFileIdsBatch : queryBatches(originalFileIds)) {
             final Query hibQuery = session.createQuery(directoryRepoQuery);
             hibQuery.setParameterList("ids", originalFileIdsBatch);
             @SuppressWarnings("unchecked")
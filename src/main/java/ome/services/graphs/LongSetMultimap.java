@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2026 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.graphs;
+
+import java.util.Arrays;
+
+/**
+ * A set multimap from {@code long} keys to {@code long} values held wholly in primitive arrays.
+ * The keys are in an open addressing hash table and the values of each key in an array that is sorted on read.
+ * This costs a small fraction of the memory of a {@link com.google.common.collect.HashMultimap} of boxed values.
+ * Not thread-safe.
+ * @since 5.7.3
+ */
+class LongSetMultimap {
+
+    private static final long[] NONE = new long[0];
+
+    private long[] keys;
+    private long[][] values;
+    private int[] sizes;
+    private boolean[] sorted;
+    private int mask;
+    private int keyCount = 0;
+    private long valueCount = 0;
+
+    LongSetMultimap() {
+        allocate(16);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity][];
+        sizes = new int[capacity];
+        sorted = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * @param key a key
+     * @return the slot that holds the key or, if none does, the empty slot where it would be inserted
+     */
+    private int slot(long key) {
+        final long hash = key * 0x9E3779B97F4A7C15L;
+        int index = (int) (hash ^ (hash >>> 32)) & mask;
+        while (values[index] != null && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    /**
+     * Sort the values of a slot and remove any duplicates.
+     * @param index the slot
+     */
+    private void sort(int index) {
+        if (sorted[index]) {
+            return;
+        }
+        final long[] array = values[index];
+        final int size = sizes[index];
+        Arrays.sort(array, 0, size);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || array[unique - 1] != array[i]) {
+                array[unique++] = array[i];
+            }
+        }
+        valueCount -= size - unique;
+        sizes[index] = unique;
+        sorted[index] = true;
+    }
+
+    private void rehash() {
+        final long[] oldKeys = keys;
+        final long[][] oldValues = values;
+        final int[] oldSizes = sizes;
+        final boolean[] oldSorted = sorted;
+        allocate(oldKeys.length * 2);
+        for (int oldIndex = 0; oldIndex < oldKeys.length; oldIndex++) {
+            if (oldValues[oldIndex] != null) {
+                final int index = slot(oldKeys[oldIndex]);
+                keys[index] = oldKeys[oldIndex];
+                values[index] = oldValues[oldIndex];
+                sizes[index] = oldSizes[oldIndex];
+                sorted[index] = oldSorted[oldIndex];
+            }
+        }
+    }
+
+    /**
+     * Add a value for a key. Duplicate values are discarded when next the key's values are read.
+     * @param key a key
+     * @param value a value for the key
+     */
+    void put(long key, long value) {
+        int index = slot(key);
+        if (values[index] == null) {
+            if (2 * (keyCount + 1) > keys.length) {
+                rehash();
+                index = slot(key);
+            }
+            keys[index] = key;
+            values[index] = new long[2];
+            sorted[index] = true;
+            keyCount++;
+        }
+        int size = sizes[index];
+        if (size > 0 && values[index][size - 1] == value) {
+            return;
+        }
+        if (size == values[index].length) {
+            values[index] = Arrays.copyOf(values[index], size + (size >> 1) + 1);
+        }
+        if (size > 0 && values[index][size - 1] > value) {
+            sorted[index] = false;
+        }
+        values[index][size] = value;
+        sizes[index] = size + 1;
+        valueCount++;
+    }
+
+    /**
+     * @param key a key
+     * @return the values for the key, in ascending order, may be empty but never {@code null}
+     */
+    long[] get(long key) {
+        final int index = slot(key);
+        if (values[index] == null) {
+            return NONE;
+        }
+        sort(index);
+        return Arrays.copyOf(values[index], sizes[index]);
+    }
+
+    /**
+     * @param key a key
+     * @param value a value
+     * @return if the key has the value
+     */
+    boolean containsEntry(long key, long value) {
+        final int index = slot(key);
+        if (values[index] == null) {
+            return false;
+        }
+        sort(index);
+        return Arrays.binarySearch(values[index], 0, sizes[index], value) >= 0;
+    }
+
+    /**
+     * @return the number of keys that have values
+     */
+    int keyCount() {
+        return keyCount;
+    }
+
+    /**
+     * @return the number of key-value pairs, possibly counting duplicates that are not yet discarded
+     */
+    long size() {
+        return valueCount;
+    }
+
+    /**
+     * @return an estimate of the heap memory used by this multimap, in bytes
+     */
+    long estimateBytes() {
+        /* the hash table's arrays have a reference, long, int and boolean per slot */
+        long bytes = 4 * 16 + keys.length * (8L + 8 + 4 + 1);
+        for (int index = 0; index < keys.length; index++) {
+            if (values[index] != null) {
+                bytes += 16 + 8L * values[index].length;
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ *   Copyright 2026 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.pixeldata;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import ome.io.nio.DimensionsOutOfBoundsException;
+import ome.io.nio.PixelBuffer;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Computes plane histograms and plane minimum/maximum values by streaming
+ * the requested region through {@link PixelBuffer#getTile} rather than
+ * loading whole planes. Tiles are read sequentially, since
+ * {@link PixelBuffer} implementations are not thread-safe, but each tile is
+ * then binned on a {@link ForkJoinPool} by a loop specialized for its pixels
+ * type so that reading and binning overlap across channels and tiles.
+ *
+ * The results are identical to the previous scalar implementation in
+ * {@link ome.services.RawPixelsBean}: a value <code>v</code> within
+ * <code>[min, max]</code> is placed in bin
+ * <code>(int) ((v - min) / ((max - min) / binCount))</code> with values
+ * exactly at <code>max</code> moved into the last bin.
+ *
+ * @since 5.7.3
+ */
+public class HistogramEngine {
+
+    private final static Logger log = LoggerFactory.getLogger(HistogramEngine.class);
+
+    /** Number of tiles per worker which may be read ahead of the binning. */
+    private final static int TILES_PER_WORKER = 2;
+
+    private final ForkJoinPool pool;
+
+    private final boolean ownsPool;
+
+    /**
+     * Uses the JVM-wide {@link ForkJoinPool#commonPool()}. Intended for
+     * tests and for beans which have not been configured by Spring.
+     */
+    public HistogramEngine() {
+        this.pool = ForkJoinPool.commonPool();
+        this.ownsPool = false;
+    }
+
+    /**
+     * Creates a dedicated {@link ForkJoinPool} of the given parallelism
+     * which will be shut down by {@link #destroy()}. A non-positive value
+     * uses the number of available processors.
+     */
+    public HistogramEngine(int parallelism) {
+        if (parallelism <= 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        this.pool = new ForkJoinPool(parallelism);
+        this.ownsPool = true;
+    }
+
+    /**
+     * Spring destroy-method.
+     */
+    public void destroy() {
+        if (ownsPool) {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Scans the whole plane <code>z</code>, <code>t</code> of each channel
+     * at the buffer's current resolution level.
+     *
+     * @param buffer the buffer to read from. Must not be used concurrently
+     *            by the caller while this method runs.
+     * @param channels the channels to scan.
+     * @param z the optical section.
+     * @param t the timepoint.
+     * @param seed <code>{min, max}</code> start values of the scan, which
+     *            are returned unchanged for an empty plane.
+     * @return map from channel to <code>{min, max}</code>, in the order of
+     *         <code>channels</code>.
+     */
+    public Map<Integer, double[]> minMax(PixelBuffer buffer,
+            Collection<Integer> channels, int z, int t, double[] seed)
+            throws IOException, DimensionsOutOfBoundsException {
+        final Map<Integer, double[]> rv = new LinkedHashMap<Integer, double[]>();
+        for (Integer ch : channels) {
+            rv.put(ch, new double[] { seed[0], seed[1] });
+        }
+        final Scan scan = new Scan(buffer, 0, 0, buffer.getSizeX(),
+                buffer.getSizeY()) {
+            @Override
+            ForkJoinTask<double[]> task(final int ch, final PixelData pd) {
+                return new RecursiveTask<double[]>() {
+                    private static final long serialVersionUID = 1L;
+                    @Override
+                    protected double[] compute() {
+                        try {
+                            double[] mm = new double[] { seed[0], seed[1] };
+                            minMax(pd, mm);
+                            return mm;
+                        } finally {
+                            pd.dispose();
+                        }
+                    }
+                };
+            }
+            @Override
+            void merge(int ch, Object partial) {
+                final double[] mm = rv.get(ch);
+                final double[] p = (double[]) partial;
+                mm[0] = Math.min(mm[0], p[0]);
+                mm[1] = Math.max(mm[1], p[1]);
+            }
+        };
+        scan.run(rv.keySet(), z, t);
+        return rv;
+    }
+
+    /**
+     * Bins the region <code>x, y, w, h</code> of plane <code>z</code>,
+     * <code>t</code> of each channel at the buffer's current resolution
+     * level. The region is clipped to the plane.
+     *
+     * @param buffer the buffer to read from. Must not be used concurrently
+     *            by the caller while this method runs.
+     * @param ranges map from channel to the <code>{min, max}</code> range
+     *            which is to be divided into <code>binCount</code> bins.
+     * @return map from channel to its bins, in the order of
+     *         <code>ranges</code>.
+     */
+    public Map<Integer, int[]> histograms(PixelBuffer buffer,
+            final Map<Integer, double[]> ranges, int z, int t,
+            int x, int y, int w, int h, final int binCount)
+            throws IOException, DimensionsOutOfBoundsException {
+        final Map<Integer, int[]> rv = new LinkedHashMap<Integer, int[]>();
+        for (Integer ch : ranges.keySet()) {
+            rv.put(ch, new int[binCount]);
+        }
+        final Scan scan = new Scan(buffer, x, y, w, h) {
+            @Override
+            ForkJoinTask<int[]> task(final int ch, final PixelData pd) {
+                final double[] range = ranges.get(ch);
+                return new RecursiveTask<int[]>() {
+                    private static final long serialVersionUID = 1L;
+                    @Override
+                    protected int[] compute() {
+                        try {
+                            int[] bins = new int[binCount];
+                            bin(pd, range[0], range[1], bins);
+                            return bins;
+                        } finally {
+                            pd.dispose();
+                        }
+                    }
+                };
+            }
+            @Override
+            void merge(int ch, Object partial) {
+                final int[] bins = rv.get(ch);
+                final int[] p = (int[]) partial;
+                for (int i = 0; i < bins.length; i++) {
+                    bins[i] += p[i];
+                }
+            }
+        };
+        scan.run(ranges.keySet(), z, t);
+        return rv;
+    }
+
+    /**
+     * Reads the tiles of a region in tile-grid order and hands each one to
+     * a {@link ForkJoinTask}. At most {@link #TILES_PER_WORKER} tiles per
+     * worker are held in memory; partial results are merged on the calling
+     * thread in submission order.
+     */
+    private abstract class Scan {
+
+        final PixelBuffer buffer;
+
+        final int x0, y0, x1, y1, tileWidth, tileHeight;
+
+        Scan(PixelBuffer buffer, int x, int y, int w, int h) {
+            this.buffer = buffer;
+            this.x0 = Math.max(0, x);
+            this.y0 = Math.max(0, y);
+            this.x1 = Math.min(buffer.getSizeX(), x + w);
+            this.y1 = Math.min(buffer.getSizeY(), y + h);
+            final Dimension tile = buffer.getTileSize();
+            this.tileWidth = tile == null || tile.width <= 0 ?
+                    buffer.getSizeX() : tile.width;
+            this.tileHeight = tile == null || tile.height <= 0 ?
+                    buffer.getSizeY() : tile.height;
+        }
+
+        abstract ForkJoinTask<?> task(int ch, PixelData pd);
+
+        abstract void merge(int ch, Object partial);
+
+        void run(Collection<Integer> channels, int z, int t)
+                throws IOException, DimensionsOutOfBoundsException {
+            if (x0 >= x1 || y0 >= y1) {
+                return;
+            }
+            final int window = TILES_PER_WORKER * pool.getParallelism();
+            final Deque<Map.Entry<Integer, ForkJoinTask<?>>> inFlight =
+                    new ArrayDeque<Map.Entry<Integer, ForkJoinTask<?>>>();
+            int tiles = 0;
+            try {
+                for (Integer ch : channels) {
+                    for (int ty = (y0 / tileHeight) * tileHeight; ty < y1; ty += tileHeight) {
+                        final int ry = Math.max(ty, y0);
+                        final int rh = Math.min(ty + tileHeight, y1) - ry;
+                        for (int tx = (x0 / tileWidth) * tileWidth; tx < x1; tx += tileWidth) {
+                            final int rx = Math.max(tx, x0);
+                            final int rw = Math.min(tx + tileWidth, x1) - rx;
+                            final PixelData pd = buffer.getTile(z, ch, t, rx, ry, rw, rh);
+                            tiles++;
+                            inFlight.addLast(new AbstractMap.SimpleImmutableEntry<Integer, ForkJoinTask<?>>(
+                                    ch, pool.submit(task(ch, pd))));
+                            while (inFlight.size() >= window) {
+                                final Map.Entry<Integer, ForkJoinTask<?>> done = inFlight.removeFirst();
+                                merge(done.getKey(), done.getValue().join());
+                            }
+                        }
+                    }
+                }
+                while (!inFlight.isEmpty()) {
+                    final Map.Entry<Integer, ForkJoinTask<?>> done = inFlight.removeFirst();
+                    merge(done.getKey(), done.getValue().join());
+                }
+            } finally {
+                for (Map.Entry<Integer, ForkJoinTask<?>> pending : inFlight) {
+                    pending.getValue().cancel(true);
+                }
+            }
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Scanned %s tiles of region %s,%s %sx%s",
+                        tiles, x0, y0, x1 - x0, y1 - y0));
+            }
+        }
+    }
+
+    // ~ Typed kernels
+    // =========================================================================
+
+    /**
+     * Updates <code>minMax</code> (<code>{min, max}</code>) with the values
+     * of every pixel in <code>pd</code>.
+     */
+    public static void minMax(PixelData pd, double[] minMax) {
+        final ByteBuffer data = pd.getData();
+        final int n = pd.size();
+        final String type = pd.getPixelsType();
+        double min = minMax[0];
+        double max = minMax[1];
+        if (PixelsType.VALUE_UINT8.equals(type)) {
+            int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                final int v = data.get(i) & 0xFF;
+                if (v < lo) lo = v;
+                if (v > hi) hi = v;
+            }
+            if (n > 0) {
+                min = Math.min(min, lo);
+                max = Math.max(max, hi);
+            }
+        } else if (PixelsType.VALUE_INT8.equals(type)) {
+            int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                final int v = data.get(i);
+                if (v < lo) lo = v;
+                if (v > hi) hi = v;
+            }
+            if (n > 0) {
+                min = Math.min(min, lo);
+                max = Math.max(max, hi);
+            }
+        } else if (PixelsType.VALUE_UINT16.equals(type)) {
+            int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                final int v = data.getShort(i * 2) & 0xFFFF;
+                if (v < lo) lo = v;
+                if (v > hi) hi = v;
+            }
+            if (n > 0) {
+                min = Math.min(min, lo);
+                max = Math.max(max, hi);
+            }
+        } else if (PixelsType.VALUE_INT16.equals(type)) {
+            int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                final int v = data.getShort(i * 2);
+                if (v < lo) lo = v;
+                if (v > hi) hi = v;
+            }
+            if (n > 0) {
+                min = Math.min(min, lo);
+                max = Math.max(max, hi);
+            }
+        } else if (PixelsType.VALUE_UINT32.equals(type)) {
+            long lo = Long.MAX_VALUE, hi = Long.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                final long v = data.getInt(i * 4) & 0xFFFFFFFFL;
+                if (v < lo) lo = v;
+                if (v > hi) hi = v;
+            }
+            if (n > 0) {
+                min = Math.min(min, lo);
+                max = Math.max(max, hi);
+            }
+        } else if (PixelsType.VALUE_INT32.equals(type)) {
+            int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                final int v = data.getInt(i * 4);
+                if (v < lo) lo = v;
+                if (v > hi) hi = v;
+            }
+            if (n > 0) {
+                min = Math.min(min, lo);
+                max = Math.max(max, hi);
+            }
+        } else if (PixelsType.VALUE_FLOAT.equals(type)) {
+            // Math.min/max rather than comparisons so that NaN propagates
+            // exactly as in the scalar implementation.
+            for (int i = 0; i < n; i++) {
+                final double v = data.getFloat(i * 4);
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+        } else if (PixelsType.VALUE_DOUBLE.equals(type)) {
+            for (int i = 0; i < n; i++) {
+                final double v = data.getDouble(i * 8);
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                final double v = pd.getPixelValue(i);
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+        }
+        minMax[0] = min;
+        minMax[1] = max;
+    }
+
+    /**
+     * Adds every pixel of <code>pd</code> within <code>[min, max]</code> to
+     * <code>bins</code>, which divides that range equally.
+     */
+    public static void bin(PixelData pd, double min, double max, int[] bins) {
+        final ByteBuffer data = pd.getData();
+        final int n = pd.size();
+        final String type = pd.getPixelsType();
+        final int binCount = bins.length;
+        final double binRange = (max - min) / binCount;
+        if (PixelsType.VALUE_UINT8.equals(type)) {
+            for (int i = 0; i < n; i++) {
+                bin(data.get(i) & 0xFF, min, max, binRange, bins);
+            }
+        } else if (PixelsType.VALUE_INT8.equals(type)) {
+            for (int i = 0; i < n; i++) {
+                bin(data.get(i), min, max, binRange, bins);
+            }
+        } else if (PixelsType.VALUE_UINT16.equals(type)) {
+            for (int i = 0; i < n; i++) {
+                bin(data.getShort(i * 2) & 0xFFFF, min, max, binRange, bins);
+            }
+        } else if (PixelsType.VALUE_INT16.equals(type)) {
+            for (int i = 0; i < n; i++) {
+                bin(data.getShort(i * 2), min, max, binRange, bins);
+            }
+        } else if (PixelsType.VALUE_UINT32.equals(type)) {
+            for (int i = 0; i < n; i++) {
+                bin(data.getInt(i * 4) & 0xFFFFFFFFL, min, max, binRange, bins);
+            }
+        } else if (PixelsType.VALUE_INT32.equals(type)) {
+            for (int i = 0; i < n; i++) {
+                bin(data.getInt(i * 4), min, max, binRange, bins);
+            }
+        } else if (PixelsType.VALUE_FLOAT.equals(type)) {
+            for (int i = 0; i < n; i++) {
+                bin(data.getFloat(i * 4), min, max, binRange, bins);
+            }
+        } else if (PixelsType.VALUE_DOUBLE.equals(type)) {
+            for (int i = 0; i < n; i++) {
+                bin(data.getDouble(i * 8), min, max, binRange, bins);
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                bin(pd.getPixelValue(i), min, max, binRange, bins);
+            }
+        }
+    }
+
+    private static void bin(double v, double min, double max,
+            double binRange, int[] bins) {
+        if (v < min || v > max) {
+            return;
+        }
+        int bin = (int) ((v - min) / binRange);
+        // Handle values exactly at the last edge
+        if (bin == bins.length) {
+            bin--;
+        }
+        bins[bin]++;
+    }
+
+}
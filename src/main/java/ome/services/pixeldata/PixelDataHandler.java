@@ -45,6 +45,11 @@ public class PixelDataHandler extends SimpleWork {
 
     protected int reps = 5;
 
+    /**
+     * Edge length of the tiles assumed by {@link #countTiles(Pixels)}.
+     */
+    protected final static int TILE_EDGE = 256;
+
     /**
      * Spring injector. Sets the number of indexing runs will be made if there
      * is a substantial backlog.
@@ -90,10 +95,16 @@ public class PixelDataHandler extends SimpleWork {
             }
         }
 
-        // Preload
+        // Preload, including the event type for prioritizing
         for (EventLog el : logs) {
             EventLog live = (EventLog) session.get(EventLog.class, el.getId());
+            if (live == null) {
+                continue; // Queued without an event log, e.g. a backlog request
+            }
             Event evt = live.getEvent();
+            if (evt.getType() != null) {
+                evt.getType().getValue();
+            }
             el.setEvent(evt);
         }
 
@@ -107,19 +118,47 @@ public class PixelDataHandler extends SimpleWork {
      * @see <a href="https://trac.openmicroscopy.org/ome/ticket/5814">ticket:5814</a>
      */
     public void handleEventLog(EventLog eventLog, Session session, ServiceFactory sf) {
+        handle(eventLog, session, sf);
+    }
+
+    /**
+     * As {@link #handleEventLog(EventLog, Session, ServiceFactory)} but
+     * returns the approximate number of full-resolution tiles of the
+     * pyramid which was created.
+     *
+     * @return See above, 0 if the event log was skipped.
+     */
+    public long handle(EventLog eventLog, Session session, ServiceFactory sf) {
         final long start = System.currentTimeMillis();
-        final boolean handled = process(eventLog.getEntityId(), sf, session);
+        final Pixels pixels = getPixels(eventLog.getEntityId(), sf);
+        final boolean handled = process(eventLog.getEntityId(), pixels);
         final String msg = String.format("EventLog:%s(entityId=%s) [%s ms.]",
                 eventLog.getId(), eventLog.getEntityId(),
                 (System.currentTimeMillis() - start));
 
         if (handled) {
             log.info("HANDLED "+ msg);
+            return countTiles(pixels);
         } else {
             log.debug("SKIPPED "+ msg);
+            return 0;
         }
     }
 
+    /**
+     * Estimates the number of full-resolution tiles of a pyramid, assuming
+     * tiles of {@link #TILE_EDGE} pixels square.
+     */
+    protected long countTiles(Pixels pixels) {
+        if (pixels == null) {
+            return 0;
+        }
+        final long tilesX = (pixels.getSizeX() + TILE_EDGE - 1) / TILE_EDGE;
+        final long tilesY = (pixels.getSizeY() + TILE_EDGE - 1) / TILE_EDGE;
+        return tilesX * tilesY * pixels.getSizeZ() * pixels.getSizeC()
+                * pixels.getSizeT();
+    }
+
     /**
      * Here we assume that our log loader will only return
      * us the proper types, since we are using the specific
@@ -131,8 +170,18 @@ public class PixelDataHandler extends SimpleWork {
      * @return See above.
      */
     public boolean process(Long id, ServiceFactory sf, Session s) {
+        return process(id, getPixels(id, sf));
+    }
 
-        final Pixels pixels = getPixels(id, sf);
+    /**
+     * As {@link #process(Long, ServiceFactory, Session)} for already loaded
+     * {@link Pixels}.
+     *
+     * @param id the ID of the pixels
+     * @param pixels the pixels as from {@link #getPixels(Long, ServiceFactory)}, may be null
+     * @return See above.
+     */
+    protected boolean process(Long id, Pixels pixels) {
 
         if (pixels == null) {
             log.error("No valid pixels found with id=" + id);
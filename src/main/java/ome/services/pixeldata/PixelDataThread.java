@@ -6,16 +6,23 @@
 package ome.services.pixeldata;
 
 import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import ome.conditions.InternalException;
 import ome.io.messages.MissingPyramidMessage;
@@ -26,6 +33,8 @@ import ome.model.meta.EventLog;
 import ome.model.meta.Experimenter;
 import ome.model.meta.ExperimenterGroup;
 import ome.security.basic.CurrentDetails;
+import ome.services.eventlogs.DurableEventLogQueue;
+import ome.services.eventlogs.EventLogLoader;
 import ome.services.sessions.SessionManager;
 import ome.services.util.ExecutionThread;
 import ome.services.util.Executor;
@@ -34,6 +43,8 @@ import ome.services.util.Executor.Priority;
 import ome.system.EventContext;
 import ome.system.Principal;
 import ome.system.ServiceFactory;
+import ome.system.metrics.Counter;
+import ome.system.metrics.Histogram;
 import ome.system.metrics.Metrics;
 import ome.system.metrics.NullMetrics;
 import ome.system.metrics.Timer;
@@ -58,6 +69,18 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
 
     private final static int DEFAULT_THREADS = 1;
 
+    /** How often in milliseconds to look for new work while jobs run. */
+    private final static long FETCH_INTERVAL = 5000;
+
+    /** How often a timed-out pyramid is attempted before it is dropped. */
+    private final static int MAX_ATTEMPTS = 2;
+
+    /** How often in milliseconds to log the progress of the pipeline. */
+    private final static long REPORT_INTERVAL = 60000;
+
+    /** Event type of the event logs which are not prioritized. */
+    private final static String BULK_EVENT_TYPE = "Import";
+
     /** Server session UUID */
     private final String uuid;
 
@@ -75,8 +98,15 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
 
     private final Timer batchTimer;
 
+    private final Counter queueDepth, inFlightCount, tileCount, timedOutCount;
+
+    private final Histogram tilesPerSecond;
+
     private final ReadOnlyStatus readOnly;
 
+    /** Milliseconds after which a job is abandoned, 0 for never. */
+    private long jobTimeout = 0;
+
     /**
      * Uses default {@link Principal} for processing
      */
@@ -205,9 +235,24 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
         this.uuid = uuid;
         this.numThreads = numThreads;
         this.batchTimer = metrics.timer(this, "batch");
+        this.queueDepth = metrics.counter(this, "queueDepth");
+        this.inFlightCount = metrics.counter(this, "inFlight");
+        this.tileCount = metrics.counter(this, "tiles");
+        this.timedOutCount = metrics.counter(this, "timedOut");
+        this.tilesPerSecond = metrics.histogram(this, "tilesPerSecond");
         this.readOnly = readOnly;
     }
 
+    /**
+     * Spring injector. Sets how long a single pyramid may take before its
+     * job is interrupted and its event log queued again.
+     *
+     * @param seconds the timeout, 0 or less for none.
+     */
+    public void setJobTimeout(long seconds) {
+        this.jobTimeout = Math.max(0, seconds) * 1000;
+    }
+
     /**
      * Called by Spring on creation. Currently a no-op.
      */
@@ -223,49 +268,237 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
     }
 
     /**
-     * Loads event logs from the {@link PixelDataHandler} processing them
-     * all then in a background thread via a {@link ExecutorCompletionService}.
+     * A pyramid being generated.
+     */
+    private static class Job {
+
+        final EventLog eventLog;
+
+        /** Counts from 1. */
+        final int attempt;
+
+        /** Set once the job either starts running or is abandoned before. */
+        final AtomicBoolean claimed = new AtomicBoolean();
+
+        long started;
+
+        Future<Object> future;
+
+        /** If the job was cancelled after running too long. */
+        boolean timedOut;
+
+        Job(EventLog eventLog, int attempt) {
+            this.eventLog = eventLog;
+            this.attempt = attempt;
+        }
+    }
+
+    /**
+     * Processes event logs from the {@link PixelDataHandler} in background
+     * threads, keeping up to {@link #numThreads} jobs running. Whenever a
+     * job finishes the next event log is submitted, so that one slow pyramid
+     * does not hold up the others. Event logs which do not stem from
+     * imports, e.g. those created for {@link MissingPyramidMessage}s while
+     * users view images, are submitted first. The same {@link Pixels} are
+     * never queued twice at once. Returns once no further event logs are
+     * found and all jobs have finished.
      *
-     * {@link #numThreads} variable is also used there, so the value returned
-     * <em>should</em> match. In case it isn't, we additionally use an
-     * {@link ArrayBlockingQueue} to hold the results.
+     * Jobs which exceed {@link #setJobTimeout(long) the timeout} are
+     * interrupted and their event logs queued again, up to
+     * {@link #MAX_ATTEMPTS} times. As writing a pyramid may not respond to
+     * interruption, a job keeps its thread slot until it really finishes.
      */
     @Override
     public void doRun() {
-        if (performProcessing) {
-
-            final ExecutorCompletionService<Object> ecs =
-                new ExecutorCompletionService<Object>(executor.getService(),
-                        new ArrayBlockingQueue<Future<Object>>(numThreads));
-
-            @SuppressWarnings("unchecked")
-            List<EventLog> eventLogs = (List<EventLog>)
-                    executor.execute(getPrincipal(), work);
-
-            for (final EventLog log : eventLogs) {
-                ecs.submit(new Callable<Object>(){
-                    @Override
-                    public Object call()
-                        throws Exception
-                    {
-                        return go(log);
+        if (!performProcessing) {
+            return;
+        }
+        final BlockingQueue<Job> finished = new LinkedBlockingQueue<Job>();
+        final List<Job> inFlight = new ArrayList<Job>();
+        final Deque<Job> pending = new ArrayDeque<Job>();
+        final Set<Long> queuedPixels = new HashSet<Long>();
+        long nextFetch = 0;
+        long nextReport = System.currentTimeMillis() + REPORT_INTERVAL;
+        long completed = 0;
+        try {
+            while (true) {
+                while (inFlight.size() < numThreads) {
+                    if (pending.isEmpty()) {
+                        if (System.currentTimeMillis() < nextFetch) {
+                            break;
+                        }
+                        if (!fetch(pending, queuedPixels)) {
+                            nextFetch = System.currentTimeMillis() + FETCH_INTERVAL;
+                            break;
+                        }
                     }
-                });
-            }
-
-            int count = eventLogs.size();
-            while (count > 0) {
+                    final Job job = pending.poll();
+                    queueDepth.dec();
+                    job.started = System.currentTimeMillis();
+                    job.future = executor.getService().submit(new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            if (!job.claimed.compareAndSet(false, true)) {
+                                return null; // abandoned before it started
+                            }
+                            try {
+                                return go(job.eventLog);
+                            } finally {
+                                finished.add(job);
+                            }
+                        }
+                    });
+                    inFlight.add(job);
+                    inFlightCount.inc();
+                }
+                if (inFlight.isEmpty()) {
+                    return;
+                }
                 try {
-                    Future<Object> future = ecs.poll(500, TimeUnit.MILLISECONDS);
-                    if (future != null && future.get() != null) {
-                        count--;
+                    final Job job = finished.poll(500, TimeUnit.MILLISECONDS);
+                    if (job != null) {
+                        inFlight.remove(job);
+                        inFlightCount.dec();
+                        if (job.timedOut) {
+                            retry(job, pending, queuedPixels);
+                        } else {
+                            completed++;
+                            try {
+                                job.future.get();
+                            } finally {
+                                done(job, queuedPixels);
+                            }
+                        }
                     }
                 } catch (ExecutionException ee) {
                     onExecutionException(ee);
                 } catch (InterruptedException ie) {
                     log.debug("Interrupted; looping", ie);
                 }
+                cancelExpired(inFlight, pending, queuedPixels);
+                if (System.currentTimeMillis() >= nextReport) {
+                    nextReport = System.currentTimeMillis() + REPORT_INTERVAL;
+                    long oldest = 0;
+                    for (final Job job : inFlight) {
+                        oldest = Math.max(oldest, nextReport - REPORT_INTERVAL - job.started);
+                    }
+                    log.info(String.format("Pyramids: %d in flight (oldest %s ms.), "
+                            + "%d pending, %d completed", inFlight.size(), oldest,
+                            pending.size(), completed));
+                }
             }
+        } finally {
+            queueDepth.dec(pending.size());
+        }
+    }
+
+    /**
+     * Loads the next event logs into <code>pending</code>, putting those
+     * which do not stem from imports first. Event logs for {@link Pixels}
+     * which are already pending or in flight are dropped: the
+     * {@link PersistentEventLogLoader} only saves the lowest event log ID of
+     * each batch and so returns the others again.
+     *
+     * @return if any new event logs were queued.
+     */
+    private boolean fetch(Deque<Job> pending, Set<Long> queuedPixels) {
+        @SuppressWarnings("unchecked")
+        final List<EventLog> eventLogs = (List<EventLog>)
+                executor.execute(getPrincipal(), work);
+        final List<Job> interactive = new ArrayList<Job>();
+        int queued = 0;
+        for (final EventLog eventLog : eventLogs) {
+            if (!queuedPixels.add(eventLog.getEntityId())) {
+                log.debug("Already queued: EventLog:{}(entityId={})",
+                        eventLog.getId(), eventLog.getEntityId());
+                completed(eventLog);
+                continue;
+            }
+            queued++;
+            if (isBulk(eventLog)) {
+                pending.addLast(new Job(eventLog, 1));
+            } else {
+                interactive.add(new Job(eventLog, 1));
+            }
+        }
+        for (int i = interactive.size() - 1; i >= 0; i--) {
+            pending.addFirst(interactive.get(i));
+        }
+        queueDepth.inc(queued);
+        return queued > 0;
+    }
+
+    private static boolean isBulk(EventLog eventLog) {
+        final Event event = eventLog.getEvent();
+        return event == null || event.getType() == null
+                || BULK_EVENT_TYPE.equals(event.getType().getValue());
+    }
+
+    /**
+     * Interrupts the jobs which exceeded {@link #jobTimeout}. Those which
+     * had not yet started are queued again at once, the others once they
+     * finish.
+     */
+    private void cancelExpired(List<Job> inFlight, Deque<Job> pending,
+            Set<Long> queuedPixels) {
+        if (jobTimeout <= 0) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final Iterator<Job> it = inFlight.iterator();
+        while (it.hasNext()) {
+            final Job job = it.next();
+            if (job.timedOut || now - job.started <= jobTimeout) {
+                continue;
+            }
+            log.warn(String.format("Cancelling EventLog:%s(entityId=%s) "
+                    + "after %s ms.", job.eventLog.getId(),
+                    job.eventLog.getEntityId(), now - job.started));
+            job.timedOut = true;
+            timedOutCount.inc();
+            if (job.claimed.compareAndSet(false, true)) {
+                job.future.cancel(false);
+                it.remove();
+                inFlightCount.dec();
+                retry(job, pending, queuedPixels);
+            } else {
+                job.future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Queues a timed-out job's event log again unless it was attempted
+     * {@link #MAX_ATTEMPTS} times already.
+     */
+    private void retry(Job job, Deque<Job> pending, Set<Long> queuedPixels) {
+        if (job.attempt < MAX_ATTEMPTS) {
+            pending.addLast(new Job(job.eventLog, job.attempt + 1));
+            queueDepth.inc();
+        } else {
+            log.warn(String.format("Giving up on EventLog:%s(entityId=%s) "
+                    + "after %s attempts", job.eventLog.getId(),
+                    job.eventLog.getEntityId(), job.attempt));
+            done(job, queuedPixels);
+        }
+    }
+
+    /**
+     * Forgets a job which will not be run again.
+     */
+    private void done(Job job, Set<Long> queuedPixels) {
+        queuedPixels.remove(job.eventLog.getEntityId());
+        completed(job.eventLog);
+    }
+
+    /**
+     * Tells a {@link DurableEventLogQueue} that an event log was processed
+     * so that it is not claimed again after a restart.
+     */
+    private void completed(EventLog eventLog) {
+        final EventLogLoader loader = ((PixelDataHandler) work).loader;
+        if (loader instanceof DurableEventLogQueue) {
+            ((DurableEventLogQueue) loader).completed(eventLog);
         }
     }
 
@@ -291,18 +524,23 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
         @Transactional(readOnly=false)
         @Override
         public Object doWork(Session session, ServiceFactory sf) {
-            this.handler.handleEventLog(log, session, sf);
-            return null;
+            return this.handler.handle(log, session, sf);
         }
 
     }
 
     private Object go(EventLog log) {
         final Timer.Context timer = batchTimer.time();
+        final long start = System.currentTimeMillis();
         try {
-             executor.execute(getPrincipal(),
+             final Long tiles = (Long) executor.execute(getPrincipal(),
                      new HandleEventLog(log, (PixelDataHandler) work,
                              this, "handleEventLog"));
+             if (tiles != null && tiles > 0) {
+                 tileCount.inc(tiles);
+                 tilesPerSecond.update(tiles * 1000
+                         / Math.max(1, System.currentTimeMillis() - start));
+             }
              return log;
         } finally {
             timer.stop();
@@ -0,0 +1,295 @@
+/*
+ *   Copyright 2026 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.pixeldata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ome.api.IUpdate;
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.PixelsService;
+import ome.model.IObject;
+import ome.model.core.Channel;
+import ome.model.core.Pixels;
+import ome.model.stats.StatsInfo;
+import omeis.providers.re.metadata.StatsFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Provides the per-channel minimum and maximum of a {@link Pixels} set
+ * without a full scan on every call. Values are taken, in order, from:
+ * <ol>
+ * <li>the {@link StatsInfo} of every channel, if already present,</li>
+ * <li>a bounded in-memory cache keyed by pixels id and version,</li>
+ * <li>a scan of at most {@link #maxPlanes} Z/T planes at the smallest
+ * resolution level whose longest side is at least {@link #minLevelSize}.</li>
+ * </ol>
+ * A scan which covered every plane at full resolution is exact and, when
+ * called within a writable transaction, is saved through the caller's
+ * update service as the channels' {@link StatsInfo} so that later lookups
+ * need no pixel data at all.
+ * Sampled or downsampled results are only cached, since {@link StatsInfo}
+ * is expected to hold the true global range.
+ *
+ * @since 5.7.3
+ */
+public class PixelsStatsService {
+
+    private final static Logger log = LoggerFactory.getLogger(PixelsStatsService.class);
+
+    private final PixelsService pixelsService;
+
+    private final HistogramEngine engine;
+
+    private final int maxPlanes;
+
+    private final int minLevelSize;
+
+    private final Cache<Key, Map<Integer, double[]>> cache;
+
+    /**
+     * @param pixelsService used to check whether a pixels set without a
+     *            pyramid should have one, in which case it is not scanned.
+     * @param engine performs the scan of each plane.
+     * @param cacheSize maximum number of pixels sets held in memory.
+     * @param maxPlanes maximum number of Z/T planes which are scanned.
+     * @param minLevelSize minimum width or height of the resolution level
+     *            which is scanned.
+     */
+    public PixelsStatsService(PixelsService pixelsService,
+            HistogramEngine engine, int cacheSize, int maxPlanes,
+            int minLevelSize) {
+        this.pixelsService = pixelsService;
+        this.engine = engine;
+        this.maxPlanes = Math.max(1, maxPlanes);
+        this.minLevelSize = minLevelSize;
+        this.cache = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+    }
+
+    /**
+     * Returns the minimum and maximum of each channel of <code>pixels</code>
+     * or an empty map if the pixels set requires a pyramid which does not
+     * yet exist.
+     *
+     * @param pixels the pixels set with its channels and their stats
+     *            loaded.
+     * @param buffer an open buffer for <code>pixels</code>. Its resolution
+     *            level is restored before returning.
+     * @param update the update service through which exact results are
+     *            saved, or <code>null</code> if they may not be.
+     * @return map from channel index to <code>{min, max}</code>.
+     */
+    public Map<Integer, double[]> getMinMax(Pixels pixels, PixelBuffer buffer,
+            IUpdate update) {
+        final Map<Integer, double[]> stored = fromStatsInfo(pixels);
+        if (stored != null) {
+            return stored;
+        }
+
+        final Key key = new Key(pixels.getId(), pixels.getVersion());
+        final Map<Integer, double[]> cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return copy(cached);
+        }
+
+        final int levels = buffer.getResolutionLevels();
+        if (levels <= 1 && pixelsService.requiresPixelsPyramid(pixels)) {
+            return Collections.emptyMap();
+        }
+
+        final long start = System.currentTimeMillis();
+        final int original = levels > 1 ? buffer.getResolutionLevel() : 0;
+        final Map<Integer, double[]> rv;
+        final boolean exact;
+        try {
+            final int level = chooseResolutionLevel(buffer);
+            final List<int[]> planes = choosePlanes(pixels);
+            rv = scan(pixels, buffer, planes);
+            exact = (levels <= 1 || level == levels - 1)
+                    && planes.size() == pixels.getSizeZ() * pixels.getSizeT();
+            if (log.isDebugEnabled()) {
+                log.debug(String.format(
+                        "Scanned %s planes of Pixels:%s at level %s/%s [%s ms.]",
+                        planes.size(), pixels.getId(), level, levels,
+                        System.currentTimeMillis() - start));
+            }
+        } catch (Exception e) {
+            log.warn("Failed to find min/max of Pixels:" + pixels.getId(), e);
+            return Collections.emptyMap();
+        } finally {
+            if (levels > 1) {
+                buffer.setResolutionLevel(original);
+            }
+        }
+
+        cache.put(key, copy(rv));
+        if (update != null && exact) {
+            persist(pixels, rv, update);
+        }
+        return rv;
+    }
+
+    private Map<Integer, double[]> fromStatsInfo(Pixels pixels) {
+        final Map<Integer, double[]> rv = new LinkedHashMap<Integer, double[]>();
+        for (int c = 0; c < pixels.sizeOfChannels(); c++) {
+            final Channel channel = pixels.getChannel(c);
+            if (channel == null) {
+                continue;
+            }
+            final StatsInfo si = channel.getStatsInfo();
+            if (si == null || !si.isLoaded() || si.getGlobalMax() == null
+                    || si.getGlobalMin() == null) {
+                return null;
+            }
+            rv.put(c, new double[] { si.getGlobalMin(), si.getGlobalMax() });
+        }
+        return rv.isEmpty() ? null : rv;
+    }
+
+    /**
+     * Sets the smallest resolution level whose longest side reaches
+     * {@link #minLevelSize}, or full resolution if none does.
+     */
+    private int chooseResolutionLevel(PixelBuffer buffer) {
+        final int levels = buffer.getResolutionLevels();
+        if (levels <= 1) {
+            return 0;
+        }
+        // Level 0 is the smallest and levels - 1 is full resolution.
+        for (int i = 0; i < levels; i++) {
+            buffer.setResolutionLevel(i);
+            if (Math.max(buffer.getSizeX(), buffer.getSizeY()) >= minLevelSize) {
+                return i;
+            }
+        }
+        return levels - 1;
+    }
+
+    /**
+     * Returns every Z/T plane if there are at most {@link #maxPlanes},
+     * otherwise the middle plane followed by evenly spaced others.
+     */
+    private List<int[]> choosePlanes(Pixels pixels) {
+        final int sizeZ = pixels.getSizeZ();
+        final int sizeT = pixels.getSizeT();
+        final int total = sizeZ * sizeT;
+        final List<int[]> planes = new ArrayList<int[]>();
+        if (total <= maxPlanes) {
+            for (int t = 0; t < sizeT; t++) {
+                for (int z = 0; z < sizeZ; z++) {
+                    planes.add(new int[] { z, t });
+                }
+            }
+            return planes;
+        }
+        final int midZ = sizeZ > 1 ? (sizeZ - 1) / 2 : 0;
+        final int midT = sizeT > 1 ? (sizeT - 1) / 2 : 0;
+        planes.add(new int[] { midZ, midT });
+        final int mid = midT * sizeZ + midZ;
+        final double step = (double) total / (maxPlanes - 1 > 0 ? maxPlanes - 1 : 1);
+        for (int i = 0; planes.size() < maxPlanes && i < maxPlanes; i++) {
+            final int index = (int) Math.min(total - 1, Math.round(i * step));
+            if (index != mid) {
+                planes.add(new int[] { index % sizeZ, index / sizeZ });
+            }
+        }
+        return planes;
+    }
+
+    private Map<Integer, double[]> scan(Pixels pixels, PixelBuffer buffer,
+            List<int[]> planes) throws Exception {
+        final List<Integer> channels = new ArrayList<Integer>();
+        for (int c = 0; c < pixels.sizeOfChannels(); c++) {
+            if (pixels.getChannel(c) != null) {
+                channels.add(c);
+            }
+        }
+        final double[] range = new StatsFactory().initPixelsRange(pixels);
+        final double[] seed = new double[] { range[1], range[0] };
+        final Map<Integer, double[]> rv = new LinkedHashMap<Integer, double[]>();
+        for (Integer c : channels) {
+            rv.put(c, new double[] { seed[0], seed[1] });
+        }
+        for (int[] plane : planes) {
+            final Map<Integer, double[]> partial =
+                    engine.minMax(buffer, channels, plane[0], plane[1], seed);
+            for (Map.Entry<Integer, double[]> entry : partial.entrySet()) {
+                final double[] mm = rv.get(entry.getKey());
+                mm[0] = Math.min(mm[0], entry.getValue()[0]);
+                mm[1] = Math.max(mm[1], entry.getValue()[1]);
+            }
+        }
+        return rv;
+    }
+
+    private void persist(Pixels pixels, Map<Integer, double[]> minMax,
+            IUpdate update) {
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+                || !TransactionSynchronizationManager.isActualTransactionActive()) {
+            return;
+        }
+        final List<IObject> toSave = new ArrayList<IObject>(minMax.size());
+        for (Map.Entry<Integer, double[]> entry : minMax.entrySet()) {
+            final Channel ch = pixels.getChannel(entry.getKey());
+            final StatsInfo si = new StatsInfo();
+            si.setGlobalMin(entry.getValue()[0]);
+            si.setGlobalMax(entry.getValue()[1]);
+            ch.setStatsInfo(si);
+            toSave.add(ch);
+            log.info(String.format("Adding StatsInfo for %s - C:%s Max:%s Min:%s",
+                    ch, entry.getKey(), si.getGlobalMax(), si.getGlobalMin()));
+        }
+        update.saveCollection(toSave);
+    }
+
+    private static Map<Integer, double[]> copy(Map<Integer, double[]> minMax) {
+        final Map<Integer, double[]> rv = new LinkedHashMap<Integer, double[]>();
+        for (Map.Entry<Integer, double[]> entry : minMax.entrySet()) {
+            rv.put(entry.getKey(), entry.getValue().clone());
+        }
+        return rv;
+    }
+
+    private static final class Key {
+
+        final long id;
+
+        final Integer version;
+
+        Key(long id, Integer version) {
+            this.id = id;
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return id == other.id && (version == null ?
+                    other.version == null : version.equals(other.version));
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (id ^ (id >>> 32)) * 31
+                    + (version == null ? 0 : version.hashCode());
+        }
+    }
+
+}
@@ -52,6 +52,9 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
     /** Reference to the service used to retrieve the pixels data. */
     protected transient PixelsService pixelsService;
     
+    /** Performs the per-plane projection of each stack. */
+    protected transient ProjectionKernels projectionKernels;
+    
     /**
      * Returns the interface this implementation is for.
      * @see AbstractLevel2Service#getServiceInterface()
@@ -81,6 +84,30 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         this.pixelsService = pixelsService;
     }
     
+    /**
+     * ProjectionKernels bean injector. For use during configuration. Can only
+     * be called once.
+     */
+    public void setProjectionKernels(ProjectionKernels projectionKernels)
+    {
+        getBeanHelper().throwIfAlreadySet(this.projectionKernels,
+                projectionKernels);
+        this.projectionKernels = projectionKernels;
+    }
+    
+    /**
+     * Returns the configured kernels or, if none were injected, kernels
+     * running on the common fork/join pool.
+     */
+    private ProjectionKernels getProjectionKernels()
+    {
+        if (projectionKernels == null)
+        {
+            projectionKernels = new ProjectionKernels();
+        }
+        return projectionKernels;
+    }
+    
     /* (non-Javadoc)
      * @see ome.api.IProjection#projectStack(long, ome.model.enums.PixelsType, int, int, int, int, int, int)
      */
@@ -394,31 +421,11 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
     private void projectStackMax(ProjectionContext ctx, int stepping,
                                  int start, int end, boolean doMinMax)
     {
-        int currentPlaneStart;
-        double projectedValue, stackValue;
-        double minimum = ctx.minimum;
-        double maximum = ctx.maximum;
-        for (int i = 0; i < ctx.planeSizeInPixels; i++)
-        {
-            projectedValue = 0;
-            for (int z = start; z <= end; z += stepping)
-            {
-                currentPlaneStart = ctx.planeSizeInPixels * z;
-                stackValue = ctx.from.getPixelValue(currentPlaneStart + i);
-                if (stackValue > projectedValue)
-                {
-                    projectedValue = stackValue;
-                }
-            }
-            ctx.to.setPixelValue(i, projectedValue);
-            if (doMinMax)
-            {
-                minimum = projectedValue < minimum? projectedValue : minimum;
-                maximum = projectedValue > maximum? projectedValue : maximum;
-            }
-        }
-        ctx.minimum = minimum;
-        ctx.maximum = maximum;
+        double[] minMax = new double[] { ctx.minimum, ctx.maximum };
+        getProjectionKernels().max(ctx.from, ctx.to, ctx.pixels.getSizeX(),
+                ctx.pixels.getSizeY(), start, end, stepping, minMax, doMinMax);
+        ctx.minimum = minMax[0];
+        ctx.maximum = minMax[1];
     }
     
     /**
@@ -485,40 +492,12 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
                                        int start, int end, 
                                        boolean mean, boolean doMinMax)
     {
-        double planeMaximum = ctx.to.getMaximum();
-
-        int currentPlaneStart;
-        double projectedValue, stackValue;
-        double minimum = ctx.minimum;
-        double maximum = ctx.maximum;
-        for (int i = 0; i < ctx.planeSizeInPixels; i++)
-        {
-            projectedValue = 0;
-            int projectedPlaneCount = 0;
-            for (int z = start; z < end; z += stepping)
-            {
-                currentPlaneStart = ctx.planeSizeInPixels * z;
-                stackValue = ctx.from.getPixelValue(currentPlaneStart + i);
-                projectedValue += stackValue;
-                projectedPlaneCount++;
-            }
-            if (mean)
-            {
-                projectedValue = projectedValue / projectedPlaneCount;
-            }
-            if (projectedValue > planeMaximum)
-            {
-                projectedValue = planeMaximum;
-            }
-            ctx.to.setPixelValue(i, projectedValue);
-            if (doMinMax)
-            {
-                minimum = projectedValue < minimum? projectedValue : minimum;
-                maximum = projectedValue > maximum? projectedValue : maximum;
-            }
-        }
-        ctx.minimum = minimum;
-        ctx.maximum = maximum;
+        double[] minMax = new double[] { ctx.minimum, ctx.maximum };
+        getProjectionKernels().sum(ctx.from, ctx.to, ctx.pixels.getSizeX(),
+                ctx.pixels.getSizeY(), start, end, stepping, mean, minMax,
+                doMinMax);
+        ctx.minimum = minMax[0];
+        ctx.maximum = minMax[1];
     }
     
     /**
@@ -0,0 +1,278 @@
+/*
+ *   Copyright 2026 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.projection;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+
+/**
+ * Z-projection kernels used by {@link ProjectionBean}. Rather than striding
+ * through the stack once per pixel, the XY plane is split into stripes of
+ * whole rows which are projected in parallel. Within a stripe the stack is
+ * read plane by plane into a primitive accumulator, so that every read is
+ * sequential. <code>uint8</code>, <code>uint16</code> and
+ * <code>float</code> stacks are read directly from their buffer; other
+ * types go through {@link PixelData#getPixelValue(int)}.
+ *
+ * The projected values, clamping and minimum/maximum are identical to the
+ * original per-pixel implementation, including its treatment of
+ * <code>end</code> as exclusive for mean and sum projections.
+ *
+ * @since 5.7.3
+ */
+public class ProjectionKernels {
+
+    /** Number of pixels per stripe, about 64 KiB of accumulator. */
+    private final static int STRIPE_PIXELS = 8192;
+
+    private final ForkJoinPool pool;
+
+    private final boolean ownsPool;
+
+    /**
+     * Uses the JVM-wide {@link ForkJoinPool#commonPool()}.
+     */
+    public ProjectionKernels() {
+        this.pool = ForkJoinPool.commonPool();
+        this.ownsPool = false;
+    }
+
+    /**
+     * Creates a dedicated {@link ForkJoinPool} of the given parallelism
+     * which will be shut down by {@link #destroy()}. A non-positive value
+     * uses the number of available processors.
+     */
+    public ProjectionKernels(int parallelism) {
+        if (parallelism <= 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        this.pool = new ForkJoinPool(parallelism);
+        this.ownsPool = true;
+    }
+
+    /**
+     * Spring destroy-method.
+     */
+    public void destroy() {
+        if (ownsPool) {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Maximum intensity projection of sections <code>start</code> to
+     * <code>end</code> inclusive.
+     *
+     * @param from the whole stack.
+     * @param to the plane to project into.
+     * @param sizeX the width of a plane.
+     * @param sizeY the height of a plane.
+     * @param minMax <code>{minimum, maximum}</code> of previously
+     *            projected planes, updated if <code>doMinMax</code>.
+     */
+    public void max(final PixelData from, final PixelData to,
+            final int sizeX, int sizeY, final int start, final int end,
+            final int stepping, double[] minMax, final boolean doMinMax) {
+        final int planeSize = sizeX * sizeY;
+        run(planeSize, sizeX, minMax, new StripeFactory() {
+            public Callable<double[]> stripe(final int offset, final int length,
+                    final double minimum, final double maximum) {
+                return new Callable<double[]>() {
+                    public double[] call() {
+                        return maxStripe(from, to, planeSize, offset, length,
+                                start, end, stepping, minimum, maximum,
+                                doMinMax);
+                    }
+                };
+            }
+        });
+    }
+
+    /**
+     * Sum or mean intensity projection of sections <code>start</code> to
+     * <code>end</code> exclusive, clamped to the maximum of the type of
+     * <code>to</code>.
+     *
+     * @param mean whether to divide the sum by the number of sections.
+     * @see #max(PixelData, PixelData, int, int, int, int, int, double[], boolean)
+     */
+    public void sum(final PixelData from, final PixelData to,
+            final int sizeX, int sizeY, final int start, final int end,
+            final int stepping, final boolean mean, double[] minMax,
+            final boolean doMinMax) {
+        final int planeSize = sizeX * sizeY;
+        run(planeSize, sizeX, minMax, new StripeFactory() {
+            public Callable<double[]> stripe(final int offset, final int length,
+                    final double minimum, final double maximum) {
+                return new Callable<double[]>() {
+                    public double[] call() {
+                        return sumStripe(from, to, planeSize, offset, length,
+                                start, end, stepping, mean, minimum, maximum,
+                                doMinMax);
+                    }
+                };
+            }
+        });
+    }
+
+    private interface StripeFactory {
+        Callable<double[]> stripe(int offset, int length, double minimum,
+                double maximum);
+    }
+
+    private void run(int planeSize, int sizeX, double[] minMax,
+            StripeFactory factory) {
+        final int rows = Math.max(1, STRIPE_PIXELS / Math.max(1, sizeX));
+        final int stripe = rows * Math.max(1, sizeX);
+        final List<ForkJoinTask<double[]>> tasks =
+                new ArrayList<ForkJoinTask<double[]>>();
+        for (int offset = 0; offset < planeSize; offset += stripe) {
+            final int length = Math.min(stripe, planeSize - offset);
+            tasks.add(pool.submit(
+                    factory.stripe(offset, length, minMax[0], minMax[1])));
+        }
+        double minimum = minMax[0];
+        double maximum = minMax[1];
+        for (ForkJoinTask<double[]> task : tasks) {
+            final double[] partial = task.join();
+            minimum = partial[0] < minimum ? partial[0] : minimum;
+            maximum = partial[1] > maximum ? partial[1] : maximum;
+        }
+        minMax[0] = minimum;
+        minMax[1] = maximum;
+    }
+
+    private static double[] maxStripe(PixelData from, PixelData to,
+            int planeSize, int offset, int length, int start, int end,
+            int stepping, double minimum, double maximum, boolean doMinMax) {
+        final ByteBuffer data = from.getData();
+        final String type = from.getPixelsType();
+        final double[] projected = new double[length];
+        if (PixelsType.VALUE_UINT8.equals(type)
+                || PixelsType.VALUE_UINT16.equals(type)) {
+            final boolean isShort = PixelsType.VALUE_UINT16.equals(type);
+            final int[] acc = new int[length];
+            for (int z = start; z <= end; z += stepping) {
+                final int base = planeSize * z + offset;
+                if (isShort) {
+                    for (int j = 0; j < length; j++) {
+                        final int v = data.getShort((base + j) * 2) & 0xFFFF;
+                        if (v > acc[j]) acc[j] = v;
+                    }
+                } else {
+                    for (int j = 0; j < length; j++) {
+                        final int v = data.get(base + j) & 0xFF;
+                        if (v > acc[j]) acc[j] = v;
+                    }
+                }
+            }
+            for (int j = 0; j < length; j++) {
+                projected[j] = acc[j];
+            }
+        } else if (PixelsType.VALUE_FLOAT.equals(type)) {
+            for (int z = start; z <= end; z += stepping) {
+                final int base = planeSize * z + offset;
+                for (int j = 0; j < length; j++) {
+                    final double v = data.getFloat((base + j) * 4);
+                    if (v > projected[j]) projected[j] = v;
+                }
+            }
+        } else {
+            for (int z = start; z <= end; z += stepping) {
+                final int base = planeSize * z + offset;
+                for (int j = 0; j < length; j++) {
+                    final double v = from.getPixelValue(base + j);
+                    if (v > projected[j]) projected[j] = v;
+                }
+            }
+        }
+        return write(to, offset, projected, minimum, maximum, doMinMax);
+    }
+
+    private static double[] sumStripe(PixelData from, PixelData to,
+            int planeSize, int offset, int length, int start, int end,
+            int stepping, boolean mean, double minimum, double maximum,
+            boolean doMinMax) {
+        final ByteBuffer data = from.getData();
+        final String type = from.getPixelsType();
+        final double planeMaximum = to.getMaximum();
+        final double[] projected = new double[length];
+        int count = 0;
+        for (int z = start; z < end; z += stepping) {
+            count++;
+        }
+        if (PixelsType.VALUE_UINT8.equals(type)
+                || PixelsType.VALUE_UINT16.equals(type)) {
+            // Integer sums are exact in a double below 2^53, so a long
+            // accumulator gives the same result as summing doubles.
+            final boolean isShort = PixelsType.VALUE_UINT16.equals(type);
+            final long[] acc = new long[length];
+            for (int z = start; z < end; z += stepping) {
+                final int base = planeSize * z + offset;
+                if (isShort) {
+                    for (int j = 0; j < length; j++) {
+                        acc[j] += data.getShort((base + j) * 2) & 0xFFFF;
+                    }
+                } else {
+                    for (int j = 0; j < length; j++) {
+                        acc[j] += data.get(base + j) & 0xFF;
+                    }
+                }
+            }
+            for (int j = 0; j < length; j++) {
+                projected[j] = acc[j];
+            }
+        } else if (PixelsType.VALUE_FLOAT.equals(type)) {
+            for (int z = start; z < end; z += stepping) {
+                final int base = planeSize * z + offset;
+                for (int j = 0; j < length; j++) {
+                    projected[j] += data.getFloat((base + j) * 4);
+                }
+            }
+        } else {
+            for (int z = start; z < end; z += stepping) {
+                final int base = planeSize * z + offset;
+                for (int j = 0; j < length; j++) {
+                    projected[j] += from.getPixelValue(base + j);
+                }
+            }
+        }
+        for (int j = 0; j < length; j++) {
+            double v = projected[j];
+            if (mean) {
+                v = v / count;
+            }
+            if (v > planeMaximum) {
+                v = planeMaximum;
+            }
+            projected[j] = v;
+        }
+        return write(to, offset, projected, minimum, maximum, doMinMax);
+    }
+
+    private static double[] write(PixelData to, int offset, double[] projected,
+            double minimum, double maximum, boolean doMinMax) {
+        for (int j = 0; j < projected.length; j++) {
+            final double v = projected[j];
+            to.setPixelValue(offset + j, v);
+            if (doMinMax) {
+                minimum = v < minimum ? v : minimum;
+                maximum = v > maximum ? v : maximum;
+            }
+        }
+        return new double[] { minimum, maximum };
+    }
+
+}
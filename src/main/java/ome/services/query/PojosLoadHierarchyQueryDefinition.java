@@ -8,20 +8,43 @@ import static ome.parameters.Parameters.CLASS;
 import static ome.parameters.Parameters.IDS;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 import ome.conditions.ApiUsageException;
+import ome.model.IObject;
 import ome.model.containers.Dataset;
 import ome.model.containers.Project;
 import ome.model.screen.Plate;
+import ome.model.screen.PlateAcquisition;
 import ome.model.screen.Screen;
 import ome.parameters.Parameters;
 
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
 
+import com.google.common.collect.Iterables;
+
+/**
+ * Loads containers with their children, optionally down to the images. To
+ * avoid the Cartesian product of fetching all the collections in one query
+ * the containers are loaded first and each further level by its own query
+ * keyed by the IDs of its parents, in pages. As the queries share the
+ * Hibernate session each initializes the collections of the objects loaded
+ * by the previous one, so the same graph is assembled.
+ */
 public class PojosLoadHierarchyQueryDefinition extends Query {
 
+    /** How many parents' IDs are given to a query for their children. */
+    static final int PAGE_SIZE = 500;
+
+    /** How many parents' IDs are given to a query for the images. */
+    static final int LEAF_PAGE_SIZE = 16;
+
     static Definitions defs = new Definitions(new CollectionQueryParameterDef(
             Parameters.IDS, true, Long.class),
             new ClassQueryParameterDef());
@@ -40,21 +63,11 @@ public class PojosLoadHierarchyQueryDefinition extends Query {
         if (Project.class.isAssignableFrom(klass)) {
             sb.append("select this from Project this ");
             sb.append("left outer join fetch this.details.creationEvent ");
-            sb.append("left outer join fetch this.datasetLinks pdl ");
-            sb.append("left outer join fetch pdl.child ds ");
-            if (params.isLeaves()) {
-                sb.append("left outer join fetch ds.imageLinks dil ");
-                sb.append("left outer join fetch dil.child img ");
-            }
             sb.append("left outer join fetch "
                     + "this.annotationLinksCountPerOwner this_a_c ");
         } else if (Dataset.class.isAssignableFrom(klass)) {
             sb.append("select this from Dataset this ");
             sb.append("left outer join fetch this.details.creationEvent ");
-            if (params.isLeaves()) {
-                sb.append("left outer join fetch this.imageLinks dil ");
-                sb.append("left outer join fetch dil.child img ");
-            }
             sb.append("left outer join fetch "
                     + "this.annotationLinksCountPerOwner this_a_c ");
             sb.append("left outer join fetch "
@@ -62,48 +75,18 @@ public class PojosLoadHierarchyQueryDefinition extends Query {
         } else if (Screen.class.isAssignableFrom(klass)) {
         	sb.append("select this from Screen this ");
         	sb.append("left outer join fetch this.details.creationEvent ");
-            sb.append("left outer join fetch this.plateLinks pdl ");
-            sb.append("left outer join fetch pdl.child ds ");
-            sb.append("left outer join fetch ds.details.creationEvent ");
-            sb.append("left outer join fetch ds.details.updateEvent ");
-            sb.append("left outer join fetch ds.plateAcquisitions sa ");
             sb.append("left outer join fetch "
                     + "this.annotationLinksCountPerOwner this_a_c ");
-            sb.append("left outer join fetch sa.annotationLinksCountPerOwner sa_a_c ");
         } else if (Plate.class.isAssignableFrom(klass)) {
         	sb.append("select this from Plate this ");
         	sb.append("left outer join fetch this.details.creationEvent ");
-        	sb.append("left outer join fetch this.plateAcquisitions sa ");
             sb.append("left outer join fetch "
                     + "this.annotationLinksCountPerOwner this_a_c ");
-            sb.append("left outer join fetch sa.annotationLinksCountPerOwner sa_a_c ");
         } else {
             throw new ApiUsageException("Unknown container class: "
                     + klass.getName());
         }
 
-        if (params.isLeaves()) {
-            if (Screen.class.isAssignableFrom(klass) || Plate.class.isAssignableFrom(klass)) {
-                sb.append("left outer join fetch sa.wellSample ws ");
-                sb.append("left outer join fetch ws.image img ");
-            }
-            sb.append("left outer join fetch img.details.creationEvent as cre ");
-            sb.append("left outer join fetch img.details.updateEvent as evt ");
-            sb.append("left outer join fetch img.pixels as pix ");
-            sb.append("left outer join fetch img.format as format ");
-            sb.append("left outer join fetch pix.pixelsType as pt ");
-            if (params.isAcquisitionData()) {
-	            sb.append("left outer join fetch img.stageLabel as position ");
-	            sb.append("left outer join fetch img.imagingEnvironment" +
-	            		" as condition ");
-	            sb.append("left outer join fetch img.objectiveSettings as os ");
-	            sb.append("left outer join fetch os.medium as me ");
-	            sb.append("left outer join fetch os.objective as objective ");
-	            sb.append("left outer join fetch objective.immersion as im ");
-	            sb.append("left outer join fetch objective.correction as co ");
-            }
-        }
-
         // optional ids
         Collection ids = (Collection) value(IDS);
         if (ids != null && ids.size() > 0) {
@@ -117,6 +100,170 @@ public class PojosLoadHierarchyQueryDefinition extends Query {
         setQuery(q);
     }
 
+    /**
+     * Loads the children of the containers level by level.
+     */
+    @Override
+    protected Object afterQuery(Session session, Object result)
+            throws HibernateException, SQLException {
+        final List<IObject> roots = new ArrayList<IObject>();
+        if (result instanceof Collection) {
+            for (final Object root : (Collection<?>) result) {
+                roots.add((IObject) root);
+            }
+        } else if (result != null) {
+            roots.add((IObject) result);
+        }
+        if (roots.isEmpty()) {
+            return result;
+        }
+
+        final Class klass = (Class) value(CLASS);
+        if (Project.class.isAssignableFrom(klass)) {
+            final Set<Long> datasetIds = new LinkedHashSet<Long>();
+            for (final Object o : fetch(session,
+                    "select this from Project this "
+                    + "left outer join fetch this.datasetLinks pdl "
+                    + "left outer join fetch pdl.child ds ",
+                    "this", ids(roots), PAGE_SIZE)) {
+                for (final Dataset ds : ((Project) o).linkedDatasetList()) {
+                    if (ds != null) {
+                        datasetIds.add(ds.getId());
+                    }
+                }
+            }
+            if (params.isLeaves()) {
+                loadDatasetImages(session, datasetIds);
+            }
+        } else if (Dataset.class.isAssignableFrom(klass)) {
+            if (params.isLeaves()) {
+                loadDatasetImages(session, ids(roots));
+            }
+        } else if (Screen.class.isAssignableFrom(klass)) {
+            final List<Plate> plates = new ArrayList<Plate>();
+            for (final Object o : fetch(session,
+                    "select this from Screen this "
+                    + "left outer join fetch this.plateLinks pdl "
+                    + "left outer join fetch pdl.child ds "
+                    + "left outer join fetch ds.details.creationEvent "
+                    + "left outer join fetch ds.details.updateEvent "
+                    + "left outer join fetch ds.plateAcquisitions sa ",
+                    "this", ids(roots), PAGE_SIZE)) {
+                for (final Plate plate : ((Screen) o).linkedPlateList()) {
+                    if (plate != null) {
+                        plates.add(plate);
+                    }
+                }
+            }
+            loadPlateAcquisitions(session, plates);
+        } else if (Plate.class.isAssignableFrom(klass)) {
+            final List<Plate> plates = new ArrayList<Plate>();
+            for (final Object o : fetch(session,
+                    "select this from Plate this "
+                    + "left outer join fetch this.plateAcquisitions sa ",
+                    "this", ids(roots), PAGE_SIZE)) {
+                plates.add((Plate) o);
+            }
+            loadPlateAcquisitions(session, plates);
+        }
+        return result;
+    }
+
+    /**
+     * Fetches the images of the datasets, whose image links were not yet
+     * loaded.
+     */
+    private void loadDatasetImages(Session session, Collection<Long> datasetIds) {
+        fetch(session, "select ds from Dataset ds "
+                + "left outer join fetch ds.imageLinks dil "
+                + "left outer join fetch dil.child img "
+                + imageFetches(),
+                "ds", datasetIds, LEAF_PAGE_SIZE);
+    }
+
+    /**
+     * Fetches the annotation counts of the plates' acquisitions, which must
+     * already be loaded, and optionally their images.
+     */
+    private void loadPlateAcquisitions(Session session, Collection<Plate> plates) {
+        final Set<Long> acquisitionIds = new LinkedHashSet<Long>();
+        for (final Plate plate : plates) {
+            if (plate.sizeOfPlateAcquisitions() > 0) {
+                final Iterator<PlateAcquisition> acquisitions = plate.iteratePlateAcquisitions();
+                while (acquisitions.hasNext()) {
+                    acquisitionIds.add(acquisitions.next().getId());
+                }
+            }
+        }
+        fetch(session, "select sa from PlateAcquisition sa "
+                + "left outer join fetch sa.annotationLinksCountPerOwner sa_a_c ",
+                "sa", acquisitionIds, PAGE_SIZE);
+        if (params.isLeaves()) {
+            fetch(session, "select sa from PlateAcquisition sa "
+                    + "left outer join fetch sa.wellSample ws "
+                    + "left outer join fetch ws.image img "
+                    + imageFetches(),
+                    "sa", acquisitionIds, LEAF_PAGE_SIZE);
+        }
+    }
+
+    /**
+     * @return the joins that fetch the properties of the images aliased as
+     *         <code>img</code>
+     */
+    private String imageFetches() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("left outer join fetch img.details.creationEvent as cre ");
+        sb.append("left outer join fetch img.details.updateEvent as evt ");
+        sb.append("left outer join fetch img.pixels as pix ");
+        sb.append("left outer join fetch img.format as format ");
+        sb.append("left outer join fetch pix.pixelsType as pt ");
+        if (params.isAcquisitionData()) {
+            sb.append("left outer join fetch img.stageLabel as position ");
+            sb.append("left outer join fetch img.imagingEnvironment" +
+                    " as condition ");
+            sb.append("left outer join fetch img.objectiveSettings as os ");
+            sb.append("left outer join fetch os.medium as me ");
+            sb.append("left outer join fetch os.objective as objective ");
+            sb.append("left outer join fetch objective.immersion as im ");
+            sb.append("left outer join fetch objective.correction as co ");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Runs the query for pages of the given IDs. Only one page of results is
+     * held by the query at a time, the loaded objects remaining in the
+     * session.
+     * @param session the Hibernate session
+     * @param hql the query, without a <code>where</code> clause
+     * @param alias the alias of the object whose ID is restricted
+     * @param ids the IDs
+     * @param pageSize how many IDs to query at once
+     * @return the distinct objects that were loaded
+     */
+    private static Collection<Object> fetch(Session session, String hql,
+            String alias, Collection<Long> ids, int pageSize) {
+        final Set<Object> loaded = new LinkedHashSet<Object>();
+        if (ids.isEmpty()) {
+            return loaded;
+        }
+        final String restricted = hql + "where " + alias + ".id in (:ids)";
+        for (final List<Long> page : Iterables.partition(ids, pageSize)) {
+            loaded.addAll(session.createQuery(restricted)
+                    .setParameterList("ids", page).list());
+        }
+        return loaded;
+    }
+
+    private static Set<Long> ids(Collection<IObject> objects) {
+        final Set<Long> ids = new LinkedHashSet<Long>();
+        for (final IObject object : objects) {
+            ids.add(object.getId());
+        }
+        return ids;
+    }
+
     @Override
     protected void enableFilters(Session session) {
         ownerOrGroupFilters(session,
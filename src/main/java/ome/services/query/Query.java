@@ -250,7 +250,8 @@ public abstract class Query<T> implements HibernateCallback {
                     /* override default */
                     _query.setCacheable(isCacheable);
                 }
-                return unique ? _query.uniqueResult() : _query.list();
+                return afterQuery(session,
+                        unique ? _query.uniqueResult() : _query.list());
             } else {
                 if (timeout != null) {
                     _criteria.setTimeout(timeout);
@@ -261,7 +262,8 @@ public abstract class Query<T> implements HibernateCallback {
                     /* override default */
                     _criteria.setCacheable(isCacheable);
                 }
-                return unique ? _criteria.uniqueResult() : _criteria.list();
+                return afterQuery(session,
+                        unique ? _criteria.uniqueResult() : _criteria.list());
             }
 
         } finally {
@@ -269,6 +271,16 @@ public abstract class Query<T> implements HibernateCallback {
         }
     }
 
+    /**
+     * called by {@link #doInHibernate(Session)} with the result of the query
+     * while the filters are still enabled, so that subclasses may load further
+     * data in the same context. Returns the result unchanged by default.
+     */
+    protected Object afterQuery(Session session, Object result)
+            throws HibernateException, SQLException {
+        return result;
+    }
+
     /**
      * main point of entry for subclasses. This method must build either a
      * {@link org.hibernate.Criteria} or a {@link org.hibernate.Query} instance
@@ -16,6 +16,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import ome.api.local.LocalAdmin;
 import ome.conditions.InternalException;
@@ -113,6 +114,14 @@ public class ScriptRepoHelper extends OnContextRefreshedEventListener {
      */
     private/* final */IOFileFilter scriptFilter;
 
+    /**
+     * The files last seen by {@link LoadScripts} keyed by
+     * {@link RepoFile#fullname()}, so that files which have not changed on
+     * disk need not be hashed again.
+     */
+    private final Map<String, IndexedFile> index =
+        new ConcurrentHashMap<String, IndexedFile>();
+
     protected final Logger log = LoggerFactory.getLogger(getClass());
 
     /**
@@ -518,10 +527,19 @@ public class ScriptRepoHelper extends OnContextRefreshedEventListener {
             } else {
                 types.add(mimetype);
             }
+            final Map<String, Object[]> rows = repoRows(session);
             while (it.hasNext()) {
                 f = it.next();
                 file = new RepoFile(dir, f);
-                Long id = findInDb(sqlAction, file, false); // non-scripts count
+                final Object[] row = rows.get(file.fullname());
+                Long id;
+                if (row == null) {
+                    id = null;
+                } else if (row == AMBIGUOUS) {
+                    id = findInDb(sqlAction, file, false); // non-scripts count
+                } else {
+                    id = (Long) row[0];
+                }
                 String hash = null;
                 OriginalFile ofile = null;
                 if (id == null) {
@@ -532,13 +550,17 @@ public class ScriptRepoHelper extends OnContextRefreshedEventListener {
                         ofile = addOrReplace(session, sqlAction, sf, file, null);
                     }
                 } else {
-                    ofile = load(id, session, sqlAction, true); // checks for type & repo
+                    if (row == AMBIGUOUS) {
+                        ofile = load(id, session, sqlAction, true); // checks for type & repo
+                    } else if (mimetypes.contains(row[1])) {
+                        ofile = load(id, session, sqlAction, false); // repo already checked
+                    }
                     if (ofile == null) {
                         continue; // wrong type or similar
                     }
 
                     if (modificationCheck) {
-                        hash = file.hash();
+                        hash = hash(file, f, id);
                         if (!hash.equals(ofile.getHash())) {
                             if (readOnly.isReadOnlyDb()) {
                                 log.info("read-only database so ignoring modification of script ID {}", id);
@@ -559,6 +581,74 @@ public class ScriptRepoHelper extends OnContextRefreshedEventListener {
             removeMissingFilesFromDb(sqlAction, session, list);
             return rv;
         }
+
+        /**
+         * Lists all files of the repository in a single query rather than
+         * one per file on disk. SQL is used so that, as for
+         * {@link #findInDb(SqlAction, RepoFile, boolean)}, the files of all
+         * groups are found.
+         *
+         * @return the id and mimetype of each file keyed by its path and
+         *         name, or {@link #AMBIGUOUS} if there are several.
+         */
+        private Map<String, Object[]> repoRows(Session session) {
+            final List<?> results = session.createSQLQuery(
+                    "select id, path, name, mimetype from originalfile where repo = :repo")
+                    .setParameter("repo", uuid).list();
+            final Map<String, Object[]> rows = new HashMap<String, Object[]>(results.size() * 2);
+            for (Object result : results) {
+                final Object[] columns = (Object[]) result;
+                final String key = columns[1] + "" + columns[2];
+                final Object[] row = new Object[] {
+                        ((Number) columns[0]).longValue(), columns[3] };
+                rows.put(key, rows.containsKey(key) ? AMBIGUOUS : row);
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Marks paths of {@link LoadScripts#repoRows(Session)} which must be
+     * looked up individually.
+     */
+    private static final Object[] AMBIGUOUS = new Object[0];
+
+    /**
+     * A file on disk as last hashed, with the id of its database row.
+     */
+    private static final class IndexedFile {
+
+        final long id;
+
+        final long modified;
+
+        final long length;
+
+        final String hash;
+
+        IndexedFile(long id, long modified, long length, String hash) {
+            this.id = id;
+            this.modified = modified;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Hashes the file unless neither its database row nor its modification
+     * time and size have changed since it was last hashed.
+     */
+    private String hash(RepoFile file, File f, long id) {
+        final long modified = f.lastModified();
+        final long length = f.length();
+        final IndexedFile indexed = index.get(file.fullname());
+        if (indexed != null && indexed.id == id
+                && indexed.modified == modified && indexed.length == length) {
+            return indexed.hash;
+        }
+        final String hash = file.hash();
+        index.put(file.fullname(), new IndexedFile(id, modified, length, hash));
+        return hash;
     }
 
     @SuppressWarnings("unchecked")
@@ -721,13 +811,19 @@ public class ScriptRepoHelper extends OnContextRefreshedEventListener {
         ofile.setPath(repoFile.dirname());
         ofile.setName(fileRepoSecretKey + repoFile.basename());
         ofile.setRepo(uuid);
+        final File f = repoFile.file();
+        final long modified = f.lastModified();
+        final long length = repoFile.length();
+        final String hash = repoFile.hash();
         ofile.setHasher(hasher);
-        ofile.setHash(repoFile.hash());
-        ofile.setSize(repoFile.length());
+        ofile.setHash(hash);
+        ofile.setSize(length);
         ofile.getDetails().setGroup(group);
         setMimetype(ofile);
 
         ofile = sf.getUpdateService().saveAndReturnObject(ofile);
+        index.put(repoFile.fullname(),
+                new IndexedFile(ofile.getId(), modified, length, hash));
         final String name = ofile.getName();
         if (name.startsWith(fileRepoSecretKey)) {
             ofile.setName(name.substring(fileRepoSecretKey.length()));
@@ -746,6 +842,7 @@ public class ScriptRepoHelper extends OnContextRefreshedEventListener {
     }
 
     public RepoFile write(RepoFile repo, String text) throws IOException {
+        index.remove(repo.fullname());
         FileUtils.writeStringToFile(repo.file(), text); // truncates itself. ticket:2337
         return repo;
     }
@@ -786,6 +883,7 @@ public class ScriptRepoHelper extends OnContextRefreshedEventListener {
 
         simpleDelete(null, ex, p, id);
 
+        index.remove(file.getPath() + file.getName());
         FileUtils.deleteQuietly(new File(dir, file.getPath() + file.getName()));
 
         return true;
@@ -411,6 +411,7 @@ public class SessionManagerImpl implements SessionManager, SessionCache.StaleCac
         // handle rolling back this addition ourselves
         String uuid = newctx.getCurrentSessionUuid();
         cache.putSession(uuid, newctx);
+        recordStatsOnRemoval(uuid, newctx.stats());
         try {
             context.publishEvent(new CreateSessionMessage(this, uuid));
         } catch (RuntimeException re) {
@@ -556,12 +557,27 @@ public class SessionManagerImpl implements SessionManager, SessionCache.StaleCac
         session.getDetails().setOwner(exp);
         session.getDetails().setGroup(grp);
 
+        // A replacement keeps counting into the stats of the session
+        final SessionStats stats = previous == null || previous.stats() == null
+                ? factory.createStats() : previous.stats();
         SessionContext sessionContext = new SessionContextImpl(session, adminPrivileges,
-                leaderOfGroupsIds, memberOfGroupsIds, userRoles, factory
-                        .createStats(), roles, previous);
+                leaderOfGroupsIds, memberOfGroupsIds, userRoles, stats, roles,
+                previous);
         return sessionContext;
     }
 
+    /**
+     * Records the stats of a session once it leaves the cache, whether it
+     * was closed, timed out or could not be reloaded.
+     */
+    private void recordStatsOnRemoval(String uuid, final SessionStats stats) {
+        cache.addSessionCallback(uuid, new SessionCallback.SimpleCloseCallback() {
+            public void close() {
+                factory.record(stats);
+            }
+        });
+    }
+
     @Override
     public Session find(String uuid) {
         SessionContext sessionContext = cache.getSessionContext(uuid);
@@ -4,17 +4,34 @@
  */
 package ome.services.sessions.stats;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import ome.system.metrics.Counter;
+import ome.system.metrics.Histogram;
+import ome.system.metrics.Metrics;
+
+import org.springframework.beans.BeansException;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.ApplicationEventPublisherAware;
 
 /**
  * Factory for creating counter objects. Passed to other Spring beans to prevent
- * constant context lookups.
+ * constant context lookups. If {@link #setMetrics(Metrics) metrics} are set,
+ * the counters of all created stats also add up in shared {@link Counter}s and
+ * {@link #record(SessionStats)} reports the totals of single sessions. With
+ * {@link #setRecordMetrics(boolean)} the metrics are taken from the context
+ * if it has them. The counters publish their messages on a thread of this
+ * factory so that the threads of the sessions are not held up.
  * 
  * @author Josh Moore, josh at glencoesoftware.com
  * @since Beta4
  */
-public class CounterFactory implements ApplicationEventPublisherAware {
+public class CounterFactory implements ApplicationEventPublisherAware,
+        ApplicationContextAware {
 
     protected ApplicationEventPublisher publisher;
 
@@ -24,6 +41,22 @@ public class CounterFactory implements ApplicationEventPublisherAware {
 
     protected int methodHardLimit = Integer.MAX_VALUE;
 
+    private Counter objectsRead, objectsWritten, activeMethods;
+
+    private Histogram sessionObjectsRead, sessionObjectsWritten, sessionMethodsPerMinute;
+
+    private boolean recordMetrics = false;
+
+    private final ExecutorService publication = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "counter-publisher");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
     public void setApplicationEventPublisher(
             ApplicationEventPublisher applicationEventPublisher) {
         this.publisher = applicationEventPublisher;
@@ -41,15 +74,70 @@ public class CounterFactory implements ApplicationEventPublisherAware {
         this.methodHardLimit = methodHardLimit;
     }
 
+    /**
+     * Sets if the {@code metrics} bean, where present, is to be used. Only one
+     * factory should do so, else objects are counted once per factory.
+     */
+    public void setRecordMetrics(boolean recordMetrics) {
+        this.recordMetrics = recordMetrics;
+    }
+
+    public void setApplicationContext(ApplicationContext applicationContext)
+            throws BeansException {
+        if (recordMetrics && applicationContext.containsBean("metrics")) {
+            setMetrics(applicationContext.getBean("metrics", Metrics.class));
+        }
+    }
+
+    public void setMetrics(Metrics metrics) {
+        objectsRead = metrics.counter(this, "objectsRead");
+        objectsWritten = metrics.counter(this, "objectsWritten");
+        activeMethods = metrics.counter(this, "activeMethods");
+        sessionObjectsRead = metrics.histogram(this, "session.objectsRead");
+        sessionObjectsWritten = metrics.histogram(this, "session.objectsWritten");
+        sessionMethodsPerMinute = metrics.histogram(this, "session.methodsPerMinute");
+    }
+
     public SessionStats createStats() {
         ObjectsReadCounter read = new ObjectsReadCounter(objectsReadHardLimit);
         read.setApplicationEventPublisher(publisher);
+        read.setMetric(objectsRead);
+        read.setExecutor(publication);
         ObjectsWrittenCounter written = new ObjectsWrittenCounter(
                 objectsWrittenHardLimit);
         written.setApplicationEventPublisher(publisher);
+        written.setMetric(objectsWritten);
+        written.setExecutor(publication);
         MethodCounter methods = new MethodCounter(methodHardLimit);
         methods.setApplicationEventPublisher(publisher);
+        methods.setMetric(activeMethods);
+        methods.setExecutor(publication);
         return new SimpleSessionStats(read, written, methods);
     }
 
+    /**
+     * Reports the totals of a session which was removed, whether closed or
+     * timed out, if metrics are set.
+     *
+     * @param stats stats as returned by {@link #createStats()}.
+     */
+    public void record(SessionStats stats) {
+        if (sessionObjectsRead == null || !(stats instanceof SimpleSessionStats)) {
+            return;
+        }
+        final SimpleSessionStats simple = (SimpleSessionStats) stats;
+        final long minutes = Math.max(1,
+                (System.currentTimeMillis() - simple.created()) / 60000);
+        sessionObjectsRead.update(simple.objectsRead());
+        sessionObjectsWritten.update(simple.objectsWritten());
+        sessionMethodsPerMinute.update(simple.methodCalls() / minutes);
+    }
+
+    /**
+     * Spring destroy-method. Messages not yet published are dropped.
+     */
+    public void destroy() {
+        publication.shutdownNow();
+    }
+
 }
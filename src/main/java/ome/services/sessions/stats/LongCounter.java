@@ -5,17 +5,31 @@
 
 package ome.services.sessions.stats;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.ApplicationEventPublisherAware;
 
+import ome.system.metrics.Counter;
 import ome.util.messages.InternalMessage;
 
 /**
  * Counter object which increments an internal long by some integer value,
  * and according to some strategy publishes an {@link InternalMessage} subclass.
  * 
+ * Increments are striped over a {@link LongAdder} so that the threads of a
+ * session do not contend. Only the thread which moves the count past the
+ * next threshold publishes, and without holding any lock. If an
+ * {@link #setExecutor(Executor) executor} is set then the message is
+ * published on it instead of on the incrementing thread. An interval of
+ * {@link Integer#MAX_VALUE} disables publication, sparing the summing of
+ * the stripes on every increment.
+ * 
  * @author Josh Moore, josh at glencoesoftware.com
  * @since Beta4
  */
@@ -25,13 +39,15 @@ public abstract class LongCounter implements ApplicationEventPublisherAware {
     
     private ApplicationEventPublisher publisher;
     
-    private int interval = 0;
+    private final int interval;
+    
+    private final AtomicLong last = new AtomicLong();
     
-    private long last = 0;
+    private final LongAdder count = new LongAdder();
     
-    private final Object mutex = new Object();
+    private Counter metric;
     
-    protected long count = 0;
+    private Executor executor;
     
     public LongCounter(int interval) {
         this.interval = interval;
@@ -42,21 +58,67 @@ public abstract class LongCounter implements ApplicationEventPublisherAware {
         this.publisher = applicationEventPublisher;
     }
 
+    /**
+     * Sets a {@link Counter} which is incremented along with this counter,
+     * typically shared by the counters of all sessions.
+     */
+    public void setMetric(Counter metric) {
+        this.metric = metric;
+    }
+
+    /**
+     * Sets where messages are published, otherwise by the thread which
+     * crosses the threshold.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
     public void increment(int incr) {
-        synchronized (mutex) {
-            count = count + incr;
-            if (count >= (last+interval)) {
-                last = count;
-                InternalMessage message = message();
+        count.add(incr);
+        if (metric != null) {
+            metric.inc(incr);
+        }
+        if (interval == Integer.MAX_VALUE) {
+            return;
+        }
+        final long previous = last.get();
+        final long current = count.sum();
+        if (current >= previous + interval
+                && last.compareAndSet(previous, current)) {
+            final InternalMessage message = message();
+            if (executor == null) {
+                publish(message);
+            } else {
                 try {
-                    log.info("Publishing "+ message);
-                    publisher.publishEvent(message);
-                } catch (Throwable t) {
-                    log.error(message + " produced an error: "+t);
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            publish(message);
+                        }
+                    });
+                } catch (RejectedExecutionException ree) {
+                    publish(message);
                 }
             }
         }
     }
+
+    private void publish(InternalMessage message) {
+        try {
+            log.info("Publishing "+ message);
+            publisher.publishEvent(message);
+        } catch (Throwable t) {
+            log.error(message + " produced an error: "+t);
+        }
+    }
+
+    /**
+     * @return the current total of all increments.
+     */
+    public long count() {
+        return count.sum();
+    }
  
     /**
      * 
@@ -23,7 +23,7 @@ public class ObjectsWrittenCounter extends LongCounter {
     }
 
     protected InternalMessage message() {
-        return new ObjectsWrittenStatsMessage(this, count);
+        return new ObjectsWrittenStatsMessage(this, count());
     }
 
 
@@ -4,8 +4,12 @@
  */
 package ome.services.sessions.stats;
 
+import java.util.concurrent.atomic.LongAdder;
+
 /**
- * 
+ * {@link SessionStats} backed by {@link LongCounter}s. Besides the counts
+ * used for throttling, the total number of method calls is kept so that
+ * {@link CounterFactory#record(SessionStats)} can report per-session rates.
  * 
  * @author Josh Moore, josh at glencoesoftware.com
  * @since Beta4
@@ -15,6 +19,8 @@ public class SimpleSessionStats implements SessionStats {
     private final ObjectsReadCounter read;
     private final ObjectsWrittenCounter written;
     private final MethodCounter methods;
+    private final LongAdder calls = new LongAdder();
+    private final long created = System.currentTimeMillis();
     
     public SimpleSessionStats(ObjectsReadCounter read, ObjectsWrittenCounter written, MethodCounter methods) {
         this.read = read;
@@ -23,11 +29,40 @@ public class SimpleSessionStats implements SessionStats {
     }
 
     public void methodIn() {
+        this.calls.increment();
         this.methods.increment(1);
     }
 
     public long methodCount() {
-        return this.methods.count;
+        return this.methods.count();
+    }
+
+    /**
+     * @return the number of objects loaded so far.
+     */
+    public long objectsRead() {
+        return this.read == null ? 0 : this.read.count();
+    }
+
+    /**
+     * @return the number of objects updated so far.
+     */
+    public long objectsWritten() {
+        return this.written == null ? 0 : this.written.count();
+    }
+
+    /**
+     * @return the number of methods entered so far.
+     */
+    public long methodCalls() {
+        return this.calls.sum();
+    }
+
+    /**
+     * @return when these stats were created, for {@link System#currentTimeMillis()}.
+     */
+    public long created() {
+        return this.created;
     }
 
     public void methodOut() {
@@ -0,0 +1,149 @@
+/*
+ *   Copyright 2026 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.tools;
+
+import java.util.Arrays;
+
+/**
+ * Numbers distinct {@code long} keys with consecutive rows from {@code 0} in the order of their addition.
+ * Serves as a set of {@code long} values or, with arrays indexed by row, as a map from {@code long} keys,
+ * without boxing. The keys are held in an open addressing hash table with linear probing.
+ * Not thread-safe, though instances that are no longer modified may be read concurrently once safely published.
+ * @since 5.7.3
+ */
+public class LongIndex {
+
+    /* 2<sup>64</sup> divided by the golden ratio, for Fibonacci hashing */
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    private long[] keys;
+    /* the row of the key in each slot plus one, 0 for an empty slot */
+    private int[] slots;
+    private int shift;
+    private int size = 0;
+
+    public LongIndex() {
+        this(8);
+    }
+
+    /**
+     * @param expected how many keys are expected to be added
+     */
+    public LongIndex(int expected) {
+        int capacity = 16;
+        while (capacity < 2L * expected) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity >> 1];
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        slots = new int[capacity];
+        shift = Long.numberOfLeadingZeros(capacity - 1);
+    }
+
+    /**
+     * Takes the high bits of the product so that every bit of the key affects the slot.
+     * @param key a key
+     * @return the first slot to probe for the key
+     */
+    private int slot(long key) {
+        return (int) (key * GOLDEN >>> shift);
+    }
+
+    /**
+     * @param key a key
+     * @return the row of the key, or {@code -1} if it was not added
+     */
+    public int find(long key) {
+        final int mask = slots.length - 1;
+        for (int slot = slot(key); slots[slot] != 0; slot = slot + 1 & mask) {
+            final int row = slots[slot] - 1;
+            if (keys[row] == key) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param key a key
+     * @return if the key was added
+     */
+    public boolean contains(long key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Add a key if it was not already added.
+     * @param key a key
+     * @return the row of the key, equal to the previous {@link #size()} if the key is new
+     */
+    public int add(long key) {
+        final int existing = find(key);
+        if (existing >= 0) {
+            return existing;
+        }
+        if (2 * (size + 1) > slots.length) {
+            allocate(slots.length * 2);
+            for (int row = 0; row < size; row++) {
+                insert(keys[row], row);
+            }
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, slots.length >> 1);
+        }
+        final int row = size++;
+        keys[row] = key;
+        insert(key, row);
+        return row;
+    }
+
+    private void insert(long key, int row) {
+        final int mask = slots.length - 1;
+        int slot = slot(key);
+        while (slots[slot] != 0) {
+            slot = slot + 1 & mask;
+        }
+        slots[slot] = row + 1;
+    }
+
+    /**
+     * @param row a row
+     * @return the key of the row
+     */
+    public long key(int row) {
+        if (row >= size) {
+            throw new IndexOutOfBoundsException(Integer.toString(row));
+        }
+        return keys[row];
+    }
+
+    /**
+     * @return how many keys were added, one more than the last row
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return if no keys were added
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return an estimate of the heap memory used by this index, in bytes
+     */
+    public long estimateBytes() {
+        /* the keys in order of row and the hash table of rows */
+        return 2 * 16 + keys.length * 8L + slots.length * 4L;
+    }
+}
@@ -5,6 +5,7 @@
 package ome.tools.hibernate;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -29,6 +30,7 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.event.ContextRefreshedEvent;
 
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.SetMultimap;
 
 import ome.conditions.ApiUsageException;
@@ -147,6 +149,29 @@ public interface ExtendedMetadata {
      */
     Map<String, Long> countLocks(Session session, Long id, String[][] lockChecks, String clause);
 
+    /**
+     * Like {@link #countLocks(Session, Long, String[][], String)} but only
+     * finds the first lock check with a locking row. Each check stops at the
+     * first locking row that it finds and no further checks are run once
+     * one has found a lock. The counts of the remaining checks, from the
+     * returned index, are then the same as those of all the checks.
+     *
+     * @return the index of the first lock check which found a locking row,
+     *         or {@code -1} if none did
+     */
+    int findLock(Session session, Long id, String[][] lockChecks, String clause);
+
+    /**
+     * Like {@link #countLocks(Session, Long, String[][], String)} for many
+     * objects at once, running one grouped query per lock check rather than
+     * one query per lock check per object.
+     *
+     * @return the counts for each of the given IDs, each with the total
+     *         under the key "*"
+     */
+    Map<Long, Map<String, Long>> countLocksByIds(Session session, Collection<Long> ids,
+            String[][] lockChecks, String clause);
+
     /**
      * Walks the data on what locks what
      * for "from" argument to see if there is any direct relationship to the
@@ -192,6 +217,9 @@ public static class Impl extends OnContextRefreshedEventListener implements Exte
 
     private final static Logger log = LoggerFactory.getLogger(ExtendedMetadata.class);
 
+    /** How many IDs {@link #countLocksByIds(Session, Collection, String[][], String)} queries at once. */
+    private final static int LOCK_CHECK_BATCH_SIZE = 1000;
+
     private final Map<String, Locks> locksHolder = new HashMap<String, Locks>();
 
     private final Map<String, String[][]> lockedByHolder = new HashMap<String, String[][]>();
@@ -470,23 +498,25 @@ public static class Impl extends OnContextRefreshedEventListener implements Exte
         return checks;
     }
 
-    public Map<String, Long> countLocks(final Session session, final Long id,
-            String[][] checks, String clause) {
-
+    /**
+     * Builds the query for lock checks which is then formatted with the
+     * linking class and field of each check.
+     *
+     * @param select what to select from the linking object "x"
+     * @param idRestriction restricts the linked object, or null to join
+     *            it as "y"
+     * @param clause any further restriction, may be null or empty
+     */
+    private static QueryBuilder lockQuery(String select, String idRestriction, String clause) {
         final QueryBuilder qb = new QueryBuilder();
-        qb.select("count(x.id)");
-        qb.from("%s", "x");
-
-        // Only one of the these two will happen, so the second replacement
-        // argument to String.format will have to be check[1].
-        if (id == null) {
-            qb.join("x.%s", "y", false, false);
-        }
+        qb.select(select);
+        qb.from("%1$s", "x");
 
-
-        if (id != null) {
+        if (idRestriction == null) {
+            qb.join("x.%2$s", "y", false, false);
+        } else {
             qb.where();
-            qb.and("%s.id = :id");
+            qb.and(idRestriction);
         }
 
         if (clause != null && clause.length() > 0) {
@@ -494,9 +524,14 @@ public static class Impl extends OnContextRefreshedEventListener implements Exte
             qb.and(clause);
             qb.appendSpace();
         }
+        return qb;
+    }
 
+    public Map<String, Long> countLocks(final Session session, final Long id,
+            String[][] checks, String clause) {
 
-        final String queryString = qb.queryString();
+        final String queryString = lockQuery("count(x.id)",
+                id == null ? null : "%2$s.id = :id", clause).queryString();
         final Map<String, Long> counts = new HashMap<String, Long>();
         long total = 0L;
 
@@ -522,6 +557,67 @@ public static class Impl extends OnContextRefreshedEventListener implements Exte
 
     }
 
+    public Map<Long, Map<String, Long>> countLocksByIds(final Session session,
+            final Collection<Long> ids, String[][] checks, String clause) {
+
+        final QueryBuilder qb = lockQuery("x.%2$s.id, count(x.id)",
+                "x.%2$s.id in (:ids)", clause);
+        qb.append("group by x.%2$s.id");
+        final String queryString = qb.queryString();
+
+        final Map<Long, Map<String, Long>> countsById = new HashMap<Long, Map<String, Long>>();
+        for (final Long id : ids) {
+            final Map<String, Long> counts = new HashMap<String, Long>();
+            counts.put("*", 0L);
+            countsById.put(id, counts);
+        }
+
+        // run one query per check for each batch of IDs
+        final List<Long> idList = new ArrayList<Long>(countsById.keySet());
+        for (final String[] check : checks) {
+
+            final String hql = String.format(queryString, check[0], check[1]);
+
+            for (final List<Long> batch : Lists.partition(idList, LOCK_CHECK_BATCH_SIZE)) {
+                org.hibernate.Query q = session.createQuery(hql);
+                q.setParameterList("ids", batch);
+                for (final Object result : q.list()) {
+                    final Object[] row = (Object[]) result;
+                    final Long count = (Long) row[1];
+                    if (count != null && count.longValue() > 0) {
+                        final Map<String, Long> counts = countsById.get(row[0]);
+                        counts.put(check[0], count);
+                        counts.put("*", counts.get("*") + count);
+                    }
+                }
+            }
+        }
+        return countsById;
+    }
+
+    public int findLock(final Session session, final Long id,
+            String[][] checks, String clause) {
+
+        final String queryString = lockQuery("x.id",
+                id == null ? null : "%2$s.id = :id", clause).queryString();
+
+        for (int index = 0; index < checks.length; index++) {
+
+            final String hql = String.format(queryString, checks[index][0], checks[index][1]);
+
+            org.hibernate.Query q = session.createQuery(hql);
+            if (id != null) {
+                q.setLong("id", id);
+            }
+            q.setMaxResults(1);
+
+            if (!q.list().isEmpty()) {
+                return index; // EARLY EXIT
+            }
+        }
+        return -1;
+    }
+
     public String[] getImmutableFields(Class<? extends IObject> klass) {
         if (klass == null) {
             throw new ApiUsageException("Cannot proceed with null klass.");
@@ -19,12 +19,22 @@
 
 package ome.tools.hibernate;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.sql.DatabaseMetaData;
 import java.util.List;
 import java.util.regex.Pattern;
 
 import javax.sql.DataSource;
 
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+import ome.system.metrics.Timer;
+import ome.tools.spring.OnContextRefreshedEventListener;
+
 import org.apache.calcite.sql.SqlBasicCall;
 import org.apache.calcite.sql.SqlCall;
 import org.apache.calcite.sql.SqlDialect;
@@ -41,16 +51,21 @@ import org.apache.calcite.sql.util.SqlBasicVisitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.jdbc.support.DatabaseMetaDataCallback;
 import org.springframework.jdbc.support.JdbcUtils;
 import org.springframework.jdbc.support.MetaDataAccessException;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /**
  * Rewrite SQL queries to reverse the effects of {@code @ColumnTransformer} annotations in {@code WHERE} clauses.
+ * Transformed queries are cached across threads so that each distinct query is typically parsed only once.
  * @author m.t.b.carroll@dundee.ac.uk
  * @since 5.5.6
  */
-public class SqlQueryTransformer {
+public class SqlQueryTransformer extends OnContextRefreshedEventListener {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SqlQueryTransformer.class);
 
@@ -63,9 +78,17 @@ public class SqlQueryTransformer {
     /* Parser configuration corresponding to the SQL dialect of the database. */
     private final SqlParser.Config parserConfiguration;
 
-    /* Cache for consecutive repeats of the same query. */
-    private final ThreadLocal<String> transformFrom = new ThreadLocal<>();
-    private final ThreadLocal<String> transformTo = new ThreadLocal<>();
+    /* Default number of transformed queries to remember. */
+    private static final int DEFAULT_CACHE_SIZE = 1000;
+
+    /* Cache from original to transformed SQL, shared by all threads. */
+    private Cache<String, String> cache = newCache(DEFAULT_CACHE_SIZE);
+
+    private Counter hits, misses;
+    private Timer parseTimer;
+
+    /* Queries to transform once the application context is refreshed. */
+    private File prewarmFile;
 
     /**
      * Rewrite transformed values away from {@code WHERE} clauses.
@@ -159,6 +182,82 @@ public class SqlQueryTransformer {
      */
     private SqlQueryTransformer(SqlDialect dialect) {
         parserConfiguration = dialect.configureParser(SqlParser.configBuilder()).build();
+        setMetrics(new NullMetrics());
+    }
+
+    private static Cache<String, String> newCache(int size) {
+        return CacheBuilder.newBuilder().maximumSize(Math.max(0, size)).build();
+    }
+
+    /**
+     * Set how many transformed queries are remembered, least recently used first to be forgotten.
+     * Clears the cache so is intended to be called only at startup.
+     * @param size the maximum number of cached queries, {@code 0} to disable caching
+     * @since 5.7.3
+     */
+    public void setCacheSize(int size) {
+        cache = newCache(size);
+    }
+
+    /**
+     * Set the metrics used to count cache hits and misses and to time parsing.
+     * @param metrics the metrics
+     * @since 5.7.3
+     */
+    public void setMetrics(Metrics metrics) {
+        hits = metrics.counter(this, "cacheHits");
+        misses = metrics.counter(this, "cacheMisses");
+        parseTimer = metrics.timer(this, "parse");
+    }
+
+    /**
+     * Set a file listing queries, one per line, to transform so that they are already cached when first used.
+     * Blank lines and lines starting with {@code #} are ignored, as is an empty or missing file name.
+     * The queries are transformed once the application context is refreshed so that the metrics are set by then.
+     * @param fileName the name of the file listing the queries
+     * @since 5.7.3
+     */
+    public void setPrewarmFile(String fileName) {
+        prewarmFile = fileName == null || fileName.trim().isEmpty() ? null : new File(fileName.trim());
+    }
+
+    /**
+     * Pre-warm the cache once all the beans of the application context are set up.
+     * @param event the context refreshed event
+     */
+    @Override
+    public void handleContextRefreshedEvent(ContextRefreshedEvent event) {
+        prewarm();
+    }
+
+    /**
+     * Transform the queries listed in the {@link #setPrewarmFile(String) pre-warm file}, if any.
+     * @since 5.7.3
+     */
+    public void prewarm() {
+        final File file = prewarmFile;
+        if (file == null) {
+            return;
+        }
+        if (!file.isFile()) {
+            LOGGER.warn("cannot find SQL queries to pre-warm cache: {}", file);
+            return;
+        }
+        final List<String> lines;
+        try {
+            lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException ioe) {
+            LOGGER.warn("failed to read SQL queries to pre-warm cache: {}", file, ioe);
+            return;
+        }
+        int count = 0;
+        for (final String line : lines) {
+            if (!(line.trim().isEmpty() || line.startsWith("#"))) {
+                transformQuery(line);
+                count++;
+            }
+        }
+        LOGGER.info("pre-warmed SQL cache with {} queries from {}", count, file);
     }
 
     /**
@@ -172,14 +271,16 @@ public class SqlQueryTransformer {
             /* There is nothing to transform. */
             return sql;
         }
-        /* Check if this query is the one we previously transformed. */
-        if (sql.equals(transformFrom.get())) {
-            LOGGER.debug("SQL cache hit");
-            return transformTo.get();
-        } else {
-            transformFrom.set(sql);
+        /* Check if this query was previously transformed. */
+        final String cached = cache.getIfPresent(sql);
+        if (cached != null) {
+            hits.inc();
+            return cached;
         }
+        misses.inc();
+        final String original = sql;
         LOGGER.debug("SQL to parse: {}", sql);
+        final Timer.Context timer = parseTimer.time();
         /* Quoting "value", etc. works around CALCITE-1785 but may not be robust against plausible SQL queries.
          * TODO: From Hibernate 5 we should try hibernate.auto_quote_keyword if we watch out for HHH-7890. */
         sql = sql.replaceAll("_\\.([a-z]+) as\\b", "_.\"$1\" as");
@@ -192,8 +293,10 @@ public class SqlQueryTransformer {
             LOGGER.debug("SQL transformed: {}", sql);
         } catch (SqlParseException spe) {
             LOGGER.warn("failed to parse SQL", spe);
+        } finally {
+            timer.stop();
         }
-        transformTo.set(sql);
+        cache.put(original, sql);
         return sql;
     }
 }
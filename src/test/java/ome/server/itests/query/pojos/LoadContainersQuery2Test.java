@@ -4,8 +4,13 @@
  */
 package ome.server.itests.query.pojos;
 
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import ome.model.IObject;
@@ -14,6 +19,9 @@ import ome.model.annotations.CommentAnnotation;
 import ome.model.containers.Dataset;
 import ome.model.containers.Project;
 import ome.model.core.Image;
+import ome.model.screen.Plate;
+import ome.model.screen.PlateAcquisition;
+import ome.model.screen.Screen;
 import ome.parameters.Parameters;
 import ome.server.itests.AbstractManagedContextTest;
 import ome.services.query.PojosLoadHierarchyQueryDefinition;
@@ -156,9 +164,140 @@ public class LoadContainersQuery2Test extends AbstractManagedContextTest {
         Assert.assertEquals(10, res.size());
     }
 
+    /**
+     * Loading a project's datasets and their images level by level gives the
+     * same hierarchy as the single query which fetched them all.
+     */
+    public void testProjectLevelsMatchFetchJoin() throws Exception {
+        Project p = new Project("name");
+        for (int j = 0; j < 3; j++) {
+            Dataset d = new Dataset("name");
+            for (int k = 0; k < j; k++) {
+                d.linkImage(new Image("name"));
+            }
+            p.linkDataset(d);
+        }
+        p = iUpdate.saveAndReturnObject(p);
+
+        Set<IObject> levels = iContainer.loadContainerHierarchy(Project.class,
+                Collections.singleton(p.getId()), new Parameters().leaves());
+        List<IObject> joined = iQuery.findAllByQuery(
+                "select this from Project this "
+                + "left outer join fetch this.details.creationEvent "
+                + "left outer join fetch this.datasetLinks pdl "
+                + "left outer join fetch pdl.child ds "
+                + "left outer join fetch ds.imageLinks dil "
+                + "left outer join fetch dil.child img "
+                + "left outer join fetch this.annotationLinksCountPerOwner this_a_c "
+                + "left outer join fetch img.details.creationEvent as cre "
+                + "left outer join fetch img.details.updateEvent as evt "
+                + "left outer join fetch img.pixels as pix "
+                + "left outer join fetch img.format as format "
+                + "left outer join fetch pix.pixelsType as pt "
+                + "where this.id in (:ids)",
+                new Parameters().addIds(Collections.singleton(p.getId())));
+        Map<String, Object> expected = describe(joined);
+        Assert.assertEquals(((Set<?>) expected.get("Project:" + p.getId())).size(), 3);
+        Assert.assertEquals(describe(levels), expected);
+    }
+
+    /**
+     * Loading a screen's plates and their acquisitions level by level gives
+     * the same hierarchy, with the same annotation counts, as the single
+     * query which fetched them all.
+     */
+    public void testScreenLevelsMatchFetchJoin() throws Exception {
+        Screen s = new Screen("s");
+        for (int j = 0; j < 3; j++) {
+            Plate plate = new Plate("p");
+            for (int k = 0; k < j; k++) {
+                PlateAcquisition pa = new PlateAcquisition();
+                CommentAnnotation t = new CommentAnnotation();
+                t.setNs("");
+                t.setTextValue("t");
+                pa.linkAnnotation(t);
+                plate.addPlateAcquisition(pa);
+            }
+            s.linkPlate(plate);
+        }
+        s = iUpdate.saveAndReturnObject(s);
+
+        Set<IObject> levels = iContainer.loadContainerHierarchy(Screen.class,
+                Collections.singleton(s.getId()), null);
+        List<IObject> joined = iQuery.findAllByQuery(
+                "select this from Screen this "
+                + "left outer join fetch this.details.creationEvent "
+                + "left outer join fetch this.plateLinks pdl "
+                + "left outer join fetch pdl.child ds "
+                + "left outer join fetch ds.details.creationEvent "
+                + "left outer join fetch ds.details.updateEvent "
+                + "left outer join fetch ds.plateAcquisitions sa "
+                + "left outer join fetch this.annotationLinksCountPerOwner this_a_c "
+                + "left outer join fetch sa.annotationLinksCountPerOwner sa_a_c "
+                + "where this.id in (:ids)",
+                new Parameters().addIds(Collections.singleton(s.getId())));
+        Map<String, Object> expected = describe(joined);
+        Assert.assertEquals(((Set<?>) expected.get("Screen:" + s.getId())).size(), 3);
+        Assert.assertEquals(describe(levels), expected);
+    }
+
     // Helpers
     // =======================================
 
+    /**
+     * Describes a loaded hierarchy by the IDs of each container's loaded
+     * children and the annotation counts of each container, so that the
+     * results of different queries may be compared.
+     */
+    private Map<String, Object> describe(Collection<IObject> roots) {
+        Map<String, Object> description = new HashMap<String, Object>();
+        for (IObject root : roots) {
+            if (root instanceof Project) {
+                Project p = (Project) root;
+                Set<Long> children = children(description, "Project:" + p.getId());
+                for (Dataset d : p.linkedDatasetList()) {
+                    children.add(d.getId());
+                    if (d.sizeOfImageLinks() >= 0) {
+                        Set<Long> images = children(description, "Dataset:" + d.getId());
+                        for (Image i : d.linkedImageList()) {
+                            images.add(i.getId());
+                        }
+                    }
+                }
+                description.put("Project:" + p.getId() + ":annotations",
+                        p.getAnnotationLinksCountPerOwner());
+            } else if (root instanceof Screen) {
+                Screen s = (Screen) root;
+                Set<Long> children = children(description, "Screen:" + s.getId());
+                for (Plate plate : s.linkedPlateList()) {
+                    children.add(plate.getId());
+                    Set<Long> acquisitions = children(description, "Plate:" + plate.getId());
+                    Iterator<PlateAcquisition> it = plate.iteratePlateAcquisitions();
+                    while (it.hasNext()) {
+                        PlateAcquisition pa = it.next();
+                        acquisitions.add(pa.getId());
+                        description.put("PlateAcquisition:" + pa.getId()
+                                + ":annotations",
+                                pa.getAnnotationLinksCountPerOwner());
+                    }
+                }
+                description.put("Screen:" + s.getId() + ":annotations",
+                        s.getAnnotationLinksCountPerOwner());
+            }
+        }
+        return description;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<Long> children(Map<String, Object> description, String key) {
+        Set<Long> children = (Set<Long>) description.get(key);
+        if (children == null) {
+            children = new HashSet<Long>();
+            description.put(key, children);
+        }
+        return children;
+    }
+
     private Dataset createDataset() {
         Dataset d = new Dataset("name");
         Image i = new Image("name");
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2026 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package ome.server.utests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import ome.model.containers.Dataset;
+import ome.model.containers.Project;
+import ome.model.meta.EventLog;
+import ome.services.eventlogs.DurableEventLogQueue;
+import ome.services.eventlogs.DurableWorkQueue;
+import ome.services.eventlogs.DurableWorkQueue.Batch;
+import ome.services.eventlogs.DurableWorkQueue.Item;
+import ome.services.eventlogs.DurableWorkQueue.Lane;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = { "unit", "fulltext" })
+public class DurableWorkQueueTest {
+
+    static final String[] TYPES = { Project.class.getName(), Dataset.class.getName() };
+
+    static final String[] ACTIONS = { "INSERT", "UPDATE", "REINDEX", "DELETE" };
+
+    File dir;
+
+    DurableWorkQueue q;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("work-queue").toFile();
+        q = new DurableWorkQueue(dir.getAbsolutePath(), TYPES, ACTIONS);
+    }
+
+    @AfterMethod
+    public void teardown() throws IOException {
+        q.destroy();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    Item project(long eventLog, long id, String action) {
+        return new Item(eventLog, Project.class.getName(), id, action, 0);
+    }
+
+    Item dataset(long eventLog, long id, String action) {
+        return new Item(eventLog, Dataset.class.getName(), id, action, 0);
+    }
+
+    void assertItems(Batch batch, String... expected) {
+        final List<Item> items = batch.getItems();
+        Assert.assertEquals(items.size(), expected.length, items.toString());
+        for (int i = 0; i < expected.length; i++) {
+            final Item item = items.get(i);
+            Assert.assertEquals(item.type.substring(item.type.lastIndexOf('.') + 1)
+                    + ":" + item.id + "=" + item.action, expected[i]);
+        }
+    }
+
+    public void testClaimAndAck() {
+        q.publish(Lane.REGULAR, Arrays.asList(project(1, 1, "INSERT"),
+                dataset(2, 1, "INSERT")));
+        Batch batch = q.claim("a", 10, null);
+        assertItems(batch, "Project:1=INSERT", "Dataset:1=INSERT");
+        q.ack(batch);
+        Assert.assertTrue(q.claim("a", 10, null).isEmpty());
+    }
+
+    public void testDuplicatesMergeToLatestAction() {
+        q.publish(Lane.REGULAR, Arrays.asList(project(1, 1, "INSERT")));
+        q.publish(Lane.REGULAR, Arrays.asList(project(2, 2, "INSERT")));
+        q.publish(Lane.REGULAR, Arrays.asList(project(3, 1, "DELETE")));
+        assertItems(q.claim("a", 10, null), "Project:1=DELETE", "Project:2=INSERT");
+    }
+
+    public void testConsumersHaveTheirOwnOffsets() {
+        q.publish(Lane.REGULAR, Arrays.asList(project(1, 1, "INSERT")));
+        q.ack(q.claim("a", 10, null));
+        assertItems(q.claim("b", 10, null), "Project:1=INSERT");
+    }
+
+    public void testPriorityLaneFirst() {
+        q.publish(Lane.REGULAR, Arrays.asList(project(1, 1, "INSERT")));
+        q.publish(Lane.PRIORITY, Arrays.asList(dataset(-1, 5, "REINDEX")));
+        Batch batch = q.claim("a", 1, null);
+        assertItems(batch, "Dataset:5=REINDEX");
+        q.ack(batch);
+        assertItems(q.claim("a", 1, null), "Project:1=INSERT");
+    }
+
+    public void testFailureLaneOnlyWhenIdle() {
+        q.publish(Lane.FAILURE, Arrays.asList(dataset(1, 5, "INSERT")));
+        q.publish(Lane.REGULAR, Arrays.asList(project(2, 1, "INSERT")));
+        Batch batch = q.claim("a", 10, null);
+        assertItems(batch, "Project:1=INSERT");
+        q.ack(batch);
+        assertItems(q.claim("a", 10, null), "Dataset:5=INSERT");
+    }
+
+    public void testFilteredItemsArePassedOver() {
+        q.publish(Lane.REGULAR, Arrays.asList(project(1, 1, "INSERT"),
+                dataset(2, 1, "INSERT")));
+        Batch batch = q.claim("a", 10, new DurableWorkQueue.Filter() {
+            @Override
+            public boolean accept(Lane lane, Item item) {
+                return item.type.equals(Dataset.class.getName());
+            }
+        });
+        assertItems(batch, "Dataset:1=INSERT");
+        q.ack(batch);
+        Assert.assertTrue(q.claim("a", 10, null).isEmpty());
+    }
+
+    public void testUnacknowledgedWorkSurvivesRestart() {
+        q.publish(Lane.REGULAR, Arrays.asList(project(1, 1, "INSERT"),
+                project(2, 2, "INSERT")));
+        q.ack(q.claim("a", 1, null));
+        q.claim("a", 1, null);
+        q.destroy();
+        q = new DurableWorkQueue(dir.getAbsolutePath(), TYPES, ACTIONS);
+        assertItems(q.claim("a", 10, null), "Project:2=INSERT");
+    }
+
+    public void testClaimAfterUnacknowledgedBatch() {
+        q.publish(Lane.REGULAR, Arrays.asList(project(1, 1, "INSERT"),
+                project(2, 2, "INSERT"), project(3, 3, "INSERT")));
+        Batch first = q.claim("a", 1, null);
+        Batch second = q.claim("a", 1, null, first);
+        assertItems(first, "Project:1=INSERT");
+        assertItems(second, "Project:2=INSERT");
+        q.ack(first);
+        assertItems(q.claim("a", 1, null), "Project:2=INSERT");
+        q.ack(second);
+        assertItems(q.claim("a", 10, null), "Project:3=INSERT");
+    }
+
+    /**
+     * @return a loader whose event logs are completed by the test
+     */
+    DurableEventLogQueue loader() {
+        final DurableWorkQueue unfilled = new DurableWorkQueue(
+                dir.getAbsolutePath(), TYPES, ACTIONS) {
+            @Override
+            public int fill(long initialEventLogId, int max) {
+                return 0;
+            }
+        };
+        final DurableEventLogQueue loader = new DurableEventLogQueue(
+                unfilled, "a", 10, TYPES, ACTIONS);
+        loader.setBatchSize(10);
+        loader.setCompleteOnCommit(false);
+        return loader;
+    }
+
+    public void testLoaderAcknowledgesOnlyCompletedWork() {
+        q.publish(Lane.PRIORITY, Arrays.asList(project(-1, 1, "REINDEX"),
+                project(-1, 2, "REINDEX")));
+        DurableEventLogQueue loader = loader();
+        Assert.assertTrue(loader.hasNext());
+        final EventLog first = loader.next();
+        Assert.assertTrue(loader.hasNext());
+        final EventLog second = loader.next();
+        Assert.assertFalse(loader.hasNext());
+
+        loader.completed(first);
+        DurableEventLogQueue restarted = loader();
+        Assert.assertTrue(restarted.hasNext());
+        Assert.assertEquals(restarted.next().getEntityId(), first.getEntityId());
+
+        loader.completed(second);
+        restarted = loader();
+        Assert.assertFalse(restarted.hasNext());
+    }
+
+}
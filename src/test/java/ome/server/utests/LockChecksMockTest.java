@@ -0,0 +1,166 @@
+/*
+ *   Copyright 2026 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.server.utests;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import ome.tools.hibernate.ExtendedMetadata;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks which lock queries {@link ExtendedMetadata.Impl} runs to find and to
+ * count the locks on an object.
+ */
+@Test(groups = "unit")
+public class LockChecksMockTest extends MockObjectTestCase {
+
+    private static final String[][] CHECKS = {
+        { "A", "a" }, { "B", "b" }, { "C", "c" } };
+
+    private static final long ID = 5L;
+
+    private final ExtendedMetadata em = new ExtendedMetadata.Impl();
+
+    private Mock mockSession;
+
+    @Override
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+        mockSession = mock(Session.class);
+    }
+
+    @Override
+    @AfterMethod
+    protected void tearDown() throws Exception {
+        super.verify();
+        super.tearDown();
+    }
+
+    private Session session() {
+        return (Session) mockSession.proxy();
+    }
+
+    private Mock query(String purpose, String type) {
+        final Mock mockQuery = mock(Query.class, purpose + type);
+        mockSession.expects(once()).method("createQuery")
+                .with(stringContains("from " + type + " as x"))
+                .will(returnValue(mockQuery.proxy()));
+        mockQuery.expects(once()).method("setLong").with(eq("id"), eq(ID))
+                .will(returnValue(mockQuery.proxy()));
+        return mockQuery;
+    }
+
+    /**
+     * Expect a query for any locking row of the given type.
+     */
+    private void expectFind(String type, boolean isLocked) {
+        final Mock mockQuery = query("find", type);
+        mockQuery.expects(once()).method("setMaxResults").with(eq(1))
+                .will(returnValue(mockQuery.proxy()));
+        mockQuery.expects(once()).method("list").will(returnValue(isLocked ?
+                Collections.singletonList(1L) : Collections.emptyList()));
+    }
+
+    /**
+     * Expect a query counting the locking rows of the given type.
+     */
+    private void expectCount(String type, long count) {
+        query("count", type).expects(once()).method("uniqueResult")
+                .will(returnValue(count));
+    }
+
+    /**
+     * The checks after the first which finds a lock are not run.
+     */
+    public void testFindLockStopsAtFirstLock() {
+        expectFind("A", false);
+        expectFind("B", true);
+        assertEquals(1, em.findLock(session(), ID, CHECKS, null));
+    }
+
+    /**
+     * Every check is run if none finds a lock.
+     */
+    public void testFindLockWithoutLocks() {
+        expectFind("A", false);
+        expectFind("B", false);
+        expectFind("C", false);
+        assertEquals(-1, em.findLock(session(), ID, CHECKS, null));
+    }
+
+    /**
+     * Counting from the first lock found gives the counts of all the checks
+     * without counting again those which found no lock.
+     */
+    public void testCountFromFirstLock() {
+        expectFind("A", false);
+        expectFind("B", true);
+        final int firstLock = em.findLock(session(), ID, CHECKS, null);
+
+        expectCount("B", 2);
+        expectCount("C", 3);
+        final Map<String, Long> expected = new HashMap<String, Long>();
+        expected.put("B", 2L);
+        expected.put("C", 3L);
+        expected.put("*", 5L);
+        assertEquals(expected, em.countLocks(session(), ID,
+                Arrays.copyOfRange(CHECKS, firstLock, CHECKS.length), null));
+    }
+
+    /**
+     * Expect a query counting the locking rows of the given type grouped by
+     * the IDs of the locked objects.
+     */
+    private void expectCountByIds(String type, Object[]... rows) {
+        final Mock mockQuery = mock(Query.class, "countByIds" + type);
+        mockSession.expects(once()).method("createQuery")
+                .with(and(stringContains("from " + type + " as x"),
+                        stringContains("group by")))
+                .will(returnValue(mockQuery.proxy()));
+        mockQuery.expects(once()).method("setParameterList")
+                .with(eq("ids"), eq(Arrays.asList(ID, ID + 1)))
+                .will(returnValue(mockQuery.proxy()));
+        mockQuery.expects(once()).method("list")
+                .will(returnValue(Arrays.asList(rows)));
+    }
+
+    /**
+     * Counting many objects at once runs one query per check and gives each
+     * object the counts that counting it alone would.
+     */
+    public void testCountLocksByIds() {
+        expectCountByIds("A", new Object[] { ID, 2L });
+        expectCountByIds("B");
+        expectCountByIds("C", new Object[] { ID, 1L },
+                new Object[] { ID + 1, 4L });
+        final Map<String, Long> first = new HashMap<String, Long>();
+        first.put("A", 2L);
+        first.put("C", 1L);
+        first.put("*", 3L);
+        final Map<String, Long> second = new HashMap<String, Long>();
+        second.put("C", 4L);
+        second.put("*", 4L);
+        final Map<Long, Map<String, Long>> expected =
+                new HashMap<Long, Map<String, Long>>();
+        expected.put(ID, first);
+        expected.put(ID + 1, second);
+        assertEquals(expected, em.countLocksByIds(session(),
+                new TreeSet<Long>(Arrays.asList(ID + 1, ID)), CHECKS, null));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *   Copyright 2026 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.server.utests;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import ome.tools.LongIndex;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that {@link LongIndex} numbers its keys as a list of distinct keys would.
+ * @since 5.7.3
+ */
+@Test(groups = "unit")
+public class LongIndexTest {
+
+    /**
+     * Check that rows are numbered in order of addition and that adding a key again does not change its row.
+     */
+    public void testRowsInOrderOfAddition() {
+        final LongIndex index = new LongIndex();
+        Assert.assertTrue(index.isEmpty());
+        Assert.assertEquals(index.add(42), 0);
+        Assert.assertEquals(index.add(-7), 1);
+        Assert.assertEquals(index.add(42), 0);
+        Assert.assertEquals(index.add(0), 2);
+        Assert.assertEquals(index.size(), 3);
+        Assert.assertEquals(index.find(-7), 1);
+        Assert.assertEquals(index.find(7), -1);
+        Assert.assertEquals(index.key(2), 0L);
+        Assert.assertFalse(index.isEmpty());
+    }
+
+    /**
+     * Check that keys differing only in their high bits or by strides of a power of two, as with ids from
+     * separate sequences, are kept apart across growth of the table.
+     */
+    public void testGrowthWithClusteredKeys() {
+        final LongIndex index = new LongIndex(1);
+        final List<Long> expected = new ArrayList<Long>();
+        for (long i = 0; i < 5000; i++) {
+            final long key = i % 2 == 0 ? i << 32 : i << 10;
+            Assert.assertEquals(index.add(key), expected.size());
+            expected.add(key);
+        }
+        Assert.assertEquals(index.size(), expected.size());
+        for (int row = 0; row < expected.size(); row++) {
+            Assert.assertEquals(index.key(row), (long) expected.get(row));
+            Assert.assertEquals(index.find(expected.get(row)), row);
+        }
+        Assert.assertFalse(index.contains(1));
+        Assert.assertFalse(index.contains(Long.MIN_VALUE));
+    }
+
+    /**
+     * Check random keys against a {@link HashSet}.
+     */
+    public void testAgainstHashSet() {
+        final Random random = new Random(123456789);
+        final LongIndex index = new LongIndex();
+        final Set<Long> expected = new HashSet<Long>();
+        for (int i = 0; i < 20000; i++) {
+            final long key = random.nextInt(10000) - 5000;
+            Assert.assertEquals(index.contains(key), expected.contains(key));
+            final int size = index.size();
+            final int row = index.add(key);
+            Assert.assertEquals(row == size, expected.add(key));
+            Assert.assertEquals(index.key(row), key);
+        }
+        Assert.assertEquals(index.size(), expected.size());
+    }
+
+    /**
+     * Check that rows beyond those added are not reported.
+     */
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void testKeyBeyondSize() {
+        final LongIndex index = new LongIndex(100);
+        index.add(1);
+        index.key(1);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ *   Copyright 2026 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.server.utests;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.model.core.Pixels;
+import ome.model.meta.EventLog;
+import ome.services.pixeldata.PixelDataHandler;
+import ome.services.pixeldata.PixelDataThread;
+import ome.services.sessions.SessionManager;
+import ome.system.Principal;
+import ome.system.ServiceFactory;
+
+import org.hibernate.Session;
+import org.jmock.MockObjectTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Tests how {@link PixelDataThread} schedules the event logs of its
+ * {@link PixelDataHandler}.
+ */
+@Test(groups = { "unit", "pixeldata" }, timeOut = 10000)
+public class PixelDataThreadTest extends MockObjectTestCase {
+
+    ExecutorService threads;
+
+    @BeforeMethod
+    public void setup() {
+        // More threads than the pixel data thread may use
+        threads = Executors.newCachedThreadPool();
+    }
+
+    @AfterMethod
+    public void teardown() {
+        threads.shutdownNow();
+    }
+
+    static EventLog eventLog(long id, long pixelsId) {
+        final EventLog log = new EventLog();
+        log.setId(id);
+        log.setAction("PIXELDATA");
+        log.setEntityType(Pixels.class.getName());
+        log.setEntityId(pixelsId);
+        return log;
+    }
+
+    /**
+     * Returns the scripted batches of event logs then none, and records
+     * which pixels are handled and how many at once.
+     */
+    static class ScriptedHandler extends PixelDataHandler {
+
+        final LinkedList<List<EventLog>> batches = new LinkedList<List<EventLog>>();
+
+        final ConcurrentMap<Long, AtomicInteger> handled = new ConcurrentHashMap<Long, AtomicInteger>();
+
+        final AtomicInteger running = new AtomicInteger();
+
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        ScriptedHandler() {
+            super(null, null);
+        }
+
+        @Override
+        public synchronized Object doWork(Session session, ServiceFactory sf) {
+            final List<EventLog> batch = batches.poll();
+            return batch == null ? Collections.<EventLog>emptyList() : batch;
+        }
+
+        @Override
+        public long handle(EventLog eventLog, Session session, ServiceFactory sf) {
+            final int now = running.incrementAndGet();
+            synchronized (maxRunning) {
+                maxRunning.set(Math.max(maxRunning.get(), now));
+            }
+            try {
+                handled.putIfAbsent(eventLog.getEntityId(), new AtomicInteger());
+                work(eventLog, handled.get(eventLog.getEntityId()).incrementAndGet());
+                return 0;
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+
+        /**
+         * @param attempt counts from 1
+         */
+        void work(EventLog eventLog, int attempt) {
+            Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
+        }
+
+        int handled(long pixelsId) {
+            final AtomicInteger count = handled.get(pixelsId);
+            return count == null ? 0 : count.get();
+        }
+    }
+
+    PixelDataThread thread(ScriptedHandler handler, int numThreads) {
+        final SessionManager mgr = (SessionManager) mock(SessionManager.class).proxy();
+        return new PixelDataThread(true, mgr, new DummyExecutor(null, null, threads),
+                handler, new Principal("test"), UUID.randomUUID().toString(),
+                numThreads);
+    }
+
+    /**
+     * The loader returns the event logs of pixels whose pyramids are still
+     * being generated. Those are not submitted again.
+     */
+    public void testPixelsInFlightAreNotResubmitted() {
+        final ScriptedHandler handler = new ScriptedHandler();
+        handler.batches.add(Arrays.asList(eventLog(1, 10), eventLog(2, 20)));
+        handler.batches.add(Arrays.asList(eventLog(2, 20), eventLog(3, 30)));
+        handler.batches.add(Arrays.asList(eventLog(3, 30)));
+        thread(handler, 4).doRun();
+        assertEquals(1, handler.handled(10));
+        assertEquals(1, handler.handled(20));
+        assertEquals(1, handler.handled(30));
+    }
+
+    /**
+     * A pyramid which ignores interruption keeps its thread slot until it
+     * finishes and is then attempted again.
+     */
+    public void testTimedOutJobKeepsItsSlotAndIsRetried() {
+        final ScriptedHandler handler = new ScriptedHandler() {
+            @Override
+            void work(EventLog eventLog, int attempt) {
+                if (eventLog.getEntityId() == 10 && attempt == 1) {
+                    Uninterruptibles.sleepUninterruptibly(1500, TimeUnit.MILLISECONDS);
+                }
+            }
+        };
+        handler.batches.add(Arrays.asList(eventLog(1, 10), eventLog(2, 20)));
+        final PixelDataThread thread = thread(handler, 1);
+        thread.setJobTimeout(1);
+        thread.doRun();
+        assertEquals(1, handler.maxRunning.get());
+        assertEquals(2, handler.handled(10));
+        assertEquals(1, handler.handled(20));
+    }
+
+}
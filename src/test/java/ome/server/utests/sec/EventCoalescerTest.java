@@ -0,0 +1,121 @@
+/*
+ *   Copyright 2026 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.server.utests.sec;
+
+import java.sql.Timestamp;
+
+import ome.model.enums.EventType;
+import ome.model.meta.Event;
+import ome.model.meta.Experimenter;
+import ome.model.meta.ExperimenterGroup;
+import ome.model.meta.Session;
+import ome.security.basic.EventCoalescer;
+
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks which write calls may share an event.
+ * @since 5.7.3
+ */
+@Test(groups = "unit")
+public class EventCoalescerTest {
+
+    private EventCoalescer coalescer;
+
+    @BeforeMethod
+    public void setup() {
+        coalescer = new EventCoalescer("Import, Task", 60000, null);
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    @AfterMethod
+    public void teardown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private Event newEvent(long sessionId, long userId, long groupId, String type) {
+        final Event event = new Event();
+        event.setType(new EventType(type));
+        event.setTime(new Timestamp(System.currentTimeMillis()));
+        event.setExperimenter(new Experimenter(userId, false));
+        event.setExperimenterGroup(new ExperimenterGroup(groupId, false));
+        event.setSession(new Session(sessionId, false));
+        return event;
+    }
+
+    /**
+     * Save the event, committing the transaction if asked.
+     */
+    private void save(Event event, long id, boolean commit) {
+        final Event saved = new Event(id, true);
+        saved.setVersion(0);
+        coalescer.saved(event, saved, null, null);
+        if (commit) {
+            TransactionSynchronizationUtils.invokeAfterCommit(
+                    TransactionSynchronizationManager.getSynchronizations());
+        }
+        TransactionSynchronizationManager.clearSynchronization();
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    public void testOnlyConfiguredTypes() {
+        Assert.assertTrue(coalescer.isEnabled("Import"));
+        Assert.assertTrue(coalescer.isEnabled("Task"));
+        Assert.assertFalse(coalescer.isEnabled("User"));
+        Assert.assertFalse(coalescer.isEnabled(null));
+        Assert.assertFalse(new EventCoalescer("", 60000, null).isEnabled("Import"));
+    }
+
+    public void testReuseAfterCommit() {
+        final Event first = newEvent(1, 2, 3, "Import");
+        save(first, 100, true);
+        final Event second = newEvent(1, 2, 3, "Import");
+        Assert.assertTrue(coalescer.reuse(second, null, null));
+        Assert.assertEquals(second.getId(), Long.valueOf(100));
+        Assert.assertEquals(second.getVersion(), Integer.valueOf(0));
+        Assert.assertEquals(second.getTime(), first.getTime());
+    }
+
+    public void testNoReuseAfterRollback() {
+        save(newEvent(1, 2, 3, "Import"), 100, false);
+        Assert.assertFalse(coalescer.reuse(newEvent(1, 2, 3, "Import"), null, null));
+    }
+
+    public void testNoReuseAcrossContexts() {
+        save(newEvent(1, 2, 3, "Import"), 100, true);
+        Assert.assertFalse(coalescer.reuse(newEvent(4, 2, 3, "Import"), null, null));
+        Assert.assertFalse(coalescer.reuse(newEvent(1, 5, 3, "Import"), null, null));
+        Assert.assertFalse(coalescer.reuse(newEvent(1, 2, 6, "Import"), null, null));
+        Assert.assertFalse(coalescer.reuse(newEvent(1, 2, 3, "Task"), null, null));
+        Assert.assertFalse(coalescer.reuse(newEvent(1, 2, 3, "Import"), 7L, null));
+        Assert.assertFalse(coalescer.reuse(newEvent(1, 2, 3, "Import"), null, 8L));
+        Assert.assertTrue(coalescer.reuse(newEvent(1, 2, 3, "Import"), null, null));
+    }
+
+    public void testNoReuseAfterWindow() {
+        coalescer = new EventCoalescer("Import", 1, null);
+        save(newEvent(1, 2, 3, "Import"), 100, true);
+        try {
+            Thread.sleep(5);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        Assert.assertFalse(coalescer.reuse(newEvent(1, 2, 3, "Import"), null, null));
+    }
+
+    public void testNotPreparedWithoutTransaction() {
+        coalescer.prepared(100, 2, 3);
+        Assert.assertFalse(coalescer.isPrepared("Import", 100, 2, 3));
+    }
+}
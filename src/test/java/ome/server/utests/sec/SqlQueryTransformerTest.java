@@ -0,0 +1,91 @@
+/*
+ *   Copyright 2026 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.server.utests.sec;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import ome.system.metrics.DefaultMetrics;
+import ome.system.metrics.Metrics;
+import ome.tools.hibernate.SqlQueryTransformer;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the caching of transformed queries by {@link SqlQueryTransformer}.
+ */
+@Test
+public class SqlQueryTransformerTest {
+
+    /* A query which has a column transformer's marker after its WHERE so must be parsed. */
+    private static final String SQL =
+            "select this_.id as id1_ from thing this_ where upper(this_.secret) = /*securestring*/ ?";
+
+    private static final String UNMARKED_SQL = "select this_.id as id1_ from thing this_ where this_.id = ?";
+
+    private Metrics metrics;
+
+    private SqlQueryTransformer transformer;
+
+    @BeforeMethod
+    public void setUp() {
+        metrics = new DefaultMetrics();
+        transformer = new SqlQueryTransformer();
+        transformer.setMetrics(metrics);
+    }
+
+    private long count(String name) {
+        return metrics.counter(transformer, name).getCount();
+    }
+
+    @Test
+    public void testTransformedQueryIsCached() {
+        final String transformed = transformer.transformQuery(SQL);
+        Assert.assertEquals(transformer.transformQuery(SQL), transformed);
+        Assert.assertEquals(count("cacheMisses"), 1);
+        Assert.assertEquals(count("cacheHits"), 1);
+    }
+
+    @Test
+    public void testUnmarkedQueryIsNotCached() {
+        Assert.assertEquals(transformer.transformQuery(UNMARKED_SQL), UNMARKED_SQL);
+        Assert.assertEquals(count("cacheMisses"), 0);
+        Assert.assertEquals(count("cacheHits"), 0);
+    }
+
+    @Test
+    public void testCachingDisabled() {
+        transformer.setCacheSize(0);
+        final String transformed = transformer.transformQuery(SQL);
+        Assert.assertEquals(transformer.transformQuery(SQL), transformed);
+        Assert.assertEquals(count("cacheMisses"), 2);
+        Assert.assertEquals(count("cacheHits"), 0);
+    }
+
+    /**
+     * The pre-warm file is read only when the context is refreshed, after the metrics are set.
+     */
+    @Test
+    public void testPrewarmIsCounted() throws Exception {
+        final File file = File.createTempFile("prewarm", ".sql");
+        file.deleteOnExit();
+        Files.write(file.toPath(), Arrays.asList("# comment", "", SQL, UNMARKED_SQL), StandardCharsets.UTF_8);
+        transformer = new SqlQueryTransformer();
+        transformer.setPrewarmFile(file.getPath());
+        transformer.setMetrics(metrics);
+        Assert.assertEquals(count("cacheMisses"), 0);
+        transformer.prewarm();
+        Assert.assertEquals(count("cacheMisses"), 1);
+        transformer.transformQuery(SQL);
+        Assert.assertEquals(count("cacheMisses"), 1);
+        Assert.assertEquals(count("cacheHits"), 1);
+    }
+}
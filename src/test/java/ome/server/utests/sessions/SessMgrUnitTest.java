@@ -5,6 +5,7 @@
 
 package ome.server.utests.sessions;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -538,6 +539,36 @@ public class SessMgrUnitTest extends MockObjectTestCase {
 
     }
 
+    /**
+     * The stats of a session are recorded once, however it leaves the
+     * cache, and survive replacement of its context.
+     */
+    @Test
+    public void testStatsRecordedWhenSessionRemoved() throws Exception {
+        final List<SessionStats> recorded = new ArrayList<SessionStats>();
+        mgr.setCounterFactory(new CounterFactory() {
+            @Override
+            public void record(SessionStats stats) {
+                recorded.add(stats);
+            }
+        });
+        testCreateNewSession();
+        final String uuid = session.getUuid();
+        final SessionStats stats = cache.getSessionContext(uuid).stats();
+
+        sf.mockUpdate.expects(once()).method("saveAndReturnObject").will(
+                returnValue(new Session()));
+        prepareForCreateSession();
+        mgr.update(session);
+        assertSame(stats, cache.getSessionContext(uuid).stats());
+        assertTrue(recorded.isEmpty());
+
+        // as when timed out rather than closed
+        cache.removeSession(uuid);
+        assertEquals(1, recorded.size());
+        assertSame(stats, recorded.get(0));
+    }
+
     @Test(groups = {"ticket:2804", "broken"})
     public void testSessionShouldNotBeReapedDuringMethodExceution()
             throws Exception {
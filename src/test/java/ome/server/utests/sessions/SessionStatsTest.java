@@ -6,6 +6,9 @@
 package ome.server.utests.sessions;
 
 import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import ome.system.EventContext;
 import ome.security.basic.CurrentDetails;
@@ -125,6 +128,68 @@ public class SessionStatsTest extends MockObjectTestCase {
         stats.methodIn();
     }
 
+    /**
+     * Stats from the factory publish their messages on a thread of the
+     * factory rather than on the thread which crossed the threshold.
+     */
+    @Test
+    public void testFactoryPublishesOffTheCallingThread() throws Exception {
+        final CountDownLatch published = new CountDownLatch(1);
+        final AtomicReference<Thread> publisher = new AtomicReference<Thread>();
+        mc.addApplicationListener(new ApplicationListener<ApplicationEvent>(){
+            public void onApplicationEvent(ApplicationEvent arg0) {
+                if (arg0 instanceof ObjectsReadStatsMessage) {
+                    publisher.set(Thread.currentThread());
+                    published.countDown();
+                }
+            }});
+        CounterFactory cf = new CounterFactory();
+        cf.setApplicationEventPublisher(ctx);
+        cf.setObjectsReadHardLimit(2);
+        try {
+            SessionStats stats = cf.createStats();
+            stats.loadedObjects(1);
+            stats.loadedObjects(1);
+            assertTrue(published.await(10, TimeUnit.SECONDS));
+            assertNotNull(publisher.get());
+            assertNotSame(Thread.currentThread(), publisher.get());
+        } finally {
+            cf.destroy();
+        }
+    }
+
+    /**
+     * Stats count method calls and objects across threads without loss.
+     */
+    @Test
+    public void testTotalsAcrossThreads() throws Exception {
+        CounterFactory cf = new CounterFactory();
+        cf.setApplicationEventPublisher(ctx);
+        final SimpleSessionStats stats = (SimpleSessionStats) cf.createStats();
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        stats.methodIn();
+                        stats.loadedObjects(2);
+                        stats.updatedObjects(1);
+                        stats.methodOut();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        cf.destroy();
+        assertEquals(4000, stats.methodCalls());
+        assertEquals(0, stats.methodCount());
+        assertEquals(8000, stats.objectsRead());
+        assertEquals(4000, stats.objectsWritten());
+    }
+
     // Helpers
     // =========================================================================
     
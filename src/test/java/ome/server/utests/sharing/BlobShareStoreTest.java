@@ -11,10 +11,18 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
+import ome.model.meta.Share;
 import ome.services.sharing.BlobShareStore;
+import ome.services.sharing.ShareIndex;
 import ome.services.sharing.data.Obj;
 import ome.services.sharing.data.ShareData;
 
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.ResourceUtils;
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -24,7 +32,7 @@ import org.testng.annotations.Test;
  * @since 4.4.0
  */
 @Test(groups = "ome/services/sharing")
-public class BlobShareStoreTest {
+public class BlobShareStoreTest extends MockObjectTestCase {
 
     BlobShareStore store = new BlobShareStore();
 
@@ -49,6 +57,111 @@ public class BlobShareStoreTest {
         }
     }
 
+    /**
+     * Test that the index of a share finds exactly the listed objects.
+     */
+    public void testIndexContainsListedObjects() throws Exception {
+        ShareData d = loadData()[0];
+        ShareIndex index = new ShareIndex(1, d);
+        for (Map.Entry<String, List<Long>> entry : d.objectMap.entrySet()) {
+            for (Long id : entry.getValue()) {
+                Assert.assertTrue(index.contains(entry.getKey(), id));
+                Assert.assertFalse(index.contains(entry.getKey(), -id));
+            }
+        }
+        Assert.assertFalse(index.contains("UnknownType", 1L));
+    }
+
+    /**
+     * Test that a cached share is used only while its version is unchanged,
+     * so that disabling or deleting a share takes effect at once.
+     */
+    public void testIndexRevalidatedOnEveryLookup() throws Exception {
+        final Mock mockSession = mock(Session.class);
+        final Mock mockQuery = mock(Query.class);
+        final BlobShareStore cachingStore = new BlobShareStore() {
+            @Override
+            protected Session session() {
+                return (Session) mockSession.proxy();
+            }
+        };
+        final Share share = new Share(1L, true);
+        share.setVersion(1);
+        share.setData(loadFile(loadBlobs()[0]));
+        mockQuery.stubs().method("setParameter").will(
+                returnValue(mockQuery.proxy()));
+        mockSession.stubs().method("createQuery").will(
+                returnValue(mockQuery.proxy()));
+
+        mockSession.expects(once()).method("get").with(eq(Share.class),
+                eq(1L)).will(returnValue(share));
+        final ShareIndex index = cachingStore.getIndex(1L);
+        Assert.assertNotNull(index);
+
+        mockQuery.expects(once()).method("uniqueResult").will(
+                returnValue(1));
+        Assert.assertSame(cachingStore.getIndex(1L), index);
+
+        share.setVersion(2);
+        mockQuery.expects(once()).method("uniqueResult").will(
+                returnValue(2));
+        mockSession.expects(once()).method("get").with(eq(Share.class),
+                eq(1L)).will(returnValue(share));
+        final ShareIndex reloaded = cachingStore.getIndex(1L);
+        Assert.assertNotSame(reloaded, index);
+
+        mockQuery.expects(once()).method("uniqueResult").will(
+                returnValue(null));
+        Assert.assertNull(cachingStore.getIndex(1L));
+        mockSession.verify();
+        mockQuery.verify();
+    }
+
+    /**
+     * Test that within a transaction the share version is queried only on
+     * the first lookup, and again in the next transaction.
+     */
+    public void testIndexValidatedOncePerTransaction() throws Exception {
+        final Mock mockSession = mock(Session.class);
+        final Mock mockQuery = mock(Query.class);
+        final BlobShareStore cachingStore = new BlobShareStore() {
+            @Override
+            protected Session session() {
+                return (Session) mockSession.proxy();
+            }
+        };
+        final Share share = new Share(1L, true);
+        share.setVersion(1);
+        share.setData(loadFile(loadBlobs()[0]));
+        mockQuery.stubs().method("setParameter").will(
+                returnValue(mockQuery.proxy()));
+        mockSession.stubs().method("createQuery").will(
+                returnValue(mockQuery.proxy()));
+        mockSession.expects(once()).method("get").with(eq(Share.class),
+                eq(1L)).will(returnValue(share));
+        final ShareIndex index = cachingStore.getIndex(1L);
+
+        for (int transaction = 0; transaction < 2; transaction++) {
+            TransactionSynchronizationManager.initSynchronization();
+            try {
+                mockQuery.expects(once()).method("uniqueResult").will(
+                        returnValue(1));
+                for (int lookup = 0; lookup < 3; lookup++) {
+                    Assert.assertSame(cachingStore.getIndex(1L), index);
+                }
+                mockQuery.verify();
+            } finally {
+                for (TransactionSynchronization synchronization :
+                        TransactionSynchronizationManager.getSynchronizations()) {
+                    synchronization.afterCompletion(
+                            TransactionSynchronization.STATUS_COMMITTED);
+                }
+                TransactionSynchronizationManager.clearSynchronization();
+            }
+        }
+        mockSession.verify();
+    }
+
     String toString(List<Obj> objs) {
         StringBuilder sb = new StringBuilder();
         sb.append("[");
@@ -0,0 +1,206 @@
+/*
+ *   Copyright 2026 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.delete.files;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.system.metrics.DefaultMetrics;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Tests the deletion and journaling of files by {@link FileReaper}.
+ */
+@Test(groups = "unit", timeOut = 30000)
+public class FileReaperTest {
+
+    private File dir, journalDir;
+
+    private FileReaper reaper;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("reaper").toFile();
+        journalDir = new File(dir, "journal");
+        Assert.assertTrue(journalDir.mkdir());
+    }
+
+    @AfterMethod
+    public void teardown() {
+        if (reaper != null) {
+            reaper.stop();
+        }
+    }
+
+    /**
+     * Reports objects with ids below 100 as existing, as from a transaction
+     * which rolled back.
+     */
+    private static class CheckingReaper extends FileReaper {
+
+        CheckingReaper(String journalDir) {
+            super(journalDir, 4, 2, 1, new DefaultMetrics());
+        }
+
+        @Override
+        protected Set<Long> existing(String table, Collection<Long> ids) {
+            Assert.assertEquals(table, "OriginalFile");
+            final Set<Long> existing = new HashSet<Long>();
+            for (Long id : ids) {
+                if (id < 100) {
+                    existing.add(id);
+                }
+            }
+            return existing;
+        }
+    }
+
+    private Map<File, Long> files(long... ids) throws IOException {
+        final Map<File, Long> files = new LinkedHashMap<File, Long>();
+        for (long id : ids) {
+            final File file = new File(dir, "file" + id);
+            Assert.assertTrue(file.createNewFile());
+            files.put(file, id);
+        }
+        return files;
+    }
+
+    private String[] journals() {
+        return journalDir.list();
+    }
+
+    private void awaitNoJournals() {
+        while (journals().length > 0) {
+            Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Deleted files leave no journal behind.
+     */
+    public void testDeleteRemovesFilesAndJournal() throws IOException {
+        reaper = new FileReaper(journalDir.getPath(), 4, 2, 1, new DefaultMetrics());
+        final Map<File, Long> files = files(1, 2, 3);
+        Assert.assertTrue(reaper.delete("OriginalFile", files).isEmpty());
+        for (File file : files.keySet()) {
+            Assert.assertFalse(file.exists());
+        }
+        Assert.assertEquals(journals().length, 0);
+    }
+
+    /**
+     * Files which cannot be deleted are reported and stay in the journal
+     * for the next start.
+     */
+    public void testUndeletedFilesStayInJournal() throws IOException {
+        final Map<File, Long> files = files(101, 102);
+        final File stuck = new File(dir, "stuck");
+        Assert.assertTrue(stuck.mkdir());
+        Assert.assertTrue(new File(stuck, "child").createNewFile());
+        files.put(stuck, 103L);
+        reaper = new FileReaper(journalDir.getPath(), 4, 2, 1, new DefaultMetrics());
+        Assert.assertEquals(reaper.delete("OriginalFile", files),
+                Collections.singletonMap(stuck, 103L));
+        Assert.assertEquals(journals().length, 1);
+
+        /* the next start tries again */
+        Assert.assertTrue(new File(stuck, "child").delete());
+        reaper.stop();
+        reaper = new CheckingReaper(journalDir.getPath());
+        reaper.start();
+        awaitNoJournals();
+        Assert.assertFalse(stuck.exists());
+    }
+
+    /**
+     * A journal prepared before a commit is resumed on start only for the
+     * objects which are gone from the database.
+     */
+    public void testResumeSkipsExistingObjects() throws IOException {
+        final Map<File, Long> files = files(1, 101);
+        reaper = new FileReaper(journalDir.getPath(), 4, 2, 1, new DefaultMetrics());
+        Assert.assertNotNull(reaper.prepare("OriginalFile", files));
+        reaper.stop();
+
+        reaper = new CheckingReaper(journalDir.getPath());
+        reaper.start();
+        awaitNoJournals();
+        Assert.assertTrue(new File(dir, "file1").exists());
+        Assert.assertFalse(new File(dir, "file101").exists());
+    }
+
+    /**
+     * Without the database a journal is kept rather than resumed.
+     */
+    public void testResumeWithoutDatabaseKeepsJournal() throws IOException {
+        final Map<File, Long> files = files(101);
+        reaper = new FileReaper(journalDir.getPath(), 4, 2, 1, new DefaultMetrics());
+        reaper.prepare("OriginalFile", files);
+        reaper.stop();
+
+        reaper = new FileReaper(journalDir.getPath(), 4, 2, 1, new DefaultMetrics());
+        reaper.start();
+        Assert.assertEquals(journals().length, 1);
+        Assert.assertTrue(new File(dir, "file101").exists());
+    }
+
+    /**
+     * A rolled back deletion discards its journal and keeps its files.
+     */
+    public void testDiscardKeepsFiles() throws IOException {
+        final Map<File, Long> files = files(101);
+        reaper = new FileReaper(journalDir.getPath(), 4, 2, 1, new DefaultMetrics());
+        reaper.discard(reaper.prepare("OriginalFile", files));
+        Assert.assertEquals(journals().length, 0);
+        Assert.assertTrue(new File(dir, "file101").exists());
+    }
+
+    /**
+     * Concurrent requests together delete at most the configured number of
+     * files at once from one file system.
+     */
+    public void testPerFileSystemLimitIsShared() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        reaper = new FileReaper("", 8, 2, 1, new DefaultMetrics()) {
+            @Override
+            protected boolean remove(File file) {
+                final int now = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), now));
+                }
+                Uninterruptibles.sleepUninterruptibly(20, TimeUnit.MILLISECONDS);
+                running.decrementAndGet();
+                return super.remove(file);
+            }
+        };
+        final CompletableFuture<Map<File, Long>> first =
+                reaper.deleteAsync("OriginalFile", files(1, 2, 3, 4, 5, 6));
+        final CompletableFuture<Map<File, Long>> second =
+                reaper.deleteAsync("Thumbnail", files(7, 8, 9, 10, 11, 12));
+        Assert.assertTrue(first.get().isEmpty());
+        Assert.assertTrue(second.get().isEmpty());
+        Assert.assertEquals(maxRunning.get(), 2);
+    }
+}
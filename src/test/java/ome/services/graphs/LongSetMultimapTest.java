@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2026 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.graphs;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.TreeMultimap;
+
+/**
+ * Check that {@link LongSetMultimap} behaves as a set multimap.
+ * @since 5.7.3
+ */
+public class LongSetMultimapTest {
+
+    /**
+     * Check that values are reported sorted and without duplicates.
+     */
+    @Test
+    public void testValuesSortedAndUnique() {
+        final LongSetMultimap multimap = new LongSetMultimap();
+        for (final long value : new long[] {5, 3, 5, 9, 1, 3}) {
+            multimap.put(7, value);
+        }
+        Assert.assertEquals(multimap.get(7), new long[] {1, 3, 5, 9});
+        Assert.assertEquals(multimap.size(), 4);
+        Assert.assertEquals(multimap.keyCount(), 1);
+        Assert.assertTrue(multimap.containsEntry(7, 9));
+        Assert.assertFalse(multimap.containsEntry(7, 4));
+        Assert.assertFalse(multimap.containsEntry(8, 9));
+        Assert.assertEquals(multimap.get(8).length, 0);
+    }
+
+    /**
+     * Check that the contents match those of a Guava multimap given the same random entries.
+     */
+    @Test
+    public void testMatchesGuava() {
+        final LongSetMultimap multimap = new LongSetMultimap();
+        final SetMultimap<Long, Long> expected = TreeMultimap.create();
+        final Random random = new Random(123);
+        for (int i = 0; i < 100000; i++) {
+            final long key = random.nextInt(5000);
+            final long value = (long) random.nextInt(200) << 40 | random.nextInt(100);
+            multimap.put(key, value);
+            expected.put(key, value);
+        }
+        Assert.assertEquals(multimap.keyCount(), expected.keySet().size());
+        for (final Long key : expected.keySet()) {
+            final Set<Long> actual = new TreeSet<Long>();
+            long previous = Long.MIN_VALUE;
+            for (final long value : multimap.get(key)) {
+                Assert.assertTrue(value > previous);
+                actual.add(value);
+                previous = value;
+            }
+            Assert.assertEquals(actual, expected.get(key));
+        }
+        Assert.assertEquals(multimap.size(), expected.size());
+        Assert.assertTrue(multimap.estimateBytes() > 8L * expected.size());
+    }
+}
@@ -291,16 +291,14 @@ public class LdapTest extends MockObjectTestCase {
 
             fixture.setDN(experimenter.getId(), null);
             List<Experimenter> discoveredExperimenters = fixture.discover();
-            if (!discoveredExperimenters.isEmpty()) {
-                boolean discovered = false;
-                for (Experimenter e : discoveredExperimenters) {
-                    if (experimenter.getId().equals(e.getId())) {
-                        discovered = true;
-                        break;
-                    }
+            boolean discovered = false;
+            for (Experimenter e : discoveredExperimenters) {
+                if (experimenter.getId().equals(e.getId())) {
+                    discovered = true;
+                    break;
                 }
-                assertTrue(discovered);
             }
+            assertTrue(user + " not discovered", discovered);
             fixture.setDN(experimenter.getId(), "dn");
         }
     }
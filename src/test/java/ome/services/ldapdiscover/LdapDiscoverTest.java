@@ -0,0 +1,262 @@
+/*
+ *   Copyright 2026 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.ldapdiscover;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.naming.directory.SearchControls;
+
+import ome.api.local.LocalQuery;
+import ome.logic.LdapImpl;
+import ome.model.meta.Experimenter;
+import ome.model.meta.ExperimenterGroup;
+import ome.security.SecuritySystem;
+import ome.security.auth.LdapConfig;
+import ome.security.auth.RoleProvider;
+import ome.system.Roles;
+import ome.util.SqlAction;
+
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.ldap.SizeLimitExceededException;
+import org.springframework.ldap.core.ContextMapper;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.core.DirContextAdapter;
+import org.springframework.ldap.core.DistinguishedName;
+import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.ldap.core.support.LdapContextSource;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that {@link LdapImpl#discover()} and {@link LdapImpl#discoverGroups()}
+ * find the same local users and groups in an embedded LDAP store with batched
+ * searches as with a search for each name.
+ */
+@Test(groups = "ldap")
+public class LdapDiscoverTest extends MockObjectTestCase {
+
+    /* as LdapImpl.DISCOVER_BATCH */
+    private static final int BATCH = 100;
+
+    /* how many more users and groups than fit in a batch are added */
+    private static final int MANY = 2 * BATCH + 50;
+
+    /**
+     * Records the filter of every search and may fail those which look up
+     * several names at once, as would a server with a low size limit.
+     */
+    static class RecordingTemplate extends LdapTemplate {
+
+        final List<String> filters = new ArrayList<String>();
+
+        boolean failBatches = false;
+
+        RecordingTemplate(ContextSource source) {
+            super(source);
+        }
+
+        @Override
+        public <T> List<T> search(String base, String filter,
+                SearchControls controls, ContextMapper<T> mapper) {
+            filters.add(filter);
+            if (failBatches && filter.contains("(|")) {
+                throw new SizeLimitExceededException(
+                        new javax.naming.SizeLimitExceededException(filter));
+            }
+            return super.search(base, filter, controls, mapper);
+        }
+    }
+
+    private ConfigurableApplicationContext ctx;
+
+    private LdapContextSource source;
+
+    private LdapConfig config;
+
+    private RecordingTemplate template;
+
+    private Mock query, role;
+
+    private LdapImpl ldap;
+
+    @BeforeClass
+    public void startServer() {
+        ctx = new ClassPathXmlApplicationContext(
+                "ome/services/ldapdiscover/test.xml");
+        config = (LdapConfig) ctx.getBean("config");
+        final Map<String, LdapContextSource> sources =
+                ctx.getBeansOfType(LdapContextSource.class);
+        source = sources.values().iterator().next();
+
+        final LdapTemplate setup = new LdapTemplate(source);
+        for (int i = 0; i < MANY; i++) {
+            final String name = String.format("user%03d", i);
+            final DirContextAdapter user = new DirContextAdapter(
+                    new DistinguishedName("cn=" + name));
+            user.setAttributeValues("objectClass", new String[] { "top", "person" });
+            user.setAttributeValue("cn", name);
+            user.setAttributeValue("sn", "Tester");
+            setup.bind(user);
+
+            final String groupName = String.format("group%03d", i);
+            final DirContextAdapter group = new DirContextAdapter(
+                    new DistinguishedName("cn=" + groupName));
+            group.setAttributeValues("objectClass", new String[] { "top", "groupOfNames" });
+            group.setAttributeValue("cn", groupName);
+            group.setAttributeValue("member", "cn=" + name + ",ou=discover,o=eg");
+            setup.bind(group);
+        }
+    }
+
+    @AfterClass
+    public void stopServer() {
+        if (ctx != null) {
+            ctx.close();
+        }
+    }
+
+    @BeforeMethod
+    public void setup() {
+        template = new RecordingTemplate(source);
+        query = mock(LocalQuery.class);
+        role = mock(RoleProvider.class);
+        role.stubs().method("isIgnoreCaseLookup").will(returnValue(false));
+        final Mock sec = mock(SecuritySystem.class);
+        sec.stubs().method("getSecurityRoles").will(returnValue(new Roles()));
+        final Mock sql = mock(SqlAction.class);
+        ldap = new LdapImpl(source, template, new Roles(), config,
+                (RoleProvider) role.proxy(), (SqlAction) sql.proxy());
+        ldap.setQueryService((LocalQuery) query.proxy());
+        ldap.setSecuritySystem((SecuritySystem) sec.proxy());
+    }
+
+    private List<Experimenter> users(String... names) {
+        final List<Experimenter> users = new ArrayList<Experimenter>();
+        for (String name : names) {
+            final Experimenter user = new Experimenter((long) users.size() + 10, true);
+            user.setOmeName(name);
+            users.add(user);
+        }
+        return users;
+    }
+
+    private List<ExperimenterGroup> groups(String... names) {
+        final List<ExperimenterGroup> groups = new ArrayList<ExperimenterGroup>();
+        for (String name : names) {
+            final ExperimenterGroup group = new ExperimenterGroup((long) groups.size() + 10, true);
+            group.setName(name);
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    private String[] many(String prefix) {
+        final String[] names = new String[MANY + 2];
+        for (int i = 0; i < MANY; i++) {
+            names[i] = String.format("%s%03d", prefix, i);
+        }
+        names[MANY] = prefix + "Missing";
+        names[MANY + 1] = prefix.toUpperCase() + "000";
+        return names;
+    }
+
+    private List<Experimenter> discover(List<Experimenter> local) {
+        query.expects(once()).method("findAllByQuery").will(returnValue(local));
+        final List<Experimenter> discovered = ldap.discover();
+        query.verify();
+        return discovered;
+    }
+
+    private List<ExperimenterGroup> discoverGroups(List<ExperimenterGroup> local) {
+        query.expects(once()).method("findAllByQuery").will(returnValue(local));
+        final List<ExperimenterGroup> discovered = ldap.discoverGroups();
+        query.verify();
+        return discovered;
+    }
+
+    /**
+     * Several names are looked up with one search, keeping only exact
+     * matches of the case.
+     */
+    public void testDiscoverSeveralNames() {
+        final List<Experimenter> local = users("alice", "bob", "carol", "dave");
+        assertEquals(local.subList(0, 2), discover(local));
+        assertEquals(1, template.filters.size());
+    }
+
+    /**
+     * With case-insensitive lookup a name matches whatever its case in LDAP.
+     */
+    public void testDiscoverIgnoringCase() {
+        role.stubs().method("isIgnoreCaseLookup").will(returnValue(true));
+        final List<Experimenter> local = users("alice", "bob", "carol", "dave");
+        assertEquals(local.subList(0, 3), discover(local));
+        assertEquals(1, template.filters.size());
+    }
+
+    /**
+     * More names than fit in one search are looked up in several and give
+     * the same users as searching for each name.
+     */
+    public void testDiscoverMoreThanBatch() {
+        final List<Experimenter> local = users(many("user"));
+        final List<Experimenter> discovered = discover(local);
+        assertEquals(local.subList(0, MANY), discovered);
+        assertEquals((local.size() + BATCH - 1) / BATCH, template.filters.size());
+
+        template.filters.clear();
+        template.failBatches = true;
+        assertEquals(discovered, discover(local));
+    }
+
+    /**
+     * A failed batch is retried one name at a time.
+     */
+    public void testDiscoverFallsBackToSingleSearches() {
+        template.failBatches = true;
+        final List<Experimenter> local = users("alice", "bob", "carol", "dave");
+        assertEquals(local.subList(0, 2), discover(local));
+        assertEquals(1 + local.size(), template.filters.size());
+    }
+
+    /**
+     * Groups are looked up in batches and match only with the same case,
+     * as when searching for each name.
+     */
+    public void testDiscoverGroups() {
+        final List<ExperimenterGroup> local = groups("grp1", "grp2", "grp3", "grp4");
+        assertEquals(local.subList(0, 2), discoverGroups(local));
+        assertEquals(1, template.filters.size());
+
+        template.filters.clear();
+        template.failBatches = true;
+        assertEquals(local.subList(0, 2), discoverGroups(local));
+        assertEquals(1 + local.size(), template.filters.size());
+    }
+
+    /**
+     * More group names than fit in one search are looked up in several and
+     * give the same groups as searching for each name.
+     */
+    public void testDiscoverGroupsMoreThanBatch() {
+        final List<ExperimenterGroup> local = groups(many("group"));
+        final List<ExperimenterGroup> discovered = discoverGroups(local);
+        assertEquals(local.subList(0, MANY), discovered);
+        assertEquals((local.size() + BATCH - 1) / BATCH, template.filters.size());
+
+        template.failBatches = true;
+        assertEquals(discovered, discoverGroups(local));
+    }
+}
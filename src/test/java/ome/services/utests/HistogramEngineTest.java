@@ -0,0 +1,171 @@
+/*
+ *   Copyright 2026 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.utests;
+
+import java.awt.Dimension;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.services.pixeldata.HistogramEngine;
+import ome.util.PixelData;
+import omeis.providers.re.utests.TestPixelBuffer;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that {@link HistogramEngine} produces the same results as the
+ * whole-plane scalar loop it replaced in {@link ome.services.RawPixelsBean}.
+ */
+@Test(groups = "unit")
+public class HistogramEngineTest {
+
+    private static final int SIZE_X = 61, SIZE_Y = 37;
+
+    /**
+     * Serves tiles which are real regions of a single random plane, using
+     * a tile size which does not divide the plane.
+     */
+    private static class TiledPixelBuffer extends TestPixelBuffer {
+
+        final String type;
+
+        final byte[] plane;
+
+        final int bpp;
+
+        TiledPixelBuffer(Pixels pixels, byte[] plane) {
+            super(pixels, plane);
+            this.type = pixels.getPixelsType().getValue();
+            this.plane = plane;
+            this.bpp = plane.length / (SIZE_X * SIZE_Y);
+        }
+
+        @Override
+        public PixelData getTile(Integer z, Integer c, Integer t, Integer x,
+                Integer y, Integer w, Integer h) {
+            byte[] tile = new byte[w * h * bpp];
+            for (int row = 0; row < h; row++) {
+                System.arraycopy(plane, ((y + row) * SIZE_X + x) * bpp,
+                        tile, row * w * bpp, w * bpp);
+            }
+            return new PixelData(type, ByteBuffer.wrap(tile));
+        }
+
+        @Override
+        public Dimension getTileSize() {
+            return new Dimension(16, 10);
+        }
+    }
+
+    private TiledPixelBuffer buffer(String type, int bpp) {
+        Pixels pixels = new Pixels();
+        pixels.setPixelsType(new PixelsType(type));
+        pixels.setSizeX(SIZE_X);
+        pixels.setSizeY(SIZE_Y);
+        pixels.setSizeZ(1);
+        pixels.setSizeC(1);
+        pixels.setSizeT(1);
+        byte[] plane = new byte[SIZE_X * SIZE_Y * bpp];
+        new Random(type.hashCode()).nextBytes(plane);
+        if (PixelsType.VALUE_FLOAT.equals(type)) {
+            // Avoid NaN bit patterns, which never compare equal
+            ByteBuffer bb = ByteBuffer.wrap(plane);
+            Random r = new Random(1);
+            for (int i = 0; i < SIZE_X * SIZE_Y; i++) {
+                bb.putFloat(i * 4, (r.nextFloat() - 0.5f) * 1000);
+            }
+        }
+        return new TiledPixelBuffer(pixels, plane);
+    }
+
+    private void assertSameAsScalar(String type, int bpp) throws Exception {
+        TiledPixelBuffer buffer = buffer(type, bpp);
+        PixelData px = new PixelData(type, ByteBuffer.wrap(buffer.plane));
+
+        double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+        for (int i = 0; i < px.size(); i++) {
+            min = Math.min(min, px.getPixelValue(i));
+            max = Math.max(max, px.getPixelValue(i));
+        }
+
+        int x = 5, y = 3, w = 40, h = 30, binCount = 17;
+        int[] expected = new int[binCount];
+        double binRange = (max - min) / binCount;
+        for (int i = 0; i < px.size(); i++) {
+            int pxx = i % SIZE_X;
+            int pxy = i / SIZE_X;
+            if (pxx >= x && pxx < (x + w) && pxy >= y && pxy < (y + h)) {
+                int bin = (int) ((px.getPixelValue(i) - min) / binRange);
+                if (bin == binCount) {
+                    bin--;
+                }
+                expected[bin]++;
+            }
+        }
+
+        HistogramEngine engine = new HistogramEngine(3);
+        try {
+            Map<Integer, double[]> minMax = engine.minMax(buffer,
+                    Collections.singletonList(0), 0, 0,
+                    new double[] { Double.MAX_VALUE, -Double.MAX_VALUE });
+            Assert.assertEquals(minMax.get(0)[0], min, type);
+            Assert.assertEquals(minMax.get(0)[1], max, type);
+
+            Map<Integer, double[]> ranges = new LinkedHashMap<Integer, double[]>();
+            ranges.put(0, minMax.get(0));
+            Map<Integer, int[]> bins = engine.histograms(buffer, ranges,
+                    0, 0, x, y, w, h, binCount);
+            Assert.assertTrue(Arrays.equals(bins.get(0), expected),
+                    type + ": " + Arrays.toString(bins.get(0)) + " != "
+                            + Arrays.toString(expected));
+        } finally {
+            engine.destroy();
+        }
+    }
+
+    public void testUint8() throws Exception {
+        assertSameAsScalar(PixelsType.VALUE_UINT8, 1);
+    }
+
+    public void testInt8() throws Exception {
+        assertSameAsScalar(PixelsType.VALUE_INT8, 1);
+    }
+
+    public void testUint16() throws Exception {
+        assertSameAsScalar(PixelsType.VALUE_UINT16, 2);
+    }
+
+    public void testInt16() throws Exception {
+        assertSameAsScalar(PixelsType.VALUE_INT16, 2);
+    }
+
+    public void testUint32() throws Exception {
+        assertSameAsScalar(PixelsType.VALUE_UINT32, 4);
+    }
+
+    public void testFloat() throws Exception {
+        assertSameAsScalar(PixelsType.VALUE_FLOAT, 4);
+    }
+
+    public void testRegionOutsidePlaneIsEmpty() throws Exception {
+        TiledPixelBuffer buffer = buffer(PixelsType.VALUE_UINT8, 1);
+        Map<Integer, double[]> ranges = new LinkedHashMap<Integer, double[]>();
+        ranges.put(0, new double[] { 0, 255 });
+        Map<Integer, int[]> bins = new HistogramEngine().histograms(buffer,
+                ranges, 0, 0, SIZE_X + 1, 0, 10, 10, 8);
+        Assert.assertTrue(Arrays.equals(bins.get(0), new int[8]));
+    }
+
+}
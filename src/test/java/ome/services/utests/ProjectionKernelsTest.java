@@ -0,0 +1,195 @@
+/*
+ *   Copyright 2026 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.utests;
+
+import java.nio.ByteBuffer;
+
+import ome.model.enums.PixelsType;
+import ome.services.projection.ProjectionKernels;
+import ome.util.PixelData;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the projections of {@link ProjectionKernels} against values known
+ * for each section and pixel, on planes which are split into several
+ * stripes of which the last is short.
+ */
+@Test(groups = "unit")
+public class ProjectionKernelsTest {
+
+    /** Not a divisor of the stripe size so that stripes end mid-plane. */
+    private static final int SIZE_X = 300, SIZE_Y = 71, SIZE_Z = 7;
+
+    private static final int PLANE = SIZE_X * SIZE_Y;
+
+    private final ProjectionKernels kernels = new ProjectionKernels(3);
+
+    @AfterClass
+    public void destroy() {
+        kernels.destroy();
+    }
+
+    /**
+     * @return the value of the pixel at the given index of the given section
+     */
+    private static int value(int z, int i) {
+        return (i * 31 + z * 17) % 100;
+    }
+
+    private static PixelData stack(String type, int bpp) {
+        PixelData stack = new PixelData(type,
+                ByteBuffer.wrap(new byte[PLANE * SIZE_Z * bpp]));
+        for (int z = 0; z < SIZE_Z; z++) {
+            for (int i = 0; i < PLANE; i++) {
+                stack.setPixelValue(PLANE * z + i, value(z, i));
+            }
+        }
+        return stack;
+    }
+
+    private static PixelData plane(String type, int bpp) {
+        return new PixelData(type, ByteBuffer.wrap(new byte[PLANE * bpp]));
+    }
+
+    private void assertMax(String type, int bpp) {
+        PixelData to = plane(type, bpp);
+        double[] minMax = new double[] { Double.MAX_VALUE, 0 };
+        kernels.max(stack(type, bpp), to, SIZE_X, SIZE_Y, 1, 5, 2, minMax,
+                true);
+        double minimum = Double.MAX_VALUE, maximum = 0;
+        for (int i = 0; i < PLANE; i++) {
+            // sections 1, 3 and 5: the end is inclusive
+            int expected = Math.max(value(1, i),
+                    Math.max(value(3, i), value(5, i)));
+            Assert.assertEquals(to.getPixelValue(i), (double) expected,
+                    type + " pixel " + i);
+            minimum = Math.min(minimum, expected);
+            maximum = Math.max(maximum, expected);
+        }
+        Assert.assertEquals(minMax[0], minimum, type);
+        Assert.assertEquals(minMax[1], maximum, type);
+    }
+
+    private void assertSum(String type, int bpp, boolean mean) {
+        PixelData to = plane(type, bpp);
+        double[] minMax = new double[] { Double.MAX_VALUE, 0 };
+        kernels.sum(stack(type, bpp), to, SIZE_X, SIZE_Y, 1, 5, 2, mean,
+                minMax, true);
+        for (int i = 0; i < PLANE; i++) {
+            // sections 1 and 3 only: the end is exclusive
+            double expected = value(1, i) + value(3, i);
+            if (mean) {
+                expected /= 2;
+            }
+            Assert.assertEquals(to.getPixelValue(i),
+                    PixelsType.VALUE_FLOAT.equals(type)
+                            ? expected : Math.floor(expected),
+                    type + " pixel " + i);
+        }
+    }
+
+    public void testMaxUint8() {
+        assertMax(PixelsType.VALUE_UINT8, 1);
+    }
+
+    public void testMaxUint16() {
+        assertMax(PixelsType.VALUE_UINT16, 2);
+    }
+
+    public void testMaxFloat() {
+        assertMax(PixelsType.VALUE_FLOAT, 4);
+    }
+
+    /**
+     * <code>uint32</code> is read through {@link PixelData#getPixelValue(int)}.
+     */
+    public void testMaxUint32() {
+        assertMax(PixelsType.VALUE_UINT32, 4);
+    }
+
+    public void testSumAndMeanUint8() {
+        assertSum(PixelsType.VALUE_UINT8, 1, false);
+        assertSum(PixelsType.VALUE_UINT8, 1, true);
+    }
+
+    public void testSumAndMeanUint16() {
+        assertSum(PixelsType.VALUE_UINT16, 2, false);
+        assertSum(PixelsType.VALUE_UINT16, 2, true);
+    }
+
+    public void testSumAndMeanFloat() {
+        assertSum(PixelsType.VALUE_FLOAT, 4, false);
+        assertSum(PixelsType.VALUE_FLOAT, 4, true);
+    }
+
+    public void testSumAndMeanInt16() {
+        assertSum(PixelsType.VALUE_INT16, 2, false);
+        assertSum(PixelsType.VALUE_INT16, 2, true);
+    }
+
+    /**
+     * Sums beyond the maximum of the target type are clamped to it.
+     */
+    public void testSumClampsToTypeMaximum() {
+        PixelData from = new PixelData(PixelsType.VALUE_UINT8,
+                ByteBuffer.wrap(new byte[PLANE * SIZE_Z]));
+        for (int i = 0; i < PLANE * SIZE_Z; i++) {
+            from.setPixelValue(i, 200);
+        }
+        PixelData to = plane(PixelsType.VALUE_UINT8, 1);
+        double[] minMax = new double[] { Double.MAX_VALUE, 0 };
+        kernels.sum(from, to, SIZE_X, SIZE_Y, 0, SIZE_Z, 1, false, minMax,
+                true);
+        for (int i = 0; i < PLANE; i++) {
+            Assert.assertEquals(to.getPixelValue(i), 255.0);
+        }
+        Assert.assertEquals(minMax, new double[] { 255, 255 });
+    }
+
+    /**
+     * The minimum and maximum carried over from previously projected planes
+     * are kept when more extreme, and left alone when not asked for.
+     */
+    public void testMinMaxAccumulatesAcrossPlanes() {
+        PixelData from = stack(PixelsType.VALUE_UINT16, 2);
+        double[] minMax = new double[] { -1, 1000 };
+        kernels.max(from, plane(PixelsType.VALUE_UINT16, 2), SIZE_X, SIZE_Y,
+                0, SIZE_Z - 1, 1, minMax, true);
+        Assert.assertEquals(minMax, new double[] { -1, 1000 });
+
+        minMax = new double[] { 1000, -1 };
+        kernels.max(from, plane(PixelsType.VALUE_UINT16, 2), SIZE_X, SIZE_Y,
+                0, SIZE_Z - 1, 1, minMax, false);
+        Assert.assertEquals(minMax, new double[] { 1000, -1 });
+    }
+
+    /**
+     * A plane of a single row wider than a stripe is projected whole.
+     */
+    public void testRowWiderThanStripe() {
+        int sizeX = 10000;
+        PixelData from = new PixelData(PixelsType.VALUE_UINT8,
+                ByteBuffer.wrap(new byte[sizeX * 2]));
+        for (int i = 0; i < sizeX; i++) {
+            from.setPixelValue(i, i % 7);
+            from.setPixelValue(sizeX + i, i % 11);
+        }
+        PixelData to = new PixelData(PixelsType.VALUE_UINT8,
+                ByteBuffer.wrap(new byte[sizeX]));
+        kernels.max(from, to, sizeX, 1, 0, 1, 1,
+                new double[] { Double.MAX_VALUE, 0 }, true);
+        for (int i = 0; i < sizeX; i++) {
+            Assert.assertEquals(to.getPixelValue(i),
+                    (double) Math.max(i % 7, i % 11));
+        }
+    }
+
+}
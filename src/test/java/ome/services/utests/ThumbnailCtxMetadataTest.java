@@ -0,0 +1,316 @@
+/*
+ *   Copyright 2026 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.utests;
+
+import java.awt.Dimension;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import ome.api.IQuery;
+import ome.api.IUpdate;
+import ome.model.core.Pixels;
+import ome.model.display.Thumbnail;
+import ome.model.internal.Permissions;
+import ome.model.meta.Event;
+import ome.model.meta.Experimenter;
+import ome.parameters.Parameters;
+import ome.security.SecuritySystem;
+import ome.services.ThumbnailCtx;
+import ome.system.EventContext;
+
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.jmock.core.Invocation;
+import org.jmock.core.Stub;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the thumbnail metadata which {@link ThumbnailCtx} loads for
+ * all its dimension pools at once is that which the former queries, one or
+ * two per dimension pool, chose.
+ */
+@Test(groups = "unit")
+public class ThumbnailCtxMetadataTest extends MockObjectTestCase {
+
+    private static final long USER = 1L;
+
+    private static final long GROUP = 5L;
+
+    private static final int LONGEST_SIDE = 96;
+
+    /* plane sizes which make three dimension pools */
+    private static final int[][] SIZES = {
+        { 512, 512 }, { 1024, 512 }, { 512, 1024 } };
+
+    private final Map<Long, Pixels> pixels = new HashMap<Long, Pixels>();
+
+    private final List<Thumbnail> thumbnails = new ArrayList<Thumbnail>();
+
+    private Mock sec, ec, query, update;
+
+    /**
+     * Answers the queries of {@link ThumbnailCtx} from {@link #pixels} and
+     * {@link #thumbnails}, as the database would.
+     */
+    private class QueryStub implements Stub {
+
+        public Object invoke(Invocation invocation) {
+            final String hql = (String) invocation.parameterValues.get(0);
+            final Parameters params =
+                    (Parameters) invocation.parameterValues.get(1);
+            final Collection<?> ids = (Collection<?>) params.get("ids").value;
+            if (invocation.invokedMethod.getName().equals("projection")) {
+                final List<Object[]> rows = new ArrayList<Object[]>();
+                for (Object id : ids) {
+                    rows.add(new Object[] { id, GROUP });
+                }
+                return rows;
+            } else if (hql.contains("from RenderingDef")) {
+                return Collections.emptyList();
+            } else if (hql.contains("from Pixels")) {
+                final List<Pixels> loaded = new ArrayList<Pixels>();
+                for (Object id : ids) {
+                    loaded.add(pixels.get(id));
+                }
+                return loaded;
+            } else if (hql.contains("from Thumbnail")) {
+                final Collection<?> x = (Collection<?>) params.get("x").value;
+                final Collection<?> y = (Collection<?>) params.get("y").value;
+                final boolean orUser = hql.contains(":o_id");
+                final List<Thumbnail> loaded = new ArrayList<Thumbnail>();
+                for (Thumbnail t : thumbnails) {
+                    final long owner = t.getDetails().getOwner().getId();
+                    final long pixelsOwner = ownerOf(t.getPixels());
+                    if (x.contains(t.getSizeX()) && y.contains(t.getSizeY())
+                            && ids.contains(t.getPixels().getId())
+                            && (owner == pixelsOwner || orUser && owner == USER)) {
+                        loaded.add(t);
+                    }
+                }
+                return loaded;
+            }
+            throw new AssertionError("unexpected query: " + hql);
+        }
+
+        public StringBuffer describeTo(StringBuffer buffer) {
+            return buffer.append("answers from the test's objects");
+        }
+    }
+
+    @BeforeMethod
+    public void setup() {
+        pixels.clear();
+        thumbnails.clear();
+        ec = mock(EventContext.class);
+        ec.stubs().method("getCurrentGroupId").will(returnValue(GROUP));
+        ec.stubs().method("getCurrentShareId").will(returnValue(null));
+        ec.stubs().method("getCurrentGroupPermissions").will(
+                returnValue(Permissions.parseString("rw----")));
+        ec.stubs().method("getLeaderOfGroupsList").will(
+                returnValue(Collections.emptyList()));
+        ec.stubs().method("isCurrentUserAdmin").will(returnValue(false));
+        sec = mock(SecuritySystem.class);
+        sec.stubs().method("getEventContext").will(returnValue(ec.proxy()));
+        query = mock(IQuery.class);
+        query.stubs().method("findAllByQuery").will(new QueryStub());
+        query.stubs().method("projection").will(new QueryStub());
+        update = mock(IUpdate.class);
+        update.stubs().method("saveAndReturnIds").will(returnValue(null));
+    }
+
+    private static long ownerOf(Pixels p) {
+        return p.getDetails().getOwner().getId();
+    }
+
+    private Thumbnail thumbnail(Pixels p, long owner, Dimension dimensions) {
+        final Thumbnail t = new Thumbnail((long) thumbnails.size() + 1, true);
+        t.setPixels(p);
+        t.setSizeX((int) dimensions.getWidth());
+        t.setSizeY((int) dimensions.getHeight());
+        t.getDetails().setOwner(new Experimenter(owner, false));
+        final Event event = new Event((long) thumbnails.size() + 1, true);
+        event.setTime(new Timestamp(thumbnails.size() + 1));
+        t.getDetails().setUpdateEvent(event);
+        thumbnails.add(t);
+        return t;
+    }
+
+    /**
+     * Fills the test's objects with Pixels sets of three shapes owned by the
+     * user and two others. Each has metadata of its own dimensions owned by
+     * the user or by the Pixels set's owner, both or neither, and may have
+     * some of another pool's dimensions.
+     */
+    private void fill(ThumbnailCtx ctx, long seed) {
+        final Random random = new Random(seed);
+        for (long id = 1; id <= 30; id++) {
+            final Pixels p = new Pixels(id, true);
+            final int[] size = SIZES[random.nextInt(SIZES.length)];
+            p.setSizeX(size[0]);
+            p.setSizeY(size[1]);
+            p.getDetails().setOwner(new Experimenter(
+                    (long) USER + random.nextInt(3), false));
+            pixels.put(id, p);
+            final Dimension dimensions = ctx.calculateXYWidths(p, LONGEST_SIDE);
+            if (random.nextInt(3) == 0) {
+                thumbnail(p, USER, dimensions);
+            }
+            if (ownerOf(p) != USER && random.nextInt(3) != 0) {
+                thumbnail(p, ownerOf(p), dimensions);
+            }
+            if (random.nextInt(4) == 0) {
+                final int[] other = SIZES[random.nextInt(SIZES.length)];
+                final Pixels shape = new Pixels();
+                shape.setSizeX(other[0]);
+                shape.setSizeY(other[1]);
+                final Dimension otherDimensions =
+                        ctx.calculateXYWidths(shape, LONGEST_SIDE);
+                if (!otherDimensions.equals(dimensions)) {
+                    thumbnail(p, random.nextBoolean() ? USER : ownerOf(p),
+                            otherDimensions);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the metadata of a pool that one of the former queries loaded
+     */
+    private List<Thumbnail> formerQuery(Dimension dimensions,
+            Set<Long> pixelsIds, boolean byUser) {
+        final List<Thumbnail> loaded = new ArrayList<Thumbnail>();
+        for (Thumbnail t : thumbnails) {
+            final long owner = t.getDetails().getOwner().getId();
+            if (t.getSizeX() == dimensions.getWidth()
+                    && t.getSizeY() == dimensions.getHeight()
+                    && pixelsIds.contains(t.getPixels().getId())
+                    && owner == (byUser ? USER : ownerOf(t.getPixels()))) {
+                loaded.add(t);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Chooses metadata as did the former queries: per pool the user's or,
+     * if there are none, the owners' and, if graph critical, the owners'
+     * for the Pixels sets still without.
+     */
+    private void formerChoice(Map<Dimension, Set<Long>> pools,
+            Map<Long, Thumbnail> chosen, boolean critical) {
+        for (Map.Entry<Dimension, Set<Long>> pool : pools.entrySet()) {
+            List<Thumbnail> loaded =
+                    formerQuery(pool.getKey(), pool.getValue(), true);
+            if (loaded.isEmpty()) {
+                loaded = formerQuery(pool.getKey(), pool.getValue(), false);
+            }
+            for (Thumbnail t : loaded) {
+                chosen.put(t.getPixels().getId(), t);
+            }
+            final Set<Long> without = new HashSet<Long>(pool.getValue());
+            without.removeAll(chosen.keySet());
+            if (critical && !without.isEmpty()) {
+                boolean othersPixels = false;
+                for (Long id : without) {
+                    othersPixels |= ownerOf(pixels.get(id)) != USER;
+                }
+                if (othersPixels) {
+                    for (Thumbnail t : formerQuery(pool.getKey(), without, false)) {
+                        chosen.put(t.getPixels().getId(), t);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the metadata chosen as by the former queries, including those
+     *         loaded again after metadata is created for the Pixels sets
+     *         without
+     */
+    private Map<Long, Thumbnail> formerMetadata(ThumbnailCtx ctx,
+            boolean critical) {
+        final Map<Dimension, Set<Long>> pools =
+                new HashMap<Dimension, Set<Long>>();
+        for (Pixels p : pixels.values()) {
+            final Dimension dimensions = ctx.calculateXYWidths(p, LONGEST_SIDE);
+            Set<Long> pool = pools.get(dimensions);
+            if (pool == null) {
+                pool = new HashSet<Long>();
+                pools.put(dimensions, pool);
+            }
+            pool.add(p.getId());
+        }
+        final Map<Long, Thumbnail> chosen = new HashMap<Long, Thumbnail>();
+        formerChoice(pools, chosen, critical);
+        boolean othersPixels = false;
+        for (Pixels p : pixels.values()) {
+            othersPixels |= ownerOf(p) != USER;
+        }
+        // metadata is created, and loaded again, unless graph critical
+        if (!(critical && othersPixels)) {
+            final Map<Dimension, Set<Long>> missing =
+                    new HashMap<Dimension, Set<Long>>();
+            for (Map.Entry<Dimension, Set<Long>> pool : pools.entrySet()) {
+                final Set<Long> without = new HashSet<Long>(pool.getValue());
+                without.removeAll(chosen.keySet());
+                if (!without.isEmpty()) {
+                    missing.put(pool.getKey(), without);
+                }
+            }
+            formerChoice(missing, chosen, critical);
+        }
+        return chosen;
+    }
+
+    private void assertSameMetadata(boolean critical) {
+        sec.stubs().method("isGraphCritical").will(returnValue(critical));
+        for (long seed = 0; seed < 20; seed++) {
+            final ThumbnailCtx ctx = new ThumbnailCtx(
+                    (IQuery) query.proxy(), (IUpdate) update.proxy(), null,
+                    null, null, null, (SecuritySystem) sec.proxy(), USER);
+            fill(ctx, seed);
+            final Set<Long> pixelsIds = new HashSet<Long>(pixels.keySet());
+            ctx.loadAndPrepareRenderingSettings(pixelsIds);
+            ctx.loadAndPrepareMetadata(pixelsIds, LONGEST_SIDE);
+
+            final Map<Long, Thumbnail> expected = formerMetadata(ctx, critical);
+            for (Long id : pixelsIds) {
+                assertEquals("seed " + seed + " Pixels " + id,
+                        expected.get(id),
+                        ctx.hasMetadata(id) ? ctx.getMetadataSimple(id) : null);
+            }
+            pixels.clear();
+            thumbnails.clear();
+        }
+    }
+
+    /**
+     * The user's metadata, else the owner's, is chosen pool by pool.
+     */
+    public void testMetadataChosenAsByPool() {
+        assertSameMetadata(false);
+    }
+
+    /**
+     * When graph critical the owner's metadata also stands in for the Pixels
+     * sets that are still without, pool by pool.
+     */
+    public void testGraphCriticalMetadataChosenAsByPool() {
+        assertSameMetadata(true);
+    }
+}
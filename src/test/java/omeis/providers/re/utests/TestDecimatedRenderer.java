@@ -0,0 +1,315 @@
+/*
+ *   Copyright 2026 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package omeis.providers.re.utests;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import ome.io.nio.PixelBuffer;
+import ome.model.core.Pixels;
+import ome.model.enums.RenderingModel;
+import ome.services.DecimatingPixelBuffer;
+import ome.util.PixelData;
+import omeis.providers.re.Renderer;
+import omeis.providers.re.data.PlaneDef;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Renders a large plane without a resolution pyramid both fully and through
+ * a {@link DecimatingPixelBuffer} as the thumbnail service does.
+ *
+ * @since 5.7.3
+ */
+public class TestDecimatedRenderer extends BaseRenderingTest
+{
+
+    private static final int THUMBNAIL_SIZE = 96;
+
+    @Override
+    protected int getSizeX()
+    {
+        return 4096;
+    }
+
+    @Override
+    protected int getSizeY()
+    {
+        return 4096;
+    }
+
+    @Override
+    protected int getSizeC()
+    {
+        return 1;
+    }
+
+    /**
+     * Tile sizes of the wrapped buffer: rows as in a ROMIO pixels file, the
+     * usual square tiles of pyramids and tiled TIFFs, wide tiles and tiles
+     * smaller than the stride.
+     */
+    @DataProvider(name = "tileSizes")
+    public Object[][] getTileSizes()
+    {
+        return new Object[][] {
+            { getSizeX(), 1 }, { 256, 256 }, { 1024, 512 }, { 16, 16 } };
+    }
+
+    @Test
+    public void testChooseStride()
+    {
+        Assert.assertEquals(
+                DecimatingPixelBuffer.chooseStride(4096, 4096, 96, 96), 21);
+        Assert.assertEquals(
+                DecimatingPixelBuffer.chooseStride(4096, 1024, 96, 24), 21);
+        Assert.assertEquals(
+                DecimatingPixelBuffer.chooseStride(150, 150, 96, 96), 1);
+    }
+
+    @Test
+    public void testWrapOnlyLargePyramidFreeBuffers()
+    {
+        PixelBuffer large = new TiledPixelBuffer(pixels, getPlane(), 256, 256);
+        Assert.assertTrue(DecimatingPixelBuffer.wrapIfLarge(large)
+                instanceof DecimatingPixelBuffer);
+
+        PixelBuffer small = new TiledPixelBuffer(pixels, getPlane(), 256, 256)
+        {
+            @Override
+            public int getSizeY()
+            {
+                return DecimatingPixelBuffer.LARGE_PLANE_SIZE - 1;
+            }
+        };
+        Assert.assertSame(DecimatingPixelBuffer.wrapIfLarge(small), small);
+
+        PixelBuffer pyramid = new TiledPixelBuffer(pixels, getPlane(), 256, 256)
+        {
+            @Override
+            public int getResolutionLevels()
+            {
+                return 5;
+            }
+        };
+        Assert.assertSame(DecimatingPixelBuffer.wrapIfLarge(pyramid), pyramid);
+    }
+
+    @Test(dataProvider = "tileSizes")
+    public void testDecimatedPlaneSamplesBlockCentres(int tileWidth,
+            int tileHeight) throws Exception
+    {
+        TiledPixelBuffer tiled =
+                new TiledPixelBuffer(pixels, getPlane(), tileWidth, tileHeight);
+        DecimatingPixelBuffer decimating = new DecimatingPixelBuffer(tiled);
+        decimating.setStride(21);
+        Assert.assertEquals(decimating.getSizeX(), getSizeX() / 21);
+        Assert.assertEquals(decimating.getSizeY(), getSizeY() / 21);
+        Assert.assertEquals(decimating.getResolutionLevels(), 1);
+
+        PixelData plane = decimating.getPlane(0, 0, 0);
+        int sizeX = decimating.getSizeX();
+        for (int y = 0; y < decimating.getSizeY(); y++)
+        {
+            for (int x = 0; x < sizeX; x++)
+            {
+                Assert.assertEquals(plane.getPixelValue(y * sizeX + x),
+                        tiled.getPixelValue(x * 21 + 10, y * 21 + 10));
+            }
+        }
+        // each tile is read at most once and no read is larger than a tile
+        Assert.assertEquals(tiled.getMostDecodes(), 1);
+        Assert.assertTrue(tiled.largestRead
+                <= tileWidth * tileHeight * getBytesPerPixel());
+
+        PixelData tile = decimating.getTile(0, 0, 0, 10, 20, 30, 40);
+        Assert.assertEquals(tile.getPixelValue(0),
+                tiled.getPixelValue(10 * 21 + 10, 20 * 21 + 10));
+        Assert.assertEquals(tile.getPixelValue(39 * 30 + 29),
+                tiled.getPixelValue(39 * 21 + 10, 59 * 21 + 10));
+
+        decimating.setStride(1);
+        Assert.assertEquals(decimating.getSizeX(), getSizeX());
+    }
+
+    /**
+     * A buffer stored row by row is read only at the sampled rows.
+     */
+    @Test
+    public void testOnlySampledRowsRead() throws Exception
+    {
+        TiledPixelBuffer rows =
+                new TiledPixelBuffer(pixels, getPlane(), getSizeX(), 1);
+        DecimatingPixelBuffer decimating = new DecimatingPixelBuffer(rows);
+        decimating.setStride(21);
+        decimating.getPlane(0, 0, 0);
+        int rowBytes = ((decimating.getSizeX() - 1) * 21 + 1)
+                * getBytesPerPixel();
+        Assert.assertEquals(rows.bytesRead,
+                (long) decimating.getSizeY() * rowBytes);
+    }
+
+    /**
+     * Compares what rendering the full plane and the decimated plane must
+     * hold in memory at once: the largest read from the wrapped buffer and
+     * the rendered pixels.
+     */
+    @Test(dataProvider = "tileSizes", timeOut = 60000)
+    public void testDecimatedRenderHoldsLess(int tileWidth, int tileHeight)
+            throws Exception
+    {
+        List<RenderingModel> renderingModels =
+            pixelsMetadataService.getAllEnumerations(RenderingModel.class);
+        TiledPixelBuffer tiled =
+                new TiledPixelBuffer(pixels, getPlane(), tileWidth, tileHeight);
+        DecimatingPixelBuffer decimating = new DecimatingPixelBuffer(tiled);
+        Renderer decimatingRenderer = new Renderer(quantumFactory,
+                renderingModels, pixels, settings, decimating, lutProvider);
+        PlaneDef def = new PlaneDef(PlaneDef.XY, 0);
+        Pixels metadata = decimatingRenderer.getMetadata();
+        try
+        {
+            int[] full = decimatingRenderer.renderAsPackedInt(def, null);
+            long fullBytesRead = tiled.bytesRead;
+            int fullLargestRead = tiled.largestRead;
+            Assert.assertEquals(full.length, getSizeX() * getSizeY());
+
+            int stride = DecimatingPixelBuffer.chooseStride(getSizeX(),
+                    getSizeY(), THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+            decimating.setStride(stride);
+            metadata.setSizeX(decimating.getSizeX());
+            metadata.setSizeY(decimating.getSizeY());
+            tiled.reset();
+            int[] decimated = decimatingRenderer.renderAsPackedInt(def, null);
+            Assert.assertEquals(decimated.length,
+                    decimating.getSizeX() * decimating.getSizeY());
+            Assert.assertTrue(decimated.length >=
+                    4 * THUMBNAIL_SIZE * THUMBNAIL_SIZE);
+            Assert.assertTrue(decimated.length < full.length / 100);
+            Assert.assertTrue(tiled.largestRead
+                    <= tileWidth * tileHeight * getBytesPerPixel());
+            Assert.assertTrue(tiled.largestRead < fullLargestRead / 10);
+            Assert.assertTrue(tiled.bytesRead <= fullBytesRead);
+            Assert.assertEquals(tiled.getMostDecodes(), 1);
+        }
+        finally
+        {
+            metadata.setSizeX(getSizeX());
+            metadata.setSizeY(getSizeY());
+            decimating.setStride(1);
+            decimatingRenderer.close();
+        }
+    }
+
+    /**
+     * Serves tiles from a single plane as a tiled file would, counting how
+     * often each tile is decoded and how much is read.
+     */
+    private static class TiledPixelBuffer extends TestPixelBuffer
+    {
+
+        private final PixelData plane;
+
+        private final Dimension tileSize;
+
+        private final int[][] decodes;
+
+        long bytesRead;
+
+        int largestRead;
+
+        TiledPixelBuffer(Pixels pixels, byte[] plane, int tileWidth,
+                int tileHeight)
+        {
+            super(pixels, plane);
+            this.plane = new PixelData(pixels.getPixelsType().getValue(),
+                    ByteBuffer.wrap(plane));
+            this.tileSize = new Dimension(tileWidth, tileHeight);
+            this.decodes = new int[(pixels.getSizeY() + tileHeight - 1) / tileHeight]
+                    [(pixels.getSizeX() + tileWidth - 1) / tileWidth];
+        }
+
+        double getPixelValue(int x, int y)
+        {
+            return plane.getPixelValue(y * getSizeX() + x);
+        }
+
+        /**
+         * @return the most times any one tile was decoded since the last
+         *         {@link #reset()}.
+         */
+        int getMostDecodes()
+        {
+            int most = 0;
+            for (int[] row : decodes)
+            {
+                for (int count : row)
+                {
+                    most = Math.max(most, count);
+                }
+            }
+            return most;
+        }
+
+        void reset()
+        {
+            for (int[] row : decodes)
+            {
+                Arrays.fill(row, 0);
+            }
+            bytesRead = 0;
+            largestRead = 0;
+        }
+
+        @Override
+        public Dimension getTileSize()
+        {
+            return tileSize;
+        }
+
+        @Override
+        public PixelData getPlane(Integer z, Integer c, Integer t)
+                throws IOException
+        {
+            return getTile(z, c, t, 0, 0, getSizeX(), getSizeY());
+        }
+
+        @Override
+        public PixelData getTile(Integer z, Integer c, Integer t, Integer x,
+                Integer y, Integer w, Integer h) throws IOException
+        {
+            for (int tileY = y / tileSize.height;
+                    tileY <= (y + h - 1) / tileSize.height; tileY++)
+            {
+                for (int tileX = x / tileSize.width;
+                        tileX <= (x + w - 1) / tileSize.width; tileX++)
+                {
+                    decodes[tileY][tileX]++;
+                }
+            }
+            int bytesPerPixel = plane.bytesPerPixel();
+            ByteBuffer source = plane.getData();
+            byte[] tile = new byte[w * h * bytesPerPixel];
+            for (int row = 0; row < h; row++)
+            {
+                int from = ((y + row) * getSizeX() + x) * bytesPerPixel;
+                for (int i = 0; i < w * bytesPerPixel; i++)
+                {
+                    tile[row * w * bytesPerPixel + i] = source.get(from + i);
+                }
+            }
+            bytesRead += tile.length;
+            largestRead = Math.max(largestRead, tile.length);
+            return new PixelData(plane.getPixelsType(), ByteBuffer.wrap(tile));
+        }
+    }
+}